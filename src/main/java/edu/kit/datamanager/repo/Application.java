@@ -24,7 +24,9 @@ import edu.kit.datamanager.repo.configuration.ApplicationProperties;
 import edu.kit.datamanager.repo.service.IContentInformationService;
 import edu.kit.datamanager.repo.service.impl.DataResourceService;
 import edu.kit.datamanager.repo.service.IDataResourceService;
+import edu.kit.datamanager.repo.service.IUploadSessionService;
 import edu.kit.datamanager.repo.service.impl.ContentInformationService;
+import edu.kit.datamanager.repo.service.impl.UploadSessionService;
 import edu.kit.datamanager.service.IMessagingService;
 import edu.kit.datamanager.service.impl.RabbitMQMessagingService;
 import org.slf4j.Logger;
@@ -68,6 +70,11 @@ public class Application {
         return new ContentInformationService();
     }
 
+    @Bean
+    public IUploadSessionService uploadSessionService() {
+        return new UploadSessionService();
+    }
+
     @Bean(name = "OBJECT_MAPPER_BEAN")
     public ObjectMapper jsonObjectMapper() {
         return Jackson2ObjectMapperBuilder.json()
@@ -44,8 +44,112 @@ public class ApplicationProperties extends GenericApplicationProperties {
 
     @Value("${repo.audit.enabled:FALSE}")
     private boolean auditEnabled;
+    @Value("${repo.audit.versionCache.size:100000}")
+    private int auditVersionCacheSize;
+    @Value("${repo.audit.async.enabled:FALSE}")
+    private boolean auditAsyncEnabled;
+    @Value("${repo.audit.async.queueSize:10000}")
+    private int auditAsyncQueueSize;
+    @Value("${repo.audit.async.batchSize:100}")
+    private int auditAsyncBatchSize;
+    @Value("${repo.audit.async.journal.sync:TRUE}")
+    private boolean auditAsyncJournalSync;
     @Value("${repo.basepath.pattern:'@{year}'}")
     private String pathPattern;
+    @Value("${repo.basepath.placement:pattern}")
+    private String placementStrategy;
+    @Value("${repo.basepath.placement.hash.levels:2}")
+    private int placementHashLevels;
+    @Value("${repo.basepath.placement.hash.width:2}")
+    private int placementHashWidth;
+    @Value("${repo.basepath.migration.threads:4}")
+    private int placementMigrationThreads;
+    @Value("${repo.basepath.migration.batchSize:100}")
+    private int placementMigrationBatchSize;
     @Value("${repo.file.versioning.default:none}")
     private String defaultVersioningService;
+    @Value("${repo.file.durability:none}")
+    private String durability;
+    @Value("${repo.file.durability.groupCommit.maxBatchSize:64}")
+    private int durabilityGroupCommitMaxBatchSize;
+    @Value("${repo.file.durability.groupCommit.maxDelay:5}")
+    private long durabilityGroupCommitMaxDelay;
+    @Value("${repo.file.durability.groupCommit.syncThreads:8}")
+    private int durabilityGroupCommitSyncThreads;
+    @Value("${repo.file.mediaType.async:FALSE}")
+    private boolean mediaTypeAsync;
+    @Value("${repo.file.mediaType.async.threads:2}")
+    private int mediaTypeAsyncThreads;
+    @Value("${repo.file.checksum.algorithms:SHA1}")
+    private String[] checksumAlgorithms;
+    @Value("${repo.file.checksum.threads:4}")
+    private int checksumThreads;
+    @Value("${repo.file.checksum.ringSize:4}")
+    private int checksumRingSize;
+    @Value("${repo.file.checksum.bufferPoolSize:16}")
+    private int checksumBufferPoolSize;
+    @Value("${repo.upload.session.timeout:86400000}")
+    private long uploadSessionTimeout;
+    @Value("${repo.archive.readAhead.threads:4}")
+    private int archiveReadAheadThreads;
+    @Value("${repo.archive.readAhead.window:16}")
+    private int archiveReadAheadWindow;
+    @Value("${repo.archive.readAhead.bufferSize:1048576}")
+    private long archiveReadAheadBufferSize;
+    @Value("${repo.bulk.maxResources:10000}")
+    private int bulkMaxResources;
+    @Value("${repo.bulk.batchSize:50}")
+    private int bulkBatchSize;
+    @Value("${repo.cache.dataresource.enabled:FALSE}")
+    private boolean dataResourceCacheEnabled;
+    @Value("${repo.cache.dataresource.maxSize:1000}")
+    private int dataResourceCacheSize;
+    @Value("${repo.cache.dataresource.ttl:60000}")
+    private long dataResourceCacheTtl;
+    @Value("${repo.cache.content.enabled:FALSE}")
+    private boolean contentCacheEnabled;
+    @Value("${repo.cache.content.maxSize:67108864}")
+    private long contentCacheSize;
+    @Value("${repo.cache.content.maxEntrySize:262144}")
+    private long contentCacheMaxEntrySize;
+    @Value("${repo.cache.content.offHeap:FALSE}")
+    private boolean contentCacheOffHeap;
+    @Value("${repo.scrub.threads:2}")
+    private int scrubThreads;
+    @Value("${repo.scrub.batchSize:100}")
+    private int scrubBatchSize;
+    @Value("${repo.scrub.maxBytesPerSecond:0}")
+    private long scrubMaxBytesPerSecond;
+    @Value("${repo.gc.threads:2}")
+    private int gcThreads;
+    @Value("${repo.gc.gracePeriod:86400000}")
+    private long gcGracePeriod;
+    @Value("${repo.gc.action:quarantine}")
+    private String gcAction;
+    @Value("${repo.gc.quarantineRetention:604800000}")
+    private long gcQuarantineRetention;
+    @Value("${repo.gc.exclude:}")
+    private String[] gcExcludes;
+    @Value("${repo.tiering.paths:}")
+    private String[] tieringPaths;
+    @Value("${repo.tiering.coldAfter:2592000000}")
+    private long tieringColdAfter;
+    @Value("${repo.tiering.promoteAfter:10}")
+    private long tieringPromoteAfter;
+    @Value("${repo.tiering.threads:2}")
+    private int tieringThreads;
+    @Value("${repo.tiering.batchSize:100}")
+    private int tieringBatchSize;
+    @Value("${repo.tiering.deleteDelay:60000}")
+    private long tieringDeleteDelay;
+    @Value("${repo.search.index.enabled:FALSE}")
+    private boolean searchIndexEnabled;
+    @Value("${repo.search.index.threads:4}")
+    private int searchIndexThreads;
+    @Value("${repo.search.index.batchSize:500}")
+    private int searchIndexBatchSize;
+    @Value("${repo.acl.index.enabled:FALSE}")
+    private boolean aclIndexEnabled;
+    @Value("${repo.acl.index.maxCandidates:1000}")
+    private int aclIndexMaxCandidates;
 }
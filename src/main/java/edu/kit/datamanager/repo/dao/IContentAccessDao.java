@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao;
+
+import edu.kit.datamanager.repo.domain.ContentAccess;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+/**
+ *
+ * @author jejkal
+ */
+@RepositoryRestResource(exported = false)
+public interface IContentAccessDao extends JpaRepository<ContentAccess, String>{
+
+  /**
+   * Halve the access counts of all content, such that accesses lose weight
+   * over time.
+   *
+   * @return The number of updated elements.
+   */
+  @Modifying
+  @Query("UPDATE ContentAccess a SET a.accessCount = a.accessCount / 2")
+  int decay();
+
+  /**
+   * Remove the statistics of all content not referenced by any content
+   * information element anymore.
+   *
+   * @return The number of removed elements.
+   */
+  @Modifying
+  @Query("DELETE FROM ContentAccess a WHERE NOT EXISTS (SELECT c.id FROM ContentInformation c WHERE c.contentUri = a.contentUri)")
+  int deleteUnreferenced();
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao;
+
+import edu.kit.datamanager.repo.domain.ContentBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+/**
+ *
+ * @author jejkal
+ */
+@RepositoryRestResource(exported = false)
+public interface IContentBlobDao extends JpaRepository<ContentBlob, String>{
+
+  /**
+   * Add the provided delta to the reference count of a blob.
+   *
+   * @param digest The blob digest.
+   * @param delta The value to add.
+   *
+   * @return The number of updated blobs, which is 0 if the blob does not exist.
+   */
+  @Modifying
+  @Query("UPDATE ContentBlob b SET b.referenceCount = b.referenceCount + :delta WHERE b.digest = :digest")
+  int addReferences(@Param("digest") String digest, @Param("delta") long delta);
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao;
+
+import edu.kit.datamanager.repo.domain.ContentIndexEntry;
+import java.util.List;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+/**
+ *
+ * @author jejkal
+ */
+@RepositoryRestResource(exported = false)
+public interface IContentIndexEntryDao extends JpaRepository<ContentIndexEntry, Long>{
+
+  /**
+   * Remove all index entries of a content information element.
+   *
+   * @param contentId The id of the content information element.
+   *
+   * @return The number of removed entries.
+   */
+  @Modifying
+  @Query("DELETE FROM ContentIndexEntry e WHERE e.contentId = :contentId")
+  int deleteByContentId(@Param("contentId") Long contentId);
+
+  /**
+   * Find the ids of content information elements having metadata or tags, but
+   * no index entries, e.g. because they have been persisted before the index
+   * has been introduced.
+   *
+   * @param pgbl The page to obtain.
+   *
+   * @return A list of content information ids in ascending order.
+   */
+  @Query("SELECT c.id FROM ContentInformation c WHERE (SIZE(c.metadata) > 0 OR SIZE(c.tags) > 0) "
+          + "AND NOT EXISTS (SELECT e.id FROM ContentIndexEntry e WHERE e.contentId = c.id) ORDER BY c.id")
+  List<Long> findUnindexedContentIds(Pageable pgbl);
+}
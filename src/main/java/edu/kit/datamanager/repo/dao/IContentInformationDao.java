@@ -16,8 +16,13 @@
 package edu.kit.datamanager.repo.dao;
 
 import edu.kit.datamanager.repo.domain.ContentInformation;
+import java.util.List;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 /**
  *
@@ -25,6 +30,50 @@ import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
  */
 public interface IContentInformationDao extends JpaRepository<ContentInformation, Long>, JpaSpecificationExecutor<ContentInformation>{
 
+  /**
+   * Replace the content URI of a content information element if it still has
+   * the expected content URI, e.g. after its content has been relocated.
+   *
+   * @param id The id of the content information element.
+   * @param oldUri The expected current content URI.
+   * @param newUri The new content URI.
+   *
+   * @return The number of updated elements, which is 0 if the content URI has
+   * been changed in the meantime.
+   */
+  @RestResource(exported = false)
+  @Modifying
+  @Query("UPDATE ContentInformation c SET c.contentUri = :newUri WHERE c.id = :id AND c.contentUri = :oldUri")
+  int updateContentUri(@Param("id") Long id, @Param("oldUri") String oldUri, @Param("newUri") String newUri);
+
+  /**
+   * Assign the media type of a content information element determined after
+   * its upload, if the element still has the expected content URI and no media
+   * type has been assigned in the meantime.
+   *
+   * @param id The id of the content information element.
+   * @param contentUri The expected current content URI.
+   * @param mediaType The media type.
+   *
+   * @return The number of updated elements.
+   */
+  @RestResource(exported = false)
+  @Modifying
+  @Query("UPDATE ContentInformation c SET c.mediaType = :mediaType WHERE c.id = :id AND c.contentUri = :contentUri AND c.mediaType IS NULL")
+  int updateMediaType(@Param("id") Long id, @Param("contentUri") String contentUri, @Param("mediaType") String mediaType);
+
+  /**
+   * Get the content URIs of all content information elements matching the
+   * provided pattern, e.g. to check whether a file is still referenced.
+   *
+   * @param pattern The LIKE pattern, e.g. '%_1234'.
+   *
+   * @return The list of matching content URIs.
+   */
+  @RestResource(exported = false)
+  @Query("SELECT c.contentUri FROM ContentInformation c WHERE c.contentUri LIKE :pattern")
+  List<String> findContentUrisLike(@Param("pattern") String pattern);
+
   //public Optional<ContentInformation> findByParentResourceIdEqualsAndRelativePathEquals(Long id, String relativePath);
   // public Page<ContentInformation> findByParentResourceIdEqualsAndRelativePathLike(Long id, String relativePath, Pageable pgbl);
 }
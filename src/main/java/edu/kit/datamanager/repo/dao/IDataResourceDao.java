@@ -17,6 +17,7 @@ package edu.kit.datamanager.repo.dao;
 
 import edu.kit.datamanager.repo.domain.DataResource;
 import edu.kit.datamanager.repo.domain.DataResource.State;
+import java.util.Collection;
 import java.util.List;
 import edu.kit.datamanager.entities.PERMISSION;
 import java.util.Optional;
@@ -24,6 +25,9 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RestResource;
 
 /**
  *
@@ -75,4 +79,31 @@ public interface IDataResourceDao extends JpaRepository<DataResource, String>, J
    */
   public Optional<DataResource> findByIdAndAclsSidInAndAclsPermissionGreaterThanEqual(String id, List<String> sids, PERMISSION permission);
 
+  /**
+   * Find the ids of data resources with an id larger than the provided one in
+   * ascending order. Used for iterating over all resources without loading
+   * them.
+   *
+   * @param afterId The id after which ids are returned, e.g. an empty string
+   * to start with the first resource.
+   * @param pgbl The pageable limiting the number of returned ids.
+   *
+   * @return A list of ids or an empty list.
+   */
+  @RestResource(exported = false)
+  @Query("SELECT r.id FROM DataResource r WHERE r.id > :afterId ORDER BY r.id")
+  public List<String> findIdsAfter(@Param("afterId") String afterId, Pageable pgbl);
+
+  /**
+   * Get the id, sid and permission of all ACL entries of the resources with
+   * the provided ids.
+   *
+   * @param ids The resource ids.
+   *
+   * @return A list of arrays containing id, sid and permission.
+   */
+  @RestResource(exported = false)
+  @Query("SELECT r.id, a.sid, a.permission FROM DataResource r JOIN r.acls a WHERE r.id IN :ids")
+  public List<Object[]> findAclEntries(@Param("ids") Collection<String> ids);
+
 }
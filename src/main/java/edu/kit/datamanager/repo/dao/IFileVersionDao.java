@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao;
+
+import edu.kit.datamanager.repo.domain.FileVersion;
+import java.util.List;
+import java.util.Optional;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.data.rest.core.annotation.RepositoryRestResource;
+
+/**
+ *
+ * @author jejkal
+ */
+@RepositoryRestResource(exported = false)
+public interface IFileVersionDao extends JpaRepository<FileVersion, Long>{
+
+  Optional<FileVersion> findByResourceIdAndRelativePathAndVersion(String resourceId, String relativePath, long version);
+
+  Optional<FileVersion> findTopByResourceIdAndRelativePathOrderByVersionDesc(String resourceId, String relativePath);
+
+  List<FileVersion> findByResourceIdAndRelativePathOrderByVersionAsc(String resourceId, String relativePath);
+
+  /**
+   * Replace the content URI of all versions referring to the provided URI,
+   * e.g. after the content has been relocated.
+   *
+   * @param oldUri The current content URI.
+   * @param newUri The new content URI.
+   *
+   * @return The number of updated versions.
+   */
+  @Modifying
+  @Query("UPDATE FileVersion v SET v.contentUri = :newUri WHERE v.contentUri = :oldUri")
+  int updateContentUri(@Param("oldUri") String oldUri, @Param("newUri") String newUri);
+
+  /**
+   * Get the content URIs of all versions matching the provided pattern, e.g.
+   * to check whether a file is still referenced.
+   *
+   * @param pattern The LIKE pattern, e.g. '%_1234'.
+   *
+   * @return The list of matching content URIs.
+   */
+  @Query("SELECT v.contentUri FROM FileVersion v WHERE v.contentUri LIKE :pattern")
+  List<String> findContentUrisLike(@Param("pattern") String pattern);
+}
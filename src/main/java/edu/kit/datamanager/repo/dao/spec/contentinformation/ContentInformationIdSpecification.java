@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao.spec.contentinformation;
+
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Specification matching all content information elements with an id larger
+ * than the provided one. Used for keyset pagination ordered by id.
+ *
+ * @author jejkal
+ */
+public class ContentInformationIdSpecification{
+
+  /**
+   * Hidden constructor.
+   */
+  private ContentInformationIdSpecification(){
+  }
+
+  public static Specification<ContentInformation> toSpecification(final Long afterId){
+    return (Root<ContentInformation> root, CriteriaQuery<?> query, CriteriaBuilder builder) -> {
+      if(afterId == null){
+        return null;
+      }
+      return builder.greaterThan(root.get("id"), afterId);
+    };
+  }
+}
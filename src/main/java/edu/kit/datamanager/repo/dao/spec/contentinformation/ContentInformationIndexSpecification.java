@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao.spec.contentinformation;
+
+import edu.kit.datamanager.repo.domain.ContentIndexEntry;
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Specification matching content information elements by metadata entries
+ * and tags using the content index. All provided criteria must match. A
+ * metadata criterion consists of a key and a value, where the value is
+ * interpreted as follows:
+ *
+ * <ul>
+ * <li>null: The element has metadata with the provided key.</li>
+ * <li>'[min,max]': The metadata value is a number between min and max
+ * (inclusive). One of both bounds may be omitted, e.g. '[10,]'.</li>
+ * <li>Values containing '%': The metadata value matches the provided pattern,
+ * e.g. 'abc%' for all values starting with 'abc'.</li>
+ * <li>Any other value: The metadata value equals the provided value.</li>
+ * </ul>
+ *
+ * Tags are matched exactly or by pattern if they contain '%'.
+ *
+ * @author jejkal
+ */
+public class ContentInformationIndexSpecification{
+
+  private static final Pattern RANGE_PATTERN = Pattern.compile("^\\[([^,\\]]*),([^,\\]]*)\\]$");
+
+  /**
+   * Hidden constructor.
+   */
+  private ContentInformationIndexSpecification(){
+  }
+
+  public static Specification<ContentInformation> toSpecification(final Map<String, String> metadata, final Collection<String> tags){
+    return (Root<ContentInformation> root, CriteriaQuery<?> query, CriteriaBuilder builder) -> {
+      List<Predicate> predicates = new ArrayList<>();
+      if(metadata != null){
+        metadata.forEach((key, value) -> predicates.add(root.get("id").in(toSubquery(query, builder, ContentIndexEntry.Type.METADATA, key, value))));
+      }
+      if(tags != null){
+        for(String tag : tags){
+          predicates.add(root.get("id").in(toSubquery(query, builder, ContentIndexEntry.Type.TAG, "", tag)));
+        }
+      }
+      return builder.and(predicates.toArray(new Predicate[]{}));
+    };
+  }
+
+  /**
+   * Parse the provided value as numeric range '[min,max]'.
+   *
+   * @param value The value.
+   *
+   * @return An array containing min and max, which might be null if omitted,
+   * or null if the value is no numeric range.
+   */
+  public static Double[] parseRange(String value){
+    Matcher matcher = RANGE_PATTERN.matcher(value);
+    if(!matcher.matches()){
+      return null;
+    }
+    try{
+      String min = matcher.group(1).trim();
+      String max = matcher.group(2).trim();
+      return new Double[]{min.isEmpty() ? null : Double.valueOf(min), max.isEmpty() ? null : Double.valueOf(max)};
+    } catch(NumberFormatException ex){
+      return null;
+    }
+  }
+
+  private static Subquery<Long> toSubquery(CriteriaQuery<?> query, CriteriaBuilder builder, ContentIndexEntry.Type type, String key, String value){
+    Subquery<Long> subquery = query.subquery(Long.class);
+    Root<ContentIndexEntry> entry = subquery.from(ContentIndexEntry.class);
+    List<Predicate> predicates = new ArrayList<>();
+    predicates.add(builder.equal(entry.get("entryType"), type));
+    predicates.add(builder.equal(entry.get("entryKey"), key));
+    if(value != null){
+      Double[] range = (type == ContentIndexEntry.Type.METADATA) ? parseRange(value) : null;
+      if(range != null){
+        predicates.add(builder.isNotNull(entry.get("numericValue")));
+        if(range[0] != null){
+          predicates.add(builder.greaterThanOrEqualTo(entry.get("numericValue"), range[0]));
+        }
+        if(range[1] != null){
+          predicates.add(builder.lessThanOrEqualTo(entry.get("numericValue"), range[1]));
+        }
+      } else if(value.indexOf('%') >= 0){
+        predicates.add(builder.like(entry.get("entryValue"), value));
+      } else{
+        predicates.add(builder.equal(entry.get("entryValue"), value));
+      }
+    }
+    return subquery.select(entry.get("contentId")).where(predicates.toArray(new Predicate[]{}));
+  }
+}
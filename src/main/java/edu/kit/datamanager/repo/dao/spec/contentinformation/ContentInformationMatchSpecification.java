@@ -50,7 +50,11 @@ public class ContentInformationMatchSpecification{
       Path<String> pid = root.get("parentResource").get("id");
 
       Predicate basePredicate;
-      if(path != null && !exactPath){
+      String folder = (path != null && path.endsWith("%")) ? path.substring(0, path.length() - 1) : path;
+      if(!exactPath && ContentInformationTreeSpecification.isFolder(folder)){
+        //collection listing, e.g. 'folder/%', matched by prefix instead of a leading wildcard
+        basePredicate = builder.and(builder.equal(pid, parentId), ContentInformationTreeSpecification.toSpecification(folder, 0).toPredicate(root, query, builder));
+      } else if(path != null && !exactPath){
         basePredicate = builder.and(builder.equal(pid, parentId), builder.like(root.get("relativePath"), "%" + path + "%"));
 
       } else if(path != null && exactPath){
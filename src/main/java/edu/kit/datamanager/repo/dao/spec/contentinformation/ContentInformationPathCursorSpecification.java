@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao.spec.contentinformation;
+
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Specification matching all content information elements located after the
+ * provided key in the order depth, relativePath. Used for keyset pagination
+ * within a single data resource.
+ *
+ * @author jejkal
+ */
+public class ContentInformationPathCursorSpecification{
+
+  /**
+   * Hidden constructor.
+   */
+  private ContentInformationPathCursorSpecification(){
+  }
+
+  public static Specification<ContentInformation> toSpecification(final int depth, final String relativePath){
+    return (Root<ContentInformation> root, CriteriaQuery<?> query, CriteriaBuilder builder) -> {
+      if(relativePath == null){
+        return null;
+      }
+      return builder.or(builder.greaterThan(root.get("depth"), depth),
+              builder.and(builder.equal(root.get("depth"), depth), builder.greaterThan(root.get("relativePath"), relativePath)));
+    };
+  }
+}
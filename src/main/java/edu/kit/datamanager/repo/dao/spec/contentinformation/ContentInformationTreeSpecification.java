@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao.spec.contentinformation;
+
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Specification matching all content information elements located below the
+ * provided virtual folder, e.g. 'folder/sub/' or an empty string for the
+ * entire resource. Elements directly contained in the folder are matched by
+ * their parent path, deeper elements by the folder as prefix of their relative
+ * path. Both can be served by an index without scanning all elements of the
+ * resource. The parent resource has to be matched separately.
+ *
+ * @author jejkal
+ */
+public class ContentInformationTreeSpecification{
+
+  private static final char ESCAPE_CHARACTER = '\\';
+
+  /**
+   * Hidden constructor.
+   */
+  private ContentInformationTreeSpecification(){
+  }
+
+  /**
+   * Create the specification.
+   *
+   * @param folder The normalized folder path with trailing slash or an empty
+   * string.
+   * @param maxDepth The max. number of levels below the folder, where 1 matches
+   * only elements directly contained in the folder. Values smaller than 1 match
+   * all levels.
+   *
+   * @return The specification.
+   */
+  public static Specification<ContentInformation> toSpecification(final String folder, final int maxDepth){
+    return (Root<ContentInformation> root, CriteriaQuery<?> query, CriteriaBuilder builder) -> {
+      if(maxDepth == 1){
+        return builder.equal(root.get("parentPath"), folder);
+      }
+      Predicate predicate = builder.conjunction();
+      if(!folder.isEmpty()){
+        predicate = builder.like(root.get("relativePath"), escape(folder) + "%", ESCAPE_CHARACTER);
+      }
+      if(maxDepth > 1){
+        predicate = builder.and(predicate, builder.lessThanOrEqualTo(root.get("depth"), getDepth(folder) + maxDepth));
+      }
+      return predicate;
+    };
+  }
+
+  /**
+   * Check whether the provided relative path denotes a folder, i.e. it is
+   * empty or ends with a slash, and contains no wildcards.
+   *
+   * @param path The path.
+   *
+   * @return TRUE if the path can be used as folder.
+   */
+  public static boolean isFolder(String path){
+    return path != null && (path.isEmpty() || path.endsWith("/")) && path.indexOf('%') < 0;
+  }
+
+  private static int getDepth(String folder){
+    int depth = 0;
+    for(int i = 0; i < folder.length(); i++){
+      if(folder.charAt(i) == '/'){
+        depth++;
+      }
+    }
+    return depth;
+  }
+
+  private static String escape(String value){
+    StringBuilder result = new StringBuilder(value.length());
+    for(char c : value.toCharArray()){
+      if(c == '%' || c == '_' || c == ESCAPE_CHARACTER){
+        result.append(ESCAPE_CHARACTER);
+      }
+      result.append(c);
+    }
+    return result.toString();
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao.spec.dataresource;
+
+import edu.kit.datamanager.repo.domain.DataResource;
+import java.time.Instant;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Specification matching all data resources located after the provided key in
+ * the order lastUpdate, id. Used for keyset pagination. Resources without
+ * lastUpdate are never matched, as they have no position in this order. If no
+ * key is provided, all resources having a lastUpdate are matched.
+ *
+ * @author jejkal
+ */
+public class LastUpdateCursorSpecification{
+
+  /**
+   * Hidden constructor.
+   */
+  private LastUpdateCursorSpecification(){
+  }
+
+  public static Specification<DataResource> toSpecification(final Instant lastUpdate, final String id){
+    return (Root<DataResource> root, CriteriaQuery<?> query, CriteriaBuilder builder) -> {
+      if(lastUpdate == null || id == null){
+        return builder.isNotNull(root.get("lastUpdate"));
+      }
+      return builder.or(builder.greaterThan(root.get("lastUpdate"), lastUpdate),
+              builder.and(builder.equal(root.get("lastUpdate"), lastUpdate), builder.greaterThan(root.get("id"), id)));
+    };
+  }
+}
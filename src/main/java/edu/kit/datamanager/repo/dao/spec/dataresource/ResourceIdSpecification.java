@@ -0,0 +1,47 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.dao.spec.dataresource;
+
+import edu.kit.datamanager.repo.domain.DataResource;
+import java.util.Collection;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Specification matching all data resources with one of the provided ids. If
+ * no id is provided, no resource is matched.
+ *
+ * @author jejkal
+ */
+public class ResourceIdSpecification{
+
+  /**
+   * Hidden constructor.
+   */
+  private ResourceIdSpecification(){
+  }
+
+  public static Specification<DataResource> toSpecification(final Collection<String> ids){
+    return (Root<DataResource> root, CriteriaQuery<?> query, CriteriaBuilder builder) -> {
+      if(ids.isEmpty()){
+        return builder.disjunction();
+      }
+      return root.get("id").in(ids);
+    };
+  }
+}
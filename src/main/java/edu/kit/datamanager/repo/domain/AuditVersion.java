@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.domain;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Current audit version of a single audited object, e.g. a data resource or a
+ * content information element. The version is maintained while capturing audit
+ * information and allows to obtain the current version without querying the
+ * audit repository.
+ *
+ * @author jejkal
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AuditVersion{
+
+  /**
+   * The key of the audited object consisting of type and instance id, e.g.
+   * 'DataResource:1234'.
+   */
+  @Id
+  private String id;
+  private long version;
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.domain;
+
+import java.time.Instant;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Access statistics of locally stored content used to decide on which storage
+ * tier the content is placed. The access count is halved after each tiering
+ * run, such that it reflects the recent popularity of the content.
+ *
+ * @author jejkal
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentAccess{
+
+  /**
+   * The content URI of the accessed content.
+   */
+  @Id
+  private String contentUri;
+  private Instant lastAccess;
+  private long accessCount;
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.domain;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Blob stored once in the content-addressable storage, which might be
+ * referenced by an arbitrary number of content information elements. The blob
+ * is removed as soon as its reference count drops to zero.
+ *
+ * @author jejkal
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentBlob{
+
+  /**
+   * The digest of the blob content, e.g. 'sha256:HEX'.
+   */
+  @Id
+  private String digest;
+  private long size;
+  private long referenceCount;
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.domain;
+
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Single entry of the index over metadata and tags of content information
+ * elements. Each metadata entry and each tag of a content information element
+ * is stored as separate row, such that elements can be looked up by exact
+ * value, value prefix or numeric range via database indexes instead of
+ * scanning the metadata of all elements.
+ *
+ * @author jejkal
+ */
+@Entity
+@Table(indexes = {
+  @Index(name = "idx_content_index_value", columnList = "entryType, entryKey, entryValue"),
+  @Index(name = "idx_content_index_number", columnList = "entryType, entryKey, numericValue"),
+  @Index(name = "idx_content_index_content", columnList = "contentId")})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentIndexEntry{
+
+  /**
+   * Types of indexed entries.
+   */
+  public enum Type{
+    METADATA,
+    TAG;
+  }
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+  /**
+   * The id of the content information element.
+   */
+  private Long contentId;
+  @Enumerated(EnumType.STRING)
+  private Type entryType;
+  /**
+   * The metadata key or an empty string for tags.
+   */
+  private String entryKey;
+  /**
+   * The metadata value or the tag.
+   */
+  private String entryValue;
+  /**
+   * The metadata value as number if it is numeric, null otherwise.
+   */
+  private Double numericValue;
+}
@@ -33,7 +33,9 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.NonNull;
@@ -45,6 +47,9 @@ import org.springframework.http.MediaType;
  * @author jejkal
  */
 @Entity
+@Table(indexes = {
+  @Index(name = "idx_content_relative_path", columnList = "parent_resource_id, relativePath"),
+  @Index(name = "idx_content_parent_path", columnList = "parent_resource_id, parentPath, relativePath")})
 @JsonIgnoreProperties(ignoreUnknown = true)
 @Data
 @EqualsAndHashCode(callSuper = false)
@@ -79,6 +84,13 @@ public class ContentInformation implements Serializable{
   @SecureUpdate({"FORBIDDEN"})
   @Schema(accessMode = Schema.AccessMode.READ_ONLY)
   private int depth;
+  /**
+   * The virtual folder containing this element, e.g. 'folder/sub/' for
+   * 'folder/sub/file.txt', used to list single folders via an index.
+   */
+  @JsonIgnore
+  @SecureUpdate({"FORBIDDEN"})
+  private String parentPath;
   @SecureUpdate({"ROLE_ADMINISTRATOR"})//only allow modification by 'real' administrator, not for owner (having ADMINISTRATE permissions)
   @Schema(description = "The URI where the content is located, e.g. pointing to the remote resource or a local file.")
   private String contentUri;
@@ -154,12 +166,14 @@ public class ContentInformation implements Serializable{
     if(path == null){
       //    throw new IllegalArgumentException("Argument must not be null.");
       relativePath = null;
+      parentPath = null;
       depth = 0;
       return;
     }
 
     //remove multiple slashes
     relativePath = PathUtils.normalizePath(path);
+    parentPath = PathUtils.getParentPath(relativePath);
     depth = PathUtils.getDepth(relativePath);
   }
 }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.domain;
+
+import java.time.Instant;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Immutable version of the content stored at a relative path of a data
+ * resource. Versions are numbered consecutively per path starting at 1 and
+ * refer to the stored file of the version, which is never modified.
+ *
+ * @author jejkal
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(name = "uk_file_version", columnNames = {"resourceId", "relativePath", "version"}),
+        indexes = @Index(name = "idx_file_version_uri", columnList = "contentUri"))
+@Data
+@NoArgsConstructor
+public class FileVersion{
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.IDENTITY)
+  private Long id;
+  private String resourceId;
+  private String relativePath;
+  private long version;
+  private String contentUri;
+  private String hash;
+  private long size;
+  private String uploader;
+  private Instant created;
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * State of a resumable upload. Chunks of the file are uploaded with their
+ * offset and are written to a staging area. As soon as all bytes have been
+ * received, the session is committed, which creates the according content
+ * information element. Upload sessions are not persisted in the database but
+ * in the staging area, which allows to resume uploads after a restart.
+ *
+ * @author jejkal
+ */
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "State of a resumable upload session.")
+public class UploadSession{
+
+  @Schema(description = "The upload session identifier.", accessMode = Schema.AccessMode.READ_ONLY)
+  private String id;
+  @Schema(description = "The identifier of the resource the content is uploaded to.", accessMode = Schema.AccessMode.READ_ONLY)
+  private String resourceId;
+  @Schema(description = "The relative path of the content element created on commit.")
+  private String relativePath;
+  @Schema(description = "Flag to indicate, that existing content at the same location should be overwritten on commit.")
+  private boolean force;
+  @Schema(description = "The expected size of the file in bytes. If provided, chunks exceeding this size are rejected and commit is only possible if all bytes were received.")
+  private Long size;
+  @Schema(description = "Optional content information metadata document used while creating the content information element on commit.")
+  private ContentInformation contentInformation;
+  @Schema(description = "The principal who created the upload session.", accessMode = Schema.AccessMode.READ_ONLY)
+  private String owner;
+  @Schema(description = "The creation timestamp of the upload session.", accessMode = Schema.AccessMode.READ_ONLY)
+  private Instant created;
+  @Schema(description = "The timestamp after which the upload session and all received data will be removed if no further chunk is received.", accessMode = Schema.AccessMode.READ_ONLY)
+  private Instant expires;
+  @Schema(description = "All byte ranges received so far in ascending order. Adjacent and overlapping ranges are merged.", accessMode = Schema.AccessMode.READ_ONLY)
+  private List<ByteRange> receivedRanges = new ArrayList<>();
+
+  /**
+   * Get the total number of bytes received so far.
+   *
+   * @return The number of received bytes.
+   */
+  public long getBytesReceived(){
+    long result = 0;
+    for(ByteRange range : receivedRanges){
+      result += range.getEnd() - range.getStart() + 1;
+    }
+    return result;
+  }
+
+  /**
+   * Add a received range and merge it with all adjacent and overlapping
+   * ranges.
+   *
+   * @param start The first byte position of the range.
+   * @param end The last byte position of the range (inclusive).
+   */
+  public void addReceivedRange(long start, long end){
+    List<ByteRange> merged = new ArrayList<>();
+    ByteRange current = new ByteRange(start, end);
+    for(ByteRange range : receivedRanges){
+      if(range.getEnd() + 1 < current.getStart()){
+        merged.add(range);
+      } else if(current.getEnd() + 1 < range.getStart()){
+        merged.add(current);
+        current = range;
+      } else{
+        current = new ByteRange(Math.min(range.getStart(), current.getStart()), Math.max(range.getEnd(), current.getEnd()));
+      }
+    }
+    merged.add(current);
+    receivedRanges = merged;
+  }
+
+  /**
+   * Get the number of contiguous bytes received starting at byte zero.
+   *
+   * @return The length of the contiguous prefix.
+   */
+  public long getContiguousBytes(){
+    if(receivedRanges.isEmpty() || receivedRanges.get(0).getStart() != 0){
+      return 0;
+    }
+    return receivedRanges.get(0).getEnd() + 1;
+  }
+
+  /**
+   * Check whether all bytes have been received. If no size was provided, all
+   * received bytes must be contiguous.
+   *
+   * @return TRUE if the upload can be committed.
+   */
+  public boolean isComplete(){
+    if(size != null){
+      return getContiguousBytes() == size;
+    }
+    return receivedRanges.size() <= 1 && (receivedRanges.isEmpty() || receivedRanges.get(0).getStart() == 0);
+  }
+
+  /**
+   * A range of received bytes.
+   */
+  @Data
+  @NoArgsConstructor
+  @AllArgsConstructor
+  public static class ByteRange{
+
+    @Schema(description = "The first byte position of the range.")
+    private long start;
+    @Schema(description = "The last byte position of the range (inclusive).")
+    private long end;
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cache for the content of small, frequently requested files. Content is
+ * identified by its content URI and is only returned if the provided hash
+ * matches the hash of the cached content, such that replaced content is never
+ * served from cache.
+ *
+ * @author jejkal
+ */
+public interface IContentCache{
+
+  /**
+   * Check whether the cache is enabled. If not, all other methods have no
+   * effect.
+   *
+   * @return TRUE if the cache is enabled.
+   */
+  boolean isEnabled();
+
+  /**
+   * Get the cached content for the provided content URI. Each call counts as
+   * access, which is taken into account when deciding about admission of new
+   * content.
+   *
+   * @param contentUri The content URI.
+   * @param hash The expected hash of the content.
+   *
+   * @return The cached content or null if it is not cached.
+   */
+  CachedContent get(String contentUri, String hash);
+
+  /**
+   * Check whether content with the provided size would currently be admitted
+   * to the cache. This allows to skip loading content which won't be cached.
+   *
+   * @param contentUri The content URI.
+   * @param size The content size in bytes.
+   *
+   * @return TRUE if the content would be admitted.
+   */
+  boolean admits(String contentUri, long size);
+
+  /**
+   * Offer content to the cache. The content is only cached if it is admitted,
+   * which depends on its size and on how frequently it is accessed compared to
+   * the content which would have to be evicted.
+   *
+   * @param contentUri The content URI.
+   * @param hash The hash of the content.
+   * @param data The content.
+   * @param lastModified The last modification time of the content in
+   * milliseconds.
+   *
+   * @return TRUE if the content has been cached.
+   */
+  boolean put(String contentUri, String hash, byte[] data, long lastModified);
+
+  /**
+   * Remove the content with the provided URI from the cache.
+   *
+   * @param contentUri The content URI.
+   */
+  void invalidate(String contentUri);
+
+  /**
+   * Remove all cached content.
+   */
+  void clear();
+
+  /**
+   * Cached content and its last modification time.
+   */
+  final class CachedContent{
+
+    private final ByteBuffer data;
+    private final long lastModified;
+
+    public CachedContent(ByteBuffer data, long lastModified){
+      this.data = data;
+      this.lastModified = lastModified;
+    }
+
+    /**
+     * Get a read-only view of the content.
+     *
+     * @return The content.
+     */
+    public ByteBuffer getData(){
+      return data.asReadOnlyBuffer();
+    }
+
+    public long getSize(){
+      return data.remaining();
+    }
+
+    public long getLastModified(){
+      return lastModified;
+    }
+  }
+}
@@ -17,6 +17,7 @@ package edu.kit.datamanager.repo.service;
 
 import edu.kit.datamanager.repo.domain.ContentInformation;
 import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.exceptions.FeatureNotImplementedException;
 import edu.kit.datamanager.service.IGenericService;
 import edu.kit.datamanager.service.IServiceAuditSupport;
 import java.io.InputStream;
@@ -25,6 +26,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
 /**
  *
@@ -152,4 +154,69 @@ public interface IContentInformationService extends IGenericService<ContentInfor
           boolean callerIsAdministrator, Pageable pgbl
   );
 
+  /**
+   * Find all content information elements matching the provided template using
+   * keyset pagination. The template must contain the parent resource. In
+   * contrast to offset-based pagination, no total number of elements is
+   * determined and the slice is located via the provided cursor. Results are
+   * always ordered by depth and relative path.
+   *
+   * @param template The template containing parent resource, relative path and
+   * tags.
+   * @param cursor The cursor obtained from the previous slice or null/empty for
+   * the first slice.
+   * @param pageSize The max. number of elements.
+   *
+   * @return A slice of content information elements or an empty slice.
+   *
+   * @throws FeatureNotImplementedException if keyset pagination is not
+   * supported, which is the default.
+   */
+  default Slice<ContentInformation> findAll(ContentInformation template, String cursor, int pageSize){
+    throw new FeatureNotImplementedException("Keyset pagination is not supported by this service.");
+  }
+
+  /**
+   * Find all content information elements matching the provided template up to
+   * the provided number of levels below the collection denoted by the
+   * template's relative path, e.g. 'folder/&percnt;'. A max. depth of 1 lists
+   * only elements directly contained in the collection.
+   *
+   * @param template The template containing parent resource, relative path and
+   * tags.
+   * @param maxDepth The max. number of levels to list, values smaller than 1
+   * list all levels.
+   * @param pgbl The pageable object containing pagination information.
+   *
+   * @return A page of content information elements or an empty page.
+   *
+   * @throws FeatureNotImplementedException if depth-limited listing is not
+   * supported, which is the default.
+   */
+  default Page<ContentInformation> findAll(ContentInformation template, int maxDepth, Pageable pgbl){
+    throw new FeatureNotImplementedException("Depth-limited listing is not supported by this service.");
+  }
+
+  /**
+   * Find all content information elements matching the provided template up to
+   * the provided number of levels below the collection denoted by the
+   * template's relative path using keyset pagination.
+   *
+   * @param template The template containing parent resource, relative path and
+   * tags.
+   * @param maxDepth The max. number of levels to list, values smaller than 1
+   * list all levels.
+   * @param cursor The cursor obtained from the previous slice or null/empty for
+   * the first slice.
+   * @param pageSize The max. number of elements.
+   *
+   * @return A slice of content information elements or an empty slice.
+   *
+   * @throws FeatureNotImplementedException if depth-limited listing is not
+   * supported, which is the default.
+   */
+  default Slice<ContentInformation> findAll(ContentInformation template, int maxDepth, String cursor, int pageSize){
+    throw new FeatureNotImplementedException("Depth-limited listing is not supported by this service.");
+  }
+
 }
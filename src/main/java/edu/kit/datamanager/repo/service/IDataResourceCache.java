@@ -0,0 +1,93 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service;
+
+import edu.kit.datamanager.repo.domain.DataResource;
+import java.util.Optional;
+
+/**
+ * Cache for data resource lookups by any identifier. Implementations map the
+ * identifiers used for lookups to the internal resource id and keep a snapshot
+ * of the resource for each cached id. Each call to {@link #get(java.lang.String)}
+ * must return an independent copy, such that modifications of a returned
+ * resource never affect the cache.
+ *
+ * @author jejkal
+ */
+public interface IDataResourceCache{
+
+  /**
+   * Check whether the cache is enabled. If not, all other methods have no
+   * effect.
+   *
+   * @return TRUE if the cache is enabled.
+   */
+  boolean isEnabled();
+
+  /**
+   * Get a copy of the cached resource for the provided identifier.
+   *
+   * @param identifier The internal, primary or alternate identifier.
+   *
+   * @return The cached resource or Optional.empty() if it is not cached.
+   */
+  Optional<DataResource> get(String identifier);
+
+  /**
+   * Get the current generation of the cache, which has to be obtained before
+   * loading a resource to be cached via
+   * {@link #put(java.lang.String, edu.kit.datamanager.repo.domain.DataResource, long)}.
+   *
+   * @return The current generation.
+   */
+  long getGeneration();
+
+  /**
+   * Cache the provided resource, which has been obtained by the provided
+   * identifier. If the resource has been invalidated after the provided
+   * generation has been obtained, the loaded resource might be outdated and
+   * is not cached.
+   *
+   * @param identifier The identifier used for obtaining the resource.
+   * @param resource The resource.
+   * @param generation The generation obtained before loading the resource.
+   */
+  void put(String identifier, DataResource resource, long generation);
+
+  /**
+   * Cache the provided resource, which is known to reflect the current state,
+   * e.g. as it has just been obtained while holding the current generation.
+   *
+   * @param identifier The identifier used for obtaining the resource.
+   * @param resource The resource.
+   */
+  default void put(String identifier, DataResource resource){
+    put(identifier, resource, getGeneration());
+  }
+
+  /**
+   * Remove the resource with the provided internal id and all identifier
+   * mappings pointing to it.
+   *
+   * @param id The internal resource id.
+   */
+  void invalidate(String id);
+
+  /**
+   * Remove all cached resources.
+   */
+  void clear();
+}
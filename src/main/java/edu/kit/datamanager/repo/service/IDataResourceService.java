@@ -19,13 +19,16 @@ import edu.kit.datamanager.repo.domain.DataResource;
 import edu.kit.datamanager.entities.PERMISSION;
 import edu.kit.datamanager.exceptions.BadArgumentException;
 import edu.kit.datamanager.exceptions.ResourceAlreadyExistException;
+import edu.kit.datamanager.exceptions.FeatureNotImplementedException;
 import edu.kit.datamanager.service.IGenericService;
 import edu.kit.datamanager.service.IServiceAuditSupport;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
 /**
  *
@@ -89,6 +92,36 @@ public interface IDataResourceService extends IGenericService<DataResource>, ISe
    */
   DataResource create(DataResource resource, String callerPrincipal) throws BadArgumentException, ResourceAlreadyExistException;
 
+  /**
+   * Create multiple data resources at once. Each provided resource is handled
+   * in the same way as by {@link #create(edu.kit.datamanager.repo.domain.DataResource, java.lang.String, java.lang.String, java.lang.String)}.
+   * Either all resources are created or, if one resource is invalid or
+   * conflicts with an existing resource or another provided resource, none of
+   * them. By default, create() is called for each resource. Implementations
+   * may use set-based identifier checks and batched persistence instead.
+   *
+   * @param resources The resource templates to be used to create new
+   * resources.
+   * @param callerPrincipal The principal of the caller, e.g. the user- or
+   * servicename.
+   * @param callerFirstName The firstname of the caller, if available.
+   * @param callerLastName The lastname of the caller, if available.
+   *
+   * @return The new resources with ids assigned in the order of the provided
+   * templates.
+   *
+   * @throws BadArgumentException if one of the resources is invalid.
+   * @throws ResourceAlreadyExistException if the identifier of one resource
+   * is already used.
+   */
+  default List<DataResource> createAll(List<DataResource> resources, String callerPrincipal, String callerFirstName, String callerLastName) throws BadArgumentException, ResourceAlreadyExistException{
+    List<DataResource> result = new ArrayList<>();
+    for(DataResource resource : resources){
+      result.add(create(resource, callerPrincipal, callerFirstName, callerLastName));
+    }
+    return result;
+  }
+
   /**
    * Enhanced find method to obtain a single resource having the provided value
    * as any of its identifiers. The implementation should check the internal
@@ -243,4 +276,61 @@ public interface IDataResourceService extends IGenericService<DataResource>, ISe
    * @return A page of data resources matching the example or an empty page.
    */
   Page<DataResource> findByExample(DataResource example, Instant lastUpdateFrom, Instant lastUpdateUntil, List<String> callerIdentities, boolean callerIsAdministrator, Pageable pgbl);
+
+  /**
+   * Find data resources by the provided example using keyset pagination. In
+   * contrast to {@link #findByExample(edu.kit.datamanager.repo.domain.DataResource, java.time.Instant, java.time.Instant, java.util.List, boolean, org.springframework.data.domain.Pageable)}
+   * no total number of elements is determined and the page is located via the
+   * provided cursor instead of an offset. Results are always ordered by
+   * lastUpdate and id. Resources without lastUpdate, which are not created via
+   * this service, are not returned.
+   *
+   * @param example The example resource used to build the query for assigned
+   * values.
+   * @param lastUpdateFrom The UTC time of the earliest update of a returned
+   * resource.
+   * @param lastUpdateUntil The UTC time of the latest update of a returned
+   * resource.
+   * @param callerIdentities A list of caller identities, e.g. principal and
+   * active group name.
+   * @param callerIsAdministrator If TRUE, the caller was checked for role
+   * ADMINISTRATOR and will receive resource access w/o ACL check. Otherwise,
+   * the provided identities are used for ACL check.
+   * @param cursor The cursor obtained from the previous slice or null/empty for
+   * the first slice.
+   * @param pageSize The max. number of elements.
+   *
+   * @return A slice of data resources matching the example or an empty slice.
+   *
+   * @throws BadArgumentException if the cursor is invalid.
+   * @throws FeatureNotImplementedException if keyset pagination is not
+   * supported, which is the default.
+   */
+  default Slice<DataResource> findByExample(DataResource example, Instant lastUpdateFrom, Instant lastUpdateUntil, List<String> callerIdentities, boolean callerIsAdministrator, String cursor, int pageSize){
+    throw new FeatureNotImplementedException("Keyset pagination is not supported by this service.");
+  }
+
+  /**
+   * Find data resources by a full-text query over their metadata. Results are
+   * ordered by relevance. Unprivileged callers only receive resources in state
+   * VOLATILE or FIXED, which are readable by at least one of their identities.
+   *
+   * @param query The query, e.g. 'climate subject:ocean*'. It depends on the
+   * implementation which fields can be addressed.
+   * @param callerIdentities A list of caller identities, e.g. principal and
+   * active group name.
+   * @param callerIsAdministrator If TRUE, the caller was checked for role
+   * ADMINISTRATOR and will receive resource access w/o ACL check. Otherwise,
+   * the provided identities are used for ACL check.
+   * @param pgbl The pageable object containing pagination information.
+   *
+   * @return A page of data resources matching the query or an empty page.
+   *
+   * @throws BadArgumentException if the query is invalid.
+   * @throws FeatureNotImplementedException if full-text search is not
+   * supported, which is the default.
+   */
+  default Page<DataResource> search(String query, List<String> callerIdentities, boolean callerIsAdministrator, Pageable pgbl){
+    throw new FeatureNotImplementedException("Full-text search is not supported by this service.");
+  }
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service;
+
+import edu.kit.datamanager.service.IVersioningService;
+
+/**
+ * Versioning service which shares stored content between multiple content
+ * information elements. Each written content is referenced until it is
+ * released, e.g. because the content information has been deleted. Replaced
+ * content stays referenced as long as earlier versions of the content
+ * information are retained by the audit.
+ *
+ * @author jejkal
+ */
+public interface IReferenceCountingVersioningService extends IVersioningService{
+
+  /**
+   * Release one reference to the content located at the provided URI. If
+   * called within a transaction, the reference is released after the
+   * transaction has been committed.
+   *
+   * @param contentUri The content URI as assigned while writing the content.
+   */
+  void release(String contentUri);
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service;
+
+import edu.kit.datamanager.entities.ContentElement;
+import edu.kit.datamanager.service.IContentCollectionProvider;
+import java.util.Iterator;
+import java.util.List;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
+
+/**
+ * Content collection provider which consumes the collection elements one by
+ * one. In contrast to {@link IContentCollectionProvider}, the elements are not
+ * materialized in a list but are loaded lazily while iterating, which allows
+ * to provide collections of arbitrary size.
+ *
+ * @author jejkal
+ */
+public interface IStreamingContentCollectionProvider extends IContentCollectionProvider{
+
+  /**
+   * Provide all elements returned by the provided iterator in the requested
+   * media type.
+   *
+   * @param elements The iterator over all collection elements.
+   * @param mediaType The requested media type.
+   * @param response The response to write to.
+   */
+  void provide(Iterator<ContentElement> elements, MediaType mediaType, HttpServletResponse response);
+
+  @Override
+  default void provide(List<ContentElement> elements, MediaType mediaType, HttpServletResponse response){
+    provide(elements.iterator(), mediaType, response);
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service;
+
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.domain.UploadSession;
+import java.io.InputStream;
+
+/**
+ * Service for resumable uploads. Instead of transferring a file in a single
+ * request, an upload session is created, chunks of the file are uploaded at
+ * their offset, possibly in parallel and in arbitrary order, and finally the
+ * session is committed. Committing a session creates the content information
+ * via {@link IContentInformationService#create(edu.kit.datamanager.repo.domain.ContentInformation, edu.kit.datamanager.repo.domain.DataResource, java.lang.String, java.io.InputStream, boolean)}.
+ *
+ * @author jejkal
+ */
+public interface IUploadSessionService{
+
+  /**
+   * Create a new upload session for the provided resource and path.
+   *
+   * @param resource The parent resource.
+   * @param path The content path of the element created on commit.
+   * @param size The expected size of the file or null if unknown.
+   * @param force If true, existing content should be replaced on commit.
+   * @param contentInformation Optional content information template used on
+   * commit.
+   *
+   * @return The new upload session.
+   */
+  UploadSession create(DataResource resource, String path, Long size, boolean force, ContentInformation contentInformation);
+
+  /**
+   * Get the upload session with the provided id.
+   *
+   * @param resource The parent resource.
+   * @param sessionId The upload session id.
+   *
+   * @return The upload session.
+   */
+  UploadSession get(DataResource resource, String sessionId);
+
+  /**
+   * Write a chunk of data at the provided offset.
+   *
+   * @param resource The parent resource.
+   * @param sessionId The upload session id.
+   * @param offset The position of the first byte of the chunk.
+   * @param data The stream to read the chunk from.
+   *
+   * @return The updated upload session.
+   */
+  UploadSession write(DataResource resource, String sessionId, long offset, InputStream data);
+
+  /**
+   * Commit the upload session. All bytes must have been received before.
+   * After successfully committing, the session is removed.
+   *
+   * @param resource The parent resource.
+   * @param sessionId The upload session id.
+   *
+   * @return The created content information.
+   */
+  ContentInformation commit(DataResource resource, String sessionId);
+
+  /**
+   * Delete the upload session and all received data.
+   *
+   * @param resource The parent resource.
+   * @param sessionId The upload session id.
+   */
+  void delete(DataResource resource, String sessionId);
+}
@@ -0,0 +1,666 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.introspect.AnnotatedField;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.JacksonAnnotationIntrospector;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import edu.kit.datamanager.exceptions.CustomInternalServerError;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.repo.util.TransactionUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.Transient;
+import lombok.Data;
+import org.javers.common.exception.JaversException;
+import org.javers.common.exception.JaversExceptionCode;
+import org.javers.core.Javers;
+import org.javers.core.commit.Commit;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Asynchronous writer for audit information. If enabled, audit services submit
+ * a JSON snapshot of the audited object instead of committing it to the audit
+ * repository within the request. Submissions are appended to a local journal
+ * before the surrounding transaction is committed and put into a bounded queue
+ * as soon as it has been committed. The outcome of the transaction is recorded
+ * in the journal afterwards. A single background thread drains the queue and commits the
+ * entries in batches, each batch within one transaction. If the queue is full,
+ * submitting threads block until the writer has caught up, while the expected
+ * versions of pending objects can still be obtained. Snapshots keep persistent
+ * fields hidden from the API, such that they equal snapshots taken in
+ * synchronous mode.
+ *
+ * As there is only one writer processing the queue in submission order, audit
+ * versions are assigned in the same order as in synchronous mode. Until an
+ * entry has been written, the writer provides the expected version of the
+ * audited object, which is used as current version by the audit services.
+ * Entries not written before a crash are replayed from the journal on the next
+ * startup, except for entries of transactions which have been rolled back.
+ * Entries without recorded outcome, i.e. if the crash happened while
+ * committing, are replayed as well.
+ *
+ * The writer publishes the metrics 'repo.audit.queue.size',
+ * 'repo.audit.lag', 'repo.audit.commits' and 'repo.audit.failures'.
+ *
+ * @author jejkal
+ */
+@Component
+public class AsyncAuditWriter{
+
+  /**
+   * Operations which can be submitted to the writer.
+   */
+  public enum Operation{
+    COMMIT,
+    DELETE;
+  }
+
+  /**
+   * Outcomes of the transaction an entry has been submitted in.
+   */
+  public enum Status{
+    PREPARED,
+    COMMITTED,
+    ABORTED;
+  }
+
+  private static final String AUDIT_FOLDER = "audit";
+  private static final String JOURNAL_FILE = "audit.journal";
+  private static final String CHECKPOINT_FILE = "audit.checkpoint";
+  private static final long AWAIT_TIMEOUT = 10000;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private Javers javers;
+  @Autowired
+  private AuditVersionCounter versionCounter;
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule()).configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private final ObjectMapper snapshotMapper = new ObjectMapper().registerModule(new JavaTimeModule()).configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false).setAnnotationIntrospector(new SnapshotIntrospector());
+  private final Object lock = new Object();
+  private final Object handoff = new Object();
+  private final Map<String, Pending> pending = new HashMap<>();
+  private final TreeSet<Long> outstanding = new TreeSet<>();
+
+  private BlockingQueue<Entry> queue;
+  private FileChannel journal;
+  private long lastSequence;
+  private long completedSequence;
+  private long lastTicket;
+  private long nextTicket = 1;
+  private volatile boolean running;
+  private Thread writerThread;
+
+  private Counter commits;
+  private Counter failures;
+  private Timer lag;
+
+  @PostConstruct
+  public void init(){
+    MeterRegistry registry = (meterRegistry != null) ? meterRegistry : new SimpleMeterRegistry();
+    commits = Counter.builder("repo.audit.commits").description("Number of asynchronously written audit entries.").register(registry);
+    failures = Counter.builder("repo.audit.failures").description("Number of audit entries which could not be written.").register(registry);
+    lag = Timer.builder("repo.audit.lag").description("Time between submission and commit of audit entries.").register(registry);
+    registry.gauge("repo.audit.queue.size", this, (w) -> w.getQueueSize());
+
+    if(!applicationProperties.isAuditEnabled()){
+      logger.trace("Audit is disabled. Asynchronous audit writer not started.");
+      return;
+    }
+    Path folder = getAuditPath();
+    try{
+      replayJournal(folder);
+      if(applicationProperties.isAuditAsyncEnabled()){
+        Files.createDirectories(folder);
+        journal = FileChannel.open(folder.resolve(JOURNAL_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+      }
+    } catch(IOException ex){
+      throw new CustomInternalServerError("Failed to initialize audit journal at " + folder + ".");
+    }
+    if(!applicationProperties.isAuditAsyncEnabled()){
+      logger.trace("Asynchronous audit is disabled. Audit information is written synchronously.");
+      return;
+    }
+    queue = new ArrayBlockingQueue<>(Math.max(1, applicationProperties.getAuditAsyncQueueSize()));
+    running = true;
+    writerThread = new Thread(this::run, "audit-writer");
+    writerThread.setDaemon(true);
+    writerThread.start();
+    logger.trace("Asynchronous audit writer started with queue size {} and batch size {}.", applicationProperties.getAuditAsyncQueueSize(), applicationProperties.getAuditAsyncBatchSize());
+  }
+
+  @PreDestroy
+  public void destroy(){
+    running = false;
+    if(writerThread != null){
+      try{
+        writerThread.join(AWAIT_TIMEOUT);
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+      }
+    }
+    if(journal != null){
+      try{
+        journal.close();
+      } catch(IOException ex){
+        logger.warn("Failed to close audit journal.", ex);
+      }
+    }
+  }
+
+  /**
+   * Check whether asynchronous audit is enabled.
+   *
+   * @return TRUE if audit information should be submitted to this writer.
+   */
+  public boolean isEnabled(){
+    return queue != null;
+  }
+
+  /**
+   * Submit audit information. The provided object is serialized immediately.
+   * If called within a transaction, the entry is journaled before and queued
+   * after the transaction has been committed and it is discarded on rollback.
+   *
+   * @param <T> The type of the audited object.
+   * @param operation The audit operation.
+   * @param type The type of the audited object.
+   * @param instanceId The id of the audited object.
+   * @param object The audited object.
+   * @param principal The principal passed to the audit repository.
+   * @param committedVersion Supplier for the version of the object in the
+   * audit repository, used if no entry for the object is pending.
+   */
+  public <T> void submit(Operation operation, Class<T> type, Object instanceId, T object, String principal, LongSupplier committedVersion){
+    Entry entry = new Entry();
+    entry.setOperation(operation);
+    entry.setType(type.getName());
+    entry.setInstanceId(instanceId.toString());
+    entry.setPrincipal(principal);
+    try{
+      entry.setData(snapshotMapper.writeValueAsString(object));
+    } catch(JsonProcessingException ex){
+      logger.error("Failed to serialize audit information for " + type.getSimpleName() + "#" + instanceId + ".", ex);
+      throw new CustomInternalServerError("Failed to capture audit information.");
+    }
+    String key = getKey(entry);
+    long baseVersion;
+    synchronized(lock){
+      Pending p = pending.get(key);
+      baseVersion = (p != null) ? p.version : committedVersion.getAsLong();
+    }
+    if(TransactionSynchronizationManager.isSynchronizationActive()){
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+        @Override
+        public void beforeCommit(boolean readOnly){
+          //journal the entry before committing, such that it is not lost if the application crashes right after the commit
+          prepare(entry, Status.PREPARED);
+        }
+
+        @Override
+        public void afterCompletion(int status){
+          if(entry.getSequence() == 0){
+            //rolled back before being journaled
+            return;
+          }
+          if(status == STATUS_COMMITTED){
+            enqueue(entry, baseVersion);
+          } else if(status == STATUS_ROLLED_BACK){
+            abort(entry);
+          } else{
+            logger.warn("Outcome of transaction unknown. Audit entry {} for {} will be replayed from journal on next startup.", entry.getSequence(), key);
+          }
+        }
+      });
+    } else{
+      prepare(entry, Status.COMMITTED);
+      enqueue(entry, baseVersion);
+    }
+  }
+
+  /**
+   * Get the expected version of an audited object if audit information for
+   * this object is still pending.
+   *
+   * @param type The type of the audited object.
+   * @param instanceId The id of the audited object.
+   *
+   * @return The expected version or Optional.empty() if nothing is pending.
+   */
+  public Optional<Long> getPendingVersion(Class<?> type, Object instanceId){
+    synchronized(lock){
+      Pending p = pending.get(getKey(type.getName(), instanceId.toString()));
+      return (p != null) ? Optional.of(p.version) : Optional.empty();
+    }
+  }
+
+  /**
+   * Wait until all pending audit information for the provided object has
+   * been written, e.g. before querying the audit repository. Waiting is
+   * limited to a few seconds.
+   *
+   * @param type The type of the audited object.
+   * @param instanceId The id of the audited object.
+   */
+  public void awaitPending(Class<?> type, Object instanceId){
+    String key = getKey(type.getName(), instanceId.toString());
+    long deadline = System.currentTimeMillis() + AWAIT_TIMEOUT;
+    synchronized(lock){
+      long remaining;
+      while(pending.containsKey(key) && (remaining = deadline - System.currentTimeMillis()) > 0){
+        try{
+          lock.wait(remaining);
+        } catch(InterruptedException ex){
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      if(pending.containsKey(key)){
+        logger.warn("Audit information for {} still pending after {} ms.", key, AWAIT_TIMEOUT);
+      }
+    }
+  }
+
+  /**
+   * Get the number of queued entries.
+   *
+   * @return The queue size.
+   */
+  public int getQueueSize(){
+    return (queue != null) ? queue.size() : 0;
+  }
+
+  /**
+   * Assign the next sequence number to the provided entry and append it to the
+   * journal.
+   */
+  private void prepare(Entry entry, Status status){
+    synchronized(lock){
+      entry.setSequence(++lastSequence);
+      entry.setSubmitted(System.currentTimeMillis());
+      entry.setStatus(status);
+      outstanding.add(entry.getSequence());
+      try{
+        appendToJournal(entry);
+      } catch(IOException ex){
+        logger.error("Failed to append audit entry for " + getKey(entry) + " to journal. Entry will be lost in case of a crash.", ex);
+      }
+    }
+  }
+
+  /**
+   * Record the rollback of the transaction of a journaled entry, such that the
+   * entry is not replayed.
+   */
+  private void abort(Entry entry){
+    synchronized(lock){
+      outstanding.remove(entry.getSequence());
+      try{
+        appendStatus(entry.getSequence(), Status.ABORTED);
+      } catch(IOException ex){
+        logger.warn("Failed to record rollback of audit entry " + entry.getSequence() + ". Entry might be replayed after restart.", ex);
+      }
+    }
+  }
+
+  private void enqueue(Entry entry, long baseVersion){
+    String key = getKey(entry);
+    long ticket;
+    synchronized(lock){
+      if(Status.PREPARED.equals(entry.getStatus())){
+        entry.setStatus(Status.COMMITTED);
+        try{
+          appendStatus(entry.getSequence(), Status.COMMITTED);
+        } catch(IOException ex){
+          logger.warn("Failed to record commit of audit entry " + entry.getSequence() + ".", ex);
+        }
+      }
+      Pending p = pending.get(key);
+      if(p == null){
+        p = new Pending();
+        p.version = baseVersion;
+        pending.put(key, p);
+      }
+      //an unchanged object won't result in a new version, all other guesses are corrected as soon as the writer has caught up
+      if(Operation.COMMIT.equals(entry.getOperation()) && !entry.getData().equals(p.data)){
+        p.version++;
+      }
+      p.data = entry.getData();
+      p.count++;
+      ticket = ++lastTicket;
+    }
+    //hand off entries in the order of their pending versions, blocking on a full queue only delays other submissions, but not lookups
+    boolean interrupted = false;
+    synchronized(handoff){
+      while(nextTicket != ticket){
+        try{
+          handoff.wait();
+        } catch(InterruptedException ex){
+          interrupted = true;
+        }
+      }
+      try{
+        queue.put(entry);
+      } catch(InterruptedException ex){
+        interrupted = true;
+        logger.warn("Interrupted while queueing audit entry for {}. Entry will be replayed from journal on next startup.", key);
+      } finally{
+        nextTicket++;
+        handoff.notifyAll();
+      }
+    }
+    if(interrupted){
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run(){
+    int batchSize = Math.max(1, applicationProperties.getAuditAsyncBatchSize());
+    List<Entry> batch = new ArrayList<>(batchSize);
+    while(running || !queue.isEmpty()){
+      try{
+        Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if(first == null){
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, batchSize - 1);
+        process(batch);
+      } catch(InterruptedException ex){
+        logger.warn("Audit writer interrupted. Remaining entries will be replayed from journal on next startup.");
+        Thread.currentThread().interrupt();
+        return;
+      } catch(RuntimeException ex){
+        logger.error("Unexpected error in audit writer.", ex);
+      } finally{
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Write a batch of entries within one transaction. If this fails, each entry
+   * is retried separately such that a single invalid entry does not prevent
+   * others from being written.
+   */
+  private void process(List<Entry> batch){
+    logger.trace("Writing batch of {} audit entries.", batch.size());
+    try{
+      inTransaction(() -> batch.forEach(this::write));
+    } catch(RuntimeException ex){
+      logger.warn("Failed to write batch of " + batch.size() + " audit entries. Retrying entries separately.", ex);
+      for(Entry entry : batch){
+        try{
+          inTransaction(() -> write(entry));
+        } catch(RuntimeException ex2){
+          logger.error("Failed to write audit entry " + entry.getSequence() + " for " + getKey(entry) + ". Entry is skipped.", ex2);
+          failures.increment();
+        }
+      }
+    }
+    complete(batch);
+  }
+
+  private void write(Entry entry){
+    Class<?> type;
+    Object object;
+    try{
+      type = Class.forName(entry.getType());
+      object = snapshotMapper.readValue(entry.getData(), type);
+    } catch(ClassNotFoundException | IOException ex){
+      throw new CustomInternalServerError("Failed to restore audited object of entry " + entry.getSequence() + ".");
+    }
+    if(Operation.DELETE.equals(entry.getOperation())){
+      try{
+        javers.commitShallowDelete(entry.getPrincipal(), object);
+      } catch(JaversException ex){
+        if(!JaversExceptionCode.CANT_DELETE_OBJECT_NOT_FOUND.equals(ex.getCode())){
+          throw ex;
+        }
+        logger.info("Unable to delete audit information for {}. No audit information found.", getKey(entry));
+      }
+      versionCounter.remove(type, entry.getInstanceId());
+    } else{
+      Commit commit = javers.commit(entry.getPrincipal(), object);
+      versionCounter.update(type, entry.getInstanceId(), commit);
+    }
+    commits.increment();
+  }
+
+  private void inTransaction(Runnable action){
+    TransactionUtils.inTransaction(transactionManager, () -> {
+      action.run();
+      return null;
+    });
+  }
+
+  private void complete(List<Entry> batch){
+    long now = System.currentTimeMillis();
+    synchronized(lock){
+      for(Entry entry : batch){
+        String key = getKey(entry);
+        Pending p = pending.get(key);
+        if(p != null && --p.count <= 0){
+          pending.remove(key);
+        }
+        outstanding.remove(entry.getSequence());
+        completedSequence = Math.max(completedSequence, entry.getSequence());
+        lag.record(now - entry.getSubmitted(), TimeUnit.MILLISECONDS);
+      }
+      try{
+        //the checkpoint must not pass entries which are journaled, but not written yet
+        long checkpoint = outstanding.isEmpty() ? completedSequence : Math.min(completedSequence, outstanding.first() - 1);
+        writeCheckpoint(getAuditPath(), checkpoint);
+        if(pending.isEmpty() && outstanding.isEmpty() && journal != null){
+          journal.truncate(0);
+        }
+      } catch(IOException ex){
+        logger.warn("Failed to update audit journal checkpoint. Entries might be written twice after restart.", ex);
+      }
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Write all journal entries after the last checkpoint, e.g. after a crash.
+   */
+  private void replayJournal(Path folder) throws IOException{
+    Path journalFile = folder.resolve(JOURNAL_FILE);
+    Path checkpointFile = folder.resolve(CHECKPOINT_FILE);
+    long checkpoint = 0;
+    if(Files.exists(checkpointFile)){
+      try{
+        checkpoint = Long.parseLong(new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim());
+      } catch(NumberFormatException ex){
+        logger.warn("Invalid audit journal checkpoint. Replaying entire journal.");
+      }
+    }
+    lastSequence = checkpoint;
+    completedSequence = checkpoint;
+    if(!Files.exists(journalFile)){
+      return;
+    }
+    Map<Long, Entry> journaled = new TreeMap<>();
+    try(BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)){
+      String line;
+      while((line = reader.readLine()) != null){
+        if(line.isEmpty()){
+          continue;
+        }
+        try{
+          Entry entry = mapper.readValue(line, Entry.class);
+          lastSequence = Math.max(lastSequence, entry.getSequence());
+          if(entry.getData() == null){
+            //outcome of the transaction of a previously journaled entry
+            Entry prepared = journaled.get(entry.getSequence());
+            if(prepared != null){
+              prepared.setStatus(entry.getStatus());
+            }
+          } else if(entry.getSequence() > checkpoint){
+            journaled.put(entry.getSequence(), entry);
+          }
+        } catch(IOException ex){
+          logger.warn("Skipping incomplete audit journal entry.");
+        }
+      }
+    }
+    List<Entry> entries = new ArrayList<>();
+    for(Entry entry : journaled.values()){
+      if(Status.ABORTED.equals(entry.getStatus())){
+        continue;
+      }
+      if(Status.PREPARED.equals(entry.getStatus())){
+        logger.warn("Outcome of transaction of audit entry {} unknown. Replaying entry.", entry.getSequence());
+      }
+      entries.add(entry);
+    }
+    if(!entries.isEmpty()){
+      logger.info("Replaying {} audit entries from journal {}.", entries.size(), journalFile);
+      int batchSize = Math.max(1, applicationProperties.getAuditAsyncBatchSize());
+      for(int i = 0; i < entries.size(); i += batchSize){
+        List<Entry> batch = entries.subList(i, Math.min(entries.size(), i + batchSize));
+        process(batch);
+      }
+    }
+    Files.delete(journalFile);
+  }
+
+  private void appendToJournal(Entry entry) throws IOException{
+    if(journal == null){
+      return;
+    }
+    byte[] line = (mapper.writeValueAsString(entry) + "\n").getBytes(StandardCharsets.UTF_8);
+    ByteBuffer buffer = ByteBuffer.wrap(line);
+    while(buffer.hasRemaining()){
+      journal.write(buffer);
+    }
+    if(applicationProperties.isAuditAsyncJournalSync()){
+      journal.force(false);
+    }
+  }
+
+  private void appendStatus(long sequence, Status status) throws IOException{
+    Entry marker = new Entry();
+    marker.setSequence(sequence);
+    marker.setStatus(status);
+    appendToJournal(marker);
+  }
+
+  private void writeCheckpoint(Path folder, long sequence) throws IOException{
+    Path tmp = folder.resolve(CHECKPOINT_FILE + ".tmp");
+    Files.write(tmp, Long.toString(sequence).getBytes(StandardCharsets.UTF_8));
+    Files.move(tmp, folder.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private Path getAuditPath(){
+    return PathUtils.getStagingPath(applicationProperties).resolve(AUDIT_FOLDER);
+  }
+
+  private static String getKey(Entry entry){
+    return getKey(entry.getType(), entry.getInstanceId());
+  }
+
+  private static String getKey(String type, String instanceId){
+    return type + "#" + instanceId;
+  }
+
+  /**
+   * Introspector keeping persistent fields which are hidden from the API via
+   * JsonIgnore, e.g. ContentInformation.parentPath, as they are audited as
+   * well when committing synchronously. Transient fields and ignored derived
+   * properties are still ignored.
+   */
+  private static final class SnapshotIntrospector extends JacksonAnnotationIntrospector{
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public boolean hasIgnoreMarker(AnnotatedMember member){
+      if(member instanceof AnnotatedField && !((AnnotatedField) member).isTransient() && !member.hasAnnotation(Transient.class)){
+        return false;
+      }
+      return super.hasIgnoreMarker(member);
+    }
+  }
+
+  /**
+   * Expected state of an object with pending audit entries.
+   */
+  private static class Pending{
+
+    private long version;
+    private String data;
+    private int count;
+  }
+
+  /**
+   * Single journal entry.
+   */
+  @Data
+  static class Entry{
+
+    private long sequence;
+    private long submitted;
+    private Operation operation;
+    private String type;
+    private String instanceId;
+    private String principal;
+    private String data;
+    private Status status;
+  }
+}
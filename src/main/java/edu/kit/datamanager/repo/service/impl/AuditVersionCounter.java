@@ -0,0 +1,235 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IAuditVersionDao;
+import edu.kit.datamanager.repo.domain.AuditVersion;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.LongSupplier;
+import org.javers.core.commit.Commit;
+import org.javers.core.metamodel.object.CdoSnapshot;
+import org.javers.core.metamodel.object.GlobalId;
+import org.javers.core.metamodel.object.InstanceId;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Maintains the current audit version of audited objects. Versions are taken
+ * from the snapshots created while committing audit information, persisted as
+ * {@link AuditVersion} in the same transaction and kept in a striped in-memory
+ * LRU map. Thus, obtaining the current version, e.g. for the Resource-Version
+ * header, neither requires a query of the audit repository nor, for recently
+ * used objects, a database query at all. Objects audited before the counter
+ * was introduced are initialized once from the audit repository.
+ *
+ * The in-memory map is local to each instance. If multiple instances share
+ * one database, the cache size should be set to 0, which reads versions from
+ * the database each time.
+ *
+ * @author jejkal
+ */
+@Component
+public class AuditVersionCounter{
+
+  private static final int STRIPES = 16;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private IAuditVersionDao dao;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+
+  private final Stripe[] stripes = new Stripe[STRIPES];
+
+  public AuditVersionCounter(){
+    for(int i = 0; i < STRIPES; i++){
+      stripes[i] = new Stripe();
+    }
+  }
+
+  /**
+   * Get the current version of an audited object.
+   *
+   * @param type The type of the audited object.
+   * @param instanceId The id of the audited object.
+   * @param initializer Supplier for the version of objects which have no
+   * maintained version, yet. Typically, this queries the audit repository.
+   *
+   * @return The current version or 0 if the object has not been audited, yet.
+   */
+  public long getVersion(Class<?> type, Object instanceId, LongSupplier initializer){
+    String key = getKey(type, instanceId);
+    Long cached = getStripe(key).get(key);
+    if(cached != null){
+      return cached;
+    }
+    Optional<AuditVersion> persisted = dao.findById(key);
+    long version;
+    if(persisted.isPresent()){
+      version = persisted.get().getVersion();
+    } else{
+      logger.trace("No version maintained for {}. Initializing version from audit repository.", key);
+      version = initializer.getAsLong();
+      if(version > 0){
+        try{
+          dao.save(new AuditVersion(key, version));
+        } catch(DataAccessException ex){
+          logger.debug("Failed to persist initial version of " + key + ". Probably initialized concurrently.", ex);
+        }
+      }
+    }
+    getStripe(key).putMax(key, version, getStripeCapacity());
+    return version;
+  }
+
+  /**
+   * Update the version of an audited object using the snapshots of the
+   * provided audit commit. If the commit contains no snapshot of the object,
+   * e.g. because nothing has changed, the version remains unchanged. The
+   * in-memory value is updated after the current transaction was committed.
+   *
+   * @param type The type of the audited object.
+   * @param instanceId The id of the audited object.
+   * @param commit The audit commit.
+   */
+  public void update(Class<?> type, Object instanceId, Commit commit){
+    Optional<Long> committedVersion = getCommittedVersion(commit, type, instanceId);
+    if(!committedVersion.isPresent()){
+      logger.trace("No snapshot of {}#{} in commit {}. Version remains unchanged.", type.getSimpleName(), instanceId, commit.getId());
+      return;
+    }
+    update(type, instanceId, committedVersion.get());
+  }
+
+  /**
+   * Set the version of an audited object if it is larger than the current
+   * one.
+   *
+   * @param type The type of the audited object.
+   * @param instanceId The id of the audited object.
+   * @param version The new version.
+   */
+  public void update(Class<?> type, Object instanceId, long version){
+    String key = getKey(type, instanceId);
+    AuditVersion persisted = dao.findById(key).orElse(new AuditVersion(key, 0));
+    if(version > persisted.getVersion()){
+      persisted.setVersion(version);
+      dao.save(persisted);
+    }
+    logger.trace("Version of {} updated to {}.", key, version);
+    afterCommit(() -> getStripe(key).putMax(key, version, getStripeCapacity()));
+  }
+
+  /**
+   * Remove the maintained version of an object, e.g. after it has been
+   * deleted.
+   *
+   * @param type The type of the audited object.
+   * @param instanceId The id of the audited object.
+   */
+  public void remove(Class<?> type, Object instanceId){
+    String key = getKey(type, instanceId);
+    if(dao.existsById(key)){
+      dao.deleteById(key);
+    }
+    getStripe(key).remove(key);
+    afterCommit(() -> getStripe(key).remove(key));
+  }
+
+  /**
+   * Obtain the version of the provided object from the snapshots of an audit
+   * commit. Instance ids are compared by their string representation.
+   *
+   * @param commit The audit commit.
+   * @param type The type of the audited object.
+   * @param instanceId The id of the audited object.
+   *
+   * @return The version or Optional.empty() if the commit contains no snapshot
+   * of the object.
+   */
+  public static Optional<Long> getCommittedVersion(Commit commit, Class<?> type, Object instanceId){
+    if(commit == null){
+      return Optional.empty();
+    }
+    for(CdoSnapshot snapshot : commit.getSnapshots()){
+      GlobalId globalId = snapshot.getGlobalId();
+      if(globalId instanceof InstanceId && type.getName().equals(globalId.getTypeName()) && instanceId.toString().equals(String.valueOf(((InstanceId) globalId).getCdoId()))){
+        return Optional.of(snapshot.getVersion());
+      }
+    }
+    return Optional.empty();
+  }
+
+  private void afterCommit(Runnable action){
+    if(TransactionSynchronizationManager.isSynchronizationActive()){
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+        @Override
+        public void afterCommit(){
+          action.run();
+        }
+      });
+    } else{
+      action.run();
+    }
+  }
+
+  private int getStripeCapacity(){
+    return applicationProperties.getAuditVersionCacheSize() / STRIPES;
+  }
+
+  private Stripe getStripe(String key){
+    return stripes[(key.hashCode() & 0x7fffffff) % STRIPES];
+  }
+
+  private static String getKey(Class<?> type, Object instanceId){
+    return type.getSimpleName() + ":" + instanceId;
+  }
+
+  /**
+   * Single LRU segment of the in-memory version map guarded by its own lock.
+   */
+  private static class Stripe{
+
+    private final LinkedHashMap<String, Long> versions = new LinkedHashMap<>(16, 0.75f, true);
+
+    synchronized Long get(String key){
+      return versions.get(key);
+    }
+
+    synchronized void putMax(String key, long version, int capacity){
+      if(capacity <= 0){
+        return;
+      }
+      versions.merge(key, version, Math::max);
+      while(versions.size() > capacity){
+        Map.Entry<String, Long> eldest = versions.entrySet().iterator().next();
+        versions.remove(eldest.getKey());
+      }
+    }
+
+    synchronized void remove(String key){
+      versions.remove(key);
+    }
+  }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.entities.VersionInfo;
+import edu.kit.datamanager.exceptions.CustomInternalServerError;
+import edu.kit.datamanager.exceptions.ResourceNotFoundException;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IContentBlobDao;
+import edu.kit.datamanager.repo.domain.ContentBlob;
+import edu.kit.datamanager.repo.service.IReferenceCountingVersioningService;
+import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.repo.util.StagedFileInputStream;
+import edu.kit.datamanager.repo.util.StreamUtils;
+import edu.kit.datamanager.repo.util.TransactionUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Versioning service storing each distinct content only once in a
+ * content-addressable storage below the base path. Blobs are located by their
+ * SHA-256 digest and are shared by all content information elements with the
+ * same content. The number of references to each blob is kept in the database
+ * and a blob is removed as soon as the last reference has been released.
+ *
+ * Reference counts are updated in separate, short transactions while holding a
+ * lock for the digest, such that placing or removing a blob and updating its
+ * count cannot interleave. If the transaction writing the content information
+ * is rolled back, the acquired reference is released again. Locks are local to
+ * this instance, i.e. multiple instances sharing the same storage are not
+ * supported.
+ *
+ * @author jejkal
+ */
+@Component
+public class CasDataVersioningService implements IReferenceCountingVersioningService{
+
+  /**
+   * Digest algorithm used to address blobs.
+   */
+  public static final String DIGEST_ALGORITHM = "SHA-256";
+
+  private static final int LOCK_STRIPES = 64;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private IContentBlobDao blobDao;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private ChecksumEngine checksumEngine;
+  @Autowired
+  private DurableFileWriter fileWriter;
+  @Autowired
+  private MediaTypeDetector mediaTypeDetector;
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  public CasDataVersioningService(){
+    for(int i = 0; i < LOCK_STRIPES; i++){
+      locks[i] = new Object();
+    }
+  }
+
+  @Override
+  public void configure(){
+
+  }
+
+  @Override
+  public void write(String resourceId, String callerId, String path, InputStream stream, Map<String, String> map){
+    String algorithm = ChecksumEngine.normalize(DIGEST_ALGORITHM);
+    List<String> algorithms = new ArrayList<>(checksumEngine.getAlgorithmNames());
+    algorithms.add(algorithm);
+
+    Path temp = null;
+    try(ChecksumEngine.Session checksums = checksumEngine.newSession(DIGEST_ALGORITHM)){
+      long bytes;
+      Map<String, String> digests;
+      byte[] prefix;
+      Path source;
+      if(stream instanceof StagedFileInputStream && ((StagedFileInputStream) stream).isMovable() && ((StagedFileInputStream) stream).hasChecksums(algorithms)){
+        logger.trace("Using staged user data with known checksums.");
+        Path staged = ((StagedFileInputStream) stream).getPath();
+        bytes = Files.size(staged);
+        digests = ((StagedFileInputStream) stream).getChecksums();
+        prefix = StreamUtils.readPrefix(staged, StreamUtils.SNIFF_BUFFER_SIZE);
+        source = staged;
+      } else{
+        temp = PathUtils.getStagingPath(applicationProperties).resolve("cas-" + UUID.randomUUID().toString());
+        Files.createDirectories(temp.getParent());
+        StreamUtils.PrefixCapture capture = new StreamUtils.PrefixCapture(StreamUtils.SNIFF_BUFFER_SIZE);
+        logger.trace("Start reading user data from stream into staging file {}.", temp);
+        bytes = StreamUtils.writeToFile(stream, temp, checksums, capture);
+        digests = checksums.finish();
+        prefix = capture.getPrefix();
+        source = temp;
+      }
+
+      String digest = algorithm + ":" + digests.get(algorithm);
+      Path blob = getBlobPath(digest);
+      acquire(digest, blob, source, bytes);
+
+      if(TransactionSynchronizationManager.isSynchronizationActive()){
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+          @Override
+          public void afterCompletion(int status){
+            if(status != TransactionSynchronization.STATUS_COMMITTED){
+              logger.debug("Transaction not committed. Releasing reference to blob {}.", digest);
+              releaseReference(digest, blob);
+            }
+          }
+        });
+      }
+
+      logger.trace("Performing upload post-processing.");
+      digests.forEach((name, value) -> map.put("checksum." + name, value));
+      String primary = checksumEngine.getPrimaryAlgorithm();
+      map.put("checksum", primary + ":" + digests.get(primary));
+      logger.debug("Assigned hash {} to content information.", map.get("checksum"));
+      map.put("size", Long.toString(bytes));
+      logger.debug("Assigned size {} to content information.", map.get("size"));
+      map.put("contentUri", blob.toUri().toString());
+      logger.debug("Assigned content URI {} to content information.", map.get("contentUri"));
+
+      if(!map.containsKey("mediaType")){
+        String mediaType = mediaTypeDetector.detectUpload(prefix, path);
+        if(mediaType != null){
+          map.put("mediaType", mediaType);
+          logger.trace("Assigned media type {} to content information.", map.get("mediaType"));
+        } else{
+          logger.trace("Media type is determined asynchronously.");
+        }
+      }
+    } catch(IOException ex){
+      logger.error("Failed to finish upload. Throwing CustomInternalServerError.", ex);
+      throw new CustomInternalServerError("Unable to read from stream. Upload canceled.");
+    } finally{
+      if(temp != null){
+        try{
+          Files.deleteIfExists(temp);
+        } catch(IOException ex){
+          logger.warn("Failed to remove staging file " + temp + ".", ex);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void read(String resourceId, String callerId, String path, String versionId, OutputStream destination, Map<String, String> options){
+    String contentUriString = options.get("contentUri");
+    logger.trace("Checking URI {}.", contentUriString);
+    if(!Files.exists(Paths.get(URI.create(contentUriString)))){
+      logger.error("Content at URI {} seems not to exist.", contentUriString);
+      throw new ResourceNotFoundException("The provided resource was not found on the server.");
+    } else{
+      logger.trace("Content URI at {} found.", contentUriString);
+    }
+
+    try{
+      logger.trace("Copying file content to target stream.");
+      Files.copy(Paths.get(URI.create(contentUriString)), destination);
+    } catch(IOException ex){
+      logger.error("Failed to read content stream.", ex);
+      throw new CustomInternalServerError("Failed to read content stream.");
+    }
+  }
+
+  @Override
+  public VersionInfo info(String resourceId, String path, String versionId, Map<String, String> options){
+    return new VersionInfo(resourceId, versionId, null, null, null, null, null, new HashSet<>(Arrays.asList(path)));
+  }
+
+  @Override
+  public void release(String contentUri){
+    Path casPath = PathUtils.getCasPath(applicationProperties).toAbsolutePath().normalize();
+    Path blob;
+    try{
+      blob = Paths.get(URI.create(contentUri)).toAbsolutePath().normalize();
+    } catch(IllegalArgumentException ex){
+      logger.debug("Content URI {} is not a local file. Nothing to release.", contentUri);
+      return;
+    }
+    if(!blob.startsWith(casPath) || casPath.relativize(blob).getNameCount() != 4){
+      logger.debug("Content URI {} is not located in the content-addressable storage. Nothing to release.", contentUri);
+      return;
+    }
+    String digest = casPath.relativize(blob).getName(0) + ":" + blob.getFileName();
+
+    if(TransactionSynchronizationManager.isSynchronizationActive()){
+      logger.trace("Releasing reference to blob {} after commit.", digest);
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+        @Override
+        public void afterCommit(){
+          releaseReference(digest, blob);
+        }
+      });
+    } else{
+      releaseReference(digest, blob);
+    }
+  }
+
+  @Override
+  public String getServiceName(){
+    return "cas";
+  }
+
+  /**
+   * Get the location of the blob with the provided digest, e.g.
+   * '.cas/sha256/ab/cd/abcd...'.
+   */
+  private Path getBlobPath(String digest){
+    return PathUtils.getCasBlobPath(digest, applicationProperties);
+  }
+
+  /**
+   * Place the source file as blob if the blob does not exist, yet, and add one
+   * reference. Otherwise, the source file is removed.
+   */
+  private void acquire(String digest, Path blob, Path source, long size) throws IOException{
+    synchronized(getLock(digest)){
+      if(!Files.exists(blob)){
+        logger.trace("Storing new blob {}.", digest);
+        Files.createDirectories(blob.getParent());
+        fileWriter.move(source, blob);
+      } else{
+        logger.trace("Blob {} already exists. Discarding uploaded data.", digest);
+        Files.delete(source);
+      }
+
+      TransactionUtils.inNewTransaction(transactionManager, () -> {
+        if(blobDao.addReferences(digest, 1) == 0){
+          blobDao.save(new ContentBlob(digest, size, 1));
+        }
+        return null;
+      });
+    }
+  }
+
+  /**
+   * Remove one reference from the provided blob and remove the blob if there
+   * are no references left.
+   */
+  private void releaseReference(String digest, Path blob){
+    synchronized(getLock(digest)){
+      boolean unreferenced = TransactionUtils.inNewTransaction(transactionManager, () -> {
+        Optional<ContentBlob> entry = blobDao.findById(digest);
+        if(!entry.isPresent()){
+          logger.warn("No reference count found for blob {}.", digest);
+          return false;
+        }
+        if(entry.get().getReferenceCount() <= 1){
+          blobDao.delete(entry.get());
+          return true;
+        }
+        blobDao.addReferences(digest, -1);
+        return false;
+      });
+
+      if(unreferenced){
+        logger.debug("Removing unreferenced blob {}.", digest);
+        try{
+          Files.deleteIfExists(blob);
+        } catch(IOException ex){
+          logger.warn("Failed to remove unreferenced blob " + blob + ".", ex);
+        }
+      }
+    }
+  }
+
+  private Object getLock(String digest){
+    return locks[Math.floorMod(digest.hashCode(), LOCK_STRIPES)];
+  }
+}
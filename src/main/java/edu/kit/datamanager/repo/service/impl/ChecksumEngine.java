@@ -0,0 +1,409 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.exceptions.CustomInternalServerError;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.util.StreamUtils;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Computes all configured message digests of an upload in a single pass. Each
+ * upload opens a {@link Session}, which is registered as observer at
+ * {@link StreamUtils#writeToFile(java.io.InputStream, java.nio.file.Path, java.util.function.Consumer...)}.
+ * If more than one algorithm is configured, each chunk is copied into a slot of
+ * a small ring of up to 'repo.file.checksum.ringSize' buffers and each
+ * algorithm is updated by a worker thread, such that the upload thread only
+ * waits if all slots are in use. Workers only occupy a thread while slots are
+ * waiting to be hashed, i.e. not while the upload waits for more data. If no
+ * worker thread is available, the digest is computed by the upload thread
+ * itself.
+ *
+ * Ring buffers are taken from a shared pool of at most
+ * 'repo.file.checksum.bufferPoolSize' buffers and are returned to the pool as
+ * soon as the session is closed. If the pool is exhausted, all digests of a
+ * session are computed by the upload thread.
+ *
+ * Digests are reported by their normalized algorithm name, e.g. 'sha1',
+ * 'sha256' or 'md5'. The first configured algorithm is the primary one, whose
+ * value is stored as content hash.
+ *
+ * @author jejkal
+ */
+@Component
+public class ChecksumEngine{
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+
+  private ThreadPoolExecutor executor;
+  private final BlockingQueue<Slot> bufferPool = new LinkedBlockingQueue<>();
+  private final AtomicInteger allocatedBuffers = new AtomicInteger();
+  private int ringSize;
+  private int bufferPoolSize;
+
+  @PostConstruct
+  public void init(){
+    String[] algorithms = getAlgorithms();
+    if(algorithms.length == 0){
+      throw new CustomInternalServerError("At least one checksum algorithm must be configured.");
+    }
+    for(String algorithm : algorithms){
+      try{
+        MessageDigest.getInstance(algorithm);
+      } catch(NoSuchAlgorithmException ex){
+        throw new CustomInternalServerError("Unsupported checksum algorithm '" + algorithm + "' configured.");
+      }
+    }
+    ringSize = Math.max(1, applicationProperties.getChecksumRingSize());
+    bufferPoolSize = Math.max(ringSize, applicationProperties.getChecksumBufferPoolSize());
+    int threads = Math.max(1, applicationProperties.getChecksumThreads());
+    AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), (r) -> {
+      Thread t = new Thread(r, "checksum-" + threadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    logger.trace("Checksum engine initialized for algorithm(s) {} using up to {} worker thread(s).", String.join(", ", algorithms), threads);
+  }
+
+  @PreDestroy
+  public void destroy(){
+    if(executor != null){
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Open a new session computing all configured digests.
+   *
+   * @return A new session, which must be closed after use.
+   */
+  public Session newSession(){
+    return new Session(getAlgorithms(), true);
+  }
+
+  /**
+   * Open a new session computing all configured digests and the provided
+   * additional digest, if it is not configured anyway.
+   *
+   * @param additionalAlgorithm The additional algorithm as used by
+   * MessageDigest, e.g. SHA-256.
+   *
+   * @return A new session, which must be closed after use.
+   */
+  public Session newSession(String additionalAlgorithm){
+    List<String> algorithms = new ArrayList<>(Arrays.asList(getAlgorithms()));
+    if(!getAlgorithmNames().contains(normalize(additionalAlgorithm))){
+      algorithms.add(additionalAlgorithm);
+    }
+    return new Session(algorithms.toArray(new String[]{}), true);
+  }
+
+  /**
+   * Open a new session computing all configured digests in the caller thread.
+   * Inline sessions are meant for long-living computations, e.g. for
+   * resumable uploads, which should not block a worker thread while waiting
+   * for data.
+   *
+   * @return A new inline session.
+   */
+  public Session newInlineSession(){
+    return new Session(getAlgorithms(), false);
+  }
+
+  /**
+   * Get the normalized names of all configured algorithms.
+   *
+   * @return The normalized algorithm names in configuration order.
+   */
+  public List<String> getAlgorithmNames(){
+    List<String> result = new ArrayList<>();
+    for(String algorithm : getAlgorithms()){
+      result.add(normalize(algorithm));
+    }
+    return result;
+  }
+
+  /**
+   * Get the normalized name of the primary algorithm, e.g. 'sha1'.
+   *
+   * @return The primary algorithm name.
+   */
+  public String getPrimaryAlgorithm(){
+    return normalize(getAlgorithms()[0]);
+  }
+
+  /**
+   * Normalize an algorithm name for use as checksum prefix, e.g. SHA-256 is
+   * normalized to 'sha256'.
+   *
+   * @param algorithm The algorithm name as used by MessageDigest.
+   *
+   * @return The normalized name.
+   */
+  public static String normalize(String algorithm){
+    return algorithm.replace("-", "").toLowerCase(Locale.ENGLISH);
+  }
+
+  /**
+   * Take a buffer from the shared pool or allocate a new one, if the pool has
+   * not been exhausted, yet.
+   *
+   * @return A buffer slot or null if the pool is exhausted.
+   */
+  private Slot acquireSlot(){
+    Slot slot = bufferPool.poll();
+    while(slot == null){
+      int allocated = allocatedBuffers.get();
+      if(allocated >= bufferPoolSize){
+        return null;
+      }
+      if(allocatedBuffers.compareAndSet(allocated, allocated + 1)){
+        slot = new Slot(StreamUtils.TRANSFER_BUFFER_SIZE);
+      }
+    }
+    return slot;
+  }
+
+  private String[] getAlgorithms(){
+    String[] algorithms = applicationProperties.getChecksumAlgorithms();
+    if(algorithms == null){
+      return new String[]{"SHA1"};
+    }
+    List<String> result = new ArrayList<>();
+    for(String algorithm : algorithms){
+      if(algorithm != null && !algorithm.trim().isEmpty()){
+        result.add(algorithm.trim());
+      }
+    }
+    return result.toArray(new String[]{});
+  }
+
+  /**
+   * Single upload digest computation.
+   */
+  public class Session implements Consumer<ByteBuffer>, AutoCloseable{
+
+    private final Map<String, MessageDigest> digests = new LinkedHashMap<>();
+    private final List<Worker> workers = new ArrayList<>();
+    private final List<Slot> slots = new ArrayList<>();
+    private final BlockingQueue<Slot> freeSlots = new LinkedBlockingQueue<>();
+    private final List<MessageDigest> inline = new ArrayList<>();
+    private volatile Throwable failure;
+
+    Session(String[] algorithms, boolean parallel){
+      for(String algorithm : algorithms){
+        try{
+          digests.put(normalize(algorithm), MessageDigest.getInstance(algorithm));
+        } catch(NoSuchAlgorithmException ex){
+          throw new CustomInternalServerError("Internal digest initialization error. Unable to perform upload.");
+        }
+      }
+
+      if(parallel && digests.size() > 1){
+        Slot slot;
+        while(slots.size() < ringSize && (slot = acquireSlot()) != null){
+          slots.add(slot);
+        }
+      }
+      if(slots.isEmpty()){
+        //a single digest is not worth the copy and handover, without buffers there is nothing to hand over
+        logger.trace("Computing {} digest(s) inline.", digests.size());
+        inline.addAll(digests.values());
+        return;
+      }
+      freeSlots.addAll(slots);
+      for(MessageDigest digest : digests.values()){
+        workers.add(new Worker(digest));
+      }
+    }
+
+    @Override
+    public void accept(ByteBuffer chunk){
+      ByteBuffer source = chunk.duplicate();
+      while(!workers.isEmpty() && source.hasRemaining()){
+        Slot slot = take();
+        ByteBuffer part = source.slice();
+        part.limit(Math.min(part.remaining(), slot.buffer.capacity()));
+        source.position(source.position() + part.remaining());
+        slot.buffer.clear();
+        slot.buffer.put(part);
+        slot.buffer.flip();
+        slot.pending.set(workers.size());
+        for(Worker worker : workers){
+          worker.offer(slot);
+        }
+      }
+      for(MessageDigest digest : inline){
+        digest.update(chunk.duplicate());
+      }
+    }
+
+    /**
+     * Wait for all workers and obtain the hex-encoded digests.
+     *
+     * @return All digests by normalized algorithm name in configuration order.
+     */
+    public Map<String, String> finish(){
+      if(!awaitSlots()){
+        throw new CustomInternalServerError("Interrupted while waiting for checksum computation.");
+      }
+      if(failure != null){
+        logger.error("Checksum worker failed.", failure);
+        throw new CustomInternalServerError("Failed to compute checksum.");
+      }
+      workers.clear();
+      Map<String, String> result = new LinkedHashMap<>();
+      digests.forEach((name, digest) -> result.put(name, Hex.encodeHexString(digest.digest())));
+      return result;
+    }
+
+    @Override
+    public void close(){
+      workers.clear();
+      if(slots.isEmpty()){
+        return;
+      }
+      //slots are only reused after all workers are done with them
+      if(awaitSlots()){
+        bufferPool.addAll(slots);
+      } else{
+        logger.debug("Interrupted while releasing checksum buffers. Discarding {} buffer(s).", slots.size());
+        allocatedBuffers.addAndGet(-slots.size());
+      }
+      slots.clear();
+      freeSlots.clear();
+    }
+
+    private Slot take(){
+      try{
+        return freeSlots.take();
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+        throw new CustomInternalServerError("Interrupted while waiting for checksum computation.");
+      }
+    }
+
+    /**
+     * Wait until all slots have been processed by all workers.
+     *
+     * @return TRUE if all slots are free, FALSE if interrupted while waiting.
+     */
+    private boolean awaitSlots(){
+      List<Slot> collected = new ArrayList<>(slots.size());
+      try{
+        while(collected.size() < slots.size()){
+          collected.add(freeSlots.take());
+        }
+        return true;
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+        return false;
+      } finally{
+        freeSlots.addAll(collected);
+      }
+    }
+
+    /**
+     * Updates a single digest with all slots offered to it in order. A worker
+     * is scheduled at the executor whenever slots are waiting and runs until
+     * its inbox is empty. If no thread is available, the inbox is processed by
+     * the offering thread.
+     */
+    private class Worker implements Runnable{
+
+      private final MessageDigest digest;
+      private final Queue<Slot> inbox = new ConcurrentLinkedQueue<>();
+      private final AtomicBoolean scheduled = new AtomicBoolean();
+
+      Worker(MessageDigest digest){
+        this.digest = digest;
+      }
+
+      void offer(Slot slot){
+        inbox.add(slot);
+        if(scheduled.compareAndSet(false, true)){
+          try{
+            executor.execute(this);
+          } catch(RejectedExecutionException ex){
+            logger.trace("No checksum worker available for {}. Computing digest inline.", digest.getAlgorithm());
+            run();
+          }
+        }
+      }
+
+      @Override
+      public void run(){
+        do{
+          Slot slot;
+          while((slot = inbox.poll()) != null){
+            try{
+              if(failure == null){
+                digest.update(slot.buffer.duplicate());
+              }
+            } catch(RuntimeException ex){
+              failure = ex;
+            } finally{
+              if(slot.pending.decrementAndGet() == 0){
+                freeSlots.add(slot);
+              }
+            }
+          }
+          scheduled.set(false);
+          //continue if slots have been offered after the inbox was drained
+        } while(!inbox.isEmpty() && scheduled.compareAndSet(false, true));
+      }
+    }
+  }
+
+  private static class Slot{
+
+    private final ByteBuffer buffer;
+    private final AtomicInteger pending = new AtomicInteger();
+
+    Slot(int size){
+      buffer = ByteBuffer.allocate(size);
+    }
+  }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.service.IContentCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory cache for small content. Content is kept in a byte-bounded LRU
+ * map, either on-heap or in direct buffers outside of the heap. In order to
+ * prevent a single scan over many files from flushing frequently requested
+ * content, new content is only admitted if it has been requested more
+ * frequently than all the content it would replace (TinyLFU). Access
+ * frequencies are estimated by a count-min sketch, which is aged
+ * periodically so that content becoming cold is replaced eventually.
+ *
+ * Lookups, hits, misses, rejected admissions and evictions as well as the
+ * number of cached and served bytes are published as Micrometer metrics named
+ * 'repo.cache.content.*'.
+ *
+ * @author jejkal
+ */
+@Component
+public class ContentCache implements IContentCache{
+
+  private static final String METRIC_PREFIX = "repo.cache.content";
+  /**
+   * Assumed average entry size used for dimensioning the frequency sketch.
+   */
+  private static final long AVERAGE_ENTRY_SIZE = 4096;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private FrequencySketch sketch;
+  private long bytes;
+
+  private Counter hits;
+  private Counter misses;
+  private Counter rejections;
+  private Counter evictions;
+  private Counter servedBytes;
+
+  @PostConstruct
+  public void init(){
+    MeterRegistry registry = (meterRegistry != null) ? meterRegistry : new SimpleMeterRegistry();
+    hits = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "hit").description("Number of content requests served from cache.").register(registry);
+    misses = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "miss").description("Number of content requests not served from cache.").register(registry);
+    rejections = Counter.builder(METRIC_PREFIX + ".rejections").description("Number of content elements not admitted to the cache.").register(registry);
+    evictions = Counter.builder(METRIC_PREFIX + ".evictions").description("Number of content elements removed from cache to free space.").register(registry);
+    servedBytes = Counter.builder(METRIC_PREFIX + ".served").baseUnit("bytes").description("Number of bytes served from cache.").register(registry);
+    registry.gauge(METRIC_PREFIX + ".size", this, (c) -> c.size());
+    registry.gauge(METRIC_PREFIX + ".bytes", this, (c) -> c.getBytes());
+    registry.gauge(METRIC_PREFIX + ".hitRatio", this, (c) -> c.getHitRatio());
+    long expectedEntries = Math.max(1, applicationProperties.getContentCacheSize() / AVERAGE_ENTRY_SIZE);
+    sketch = new FrequencySketch((int) Math.min(expectedEntries, 1 << 20));
+  }
+
+  @Override
+  public boolean isEnabled(){
+    return applicationProperties.isContentCacheEnabled() && applicationProperties.getContentCacheSize() > 0;
+  }
+
+  @Override
+  public CachedContent get(String contentUri, String hash){
+    if(!isEnabled() || contentUri == null || hash == null){
+      return null;
+    }
+    Entry entry;
+    synchronized(this){
+      sketch.increment(contentUri);
+      entry = entries.get(contentUri);
+      if(entry != null && !hash.equals(entry.hash)){
+        logger.trace("Cached content {} has been replaced. Removing content from cache.", contentUri);
+        remove(contentUri);
+        entry = null;
+      }
+    }
+    if(entry == null){
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    servedBytes.increment(entry.content.getSize());
+    return entry.content;
+  }
+
+  @Override
+  public synchronized boolean admits(String contentUri, long size){
+    if(!isEnabled() || contentUri == null){
+      return false;
+    }
+    return getVictims(contentUri, size) != null;
+  }
+
+  @Override
+  public boolean put(String contentUri, String hash, byte[] data, long lastModified){
+    if(!isEnabled() || contentUri == null || hash == null || data == null){
+      return false;
+    }
+    ByteBuffer buffer;
+    if(applicationProperties.isContentCacheOffHeap()){
+      buffer = ByteBuffer.allocateDirect(data.length);
+      buffer.put(data);
+      buffer.flip();
+    } else{
+      buffer = ByteBuffer.wrap(data);
+    }
+    synchronized(this){
+      Entry existing = entries.get(contentUri);
+      if(existing != null && hash.equals(existing.hash)){
+        //already cached, e.g. by a concurrent request
+        return true;
+      }
+      List<String> victims = getVictims(contentUri, data.length);
+      if(victims == null){
+        logger.trace("Content {} not admitted to cache.", contentUri);
+        rejections.increment();
+        return false;
+      }
+      for(String victim : victims){
+        remove(victim);
+        evictions.increment();
+      }
+      remove(contentUri);
+      entries.put(contentUri, new Entry(hash, new CachedContent(buffer, lastModified)));
+      bytes += data.length;
+      return true;
+    }
+  }
+
+  @Override
+  public synchronized void invalidate(String contentUri){
+    if(contentUri == null){
+      return;
+    }
+    remove(contentUri);
+  }
+
+  @Override
+  public synchronized void clear(){
+    entries.clear();
+    bytes = 0;
+  }
+
+  /**
+   * Get the number of cached content elements.
+   *
+   * @return The number of cached elements.
+   */
+  public synchronized int size(){
+    return entries.size();
+  }
+
+  /**
+   * Get the number of cached bytes.
+   *
+   * @return The number of cached bytes.
+   */
+  public synchronized long getBytes(){
+    return bytes;
+  }
+
+  /**
+   * Get the ratio of requests served from cache.
+   *
+   * @return The hit ratio between 0 and 1.
+   */
+  public double getHitRatio(){
+    double total = hits.count() + misses.count();
+    return (total > 0) ? hits.count() / total : 0.0;
+  }
+
+  /**
+   * Determine the least recently used entries which have to be evicted in
+   * order to admit the provided content.
+   *
+   * @return The keys to evict, which might be empty, or null if the content
+   * is not admitted, either because it is too large or because at least one of
+   * the victims is accessed at least as frequently as the candidate.
+   */
+  private List<String> getVictims(String contentUri, long size){
+    long maxBytes = applicationProperties.getContentCacheSize();
+    if(size > applicationProperties.getContentCacheMaxEntrySize() || size > maxBytes){
+      return null;
+    }
+    Entry existing = entries.get(contentUri);
+    long required = bytes + size - ((existing != null) ? existing.content.getSize() : 0) - maxBytes;
+    List<String> victims = new ArrayList<>();
+    if(required <= 0){
+      return victims;
+    }
+    int frequency = sketch.frequency(contentUri);
+    Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+    while(required > 0 && it.hasNext()){
+      Map.Entry<String, Entry> victim = it.next();
+      if(victim.getKey().equals(contentUri)){
+        continue;
+      }
+      if(sketch.frequency(victim.getKey()) >= frequency){
+        return null;
+      }
+      victims.add(victim.getKey());
+      required -= victim.getValue().content.getSize();
+    }
+    return (required <= 0) ? victims : null;
+  }
+
+  private void remove(String contentUri){
+    Entry entry = entries.remove(contentUri);
+    if(entry != null){
+      bytes -= entry.content.getSize();
+    }
+  }
+
+  private static final class Entry{
+
+    private final String hash;
+    private final CachedContent content;
+
+    Entry(String hash, CachedContent content){
+      this.hash = hash;
+      this.content = content;
+    }
+  }
+
+  /**
+   * Count-min sketch with four rows of saturating counters. After a number of
+   * increments proportional to the sketch width, all counters are halved in
+   * order to age out past accesses.
+   */
+  static final class FrequencySketch{
+
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final int[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int increments;
+
+    FrequencySketch(int expectedEntries){
+      int width = Integer.highestOneBit(Math.max(expectedEntries, 64) - 1) << 1;
+      table = new int[DEPTH][width];
+      mask = width - 1;
+      sampleSize = 10 * width;
+    }
+
+    void increment(String key){
+      int hash = spread(Objects.hashCode(key));
+      boolean added = false;
+      for(int i = 0; i < DEPTH; i++){
+        int index = indexOf(hash, i);
+        if(table[i][index] < MAX_COUNT){
+          table[i][index]++;
+          added = true;
+        }
+      }
+      if(added && ++increments >= sampleSize){
+        reset();
+      }
+    }
+
+    int frequency(String key){
+      int hash = spread(Objects.hashCode(key));
+      int frequency = MAX_COUNT;
+      for(int i = 0; i < DEPTH; i++){
+        frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+      }
+      return frequency;
+    }
+
+    private void reset(){
+      for(int[] row : table){
+        for(int i = 0; i < row.length; i++){
+          row[i] >>>= 1;
+        }
+      }
+      increments /= 2;
+    }
+
+    private int indexOf(int hash, int row){
+      int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % DEPTH];
+      h ^= h >>> 16;
+      return h & mask;
+    }
+
+    private static int spread(int hash){
+      int h = hash * 0x45D9F3B;
+      return h ^ (h >>> 16);
+    }
+  }
+}
@@ -25,6 +25,7 @@ import org.javers.common.exception.JaversException;
 import org.javers.common.exception.JaversExceptionCode;
 import org.javers.core.Changes;
 import org.javers.core.Javers;
+import org.javers.core.commit.Commit;
 import org.javers.core.metamodel.object.CdoSnapshot;
 import org.javers.repository.jql.JqlQuery;
 import org.javers.repository.jql.QueryBuilder;
@@ -45,11 +46,15 @@ public class ContentInformationAuditService implements IAuditService<ContentInfo
   private Logger LOGGER;
   private final Javers javers;
   private final ApplicationProperties applicationProperties;
+  private final AuditVersionCounter versionCounter;
+  private final AsyncAuditWriter auditWriter;
 
   @Autowired
-  public ContentInformationAuditService(Javers javers, ApplicationProperties applicationProperties){
+  public ContentInformationAuditService(Javers javers, ApplicationProperties applicationProperties, AuditVersionCounter versionCounter, AsyncAuditWriter auditWriter){
     this.javers = javers;
     this.applicationProperties = applicationProperties;
+    this.versionCounter = versionCounter;
+    this.auditWriter = auditWriter;
   }
 
   @Override
@@ -57,9 +62,13 @@ public class ContentInformationAuditService implements IAuditService<ContentInfo
     LOGGER.trace("Calling captureAuditInformation(ContentInformation#{}, {}).", contentInformation.getId(), principal);
     if(!applicationProperties.isAuditEnabled()){
       LOGGER.trace("Audit is disabled. Skipping registration of content information.");
+    } else if(auditWriter.isEnabled()){
+      LOGGER.trace("Submitting audit information for content information {} modified by principal {}.", contentInformation.getId(), principal);
+      auditWriter.submit(AsyncAuditWriter.Operation.COMMIT, ContentInformation.class, contentInformation.getId(), contentInformation, principal, () -> getCommittedVersion(Long.toString(contentInformation.getId())));
     } else{
       LOGGER.trace("Capturing audit information for content information {} modified by principal {}.", contentInformation, principal);
-      javers.commit(principal, contentInformation);
+      Commit commit = javers.commit(principal, contentInformation);
+      versionCounter.update(ContentInformation.class, contentInformation.getId(), commit);
       LOGGER.trace("Successfully committed audit information for content information with id {}.", contentInformation.getId());
     }
   }
@@ -71,6 +80,7 @@ public class ContentInformationAuditService implements IAuditService<ContentInfo
       LOGGER.trace("Audit is disabled. Returning empty result.");
       return Optional.empty();
     } else{
+      auditWriter.awaitPending(ContentInformation.class, contentInformationId);
       JqlQuery query = QueryBuilder.byInstanceId(Long.parseLong(contentInformationId), ContentInformation.class).limit(resultsPerPage).skip(page * resultsPerPage).build();
       Changes result = javers.findChanges(query);
 
@@ -87,6 +97,7 @@ public class ContentInformationAuditService implements IAuditService<ContentInfo
       return Optional.empty();
     } else{
       LOGGER.trace("Querying for content information with instance id {} and version {}.", contentInformationId, version);
+      auditWriter.awaitPending(ContentInformation.class, contentInformationId);
       JqlQuery query = QueryBuilder.byInstanceId(Long.parseLong(contentInformationId), ContentInformation.class).withVersion(version).withShadowScope(ShadowScope.DEEP_PLUS).build();
       LOGGER.trace("Obtaining shadows from Javers repository.");
       List<Shadow<ContentInformation>> shadows = javers.findShadows(query);
@@ -110,19 +121,41 @@ public class ContentInformationAuditService implements IAuditService<ContentInfo
       LOGGER.trace("Audit is disabled. Returning 0.");
       return 0l;
     } else{
-      JqlQuery query = QueryBuilder.byInstanceId(Long.parseLong(contentInformationId), ContentInformation.class).limit(1).build();
-      LOGGER.trace("Obtaining snapshots from Javers repository.");
-      List<CdoSnapshot> snapshots = javers.findSnapshots(query);
-
-      if(CollectionUtils.isEmpty(snapshots)){
-        LOGGER.warn("No version information found for content information id {}. Returning 0.", contentInformationId);
-        return 0;
+      Optional<Long> pendingVersion = auditWriter.getPendingVersion(ContentInformation.class, contentInformationId);
+      if(pendingVersion.isPresent()){
+        LOGGER.trace("Audit information for content information id {} pending. Returning expected version {}.", contentInformationId, pendingVersion.get());
+        return pendingVersion.get();
       }
+      return getCommittedVersion(contentInformationId);
+    }
+  }
 
-      long version = snapshots.get(0).getVersion();
-      LOGGER.trace("Snapshot for content information id {} found. Returning version {}.", contentInformationId, version);
-      return version;
+  /**
+   * Obtain the version of the content information in the audit repository
+   * from the version counter.
+   */
+  private long getCommittedVersion(String contentInformationId){
+    return versionCounter.getVersion(ContentInformation.class, Long.parseLong(contentInformationId), () -> findCurrentVersion(contentInformationId));
+  }
+
+  /**
+   * Obtain the current version from the audit repository. This is only needed
+   * if the version counter has not been initialized for the provided content information,
+   * yet.
+   */
+  private long findCurrentVersion(String contentInformationId){
+    JqlQuery query = QueryBuilder.byInstanceId(Long.parseLong(contentInformationId), ContentInformation.class).limit(1).build();
+    LOGGER.trace("Obtaining snapshots from Javers repository.");
+    List<CdoSnapshot> snapshots = javers.findSnapshots(query);
+
+    if(CollectionUtils.isEmpty(snapshots)){
+      LOGGER.warn("No version information found for content information id {}. Returning 0.", contentInformationId);
+      return 0;
     }
+
+    long version = snapshots.get(0).getVersion();
+    LOGGER.trace("Snapshot for content information id {} found. Returning version {}.", contentInformationId, version);
+    return version;
   }
 
   @Override
@@ -130,6 +163,9 @@ public class ContentInformationAuditService implements IAuditService<ContentInfo
     LOGGER.trace("Calling deleteAuditInformation({}, <contentInformation>).", contentInformationId);
     if(!applicationProperties.isAuditEnabled()){
       LOGGER.trace("Audit is disabled. Returning without doing anything.");
+    } else if(auditWriter.isEnabled()){
+      LOGGER.trace("Submitting shallow delete of content information with id {} to asynchronous audit writer.", contentInformationId);
+      auditWriter.submit(AsyncAuditWriter.Operation.DELETE, ContentInformation.class, contentInformationId, resource, contentInformationId, () -> getCommittedVersion(contentInformationId));
     } else{
       LOGGER.trace("Performing shallow delete of content information with id {}.", contentInformationId);
       try{
@@ -143,6 +179,7 @@ public class ContentInformationAuditService implements IAuditService<ContentInfo
         }
 
       }
+      versionCounter.remove(ContentInformation.class, Long.parseLong(contentInformationId));
     }
   }
 }
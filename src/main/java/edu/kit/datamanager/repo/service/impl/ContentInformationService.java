@@ -28,16 +28,24 @@ import edu.kit.datamanager.exceptions.ResourceNotFoundException;
 import edu.kit.datamanager.exceptions.UpdateForbiddenException;
 import edu.kit.datamanager.repo.configuration.ApplicationProperties;
 import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationContentUriSpecification;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationIdSpecification;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationIndexSpecification;
 import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationMediaTypeSpecification;
 import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationMatchSpecification;
-import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationMetadataSpecification;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationPathCursorSpecification;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationParentSpecification;
 import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationPermissionSpecification;
 import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationRelativePathSpecification;
 import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationTagSpecification;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationTreeSpecification;
 import edu.kit.datamanager.repo.dao.IContentInformationDao;
 import edu.kit.datamanager.repo.domain.ContentInformation;
 import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.service.IContentCache;
 import edu.kit.datamanager.repo.service.IContentInformationService;
+import edu.kit.datamanager.repo.service.IReferenceCountingVersioningService;
+import edu.kit.datamanager.repo.service.IStreamingContentCollectionProvider;
+import edu.kit.datamanager.repo.util.KeysetPaginationUtils;
 import edu.kit.datamanager.service.IAuditService;
 import edu.kit.datamanager.service.IContentCollectionProvider;
 import edu.kit.datamanager.service.IContentProvider;
@@ -59,11 +67,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 import javax.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -71,6 +83,8 @@ import org.springframework.boot.actuate.health.Health;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -86,6 +100,12 @@ import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
  */
 public class ContentInformationService implements IContentInformationService{
 
+  /**
+   * Number of content information elements loaded at once while providing a
+   * collection.
+   */
+  private static final int COLLECTION_PAGE_SIZE = 1000;
+
   private final JsonResult json = JsonResult.instance();
 
   @Autowired
@@ -102,6 +122,14 @@ public class ContentInformationService implements IContentInformationService{
   private IAuditService<ContentInformation> auditService;
   @Autowired
   private IVersioningService[] versioningServices;
+  @Autowired
+  private IContentCache contentCache;
+  @Autowired
+  private MediaTypeDetector mediaTypeDetector;
+  @Autowired
+  private ContentMetadataIndex metadataIndex;
+  @Autowired
+  private DataResourceAclIndex aclIndex;
 
   @Autowired
   private IContentProvider[] contentProviders;
@@ -109,6 +137,9 @@ public class ContentInformationService implements IContentInformationService{
   @Autowired
   private IContentCollectionProvider[] collectionContentProviders;
 
+  @PersistenceContext
+  private EntityManager em;
+
   @Override
   @Transactional
   public ContentInformation create(ContentInformation contentInformation, DataResource resource,
@@ -126,9 +157,13 @@ public class ContentInformationService implements IContentInformationService{
 
     ContentInformation contentInfo;
     Path toRemove = null;
+    String previousVersioningService = null;
+    String previousContentUri = null;
     if(existingContentInformation.hasContent()){
       contentInfo = existingContentInformation.getContent().get(0);
       options.put("contentUri", contentInfo.getContentUri());
+      previousVersioningService = contentInfo.getVersioningService();
+      previousContentUri = contentInfo.getContentUri();
     } else{
       logger.trace("No existing content information found.");
       //no existing content information, create new or take provided
@@ -139,6 +174,7 @@ public class ContentInformationService implements IContentInformationService{
     }
 
     String newFileVersion = null;
+    Map<String, String> additionalChecksums = new HashMap<>();
     if(file != null){
       logger.trace("User upload detected. Preparing to consume data.");
       //file upload
@@ -177,11 +213,20 @@ public class ContentInformationService implements IContentInformationService{
       if(options.containsKey("checksum")){
         contentInfo.setHash(options.get("checksum"));
       }
+      options.forEach((key, value) -> {
+        //checksums of secondary algorithms, the primary checksum is already stored as hash
+        if(key.startsWith("checksum.") && !Objects.equals(contentInfo.getHash(), key.substring("checksum.".length()) + ":" + value)){
+          additionalChecksums.put(key, value);
+        }
+      });
       if(options.containsKey("contentUri")){
         contentInfo.setContentUri(options.get("contentUri"));
       }
       if(options.containsKey("mediaType")){
         contentInfo.setMediaType(options.get("mediaType"));
+      } else if(mediaTypeDetector.isAsync()){
+        logger.trace("No media type provided by versioning service. Media type is determined after commit.");
+        contentInfo.setMediaType(null);
       }
 
       if(options.containsKey("fileVersion")){
@@ -234,6 +279,13 @@ public class ContentInformationService implements IContentInformationService{
       contentInfo.setUploader(principal);
     }
 
+    if(!additionalChecksums.isEmpty()){
+      logger.trace("Adding additional checksums {} to content metadata.", additionalChecksums);
+      Map<String, String> metadata = (contentInfo.getMetadata() != null) ? new HashMap<>(contentInfo.getMetadata()) : new HashMap<>();
+      metadata.putAll(additionalChecksums);
+      contentInfo.setMetadata(metadata);
+    }
+
     long newMetadataVersion = (contentInfo.getId() != null) ? auditService.getCurrentVersion(Long.toString(contentInfo.getId())) + 1 : 1;
     logger.trace("Setting new version number of content information to {}.", newMetadataVersion);
     contentInfo.setVersion((int) newMetadataVersion);
@@ -241,10 +293,26 @@ public class ContentInformationService implements IContentInformationService{
     if(newFileVersion == null){
       logger.trace("No file version provided by versioning service. Using metadata version {} as file version.", newMetadataVersion);
       contentInfo.setFileVersion(Long.toString(newMetadataVersion));
+    } else{
+      logger.trace("Setting file version provided by versioning service to {}.", newFileVersion);
+      contentInfo.setFileVersion(newFileVersion);
+    }
+
+    if(previousContentUri != null && (file != null || !Objects.equals(previousContentUri, contentInfo.getContentUri()))){
+      if(Objects.equals(previousContentUri, contentInfo.getContentUri()) || !applicationProperties.isAuditEnabled()){
+        //content re-acquired by an upload or no earlier versions retained, release shared content previously referenced
+        releaseContent(previousVersioningService, previousContentUri);
+      } else{
+        logger.trace("Keeping content {} referenced by earlier version {}.", previousContentUri, newMetadataVersion - 1);
+      }
     }
 
     logger.trace("Persisting content information.");
     ContentInformation result = getDao().save(contentInfo);
+    metadataIndex.update(result);
+    if(file != null && result.getMediaType() == null && mediaTypeDetector.isAsync()){
+      mediaTypeDetector.detectLater(result.getId(), result.getContentUri(), path);
+    }
 
     logger.trace("Capturing audit information.");
     auditService.captureAuditInformation(result, AuthenticationHelper.getPrincipal());
@@ -259,9 +327,8 @@ public class ContentInformationService implements IContentInformationService{
     URI uri;
     if(path.endsWith("/") || path.isEmpty()){
       //collection download
-      ContentInformation info = ContentInformation.createContentInformation(resource.getId(), path);
-      Page<ContentInformation> page = findAll(info, PageRequest.of(0, Integer.MAX_VALUE));
-      if(page.isEmpty()){
+      CollectionIterator iterator = new CollectionIterator(resource.getId(), path);
+      if(!iterator.hasNext()){
         //nothing to provide
         throw new ResourceNotFoundException("No content found at the provided location.");
       }
@@ -269,29 +336,26 @@ public class ContentInformationService implements IContentInformationService{
       MediaType acceptHeaderType = acceptHeader != null ? MediaType.parseMediaType(acceptHeader) : null;
       boolean provided = false;
       Set<MediaType> acceptableMediaTypes = new HashSet<>();
+      String contextUri = ServletUriComponentsBuilder.fromCurrentRequest().toUriString();
       for(IContentCollectionProvider provider : collectionContentProviders){
         if(acceptHeaderType != null && provider.supportsMediaType(acceptHeaderType)){
-          List<ContentElement> elements = new ArrayList<>();
-          page.getContent().forEach((c) -> {
-            URI contentUri = URI.create(c.getContentUri());
-            if(provider.canProvide(contentUri.getScheme())){
-              String contextUri = ServletUriComponentsBuilder.fromCurrentRequest().toUriString();
-              logger.trace("Adding collection mapping '{}':'{}' with checksum '{}' to list. Additionally providing context Uri {} and size {}.", c.getRelativePath(), contentUri, c.getHash(), contextUri, c.getSize());
-              elements.add(ContentElement.createContentElement(resource.getId(), c.getRelativePath(), c.getContentUri(), c.getFileVersion(), c.getVersioningService(), c.getHash(), contextUri, c.getSize()));
-            } else{
-              logger.debug("Skip adding collection mapping '{}':'{}' to map as content provider {} is not capable of providing URI scheme.", c.getRelativePath(), contentUri, provider.getClass());
-            }
-          });
+          Iterator<ContentElement> elements = new ContentElementIterator(iterator, provider, contextUri);
           logger.trace("Start providing content.");
-          provider.provide(elements, MediaType.parseMediaType(acceptHeader), response);
+          if(provider instanceof IStreamingContentCollectionProvider){
+            ((IStreamingContentCollectionProvider) provider).provide(elements, acceptHeaderType, response);
+          } else{
+            List<ContentElement> list = new ArrayList<>();
+            elements.forEachRemaining(list::add);
+            provider.provide(list, acceptHeaderType, response);
+          }
           logger.trace("Content successfully provided.");
           provided = true;
+          break;
         } else{
           Collection<MediaType> col = new ArrayList<>();
           Collections.addAll(col, provider.getSupportedMediaTypes());
           acceptableMediaTypes.addAll(col);
         }
-        break;
       }
 
       if(!provided){
@@ -366,7 +430,12 @@ public class ContentInformationService implements IContentInformationService{
       Optional<ContentInformation> optAuditResult = auditService.getResourceByVersion(Long.toString(result.getId()), version);
       if(optAuditResult.isPresent()){
         logger.trace("Shadow successfully obtained. Returning version {} of content information with id {}.", version, result.getId());
-        return optAuditResult.get();
+        ContentInformation shadow = optAuditResult.get();
+        if(Objects.equals(shadow.getFileVersion(), result.getFileVersion()) && Objects.equals(shadow.getHash(), result.getHash())){
+          //same content as the current version, which might have been moved in the meantime, e.g. to another storage tier
+          shadow.setContentUri(result.getContentUri());
+        }
+        return shadow;
       } else{
         logger.info("Version {} of content information {} not found. Returning HTTP 404 (NOT_FOUND).", version, result.getId());
         throw new ResourceNotFoundException("Content information with identifier " + result.getId() + " is not available in version " + version + ".");
@@ -406,17 +475,17 @@ public class ContentInformationService implements IContentInformationService{
     if(example == null){
       //obtain all accessible content elements
       logger.trace("No example provided. Returning all accessible content elements.");
-      Specification<ContentInformation> spec = Specification.where(ContentInformationPermissionSpecification.toSpecification(null, callerIdentities, PERMISSION.READ));
+      Specification<ContentInformation> spec = Specification.where(getPermissionSpecification(null, callerIdentities));
       page = dao.findAll(spec, pgbl);
     } else{
       Specification<ContentInformation> spec;
 
       if(example.getParentResource() != null && example.getParentResource().getId() != null){
         logger.trace("Parent resource with id {} provided in example. Searching for content in single resource.", example.getParentResource().getId());
-        spec = Specification.where(ContentInformationPermissionSpecification.toSpecification(example.getParentResource().getId(), callerIdentities, PERMISSION.READ));
+        spec = Specification.where(getPermissionSpecification(example.getParentResource().getId(), callerIdentities));
       } else{
         logger.trace("No parent resource provided in example. Searching for content in all resources.");
-        spec = Specification.where(ContentInformationPermissionSpecification.toSpecification(null, callerIdentities, PERMISSION.READ));
+        spec = Specification.where(getPermissionSpecification(null, callerIdentities));
       }
 
       logger.trace("Adding additional query specifications based on example {}.", example);
@@ -436,14 +505,9 @@ public class ContentInformationService implements IContentInformationService{
         spec = spec.and(ContentInformationMediaTypeSpecification.toSpecification(example.getMediaType(), false));
       }
 
-      if(example.getMetadata() != null && !example.getMetadata().isEmpty()){
-        logger.trace("Adding metadata query specification for metadata {}.", example.getMetadata());
-        spec = spec.and(ContentInformationMetadataSpecification.toSpecification(example.getMetadata()));
-      }
-
-      if(example.getTags() != null && !example.getTags().isEmpty()){
-        logger.debug("Adding tag query specification for tags {}.", example.getTags());
-        spec = spec.and(ContentInformationTagSpecification.toSpecification(example.getTags().toArray(new String[]{})));
+      if((example.getMetadata() != null && !example.getMetadata().isEmpty()) || (example.getTags() != null && !example.getTags().isEmpty())){
+        logger.trace("Adding index query specification for metadata {} and tags {}.", example.getMetadata(), example.getTags());
+        spec = spec.and(ContentInformationIndexSpecification.toSpecification(example.getMetadata(), example.getTags()));
       }
 
       logger.trace("Calling findAll for collected specs and page information {}.", pgbl);
@@ -454,6 +518,27 @@ public class ContentInformationService implements IContentInformationService{
     return page;
   }
 
+  /**
+   * Private helper creating the specification for content of resources
+   * readable by the caller, optionally restricted to a single parent resource.
+   * If the ACL index is ready, the readable resources are obtained from the
+   * index. Otherwise, or if there are too many of them, the ACL entries of the
+   * parent resources are joined.
+   */
+  private Specification<ContentInformation> getPermissionSpecification(String parentId, List<String> callerIdentities){
+    if(callerIdentities != null && !callerIdentities.isEmpty()){
+      List<String> ids = aclIndex.findAccessible(callerIdentities, PERMISSION.READ, applicationProperties.getAclIndexMaxCandidates());
+      if(ids != null){
+        logger.trace("Obtained {} readable resource(s) from ACL index.", ids.size());
+        if(parentId != null){
+          ids = ids.contains(parentId) ? Collections.singletonList(parentId) : Collections.emptyList();
+        }
+        return ContentInformationParentSpecification.toSpecification(ids);
+      }
+    }
+    return ContentInformationPermissionSpecification.toSpecification(parentId, callerIdentities, PERMISSION.READ);
+  }
+
   @Override
   public Page<ContentInformation> findAll(ContentInformation c, Instant lastUpdateFrom, Instant lastUpdateUntil, Pageable pgbl){
     logger.trace("Performing findAll({}, {}, {}, {}).", c, lastUpdateFrom, lastUpdateUntil, pgbl);
@@ -463,23 +548,74 @@ public class ContentInformationService implements IContentInformationService{
 
   @Override
   public Page<ContentInformation> findAll(ContentInformation c, Pageable pgbl){
-    logger.trace("Performing findAll({}, {}).", c, pgbl);
+    return findAll(c, 0, pgbl);
+  }
+
+  @Override
+  public Page<ContentInformation> findAll(ContentInformation c, int maxDepth, Pageable pgbl){
+    logger.trace("Performing findAll({}, {}, {}).", c, maxDepth, pgbl);
 
     if(c.getParentResource() == null){
       logger.error("Parent resource in template must not be null. Throwing CustomInternalServerError.");
       throw new CustomInternalServerError("Parent resource is missing from template.");
     }
+    return dao.findAll(getTemplateSpecification(c, maxDepth), pgbl);
+  }
+
+  @Override
+  public Slice<ContentInformation> findAll(ContentInformation c, String cursor, int pageSize){
+    return findAll(c, 0, cursor, pageSize);
+  }
+
+  @Override
+  public Slice<ContentInformation> findAll(ContentInformation c, int maxDepth, String cursor, int pageSize){
+    logger.trace("Performing findAll({}, {}, {}, {}).", c, maxDepth, cursor, pageSize);
+
+    if(c.getParentResource() == null){
+      logger.error("Parent resource in template must not be null. Throwing CustomInternalServerError.");
+      throw new CustomInternalServerError("Parent resource is missing from template.");
+    }
+    Specification<ContentInformation> spec = getTemplateSpecification(c, maxDepth);
+    if(cursor != null && !cursor.isEmpty()){
+      String[] key = KeysetPaginationUtils.decodeCursor(cursor, 2);
+      try{
+        spec = spec.and(ContentInformationPathCursorSpecification.toSpecification(Integer.parseInt(key[0]), key[1]));
+      } catch(NumberFormatException ex){
+        throw new BadArgumentException("Invalid cursor " + cursor + ".");
+      }
+    }
+    return KeysetPaginationUtils.findSlice(em, ContentInformation.class, spec, KeysetPaginationUtils.CONTENT_INFORMATION_ORDER, pageSize);
+  }
+
+  /**
+   * Private helper building the specification for all content information
+   * matching the provided template, i.e. parent resource, relative path and
+   * tags. If a max. depth is provided, the relative path must denote a
+   * collection, e.g. 'folder/%', and only elements up to the provided number
+   * of levels below this collection are matched.
+   */
+  private Specification<ContentInformation> getTemplateSpecification(ContentInformation c, int maxDepth){
     String parentId = c.getParentResource().getId();
     String relativePath = c.getRelativePath();
     Set<String> tags = c.getTags();
     //wrong header added!
     // eventPublisher.publishEvent(new PaginatedResultsRetrievedEvent<>(ContentInformation.class, uriBuilder, response, page.getNumber(), page.getTotalPages(), pageSize));
-    Specification<ContentInformation> spec = Specification.where(ContentInformationMatchSpecification.toSpecification(parentId, relativePath, false));
+    Specification<ContentInformation> spec;
+    if(maxDepth > 0){
+      String folder = (relativePath != null && relativePath.endsWith("%")) ? relativePath.substring(0, relativePath.length() - 1) : relativePath;
+      if(!ContentInformationTreeSpecification.isFolder(folder)){
+        throw new BadArgumentException("Listing content up to a certain depth requires a collection path.");
+      }
+      logger.debug("Listing {} level(s) below collection '{}'. Using TreeSpecification.", maxDepth, folder);
+      spec = Specification.where(ContentInformationMatchSpecification.toSpecification(parentId, null, false)).and(ContentInformationTreeSpecification.toSpecification(folder, maxDepth));
+    } else{
+      spec = Specification.where(ContentInformationMatchSpecification.toSpecification(parentId, relativePath, false));
+    }
     if(tags != null && !tags.isEmpty()){
       logger.debug("Content information tags {} provided. Using TagSpecification.", tags);
       spec = spec.and(ContentInformationTagSpecification.toSpecification(tags.toArray(new String[]{})));
     }
-    return dao.findAll(spec, pgbl);
+    return spec;
   }
 
   @Override
@@ -494,6 +630,7 @@ public class ContentInformationService implements IContentInformationService{
     updated.setVersion((int) newVersion);
 
     ContentInformation result = getDao().save(updated);
+    metadataIndex.update(result);
     logger.trace("Resource successfully persisted.");
 
     logger.trace("Capturing audit information.");
@@ -507,7 +644,9 @@ public class ContentInformationService implements IContentInformationService{
   @Transactional
   public void delete(ContentInformation resource){
     logger.trace("Performing delete({}).", "ContentInformation#" + resource.getId());
+    metadataIndex.remove(resource.getId());
     getDao().delete(resource);
+    releaseVersions(resource);
 
     logger.trace("Deleting audit information.");
     auditService.deleteAuditInformation(Long.toString(resource.getId()), resource);
@@ -516,6 +655,143 @@ public class ContentInformationService implements IContentInformationService{
     messagingService.send(DataResourceMessage.factoryDeleteDataMessage(resource.getParentResource().getId(), resource.getRelativePath(), resource.getContentUri(), resource.getMediaType(), AuthenticationHelper.getPrincipal(), ControllerUtils.getLocalHostname()));
   }
 
+  /**
+   * Release the content of all versions of the provided content information.
+   * If audit is enabled, earlier versions keep referencing the content they
+   * were created with. Each version with a content URI different from the
+   * one of the version before holds one reference, which is released once.
+   */
+  private void releaseVersions(ContentInformation resource){
+    String previousContentUri = null;
+    if(applicationProperties.isAuditEnabled() && resource.getVersion() != null){
+      String id = Long.toString(resource.getId());
+      for(long version = 1; version < resource.getVersion(); version++){
+        Optional<ContentInformation> shadow = auditService.getResourceByVersion(id, version);
+        if(shadow.isPresent() && shadow.get().getContentUri() != null && !shadow.get().getContentUri().equals(previousContentUri)){
+          releaseContent(shadow.get().getVersioningService(), shadow.get().getContentUri());
+          previousContentUri = shadow.get().getContentUri();
+        }
+      }
+    }
+    if(!Objects.equals(resource.getContentUri(), previousContentUri)){
+      releaseContent(resource.getVersioningService(), resource.getContentUri());
+    }
+  }
+
+  /**
+   * Release the content at the provided URI if it has been written by a
+   * reference counting versioning service. Content of all other versioning
+   * services is not affected. In any case, the content is removed from the
+   * content cache.
+   */
+  private void releaseContent(String versioningService, String contentUri){
+    if(contentUri != null){
+      contentCache.invalidate(contentUri);
+    }
+    if(versioningService == null || contentUri == null){
+      return;
+    }
+    for(IVersioningService service : versioningServices){
+      if(versioningService.equals(service.getServiceName()) && service instanceof IReferenceCountingVersioningService){
+        logger.trace("Releasing content {} using versioning service '{}'.", contentUri, versioningService);
+        ((IReferenceCountingVersioningService) service).release(contentUri);
+      }
+    }
+  }
+
+  /**
+   * Iterator over all content information elements of a collection. Elements
+   * are loaded page by page using keyset pagination on the element id, which
+   * avoids counting and skipping rows for later pages. Elements already
+   * returned are detached from the persistence context, such that only a
+   * single page is held in memory at a time.
+   */
+  private class CollectionIterator implements Iterator<ContentInformation>{
+
+    private final Specification<ContentInformation> spec;
+    private Iterator<ContentInformation> page;
+    private boolean lastPage = false;
+    private Long lastId = null;
+    private ContentInformation previous = null;
+
+    CollectionIterator(String resourceId, String path){
+      spec = Specification.where(ContentInformationMatchSpecification.toSpecification(resourceId, path, false));
+      nextPage();
+    }
+
+    private void nextPage(){
+      Specification<ContentInformation> pageSpec = spec.and(ContentInformationIdSpecification.toSpecification(lastId));
+      Slice<ContentInformation> content = KeysetPaginationUtils.findSlice(em, ContentInformation.class, pageSpec, Sort.by("id"), COLLECTION_PAGE_SIZE);
+      logger.trace("Loaded collection page of {} element(s) after id {}.", content.getNumberOfElements(), lastId);
+      lastPage = !content.hasNext();
+      page = content.getContent().iterator();
+    }
+
+    @Override
+    public boolean hasNext(){
+      if(!page.hasNext() && !lastPage){
+        nextPage();
+      }
+      return page.hasNext();
+    }
+
+    @Override
+    public ContentInformation next(){
+      if(!hasNext()){
+        throw new NoSuchElementException();
+      }
+      if(previous != null && em.contains(previous)){
+        em.detach(previous);
+      }
+      previous = page.next();
+      lastId = previous.getId();
+      return previous;
+    }
+  }
+
+  /**
+   * Iterator mapping content information elements to content elements,
+   * skipping all elements whose content URI cannot be handled by the provider.
+   */
+  private class ContentElementIterator implements Iterator<ContentElement>{
+
+    private final Iterator<ContentInformation> source;
+    private final IContentCollectionProvider provider;
+    private final String contextUri;
+    private ContentElement next;
+
+    ContentElementIterator(Iterator<ContentInformation> source, IContentCollectionProvider provider, String contextUri){
+      this.source = source;
+      this.provider = provider;
+      this.contextUri = contextUri;
+    }
+
+    @Override
+    public boolean hasNext(){
+      while(next == null && source.hasNext()){
+        ContentInformation c = source.next();
+        URI contentUri = URI.create(c.getContentUri());
+        if(provider.canProvide(contentUri.getScheme())){
+          logger.trace("Adding collection mapping '{}':'{}' with checksum '{}' to list. Additionally providing context Uri {} and size {}.", c.getRelativePath(), contentUri, c.getHash(), contextUri, c.getSize());
+          next = ContentElement.createContentElement(c.getParentResource().getId(), c.getRelativePath(), c.getContentUri(), c.getFileVersion(), c.getVersioningService(), c.getHash(), contextUri, c.getSize());
+        } else{
+          logger.debug("Skip adding collection mapping '{}':'{}' to map as content provider {} is not capable of providing URI scheme.", c.getRelativePath(), contentUri, provider.getClass());
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public ContentElement next(){
+      if(!hasNext()){
+        throw new NoSuchElementException();
+      }
+      ContentElement result = next;
+      next = null;
+      return result;
+    }
+  }
+
   protected IContentInformationDao getDao(){
     return dao;
   }
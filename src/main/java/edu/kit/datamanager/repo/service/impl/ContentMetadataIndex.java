@@ -0,0 +1,144 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.repo.dao.IContentIndexEntryDao;
+import edu.kit.datamanager.repo.dao.IContentInformationDao;
+import edu.kit.datamanager.repo.domain.ContentIndexEntry;
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.util.TransactionUtils;
+import java.util.ArrayList;
+import java.util.List;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Index over metadata entries and tags of content information elements. For
+ * each metadata entry and each tag an index entry is stored, which allows to
+ * look up elements by exact value, value prefix and numeric range using
+ * database indexes. Several criteria are intersected by the database, see
+ * ContentInformationIndexSpecification.
+ *
+ * The index entries of an element are replaced within the transaction
+ * persisting the element, such that the index is always consistent with the
+ * stored metadata. Elements persisted before the index has been introduced
+ * are indexed on startup.
+ *
+ * @author jejkal
+ */
+@Component
+public class ContentMetadataIndex{
+
+  private static final int BATCH_SIZE = 1000;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private IContentIndexEntryDao indexEntryDao;
+  @Autowired
+  private IContentInformationDao contentInformationDao;
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+
+  /**
+   * Replace the index entries of the provided, persisted content information
+   * element. Must be called within a transaction.
+   *
+   * @param contentInformation The content information element.
+   */
+  public void update(ContentInformation contentInformation){
+    indexEntryDao.deleteByContentId(contentInformation.getId());
+    indexEntryDao.saveAll(toEntries(contentInformation));
+  }
+
+  /**
+   * Remove the index entries of the content information element with the
+   * provided id. Must be called within a transaction.
+   *
+   * @param contentId The id of the content information element.
+   */
+  public void remove(Long contentId){
+    indexEntryDao.deleteByContentId(contentId);
+  }
+
+  /**
+   * Index all content information elements having metadata or tags but no
+   * index entries.
+   */
+  @EventListener(ContextRefreshedEvent.class)
+  public void migrate(){
+    long count = 0;
+    int indexed;
+    do{
+      indexed = TransactionUtils.inTransaction(transactionManager, () -> {
+        List<Long> ids = indexEntryDao.findUnindexedContentIds(PageRequest.of(0, BATCH_SIZE));
+        for(ContentInformation contentInformation : contentInformationDao.findAllById(ids)){
+          indexEntryDao.saveAll(toEntries(contentInformation));
+        }
+        return ids.size();
+      });
+      count += indexed;
+    } while(indexed == BATCH_SIZE);
+    if(count > 0){
+      logger.info("Indexed metadata and tags of {} content information element(s).", count);
+    }
+  }
+
+  /**
+   * Create the index entries of the provided element.
+   */
+  static List<ContentIndexEntry> toEntries(ContentInformation contentInformation){
+    List<ContentIndexEntry> entries = new ArrayList<>();
+    if(contentInformation.getMetadata() != null){
+      contentInformation.getMetadata().forEach((key, value) -> {
+        entries.add(new ContentIndexEntry(null, contentInformation.getId(), ContentIndexEntry.Type.METADATA, key, value, toNumber(value)));
+      });
+    }
+    if(contentInformation.getTags() != null){
+      for(String tag : contentInformation.getTags()){
+        entries.add(new ContentIndexEntry(null, contentInformation.getId(), ContentIndexEntry.Type.TAG, "", tag, null));
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Get the numeric value of the provided metadata value, or null if the value
+   * is not a finite number.
+   */
+  static Double toNumber(String value){
+    if(value == null || value.isEmpty()){
+      return null;
+    }
+    char first = value.charAt(0);
+    char last = value.charAt(value.length() - 1);
+    //avoid exceptions for the vast majority of non-numeric values and reject type suffixes, e.g. '1d'
+    if((!Character.isDigit(first) && first != '-' && first != '+' && first != '.') || (!Character.isDigit(last) && last != '.')){
+      return null;
+    }
+    try{
+      double number = Double.parseDouble(value);
+      return Double.isFinite(number) ? number : null;
+    } catch(NumberFormatException ex){
+      return null;
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.repo.dao.IContentInformationDao;
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.util.TransactionUtils;
+import java.util.List;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Assigns the parent path to all content information elements persisted before
+ * the parent path has been introduced. The migration runs once on startup
+ * before requests are accepted, such that single folder listings, which rely
+ * on the parent path, are complete. Elements are updated in batches, each in
+ * a separate transaction.
+ *
+ * @author jejkal
+ */
+@Component
+public class ContentParentPathMigration{
+
+  private static final int BATCH_SIZE = 1000;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private IContentInformationDao contentInformationDao;
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+
+  /**
+   * Assign the parent path to all elements without parent path. If all
+   * elements already have a parent path, this method has no effect.
+   */
+  @EventListener(ContextRefreshedEvent.class)
+  public void migrate(){
+    Specification<ContentInformation> missing = (Root<ContentInformation> root, CriteriaQuery<?> query, CriteriaBuilder builder) -> {
+      return builder.and(builder.isNull(root.get("parentPath")), builder.isNotNull(root.get("relativePath")));
+    };
+    long count = 0;
+    int updated;
+    do{
+      updated = TransactionUtils.inTransaction(transactionManager, () -> {
+        List<ContentInformation> batch = contentInformationDao.findAll(missing, PageRequest.of(0, BATCH_SIZE, Sort.by("id"))).getContent();
+        for(ContentInformation element : batch){
+          //assigns the parent path derived from the relative path
+          element.setRelativePath(element.getRelativePath());
+        }
+        contentInformationDao.saveAll(batch);
+        return batch.size();
+      });
+      count += updated;
+    } while(updated == BATCH_SIZE);
+    if(count > 0){
+      logger.info("Assigned parent path to {} content information element(s).", count);
+    }
+  }
+}
@@ -0,0 +1,503 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.entities.messaging.DataResourceMessage;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IContentInformationDao;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationIdSpecification;
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.service.IMessagingService;
+import edu.kit.datamanager.util.ControllerUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Background integrity check for locally stored content. A scrub run iterates
+ * over all content information elements with a 'file:' content URI in id
+ * order and re-computes the hash of each file on a bounded thread pool. The
+ * total read rate of all threads can be limited in order to keep the impact on
+ * regular requests low.
+ *
+ * After each batch, the id of the last verified element is written to a
+ * checkpoint file below the staging folder. An interrupted run, e.g. by a
+ * restart, is resumed from this checkpoint. Files whose content does not
+ * match the stored hash and missing files are logged, listed in the status
+ * provided via actuator endpoint 'scrub' and announced via the messaging
+ * service as FIX message of sub-category DATA. Verification results are
+ * published as Micrometer metrics named 'repo.scrub.*'.
+ *
+ * @author jejkal
+ */
+@Component
+public class ContentScrubber{
+
+  /**
+   * States of a scrub run.
+   */
+  public enum State{
+    IDLE,
+    RUNNING,
+    STOPPED,
+    FINISHED,
+    FAILED;
+  }
+
+  /**
+   * Problems detected while verifying content.
+   */
+  public enum Issue{
+    MISMATCH,
+    MISSING,
+    UNREADABLE;
+  }
+
+  private static final String SCRUB_FOLDER = "scrub";
+  private static final String CHECKPOINT_FILE = "scrub.checkpoint";
+  private static final int MAX_REPORTED_ISSUES = 100;
+  private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private IContentInformationDao contentInformationDao;
+  @Autowired
+  private IMessagingService messagingService;
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  private final AtomicLong processed = new AtomicLong();
+  private final AtomicLong verified = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong bytesRead = new AtomicLong();
+  private final LinkedList<Map<String, Object>> issues = new LinkedList<>();
+  private final ThreadLocal<ByteBuffer> readBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+
+  private volatile State state = State.IDLE;
+  private volatile Long lastId;
+  private volatile Instant started;
+  private volatile Instant finished;
+  private volatile String message;
+  private Thread scrubThread;
+  private RateLimiter rateLimiter;
+
+  private Counter okCounter;
+  private Counter mismatchCounter;
+  private Counter missingCounter;
+  private Counter unreadableCounter;
+  private Counter bytesCounter;
+
+  @PostConstruct
+  public void init(){
+    MeterRegistry registry = (meterRegistry != null) ? meterRegistry : new SimpleMeterRegistry();
+    okCounter = Counter.builder("repo.scrub.files").tag("result", "ok").description("Number of files verified successfully.").register(registry);
+    mismatchCounter = Counter.builder("repo.scrub.files").tag("result", "mismatch").description("Number of files not matching their hash.").register(registry);
+    missingCounter = Counter.builder("repo.scrub.files").tag("result", "missing").description("Number of missing files.").register(registry);
+    unreadableCounter = Counter.builder("repo.scrub.files").tag("result", "unreadable").description("Number of files which could not be read.").register(registry);
+    bytesCounter = Counter.builder("repo.scrub.read").baseUnit("bytes").description("Number of bytes read for verification.").register(registry);
+  }
+
+  /**
+   * Start a scrub run according to 'repo.scrub.cron'. An interrupted run is
+   * resumed from its checkpoint.
+   */
+  @Scheduled(cron = "${repo.scrub.cron:-}")
+  public void scheduledRun(){
+    if(!start(false)){
+      logger.debug("Scrub run already in progress. Skipping scheduled run.");
+    }
+  }
+
+  /**
+   * Start a scrub run in background. If a checkpoint of an interrupted run
+   * exists, the run is resumed unless a restart is requested. If a run is
+   * already in progress or a stopped run has not finished its current batch,
+   * yet, this call has no effect.
+   *
+   * @param restart TRUE to ignore an existing checkpoint.
+   *
+   * @return TRUE if the run has been started, FALSE if a run is already in
+   * progress.
+   */
+  public synchronized boolean start(boolean restart){
+    if(state == State.RUNNING || (scrubThread != null && scrubThread.isAlive())){
+      return false;
+    }
+    processed.set(0);
+    verified.set(0);
+    skipped.set(0);
+    failed.set(0);
+    bytesRead.set(0);
+    synchronized(issues){
+      issues.clear();
+    }
+    lastId = restart ? null : readCheckpoint();
+    if(lastId != null){
+      logger.info("Resuming scrub run after content information {}.", lastId);
+    }
+    started = Instant.now();
+    finished = null;
+    message = null;
+    rateLimiter = new RateLimiter(applicationProperties.getScrubMaxBytesPerSecond());
+    state = State.RUNNING;
+    scrubThread = new Thread(this::scrub, "content-scrubber");
+    scrubThread.setDaemon(true);
+    scrubThread.start();
+    return true;
+  }
+
+  /**
+   * Stop a running scrub run after the current batch has been finished. The
+   * checkpoint is kept, such that the next run continues at this point.
+   */
+  public synchronized void stop(){
+    if(state == State.RUNNING){
+      state = State.STOPPED;
+    }
+  }
+
+  /**
+   * Wait for a running scrub run to finish.
+   *
+   * @param timeout The max. time to wait in milliseconds.
+   *
+   * @throws InterruptedException If the current thread has been interrupted.
+   */
+  public void await(long timeout) throws InterruptedException{
+    Thread t;
+    synchronized(this){
+      t = scrubThread;
+    }
+    if(t != null){
+      t.join(timeout);
+    }
+  }
+
+  /**
+   * Get the status of the current or last scrub run including the most recent
+   * issues detected.
+   *
+   * @return The status as map.
+   */
+  public Map<String, Object> getStatus(){
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("state", state.toString());
+    status.put("started", (started != null) ? started.toString() : null);
+    status.put("finished", (finished != null) ? finished.toString() : null);
+    status.put("processed", processed.get());
+    status.put("verified", verified.get());
+    status.put("skipped", skipped.get());
+    status.put("failed", failed.get());
+    status.put("bytesRead", bytesRead.get());
+    status.put("lastId", lastId);
+    if(message != null){
+      status.put("message", message);
+    }
+    synchronized(issues){
+      status.put("issues", new ArrayList<>(issues));
+    }
+    return status;
+  }
+
+  @PreDestroy
+  public void destroy(){
+    stop();
+  }
+
+  private void scrub(){
+    int batchSize = applicationProperties.getScrubBatchSize() > 0 ? applicationProperties.getScrubBatchSize() : 100;
+    int threads = applicationProperties.getScrubThreads() > 0 ? applicationProperties.getScrubThreads() : 1;
+    ExecutorService executor = Executors.newFixedThreadPool(threads, (r) -> {
+      Thread t = new Thread(r, "content-scrubber-worker");
+      t.setDaemon(true);
+      return t;
+    });
+    logger.info("Starting scrub run using {} thread(s).", threads);
+    try{
+      while(state == State.RUNNING){
+        Page<ContentInformation> page = contentInformationDao.findAll(ContentInformationIdSpecification.toSpecification(lastId), PageRequest.of(0, batchSize, Sort.by("id")));
+        List<Future<?>> futures = new ArrayList<>();
+        for(ContentInformation info : page.getContent()){
+          processed.incrementAndGet();
+          if(info.getContentUri() == null || !info.getContentUri().startsWith("file:") || info.getHash() == null || info.getHash().indexOf(':') < 1){
+            skipped.incrementAndGet();
+            continue;
+          }
+          futures.add(executor.submit(() -> verify(info)));
+        }
+        for(Future<?> future : futures){
+          future.get();
+        }
+        if(page.hasContent()){
+          lastId = page.getContent().get(page.getNumberOfElements() - 1).getId();
+          writeCheckpoint(lastId);
+        }
+        if(!page.hasNext()){
+          break;
+        }
+      }
+      synchronized(this){
+        if(state == State.RUNNING){
+          state = State.FINISHED;
+          deleteCheckpoint();
+        }
+      }
+      logger.info("Scrub run {}. Processed: {}, verified: {}, skipped: {}, failed: {}.", state, processed.get(), verified.get(), skipped.get(), failed.get());
+    } catch(InterruptedException ex){
+      Thread.currentThread().interrupt();
+      message = "Interrupted.";
+      state = State.FAILED;
+    } catch(ExecutionException | RuntimeException ex){
+      logger.error("Scrub run failed.", ex);
+      message = ex.getMessage();
+      state = State.FAILED;
+    } finally{
+      finished = Instant.now();
+      executor.shutdownNow();
+    }
+  }
+
+  private void verify(ContentInformation info){
+    Path file;
+    try{
+      file = Paths.get(URI.create(info.getContentUri()));
+    } catch(IllegalArgumentException ex){
+      logger.debug("Skipping content information {} with invalid content URI {}.", info.getId(), info.getContentUri());
+      skipped.incrementAndGet();
+      return;
+    }
+    String hash = info.getHash();
+    int separator = hash.indexOf(':');
+    MessageDigest digest = getMessageDigest(hash.substring(0, separator));
+    if(digest == null){
+      logger.debug("Unsupported hash algorithm {} of content information {}. Skipping element.", hash.substring(0, separator), info.getId());
+      skipped.incrementAndGet();
+      return;
+    }
+    if(!Files.exists(file)){
+      if(hasChanged(info)){
+        skipped.incrementAndGet();
+        return;
+      }
+      report(info, Issue.MISSING, null);
+      missingCounter.increment();
+      return;
+    }
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+      ByteBuffer buffer = readBuffer.get();
+      buffer.clear();
+      int read;
+      while((read = channel.read(buffer)) > -1){
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+        bytesRead.addAndGet(read);
+        bytesCounter.increment(read);
+        rateLimiter.acquire(read);
+      }
+    } catch(IOException ex){
+      if(hasChanged(info)){
+        skipped.incrementAndGet();
+        return;
+      }
+      report(info, Issue.UNREADABLE, null);
+      unreadableCounter.increment();
+      return;
+    } catch(InterruptedException ex){
+      Thread.currentThread().interrupt();
+      return;
+    }
+    String actual = Hex.encodeHexString(digest.digest());
+    if(actual.equalsIgnoreCase(hash.substring(separator + 1))){
+      verified.incrementAndGet();
+      okCounter.increment();
+    } else if(hasChanged(info)){
+      skipped.incrementAndGet();
+    } else{
+      report(info, Issue.MISMATCH, hash.substring(0, separator) + ":" + actual);
+      mismatchCounter.increment();
+    }
+  }
+
+  /**
+   * Check whether the content of the provided element has been replaced or
+   * deleted since the element has been loaded, e.g. by an upload or by a
+   * placement migration.
+   */
+  private boolean hasChanged(ContentInformation info){
+    Optional<ContentInformation> current = contentInformationDao.findById(info.getId());
+    return !current.isPresent() || !info.getContentUri().equals(current.get().getContentUri()) || !info.getHash().equals(current.get().getHash());
+  }
+
+  private void report(ContentInformation info, Issue issue, String actualHash){
+    failed.incrementAndGet();
+    String resourceId = (info.getParentResource() != null) ? info.getParentResource().getId() : null;
+    logger.warn("Integrity check of content {} of resource {} at {} failed: {}.", info.getRelativePath(), resourceId, info.getContentUri(), issue);
+    Map<String, Object> entry = new LinkedHashMap<>();
+    entry.put("id", info.getId());
+    entry.put("resourceId", resourceId);
+    entry.put("relativePath", info.getRelativePath());
+    entry.put("contentUri", info.getContentUri());
+    entry.put("issue", issue.toString());
+    entry.put("expectedHash", info.getHash());
+    if(actualHash != null){
+      entry.put("actualHash", actualHash);
+    }
+    synchronized(issues){
+      issues.addLast(entry);
+      if(issues.size() > MAX_REPORTED_ISSUES){
+        issues.removeFirst();
+      }
+    }
+
+    Map<String, String> properties = new HashMap<>();
+    properties.put(DataResourceMessage.CONTENT_PATH_PROPERTY, info.getRelativePath());
+    properties.put(DataResourceMessage.CONTENT_URI_PROPERTY, info.getContentUri());
+    properties.put("issue", issue.toString());
+    try{
+      messagingService.send(DataResourceMessage.createSubCategoryMessage(resourceId, DataResourceMessage.ACTION.FIX, DataResourceMessage.SUB_CATEGORY.DATA, properties, null, ControllerUtils.getLocalHostname()));
+    } catch(RuntimeException ex){
+      logger.warn("Failed to send integrity check message for content " + info.getContentUri() + ".", ex);
+    }
+  }
+
+  /**
+   * Obtain a message digest for a normalized algorithm name as used as hash
+   * prefix, e.g. 'sha1' or 'sha256'.
+   */
+  private MessageDigest getMessageDigest(String normalized){
+    String name = normalized.toUpperCase(Locale.ENGLISH);
+    for(String candidate : new String[]{name, name.replaceFirst("^([A-Z]+)(\\d)", "$1-$2")}){
+      try{
+        return MessageDigest.getInstance(candidate);
+      } catch(NoSuchAlgorithmException ex){
+        //try next candidate
+      }
+    }
+    return null;
+  }
+
+  private Path getCheckpointPath(){
+    return PathUtils.getStagingPath(applicationProperties).resolve(SCRUB_FOLDER).resolve(CHECKPOINT_FILE);
+  }
+
+  private Long readCheckpoint(){
+    Path checkpoint = getCheckpointPath();
+    if(!Files.exists(checkpoint)){
+      return null;
+    }
+    try{
+      return Long.parseLong(new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim());
+    } catch(IOException | NumberFormatException ex){
+      logger.warn("Failed to read scrub checkpoint " + checkpoint + ". Starting from the beginning.", ex);
+      return null;
+    }
+  }
+
+  private void writeCheckpoint(Long id){
+    Path checkpoint = getCheckpointPath();
+    try{
+      Files.createDirectories(checkpoint.getParent());
+      Path temp = checkpoint.resolveSibling(CHECKPOINT_FILE + ".tmp");
+      Files.write(temp, Long.toString(id).getBytes(StandardCharsets.UTF_8));
+      Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch(IOException ex){
+      logger.warn("Failed to write scrub checkpoint " + checkpoint + ".", ex);
+    }
+  }
+
+  private void deleteCheckpoint(){
+    try{
+      Files.deleteIfExists(getCheckpointPath());
+    } catch(IOException ex){
+      logger.warn("Failed to remove scrub checkpoint {}.", getCheckpointPath());
+    }
+  }
+
+  /**
+   * Limiter for the total read rate of all verification threads. Reads are
+   * delayed such that on average no more than the configured number of bytes
+   * is read per second.
+   */
+  static final class RateLimiter{
+
+    private final long bytesPerSecond;
+    private long nextFree = System.nanoTime();
+
+    RateLimiter(long bytesPerSecond){
+      this.bytesPerSecond = bytesPerSecond;
+    }
+
+    void acquire(long bytes) throws InterruptedException{
+      if(bytesPerSecond <= 0){
+        return;
+      }
+      long wait;
+      synchronized(this){
+        long now = System.nanoTime();
+        //do not accumulate credit for idle periods of more than one second
+        long start = Math.max(nextFree, now - TimeUnit.SECONDS.toNanos(1));
+        nextFree = start + bytes * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond;
+        wait = nextFree - now;
+      }
+      if(wait > 0){
+        TimeUnit.NANOSECONDS.sleep(wait);
+      }
+    }
+  }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.entities.PERMISSION;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IDataResourceDao;
+import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.domain.acl.AclEntry;
+import edu.kit.datamanager.repo.util.CompressedBitmap;
+import edu.kit.datamanager.repo.util.TransactionUtils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory index from sid and permission to the data resources for which the
+ * sid has been granted this permission. Each resource is numbered once and the
+ * numbers of all resources granted to a sid are kept per permission in a
+ * {@link CompressedBitmap}. The resources accessible by a caller are the union
+ * of the bitmaps of all caller sids with at least the requested permission.
+ * Sids are matched exactly, like in the ACL join of
+ * {@link edu.kit.datamanager.repo.dao.spec.dataresource.PermissionSpecification}.
+ *
+ * The index is fed by the data resource service. After the transaction has
+ * been committed, the ACL of the changed resource is read again from the
+ * database, such that concurrent changes are applied with their committed
+ * state regardless of the order in which their transactions complete. While
+ * commits are in progress, the resource is excluded from all results, such
+ * that revoked permissions are never granted by the index. The index is built in background on startup if
+ * 'repo.acl.index.enabled' is set and is not used before it is ready. Changes
+ * committed while building are applied afterwards. The index is local to this
+ * instance, i.e. multiple instances sharing the same database are not
+ * supported.
+ *
+ * @author jejkal
+ */
+@Component
+public class DataResourceAclIndex{
+
+  private static final int BATCH_SIZE = 1000;
+  private static final PERMISSION[] PERMISSIONS = PERMISSION.values();
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private IDataResourceDao dataResourceDao;
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+
+  private volatile Index index = new Index();
+  private final Map<String, Integer> committing = new ConcurrentHashMap<>();
+  private final Object updateLock = new Object();
+  private List<Grants> pendingUpdates;
+  private volatile boolean ready;
+  private Thread buildThread;
+
+  /**
+   * Build the index on startup if enabled.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void init(){
+    if(isEnabled()){
+      start();
+    }
+  }
+
+  /**
+   * Check whether the index is enabled via 'repo.acl.index.enabled'.
+   *
+   * @return TRUE if the index is enabled.
+   */
+  public boolean isEnabled(){
+    return applicationProperties.isAclIndexEnabled();
+  }
+
+  /**
+   * Check whether the index is enabled and has been built.
+   *
+   * @return TRUE if the index can be used.
+   */
+  public boolean isReady(){
+    return isEnabled() && ready;
+  }
+
+  /**
+   * Replace the permissions of the provided resource. Within a transaction,
+   * the committed ACL of the resource is read after the transaction has been
+   * committed. Otherwise, the ACL of the provided resource is applied
+   * immediately.
+   *
+   * @param resource The resource to index.
+   */
+  public void update(DataResource resource){
+    if(!isEnabled()){
+      return;
+    }
+    String id = resource.getId();
+    if(TransactionSynchronizationManager.isSynchronizationActive()){
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+        private boolean excluded = false;
+
+        @Override
+        public void beforeCommit(boolean readOnly){
+          committing.merge(id, 1, Integer::sum);
+          excluded = true;
+        }
+
+        @Override
+        public void afterCompletion(int status){
+          try{
+            if(status == TransactionSynchronization.STATUS_COMMITTED){
+              reload(id);
+            }
+          } finally{
+            if(excluded){
+              committing.computeIfPresent(id, (key, count) -> (count > 1) ? count - 1 : null);
+            }
+          }
+        }
+      });
+    } else{
+      apply(toGrants(resource));
+    }
+  }
+
+  /**
+   * Get the ids of all resources for which at least one of the provided sids
+   * has at least the provided permission.
+   *
+   * @param sids The sids of the caller.
+   * @param permission The required permission.
+   * @param maxResults The max. number of ids to return.
+   *
+   * @return The resource ids, or null if the index is not ready or if there
+   * are more than 'maxResults' accessible resources.
+   */
+  public List<String> findAccessible(Collection<String> sids, PERMISSION permission, int maxResults){
+    if(!isReady()){
+      return null;
+    }
+    Index current = index;
+    current.lock.readLock().lock();
+    try{
+      CompressedBitmap matches = current.find(sids, permission);
+      committing.keySet().forEach((id) -> {
+        Integer number = current.numbers.get(id);
+        if(number != null){
+          matches.remove(number);
+        }
+      });
+      if(matches.getCardinality() > maxResults){
+        logger.trace("Found more than {} accessible resources in ACL index.", maxResults);
+        return null;
+      }
+      List<String> result = new ArrayList<>();
+      matches.forEach((number) -> result.add(current.ids.get(number)));
+      return result;
+    } finally{
+      current.lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Start building the index in background. If the index is already being
+   * built, this call has no effect.
+   *
+   * @return TRUE if building has been started.
+   */
+  public synchronized boolean start(){
+    if(buildThread != null && buildThread.isAlive()){
+      return false;
+    }
+    buildThread = new Thread(this::build, "acl-index-build");
+    buildThread.setDaemon(true);
+    buildThread.start();
+    return true;
+  }
+
+  /**
+   * Wait for building the index to finish.
+   *
+   * @param timeout The max. time to wait in milliseconds.
+   *
+   * @throws InterruptedException If the current thread has been interrupted.
+   */
+  public void await(long timeout) throws InterruptedException{
+    Thread t;
+    synchronized(this){
+      t = buildThread;
+    }
+    if(t != null){
+      t.join(timeout);
+    }
+  }
+
+  private void apply(Grants grants){
+    synchronized(updateLock){
+      index.apply(grants);
+      if(pendingUpdates != null){
+        pendingUpdates.add(grants);
+      }
+    }
+  }
+
+  /**
+   * Read the committed ACL of the resource with the provided id and apply it.
+   * Reading and applying while holding the update lock ensures that the state
+   * read last is applied last.
+   */
+  private void reload(String id){
+    synchronized(updateLock){
+      Grants grants = new Grants(id);
+      try{
+        //the completed transaction might still be bound to this thread, so a new one is required
+        TransactionUtils.inNewTransaction(transactionManager, () -> dataResourceDao.findAclEntries(Collections.singletonList(id))).forEach((entry) -> {
+          grants.add((String) entry[1], (PERMISSION) entry[2]);
+        });
+      } catch(RuntimeException ex){
+        logger.error("Failed to read ACL of resource " + id + ". Excluding resource from ACL index.", ex);
+      }
+      apply(grants);
+    }
+  }
+
+  private void build(){
+    logger.info("Building ACL index.");
+    synchronized(updateLock){
+      pendingUpdates = new ArrayList<>();
+    }
+    try{
+      Index newIndex = new Index();
+      String lastId = "";
+      long resources = 0;
+      while(true){
+        List<String> ids = dataResourceDao.findIdsAfter(lastId, PageRequest.of(0, BATCH_SIZE));
+        if(ids.isEmpty()){
+          break;
+        }
+        lastId = ids.get(ids.size() - 1);
+        Map<String, Grants> batch = new HashMap<>();
+        TransactionUtils.inReadOnlyTransaction(transactionManager, () -> dataResourceDao.findAclEntries(ids)).forEach((entry) -> {
+          batch.computeIfAbsent((String) entry[0], Grants::new).add((String) entry[1], (PERMISSION) entry[2]);
+        });
+        batch.values().forEach(newIndex::apply);
+        resources += ids.size();
+      }
+      synchronized(updateLock){
+        //changes committed while building might not be contained in the loaded entries
+        pendingUpdates.forEach(newIndex::apply);
+        index = newIndex;
+        ready = true;
+      }
+      logger.info("Finished building ACL index for {} resources.", resources);
+    } catch(RuntimeException ex){
+      logger.error("Failed to build ACL index. Permissions are checked without index.", ex);
+    } finally{
+      synchronized(updateLock){
+        pendingUpdates = null;
+      }
+    }
+  }
+
+  /**
+   * Obtain the max. permission per sid of the provided resource.
+   */
+  static Grants toGrants(DataResource resource){
+    Grants grants = new Grants(resource.getId());
+    if(resource.getAcls() != null){
+      for(AclEntry entry : resource.getAcls()){
+        grants.add(entry.getSid(), entry.getPermission());
+      }
+    }
+    return grants;
+  }
+
+  /**
+   * The max. permission per sid of a single resource.
+   */
+  static final class Grants{
+
+    private final String id;
+    private final Map<String, PERMISSION> permissions = new HashMap<>();
+
+    Grants(String id){
+      this.id = id;
+    }
+
+    void add(String sid, PERMISSION permission){
+      if(sid != null && permission != null){
+        permissions.merge(sid, permission, (a, b) -> (a.ordinal() >= b.ordinal()) ? a : b);
+      }
+    }
+  }
+
+  /**
+   * The index. Resources are numbered in the order they are added and keep
+   * their number on updates.
+   */
+  static final class Index{
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> numbers = new HashMap<>();
+    private final List<String> ids = new ArrayList<>();
+    private final List<Map<String, PERMISSION>> permissions = new ArrayList<>();
+    private final Map<String, CompressedBitmap[]> bitmaps = new HashMap<>();
+
+    void apply(Grants grants){
+      lock.writeLock().lock();
+      try{
+        Integer number = numbers.get(grants.id);
+        if(number == null){
+          if(grants.permissions.isEmpty()){
+            return;
+          }
+          number = ids.size();
+          numbers.put(grants.id, number);
+          ids.add(grants.id);
+          permissions.add(new HashMap<>());
+        }
+        int n = number;
+        permissions.get(n).forEach((sid, permission) -> {
+          CompressedBitmap[] sidBitmaps = bitmaps.get(sid);
+          sidBitmaps[permission.ordinal()].remove(n);
+          if(sidBitmaps[permission.ordinal()].isEmpty()){
+            sidBitmaps[permission.ordinal()] = null;
+            if(isEmpty(sidBitmaps)){
+              bitmaps.remove(sid);
+            }
+          }
+        });
+        grants.permissions.forEach((sid, permission) -> {
+          CompressedBitmap[] sidBitmaps = bitmaps.computeIfAbsent(sid, (s) -> new CompressedBitmap[PERMISSIONS.length]);
+          if(sidBitmaps[permission.ordinal()] == null){
+            sidBitmaps[permission.ordinal()] = new CompressedBitmap();
+          }
+          sidBitmaps[permission.ordinal()].add(n);
+        });
+        permissions.set(n, new HashMap<>(grants.permissions));
+      } finally{
+        lock.writeLock().unlock();
+      }
+    }
+
+    /**
+     * Get the union of the bitmaps of all provided sids with at least the
+     * provided permission. Must be called while holding the read lock.
+     */
+    CompressedBitmap find(Collection<String> sids, PERMISSION permission){
+      CompressedBitmap result = new CompressedBitmap();
+      for(String sid : sids){
+        CompressedBitmap[] sidBitmaps = bitmaps.get(sid);
+        if(sidBitmaps == null){
+          continue;
+        }
+        for(int i = permission.ordinal(); i < sidBitmaps.length; i++){
+          if(sidBitmaps[i] != null){
+            result.or(sidBitmaps[i]);
+          }
+        }
+      }
+      return result;
+    }
+
+    private static boolean isEmpty(CompressedBitmap[] sidBitmaps){
+      for(CompressedBitmap bitmap : sidBitmaps){
+        if(bitmap != null){
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
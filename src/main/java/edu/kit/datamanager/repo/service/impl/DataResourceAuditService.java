@@ -23,6 +23,7 @@ import java.util.Optional;
 import org.apache.commons.collections4.CollectionUtils;
 import org.javers.core.Changes;
 import org.javers.core.Javers;
+import org.javers.core.commit.Commit;
 import org.javers.core.metamodel.object.CdoSnapshot;
 import org.javers.repository.jql.JqlQuery;
 import org.javers.repository.jql.QueryBuilder;
@@ -43,11 +44,15 @@ public class DataResourceAuditService implements IAuditService<DataResource>{
   private Logger LOGGER;
   private final Javers javers;
   private final ApplicationProperties applicationProperties;
+  private final AuditVersionCounter versionCounter;
+  private final AsyncAuditWriter auditWriter;
 
   @Autowired
-  public DataResourceAuditService(Javers javers, ApplicationProperties applicationProperties){
+  public DataResourceAuditService(Javers javers, ApplicationProperties applicationProperties, AuditVersionCounter versionCounter, AsyncAuditWriter auditWriter){
     this.javers = javers;
     this.applicationProperties = applicationProperties;
+    this.versionCounter = versionCounter;
+    this.auditWriter = auditWriter;
   }
 
   @Override
@@ -55,9 +60,13 @@ public class DataResourceAuditService implements IAuditService<DataResource>{
     LOGGER.trace("Calling captureAuditInformation(DataResource#{}, {}).", resource.getId(), principal);
     if(!applicationProperties.isAuditEnabled()){
       LOGGER.trace("Audit is disabled. Skipping registration of resource.");
+    } else if(auditWriter.isEnabled()){
+      LOGGER.trace("Submitting audit information for resource {} modified by principal {}.", resource.getId(), principal);
+      auditWriter.submit(AsyncAuditWriter.Operation.COMMIT, DataResource.class, resource.getId(), resource, principal, () -> getCommittedVersion(resource.getId()));
     } else{
       LOGGER.trace("Capturing audit information for resource {} modified by principal {}.", resource, principal);
-      javers.commit(principal, resource);
+      Commit commit = javers.commit(principal, resource);
+      versionCounter.update(DataResource.class, resource.getId(), commit);
       LOGGER.trace("Successfully committed audit information for resource with id {}.", resource.getId());
     }
   }
@@ -69,6 +78,7 @@ public class DataResourceAuditService implements IAuditService<DataResource>{
       LOGGER.trace("Audit is disabled. Returning empty result.");
       return Optional.empty();
     } else{
+      auditWriter.awaitPending(DataResource.class, resourceId);
       JqlQuery query = QueryBuilder.byInstanceId(resourceId, DataResource.class).limit(resultsPerPage).skip(page * resultsPerPage).build();
       Changes result = javers.findChanges(query);
 
@@ -84,6 +94,7 @@ public class DataResourceAuditService implements IAuditService<DataResource>{
       LOGGER.trace("Audit is disabled. Returning empty result.");
       return Optional.empty();
     } else{
+      auditWriter.awaitPending(DataResource.class, resourceId);
       JqlQuery query = QueryBuilder.byInstanceId(resourceId, DataResource.class).withVersion(version).withShadowScope(ShadowScope.DEEP_PLUS).build();
       LOGGER.trace("Obtaining shadows from Javers repository.");
       List<Shadow<DataResource>> shadows = javers.findShadows(query);
@@ -107,19 +118,41 @@ public class DataResourceAuditService implements IAuditService<DataResource>{
       LOGGER.trace("Audit is disabled. Returning 0.");
       return 0l;
     } else{
-      JqlQuery query = QueryBuilder.byInstanceId(resourceId, DataResource.class).limit(1).build();
-      LOGGER.trace("Obtaining snapshots from Javers repository.");
-      List<CdoSnapshot> snapshots = javers.findSnapshots(query);
-
-      if(CollectionUtils.isEmpty(snapshots)){
-        LOGGER.warn("No version information found for resource id {}. Returning 0.", resourceId);
-        return 0;
+      Optional<Long> pendingVersion = auditWriter.getPendingVersion(DataResource.class, resourceId);
+      if(pendingVersion.isPresent()){
+        LOGGER.trace("Audit information for resource id {} pending. Returning expected version {}.", resourceId, pendingVersion.get());
+        return pendingVersion.get();
       }
+      return getCommittedVersion(resourceId);
+    }
+  }
 
-      long version = snapshots.get(0).getVersion();
-      LOGGER.trace("Snapshot for resource id {} found. Returning version {}.", resourceId, version);
-      return version;
+  /**
+   * Obtain the version of the resource in the audit repository from the version
+   * counter.
+   */
+  private long getCommittedVersion(String resourceId){
+    return versionCounter.getVersion(DataResource.class, resourceId, () -> findCurrentVersion(resourceId));
+  }
+
+  /**
+   * Obtain the current version from the audit repository. This is only needed
+   * if the version counter has not been initialized for the provided resource,
+   * yet.
+   */
+  private long findCurrentVersion(String resourceId){
+    JqlQuery query = QueryBuilder.byInstanceId(resourceId, DataResource.class).limit(1).build();
+    LOGGER.trace("Obtaining snapshots from Javers repository.");
+    List<CdoSnapshot> snapshots = javers.findSnapshots(query);
+
+    if(CollectionUtils.isEmpty(snapshots)){
+      LOGGER.warn("No version information found for resource id {}. Returning 0.", resourceId);
+      return 0;
     }
+
+    long version = snapshots.get(0).getVersion();
+    LOGGER.trace("Snapshot for resource id {} found. Returning version {}.", resourceId, version);
+    return version;
   }
 
   @Override
@@ -127,10 +160,14 @@ public class DataResourceAuditService implements IAuditService<DataResource>{
     LOGGER.trace("Calling deleteAuditInformation({}, <resource>).", resourceId);
     if(!applicationProperties.isAuditEnabled()){
       LOGGER.trace("Audit is disabled. Returning without doing anything.");
+    } else if(auditWriter.isEnabled()){
+      LOGGER.trace("Submitting shallow delete of resource with id {} to asynchronous audit writer.", resourceId);
+      auditWriter.submit(AsyncAuditWriter.Operation.DELETE, DataResource.class, resourceId, resource, resourceId, () -> getCommittedVersion(resourceId));
     } else{
       LOGGER.trace("Performing shallow delete of resource with id {}.", resourceId);
       javers.commitShallowDelete(resourceId, resource);
       LOGGER.trace("Shallow delete executed.");
+      versionCounter.remove(DataResource.class, resourceId);
     }
   }
 
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.service.IDataResourceCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory data resource cache. Resources are kept as serialized JSON
+ * snapshots in a size-bounded LRU map and expire after a configurable time to
+ * live. Every cache hit deserializes a fresh copy of the resource, which is
+ * still much cheaper than loading the entire entity graph from the database.
+ * Lookups, hits, misses and evictions are published as Micrometer metrics named
+ * 'repo.cache.dataresource.*' and are available via the actuator metrics
+ * endpoint.
+ *
+ * Each invalidation increments the generation of the cache and records it for
+ * the invalidated resource. A resource loaded from the database is only cached
+ * if it has not been invalidated since the generation obtained before loading
+ * it. Otherwise, a lookup concurrent to a modification could cache the old
+ * state after the modification has invalidated the cache. The recorded
+ * invalidations are bounded, resources loaded before the oldest recorded
+ * invalidation are not cached at all.
+ *
+ * The cache is disabled by default as it is local to each instance. If
+ * multiple instances share one database, changes made by other instances
+ * become visible only after the time to live has elapsed.
+ *
+ * @author jejkal
+ */
+@Component
+public class DataResourceCache implements IDataResourceCache{
+
+  private static final String METRIC_PREFIX = "repo.cache.dataresource";
+  private static final int MIN_INVALIDATIONS = 1024;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  private final ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule()).configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+  private final Map<String, String> identifierIndex = new HashMap<>();
+  private final LinkedHashMap<String, Snapshot> snapshots = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<String, Long> invalidations = new LinkedHashMap<>();
+  private long generation;
+  private long forgottenGeneration;
+
+  private Counter hits;
+  private Counter misses;
+  private Counter evictions;
+
+  @PostConstruct
+  public void init(){
+    MeterRegistry registry = (meterRegistry != null) ? meterRegistry : new SimpleMeterRegistry();
+    hits = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "hit").description("Number of data resource lookups served from cache.").register(registry);
+    misses = Counter.builder(METRIC_PREFIX + ".requests").tag("result", "miss").description("Number of data resource lookups not served from cache.").register(registry);
+    evictions = Counter.builder(METRIC_PREFIX + ".evictions").description("Number of data resources removed from cache due to size or time to live.").register(registry);
+    registry.gauge(METRIC_PREFIX + ".size", this, (c) -> c.size());
+  }
+
+  @Override
+  public boolean isEnabled(){
+    return applicationProperties.isDataResourceCacheEnabled() && applicationProperties.getDataResourceCacheSize() > 0;
+  }
+
+  @Override
+  public Optional<DataResource> get(String identifier){
+    if(!isEnabled() || identifier == null){
+      return Optional.empty();
+    }
+    byte[] data = null;
+    String id;
+    synchronized(this){
+      id = identifierIndex.get(identifier);
+      Snapshot snapshot = (id != null) ? snapshots.get(id) : null;
+      if(snapshot != null){
+        if(snapshot.expires < System.currentTimeMillis()){
+          logger.trace("Cached resource {} expired.", id);
+          remove(id);
+          evictions.increment();
+        } else{
+          data = snapshot.data;
+        }
+      }
+    }
+    if(data == null){
+      misses.increment();
+      return Optional.empty();
+    }
+    try{
+      DataResource result = mapper.readValue(data, DataResource.class);
+      hits.increment();
+      return Optional.of(result);
+    } catch(IOException ex){
+      logger.warn("Failed to restore cached resource for identifier " + identifier + ". Removing resource from cache.", ex);
+      invalidate(id);
+      misses.increment();
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public synchronized long getGeneration(){
+    return generation;
+  }
+
+  @Override
+  public void put(String identifier, DataResource resource, long generation){
+    if(!isEnabled() || resource == null || resource.getId() == null){
+      return;
+    }
+    byte[] data;
+    try{
+      data = mapper.writeValueAsBytes(resource);
+    } catch(JsonProcessingException | RuntimeException ex){
+      logger.debug("Unable to create snapshot of resource " + resource.getId() + ". Resource won't be cached.", ex);
+      return;
+    }
+    long expires = System.currentTimeMillis() + applicationProperties.getDataResourceCacheTtl();
+    synchronized(this){
+      String id = resource.getId();
+      Long invalidated = invalidations.get(id);
+      if(generation < forgottenGeneration || (invalidated != null && invalidated > generation)){
+        logger.trace("Resource {} has been invalidated while being loaded. Resource won't be cached.", id);
+        return;
+      }
+      Snapshot snapshot = snapshots.get(id);
+      if(snapshot == null){
+        snapshot = new Snapshot();
+        snapshots.put(id, snapshot);
+      }
+      snapshot.data = data;
+      snapshot.expires = expires;
+      snapshot.identifiers.add(id);
+      identifierIndex.put(id, id);
+      if(identifier != null){
+        snapshot.identifiers.add(identifier);
+        identifierIndex.put(identifier, id);
+      }
+      evictEldest();
+    }
+  }
+
+  @Override
+  public synchronized void invalidate(String id){
+    if(id == null){
+      return;
+    }
+    logger.trace("Invalidating cached resource {}.", id);
+    remove(id);
+    generation++;
+    invalidations.remove(id);
+    invalidations.put(id, generation);
+    int maxInvalidations = Math.max(MIN_INVALIDATIONS, applicationProperties.getDataResourceCacheSize());
+    Iterator<Map.Entry<String, Long>> it = invalidations.entrySet().iterator();
+    while(invalidations.size() > maxInvalidations && it.hasNext()){
+      forgottenGeneration = it.next().getValue();
+      it.remove();
+    }
+  }
+
+  @Override
+  public synchronized void clear(){
+    snapshots.clear();
+    identifierIndex.clear();
+    generation++;
+    forgottenGeneration = generation;
+    invalidations.clear();
+  }
+
+  /**
+   * Get the number of cached resources.
+   *
+   * @return The number of cached resources.
+   */
+  public synchronized int size(){
+    return snapshots.size();
+  }
+
+  private void evictEldest(){
+    int maxSize = applicationProperties.getDataResourceCacheSize();
+    Iterator<Map.Entry<String, Snapshot>> it = snapshots.entrySet().iterator();
+    while(snapshots.size() > maxSize && it.hasNext()){
+      Map.Entry<String, Snapshot> eldest = it.next();
+      it.remove();
+      eldest.getValue().identifiers.forEach(identifierIndex::remove);
+      evictions.increment();
+    }
+  }
+
+  private void remove(String id){
+    Snapshot snapshot = snapshots.remove(id);
+    if(snapshot != null){
+      snapshot.identifiers.forEach(identifierIndex::remove);
+    }
+  }
+
+  /**
+   * Serialized resource and all identifiers mapping to it.
+   */
+  private static class Snapshot{
+
+    private byte[] data;
+    private long expires;
+    private final Set<String> identifiers = new HashSet<>();
+  }
+}
@@ -0,0 +1,906 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.entities.Identifier;
+import edu.kit.datamanager.entities.PERMISSION;
+import edu.kit.datamanager.exceptions.BadArgumentException;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IDataResourceDao;
+import edu.kit.datamanager.repo.domain.Agent;
+import edu.kit.datamanager.repo.domain.Contributor;
+import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.domain.Description;
+import edu.kit.datamanager.repo.domain.Subject;
+import edu.kit.datamanager.repo.domain.Title;
+import edu.kit.datamanager.repo.domain.acl.AclEntry;
+import edu.kit.datamanager.repo.util.TransactionUtils;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Embedded full-text index over the metadata of all data resources. The index
+ * is an in-memory inverted index mapping each term to a sorted list of
+ * documents containing the term. Text fields, e.g. titles, creators, subjects
+ * or descriptions, are split into lower-case tokens, keyword fields, e.g.
+ * identifiers or the publication year, are indexed as a whole. In addition,
+ * the sids having at least READ permission and the state of each resource are
+ * indexed, such that permission and state filters are applied inside the index
+ * without joining the ACLs.
+ *
+ * Queries consist of whitespace-separated clauses, which must all match. A
+ * clause is either a term searched in all text fields or a fielded term
+ * 'field:term', e.g. 'subject:climate'. Terms ending with '*' are prefix
+ * queries. Matches are ranked by BM25 over all clauses. Only the documents of
+ * the most selective clause or filter are checked against the remaining ones
+ * and scored, such that the cost of a query depends on its postings rather
+ * than on the size of the index.
+ *
+ * The index is fed incrementally by the data resource service after each
+ * committed change. The changed resource is read again from the database
+ * after commit, such that concurrent changes are indexed with their committed
+ * state regardless of the order in which their transactions complete. Updated
+ * resources are re-added as new documents, the old
+ * documents are marked as deleted and removed as soon as they make up more
+ * than half of the index. A bulk reindex loads all resources in parallel into
+ * a new index, which replaces the current one afterwards. Changes committed
+ * during the reindex are applied to both indices, such that searches are
+ * served from the current index in the meantime. The index is built on
+ * startup if 'repo.search.index.enabled' is set.
+ *
+ * The index is local to this instance and only receives changes made by this
+ * instance. The resources found are therefore loaded by the data resource
+ * service with permissions and states checked again by the database, such
+ * that changes made by other instances sharing the same database never expose
+ * resources. Rankings and result counts of such instances may still be
+ * outdated, i.e. multiple instances sharing the same database should not
+ * enable the index.
+ *
+ * @author jejkal
+ */
+@Component
+public class DataResourceSearchIndex{
+
+  /**
+   * States of the index.
+   */
+  public enum State{
+    DISABLED,
+    BUILDING,
+    READY,
+    FAILED;
+  }
+
+  /**
+   * Fields split into tokens and searched by unfielded clauses.
+   */
+  public static final List<String> TEXT_FIELDS = Collections.unmodifiableList(Arrays.asList("title", "creator", "contributor", "subject", "description", "publisher", "resourcetype", "format"));
+  /**
+   * Fields indexed as a whole.
+   */
+  public static final List<String> KEYWORD_FIELDS = Collections.unmodifiableList(Arrays.asList("id", "identifier", "year", "language", "date"));
+
+  private static final String ACL_FIELD = "_acl";
+  private static final String STATE_FIELD = "_state";
+  private static final float K1 = 1.2f;
+  private static final float B = 0.75f;
+  private static final int MAX_PREFIX_EXPANSIONS = 1024;
+  private static final int MAX_TERM_LENGTH = 255;
+  private static final int MIN_DELETED_FOR_COMPACTION = 1024;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private IDataResourceDao dataResourceDao;
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+
+  private volatile Index index = new Index();
+  private final Object updateLock = new Object();
+  private List<Document> pendingUpdates;
+
+  private final AtomicLong indexed = new AtomicLong();
+  private volatile State state = State.DISABLED;
+  private volatile boolean stopped;
+  private volatile Instant started;
+  private volatile Instant finished;
+  private volatile String message;
+  private Thread reindexThread;
+
+  /**
+   * Build the index on startup if enabled.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public void init(){
+    if(applicationProperties.isSearchIndexEnabled()){
+      start();
+    }
+  }
+
+  /**
+   * Check whether the index is enabled via 'repo.search.index.enabled'.
+   *
+   * @return TRUE if the index is enabled.
+   */
+  public boolean isEnabled(){
+    return applicationProperties.isSearchIndexEnabled();
+  }
+
+  /**
+   * Add or replace the provided resource. Within a transaction, the committed
+   * state of the resource is read and indexed after the transaction has been
+   * committed. Otherwise, the provided resource is indexed immediately.
+   *
+   * @param resource The resource to index.
+   */
+  public void update(DataResource resource){
+    if(!isEnabled()){
+      return;
+    }
+    String id = resource.getId();
+    if(TransactionSynchronizationManager.isSynchronizationActive()){
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+        @Override
+        public void afterCommit(){
+          reload(id);
+        }
+      });
+    } else{
+      apply(toDocument(resource));
+    }
+  }
+
+  /**
+   * Search for resources matching the provided query.
+   *
+   * @param query The query, e.g. 'climate subject:ocean*'.
+   * @param sids The sids of the caller, of which at least one must have READ
+   * permission for a resource to match.
+   * @param administrator If TRUE, permissions are not checked and revoked
+   * resources are included.
+   * @param pgbl The requested page.
+   *
+   * @return One page of resource ids ordered by relevance.
+   *
+   * @throws BadArgumentException if the query is invalid.
+   */
+  public Page<String> search(String query, List<String> sids, boolean administrator, Pageable pgbl){
+    if(!isEnabled()){
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Full-text search is disabled.");
+    }
+    if(state != State.READY && index.live == 0){
+      throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Full-text search index is not available, yet.");
+    }
+    List<Clause> clauses = parse(query);
+    List<String> states = new ArrayList<>(Arrays.asList(DataResource.State.VOLATILE.toString(), DataResource.State.FIXED.toString()));
+    if(administrator){
+      states.add(DataResource.State.REVOKED.toString());
+    }
+    return index.search(clauses, states, administrator ? null : sids, pgbl);
+  }
+
+  /**
+   * Start a bulk reindex in background. If a reindex is already running, this
+   * call has no effect.
+   *
+   * @return TRUE if the reindex has been started, FALSE if it is already
+   * running.
+   */
+  public synchronized boolean start(){
+    if(state == State.BUILDING){
+      return false;
+    }
+    indexed.set(0);
+    stopped = false;
+    started = Instant.now();
+    finished = null;
+    message = null;
+    state = State.BUILDING;
+    reindexThread = new Thread(this::reindex, "search-reindex");
+    reindexThread.setDaemon(true);
+    reindexThread.start();
+    return true;
+  }
+
+  /**
+   * Stop a running reindex. The current index is kept.
+   */
+  public synchronized void stop(){
+    stopped = true;
+  }
+
+  /**
+   * Wait for a running reindex to finish.
+   *
+   * @param timeout The max. time to wait in milliseconds.
+   *
+   * @throws InterruptedException If the current thread has been interrupted.
+   */
+  public void await(long timeout) throws InterruptedException{
+    Thread t;
+    synchronized(this){
+      t = reindexThread;
+    }
+    if(t != null){
+      t.join(timeout);
+    }
+  }
+
+  /**
+   * Get the status of the index and of the current or last reindex.
+   *
+   * @return The status as map.
+   */
+  public Map<String, Object> getStatus(){
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("state", state.toString());
+    status.put("enabled", isEnabled());
+    status.put("started", (started != null) ? started.toString() : null);
+    status.put("finished", (finished != null) ? finished.toString() : null);
+    status.put("indexed", indexed.get());
+    Index current = index;
+    current.lock.readLock().lock();
+    try{
+      status.put("documents", current.live);
+      status.put("deletedDocuments", current.deletedCount);
+      status.put("terms", current.terms.size());
+    } finally{
+      current.lock.readLock().unlock();
+    }
+    if(message != null){
+      status.put("message", message);
+    }
+    return status;
+  }
+
+  @PreDestroy
+  public void destroy(){
+    stop();
+  }
+
+  private void apply(Document document){
+    synchronized(updateLock){
+      index.apply(document);
+      if(pendingUpdates != null){
+        pendingUpdates.add(document);
+      }
+    }
+  }
+
+  /**
+   * Read the committed state of the resource with the provided id and index
+   * it. Reading and applying while holding the update lock ensures that the
+   * state read last is applied last.
+   */
+  private void reload(String id){
+    synchronized(updateLock){
+      Optional<Document> document;
+      try{
+        //the committed transaction might still be bound to this thread, so a new one is required
+        document = TransactionUtils.inNewTransaction(transactionManager, () -> dataResourceDao.findById(id).map(DataResourceSearchIndex::toDocument));
+      } catch(RuntimeException ex){
+        logger.error("Failed to read resource " + id + ". Removing resource from search index.", ex);
+        document = Optional.empty();
+      }
+      if(document.isPresent()){
+        apply(document.get());
+      } else{
+        index.remove(id);
+        if(pendingUpdates != null){
+          pendingUpdates.add(new Document(id, true));
+        }
+      }
+    }
+  }
+
+  private void reindex(){
+    int threads = applicationProperties.getSearchIndexThreads() > 0 ? applicationProperties.getSearchIndexThreads() : 1;
+    int batchSize = applicationProperties.getSearchIndexBatchSize() > 0 ? applicationProperties.getSearchIndexBatchSize() : 500;
+    ExecutorService executor = Executors.newFixedThreadPool(threads, (r) -> {
+      Thread t = new Thread(r, "search-reindex-worker");
+      t.setDaemon(true);
+      return t;
+    });
+    logger.info("Starting reindex of data resources.");
+    synchronized(updateLock){
+      pendingUpdates = new ArrayList<>();
+    }
+    try{
+      Index newIndex = new Index();
+      Deque<Future<List<Document>>> running = new ArrayDeque<>();
+      String lastId = "";
+      while(!stopped){
+        List<String> ids = dataResourceDao.findIdsAfter(lastId, PageRequest.of(0, batchSize));
+        if(ids.isEmpty()){
+          break;
+        }
+        lastId = ids.get(ids.size() - 1);
+        running.add(executor.submit(() -> load(ids)));
+        //limit the number of loaded batches kept in memory
+        if(running.size() >= threads * 2){
+          addAll(newIndex, running.poll().get());
+        }
+      }
+      while(!running.isEmpty()){
+        addAll(newIndex, running.poll().get());
+      }
+      synchronized(updateLock){
+        if(!stopped){
+          //changes committed during the reindex might not be contained in the loaded resources
+          pendingUpdates.forEach((document) -> {
+            if(document.removed){
+              newIndex.remove(document.id);
+            } else{
+              newIndex.apply(document);
+            }
+          });
+          index = newIndex;
+        }
+        pendingUpdates = null;
+      }
+      if(stopped){
+        logger.info("Reindex of data resources stopped. Keeping current index.");
+        message = "Stopped.";
+        state = (index.live > 0) ? State.READY : State.FAILED;
+      } else{
+        logger.info("Reindex of data resources finished. Indexed: {}, terms: {}.", indexed.get(), newIndex.terms.size());
+        state = State.READY;
+      }
+    } catch(InterruptedException ex){
+      Thread.currentThread().interrupt();
+      message = "Interrupted.";
+      state = State.FAILED;
+    } catch(ExecutionException | RuntimeException ex){
+      logger.error("Reindex of data resources failed.", ex);
+      message = ex.getMessage();
+      state = State.FAILED;
+    } finally{
+      synchronized(updateLock){
+        pendingUpdates = null;
+      }
+      finished = Instant.now();
+      executor.shutdownNow();
+    }
+  }
+
+  private List<Document> load(List<String> ids){
+    return TransactionUtils.inReadOnlyTransaction(transactionManager, () -> {
+      List<Document> documents = new ArrayList<>();
+      for(DataResource resource : dataResourceDao.findAllById(ids)){
+        documents.add(toDocument(resource));
+      }
+      return documents;
+    });
+  }
+
+  private void addAll(Index target, List<Document> documents){
+    for(Document document : documents){
+      target.apply(document);
+      indexed.incrementAndGet();
+    }
+  }
+
+  /**
+   * Obtain all indexed terms of the provided resource.
+   */
+  static Document toDocument(DataResource resource){
+    Document document = new Document(resource.getId());
+    for(Title title : resource.getTitles()){
+      document.addText("title", title.getValue());
+    }
+    for(Agent creator : resource.getCreators()){
+      document.addText("creator", creator.getGivenName());
+      document.addText("creator", creator.getFamilyName());
+    }
+    for(Contributor contributor : resource.getContributors()){
+      if(contributor.getUser() != null){
+        document.addText("contributor", contributor.getUser().getGivenName());
+        document.addText("contributor", contributor.getUser().getFamilyName());
+      }
+    }
+    for(Subject subject : resource.getSubjects()){
+      document.addText("subject", subject.getValue());
+    }
+    for(Description description : resource.getDescriptions()){
+      document.addText("description", description.getDescription());
+    }
+    document.addText("publisher", resource.getPublisher());
+    if(resource.getResourceType() != null){
+      document.addText("resourcetype", resource.getResourceType().getValue());
+      if(resource.getResourceType().getTypeGeneral() != null){
+        document.addText("resourcetype", resource.getResourceType().getTypeGeneral().toString());
+      }
+    }
+    for(String format : resource.getFormats()){
+      document.addText("format", format);
+    }
+
+    document.addKeyword("id", resource.getId());
+    if(resource.getIdentifier() != null){
+      document.addKeyword("identifier", resource.getIdentifier().getValue());
+    }
+    for(Identifier identifier : resource.getAlternateIdentifiers()){
+      document.addKeyword("identifier", identifier.getValue());
+    }
+    document.addKeyword("year", resource.getPublicationYear());
+    document.addKeyword("language", resource.getLanguage());
+    for(edu.kit.datamanager.repo.domain.Date date : resource.getDates()){
+      if(date.getValue() != null){
+        document.addKeyword("date", Integer.toString(date.getValue().atZone(ZoneOffset.UTC).getYear()));
+      }
+    }
+
+    if(resource.getState() != null){
+      document.addTerm(STATE_FIELD + ":" + resource.getState().toString());
+    }
+    for(AclEntry entry : resource.getAcls()){
+      if(entry.getSid() != null && entry.getPermission() != null && entry.getPermission().ordinal() >= PERMISSION.READ.ordinal()){
+        document.addTerm(ACL_FIELD + ":" + entry.getSid());
+      }
+    }
+    return document;
+  }
+
+  /**
+   * Split the provided text into lower-case tokens consisting of letters and
+   * digits.
+   */
+  static List<String> tokenize(String text){
+    List<String> tokens = new ArrayList<>();
+    if(text == null){
+      return tokens;
+    }
+    int start = -1;
+    for(int i = 0; i <= text.length(); i++){
+      boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if(tokenChar && start < 0){
+        start = i;
+      } else if(!tokenChar && start >= 0){
+        if(i - start <= MAX_TERM_LENGTH){
+          tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        }
+        start = -1;
+      }
+    }
+    return tokens;
+  }
+
+  private List<Clause> parse(String query){
+    List<Clause> clauses = new ArrayList<>();
+    if(query == null){
+      return clauses;
+    }
+    for(String part : query.trim().split("\\s+")){
+      if(part.isEmpty()){
+        continue;
+      }
+      String field = null;
+      String value = part;
+      int separator = part.indexOf(':');
+      if(separator > 0){
+        String candidate = part.substring(0, separator).toLowerCase(Locale.ROOT);
+        if(TEXT_FIELDS.contains(candidate) || KEYWORD_FIELDS.contains(candidate)){
+          field = candidate;
+          value = part.substring(separator + 1);
+        }
+      }
+      boolean prefix = value.endsWith("*");
+      if(prefix){
+        value = value.substring(0, value.length() - 1);
+      }
+      if(field != null && KEYWORD_FIELDS.contains(field)){
+        if(!value.isEmpty()){
+          clauses.add(new Clause(Collections.singletonList(field), value.toLowerCase(Locale.ROOT), prefix));
+        }
+        continue;
+      }
+      List<String> fields = (field != null) ? Collections.singletonList(field) : TEXT_FIELDS;
+      List<String> tokens = tokenize(value);
+      for(int i = 0; i < tokens.size(); i++){
+        //only the last token of a prefix clause is a prefix
+        clauses.add(new Clause(fields, tokens.get(i), prefix && i == tokens.size() - 1));
+      }
+    }
+    return clauses;
+  }
+
+  /**
+   * A single query clause matching a term in at least one of its fields.
+   */
+  private static final class Clause{
+
+    private final List<String> fields;
+    private final String term;
+    private final boolean prefix;
+
+    Clause(List<String> fields, String term, boolean prefix){
+      this.fields = fields;
+      this.term = term;
+      this.prefix = prefix;
+    }
+  }
+
+  /**
+   * Indexed terms of a single resource with their frequencies.
+   */
+  static final class Document{
+
+    private final String id;
+    private final boolean removed;
+    private final Map<String, Integer> terms = new HashMap<>();
+    private int length;
+
+    Document(String id){
+      this(id, false);
+    }
+
+    Document(String id, boolean removed){
+      this.id = id;
+      this.removed = removed;
+    }
+
+    void addText(String field, String text){
+      for(String token : tokenize(text)){
+        terms.merge(field + ":" + token, 1, Integer::sum);
+        length++;
+      }
+    }
+
+    void addKeyword(String field, String value){
+      if(value != null && !value.isEmpty() && value.length() <= MAX_TERM_LENGTH){
+        addTerm(field + ":" + value.toLowerCase(Locale.ROOT));
+      }
+    }
+
+    void addTerm(String term){
+      terms.merge(term, 1, Integer::sum);
+    }
+  }
+
+  /**
+   * Sorted list of documents containing a term.
+   */
+  private static final class Posting{
+
+    private int[] documents = new int[2];
+    private int[] frequencies = new int[2];
+    private int size;
+
+    void add(int document, int frequency){
+      if(size == documents.length){
+        documents = Arrays.copyOf(documents, size * 2);
+        frequencies = Arrays.copyOf(frequencies, size * 2);
+      }
+      documents[size] = document;
+      frequencies[size] = frequency;
+      size++;
+    }
+  }
+
+  /**
+   * The inverted index. Documents are numbered in the order they are added,
+   * such that postings stay sorted if new documents are appended.
+   */
+  static final class Index{
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, Posting> terms = new TreeMap<>();
+    private final Map<String, Integer> documentsById = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private String[] ids = new String[16];
+    private int[] lengths = new int[16];
+    private int maxDocument;
+    private int live;
+    private int deletedCount;
+    private long totalLength;
+
+    void apply(Document document){
+      lock.writeLock().lock();
+      try{
+        delete(document.id);
+        int number = maxDocument++;
+        if(number == ids.length){
+          ids = Arrays.copyOf(ids, number * 2);
+          lengths = Arrays.copyOf(lengths, number * 2);
+        }
+        ids[number] = document.id;
+        lengths[number] = document.length;
+        document.terms.forEach((term, frequency) -> terms.computeIfAbsent(term, (t) -> new Posting()).add(number, frequency));
+        documentsById.put(document.id, number);
+        live++;
+        totalLength += document.length;
+        if(deletedCount > MIN_DELETED_FOR_COMPACTION && deletedCount > live){
+          compact();
+        }
+      } finally{
+        lock.writeLock().unlock();
+      }
+    }
+
+    void remove(String id){
+      lock.writeLock().lock();
+      try{
+        delete(id);
+      } finally{
+        lock.writeLock().unlock();
+      }
+    }
+
+    /**
+     * Mark the current document of the resource with the provided id as
+     * deleted. Must be called while holding the write lock.
+     */
+    private void delete(String id){
+      Integer previous = documentsById.remove(id);
+      if(previous != null){
+        deleted.set(previous);
+        deletedCount++;
+        live--;
+        totalLength -= lengths[previous];
+      }
+    }
+
+    /**
+     * Remove all deleted documents and renumber the remaining ones keeping
+     * their order.
+     */
+    private void compact(){
+      int[] mapping = new int[maxDocument];
+      int next = 0;
+      for(int i = 0; i < maxDocument; i++){
+        if(deleted.get(i)){
+          mapping[i] = -1;
+        } else{
+          mapping[i] = next;
+          ids[next] = ids[i];
+          lengths[next] = lengths[i];
+          next++;
+        }
+      }
+      Arrays.fill(ids, next, maxDocument, null);
+      terms.values().removeIf((posting) -> {
+        int size = 0;
+        for(int i = 0; i < posting.size; i++){
+          int mapped = mapping[posting.documents[i]];
+          if(mapped >= 0){
+            posting.documents[size] = mapped;
+            posting.frequencies[size] = posting.frequencies[i];
+            size++;
+          }
+        }
+        posting.size = size;
+        return size == 0;
+      });
+      documentsById.replaceAll((id, number) -> mapping[number]);
+      maxDocument = next;
+      deleted.clear();
+      deletedCount = 0;
+    }
+
+    Page<String> search(List<Clause> clauses, Collection<String> states, Collection<String> sids, Pageable pgbl){
+      lock.readLock().lock();
+      try{
+        List<List<Posting>> filters = new ArrayList<>();
+        filters.add(getPostings(STATE_FIELD, states));
+        if(sids != null){
+          filters.add(getPostings(ACL_FIELD, sids));
+        }
+        List<List<Posting>> clausePostings = new ArrayList<>();
+        for(Clause clause : clauses){
+          clausePostings.add(resolve(clause));
+        }
+
+        //candidates are taken from the most selective constraint and checked against all others
+        List<Posting> driver = filters.get(0);
+        for(List<Posting> postings : clausePostings){
+          if(size(postings) < size(driver)){
+            driver = postings;
+          }
+        }
+        if(sids != null && size(filters.get(1)) < size(driver)){
+          driver = filters.get(1);
+        }
+        int[] candidates = collect(driver);
+        float[] scores = new float[candidates.length];
+        int total = candidates.length;
+        float averageLength = (live > 0) ? Math.max(1f, (float) totalLength / live) : 1f;
+        for(List<Posting> postings : filters){
+          total = retain(postings, candidates, scores, total, false, averageLength);
+        }
+        for(List<Posting> postings : clausePostings){
+          total = retain(postings, candidates, scores, total, true, averageLength);
+        }
+        if(total == 0){
+          return new PageImpl<>(new ArrayList<>(), pgbl, 0);
+        }
+
+        //keep the best offset + size documents, ties are ordered by recency
+        long wanted = Math.min(total, pgbl.getOffset() + pgbl.getPageSize());
+        PriorityQueue<Integer> best = new PriorityQueue<>((a, b) -> (scores[a] != scores[b]) ? Float.compare(scores[a], scores[b]) : Integer.compare(candidates[a], candidates[b]));
+        for(int candidate = 0; candidate < total; candidate++){
+          best.add(candidate);
+          if(best.size() > wanted){
+            best.poll();
+          }
+        }
+        List<String> result = new ArrayList<>();
+        while(!best.isEmpty()){
+          result.add(ids[candidates[best.poll()]]);
+        }
+        Collections.reverse(result);
+        return new PageImpl<>(result.subList((int) Math.min(pgbl.getOffset(), result.size()), result.size()), pgbl, total);
+      } finally{
+        lock.readLock().unlock();
+      }
+    }
+
+    /**
+     * Get the sorted, distinct and not deleted documents of the provided
+     * postings.
+     */
+    private int[] collect(List<Posting> postings){
+      int[] documents = new int[(int) Math.min(size(postings), Integer.MAX_VALUE)];
+      int count = 0;
+      for(Posting posting : postings){
+        for(int i = 0; i < posting.size; i++){
+          if(!deleted.get(posting.documents[i])){
+            documents[count++] = posting.documents[i];
+          }
+        }
+      }
+      if(postings.size() > 1){
+        Arrays.sort(documents, 0, count);
+      }
+      int distinct = 0;
+      for(int i = 0; i < count; i++){
+        if(distinct == 0 || documents[distinct - 1] != documents[i]){
+          documents[distinct++] = documents[i];
+        }
+      }
+      return Arrays.copyOf(documents, distinct);
+    }
+
+    /**
+     * Retain all candidates contained in at least one of the provided
+     * postings and optionally add their BM25 score. Each posting is either
+     * walked looking up the candidates, or the candidates are looked up in the
+     * posting, whichever is smaller. The retained candidates are moved to the
+     * front of the arrays keeping their order.
+     *
+     * @return The number of retained candidates.
+     */
+    private int retain(List<Posting> postings, int[] candidates, float[] scores, int count, boolean score, float averageLength){
+      float[] clauseScores = new float[count];
+      boolean[] matched = new boolean[count];
+      for(Posting posting : postings){
+        float idf = (float) Math.log(1 + (live - posting.size + 0.5) / (posting.size + 0.5));
+        if(posting.size <= count){
+          for(int i = 0; i < posting.size; i++){
+            int candidate = Arrays.binarySearch(candidates, 0, count, posting.documents[i]);
+            if(candidate >= 0){
+              matched[candidate] = true;
+              if(score){
+                clauseScores[candidate] += score(idf, posting.frequencies[i], candidates[candidate], averageLength);
+              }
+            }
+          }
+        } else{
+          for(int candidate = 0; candidate < count; candidate++){
+            int i = Arrays.binarySearch(posting.documents, 0, posting.size, candidates[candidate]);
+            if(i >= 0){
+              matched[candidate] = true;
+              if(score){
+                clauseScores[candidate] += score(idf, posting.frequencies[i], candidates[candidate], averageLength);
+              }
+            }
+          }
+        }
+      }
+      int retained = 0;
+      for(int candidate = 0; candidate < count; candidate++){
+        if(matched[candidate]){
+          candidates[retained] = candidates[candidate];
+          scores[retained] = scores[candidate] + clauseScores[candidate];
+          retained++;
+        }
+      }
+      return retained;
+    }
+
+    private float score(float idf, float frequency, int document, float averageLength){
+      return idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * lengths[document] / averageLength));
+    }
+
+    private static long size(List<Posting> postings){
+      long size = 0;
+      for(Posting posting : postings){
+        size += posting.size;
+      }
+      return size;
+    }
+
+    private List<Posting> getPostings(String field, Collection<String> values){
+      List<Posting> postings = new ArrayList<>();
+      for(String value : values){
+        Posting posting = terms.get(field + ":" + value);
+        if(posting != null){
+          postings.add(posting);
+        }
+      }
+      return postings;
+    }
+
+    private List<Posting> resolve(Clause clause){
+      List<Posting> postings = new ArrayList<>();
+      for(String field : clause.fields){
+        String term = field + ":" + clause.term;
+        if(clause.prefix){
+          for(Posting posting : terms.subMap(term, term + Character.MAX_VALUE).values()){
+            if(postings.size() == MAX_PREFIX_EXPANSIONS){
+              throw new BadArgumentException("Prefix " + clause.term + "* matches too many terms.");
+            }
+            postings.add(posting);
+          }
+        } else{
+          Posting posting = terms.get(term);
+          if(posting != null){
+            postings.add(posting);
+          }
+        }
+      }
+      return postings;
+    }
+  }
+}
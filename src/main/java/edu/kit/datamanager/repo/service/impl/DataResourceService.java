@@ -28,15 +28,20 @@ import edu.kit.datamanager.repo.configuration.ApplicationProperties;
 import edu.kit.datamanager.repo.dao.spec.dataresource.AlternateIdentifierSpec;
 import edu.kit.datamanager.repo.dao.IDataResourceDao;
 import edu.kit.datamanager.repo.dao.spec.dataresource.InternalIdentifierSpec;
+import edu.kit.datamanager.repo.dao.spec.dataresource.LastUpdateCursorSpecification;
 import edu.kit.datamanager.repo.dao.spec.dataresource.LastUpdateSpecification;
+import edu.kit.datamanager.repo.dao.spec.dataresource.PermissionSpecification;
 import edu.kit.datamanager.repo.dao.spec.dataresource.PrimaryIdentifierSpec;
+import edu.kit.datamanager.repo.dao.spec.dataresource.ResourceIdSpecification;
 import edu.kit.datamanager.repo.dao.spec.dataresource.StateSpecification;
 import edu.kit.datamanager.repo.domain.Agent;
 import edu.kit.datamanager.repo.domain.DataResource;
 import edu.kit.datamanager.repo.domain.PrimaryIdentifier;
 import edu.kit.datamanager.repo.domain.UnknownInformationConstants;
 import edu.kit.datamanager.repo.domain.acl.AclEntry;
+import edu.kit.datamanager.repo.service.IDataResourceCache;
 import edu.kit.datamanager.repo.service.IDataResourceService;
+import edu.kit.datamanager.repo.util.KeysetPaginationUtils;
 import edu.kit.datamanager.repo.util.SpecUtils;
 import edu.kit.datamanager.service.IAuditService;
 import edu.kit.datamanager.service.IMessagingService;
@@ -44,13 +49,20 @@ import edu.kit.datamanager.util.AuthenticationHelper;
 import edu.kit.datamanager.util.ControllerUtils;
 import edu.kit.datamanager.util.PatchUtil;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import org.slf4j.Logger;
@@ -58,10 +70,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.health.Health;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Service implementation for the IDataResourceService interface.
@@ -70,6 +86,11 @@ import org.springframework.transaction.annotation.Transactional;
  */
 public class DataResourceService implements IDataResourceService{
 
+  /**
+   * Max. number of identifiers checked for conflicts by a single query.
+   */
+  private static final int IDENTIFIER_QUERY_SIZE = 1000;
+
   @Autowired
   private IDataResourceDao dao;
   @Autowired
@@ -84,6 +105,15 @@ public class DataResourceService implements IDataResourceService{
   @Autowired
   private IAuditService<DataResource> auditService;
 
+  @Autowired
+  private IDataResourceCache dataResourceCache;
+
+  @Autowired
+  private DataResourceSearchIndex searchIndex;
+
+  @Autowired
+  private DataResourceAclIndex aclIndex;
+
   @PersistenceContext
   private EntityManager em;
 
@@ -105,6 +135,127 @@ public class DataResourceService implements IDataResourceService{
   public DataResource create(DataResource resource, String callerPrincipal, String callerFirstName, String callerLastName){
     logger.trace("Performing create({}, {}, {}, {}).", resource, callerPrincipal, callerFirstName, callerLastName);
 
+    assignIdentifier(resource);
+    logger.trace("Checking for existing resource with identifier {}.", resource.getId());
+    //check resource by identifier
+    long cnt = getDao().count(
+            AlternateIdentifierSpec.toSpecification(resource.getId()).
+                    or(PrimaryIdentifierSpec.toSpecification(resource.getId())).
+                    or(InternalIdentifierSpec.toSpecification(resource.getId()))
+    );
+    logger.trace("Found {} existing resources conflicting with provided identifier {}.", cnt, resource.getId());
+    if(cnt != 0){
+      logger.error("Number of conflicting identifiers with identifier {} is neq 0. Throwing ResourceAlreadyExistException.", resource.getId());
+      throw new ResourceAlreadyExistException("There is already a resource with identifier " + resource.getId());
+    }
+    completeResource(resource, callerPrincipal, callerFirstName, callerLastName);
+
+    logger.trace("Persisting created resource.");
+    resource = getDao().save(resource);
+    //drop stale entries of a previously removed resource with the same id
+    invalidateCache(resource.getId());
+    searchIndex.update(resource);
+    aclIndex.update(resource);
+
+    logger.trace("Capturing audit information.");
+    auditService.captureAuditInformation(resource, AuthenticationHelper.getPrincipal());
+
+    logger.trace("Sending CREATE event.");
+    messagingService.send(DataResourceMessage.factoryCreateMessage(resource.getId(), AuthenticationHelper.getPrincipal(), ControllerUtils.getLocalHostname()));
+    return resource;
+  }
+
+  @Override
+  @Transactional
+  public List<DataResource> createAll(List<DataResource> resources, String callerPrincipal, String callerFirstName, String callerLastName){
+    logger.trace("Performing createAll(<{} resource(s)>, {}, {}, {}).", resources.size(), callerPrincipal, callerFirstName, callerLastName);
+    Set<String> knownIdentifiers = new HashSet<>();
+    for(DataResource resource : resources){
+      assignIdentifier(resource);
+      if(knownIdentifiers.contains(resource.getId())){
+        logger.error("Identifier {} is used by multiple provided resources. Throwing ResourceAlreadyExistException.", resource.getId());
+        throw new ResourceAlreadyExistException("There is already a resource with identifier " + resource.getId());
+      }
+      knownIdentifiers.addAll(getIdentifierValues(resource));
+      completeResource(resource, callerPrincipal, callerFirstName, callerLastName);
+    }
+
+    logger.trace("Checking for existing resources conflicting with {} provided identifier(s).", resources.size());
+    for(int i = 0; i < resources.size(); i += IDENTIFIER_QUERY_SIZE){
+      String[] ids = resources.subList(i, Math.min(resources.size(), i + IDENTIFIER_QUERY_SIZE)).stream().map(DataResource::getId).toArray(String[]::new);
+      List<DataResource> conflicts = getDao().findAll(
+              AlternateIdentifierSpec.toSpecification(ids).
+                      or(PrimaryIdentifierSpec.toSpecification(ids)).
+                      or(InternalIdentifierSpec.toSpecification(ids))
+      );
+      if(!conflicts.isEmpty()){
+        Set<String> conflictingIdentifiers = getIdentifierValues(conflicts.get(0));
+        conflictingIdentifiers.retainAll(Arrays.asList(ids));
+        String conflictingIdentifier = conflictingIdentifiers.isEmpty() ? conflicts.get(0).getId() : conflictingIdentifiers.iterator().next();
+        logger.error("Found {} existing resource(s) conflicting with provided identifiers. Throwing ResourceAlreadyExistException.", conflicts.size());
+        throw new ResourceAlreadyExistException("There is already a resource with identifier " + conflictingIdentifier);
+      }
+    }
+
+    int batchSize = Math.max(1, applicationProperties.getBulkBatchSize());
+    List<DataResource> result = new ArrayList<>();
+    String principal = AuthenticationHelper.getPrincipal();
+    for(int i = 0; i < resources.size(); i += batchSize){
+      logger.trace("Persisting resources {} to {}.", i, Math.min(resources.size(), i + batchSize) - 1);
+      List<DataResource> batch = getDao().saveAll(resources.subList(i, Math.min(resources.size(), i + batchSize)));
+      em.flush();
+      for(DataResource resource : batch){
+        invalidateCache(resource.getId());
+        searchIndex.update(resource);
+        aclIndex.update(resource);
+        auditService.captureAuditInformation(resource, principal);
+      }
+      result.addAll(batch);
+      //keep the persistence context small, persisted resources are not modified anymore
+      em.clear();
+    }
+
+    logger.trace("Sending {} CREATE event(s) after commit.", result.size());
+    List<String> ids = result.stream().map(DataResource::getId).collect(Collectors.toList());
+    String hostname = ControllerUtils.getLocalHostname();
+    Runnable sendMessages = () -> ids.forEach((id) -> messagingService.send(DataResourceMessage.factoryCreateMessage(id, principal, hostname)));
+    if(TransactionSynchronizationManager.isSynchronizationActive()){
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+        @Override
+        public void afterCommit(){
+          sendMessages.run();
+        }
+      });
+    } else{
+      sendMessages.run();
+    }
+    return result;
+  }
+
+  /**
+   * Get all identifier values of a resource which are checked by create()
+   * for conflicts, i.e. the internal id, the primary identifier and all
+   * alternate identifiers not of type INTERNAL.
+   */
+  private Set<String> getIdentifierValues(DataResource resource){
+    Set<String> values = new HashSet<>();
+    values.add(resource.getId());
+    if(resource.getIdentifier() != null && resource.getIdentifier().getValue() != null){
+      values.add(resource.getIdentifier().getValue());
+    }
+    for(Identifier alt : resource.getAlternateIdentifiers()){
+      if(!Identifier.IDENTIFIER_TYPE.INTERNAL.equals(alt.getIdentifierType()) && alt.getValue() != null){
+        values.add(alt.getValue());
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Assign the resource identifier, which is either the primary identifier,
+   * a provided internal identifier or a new random internal identifier.
+   */
+  private void assignIdentifier(DataResource resource){
     //reset id as external assignment of ids is not allowed
     resource.setId(null);
     //check for provided DOI
@@ -155,18 +306,13 @@ public class DataResourceService implements IDataResourceService{
       logger.debug("Primary or other identifier found. Setting resource identifier to primary identifier {}.", resource.getIdentifier().getValue());
       resource.setId(resource.getIdentifier().getValue());
     }
-    logger.trace("Checking for existing resource with identifier {}.", resource.getId());
-    //check resource by identifier
-    long cnt = getDao().count(
-            AlternateIdentifierSpec.toSpecification(resource.getId()).
-                    or(PrimaryIdentifierSpec.toSpecification(resource.getId())).
-                    or(InternalIdentifierSpec.toSpecification(resource.getId()))
-    );
-    logger.trace("Found {} existing resources conflicting with provided identifier {}.", cnt, resource.getId());
-    if(cnt != 0){
-      logger.error("Number of conflicting identifiers with identifier {} is neq 0. Throwing ResourceAlreadyExistException.", resource.getId());
-      throw new ResourceAlreadyExistException("There is already a resource with identifier " + resource.getId());
-    }
+  }
+
+  /**
+   * Check mandatory elements and fill all elements which can be generated,
+   * e.g. creator, publisher or the caller's ACL entry.
+   */
+  private void completeResource(DataResource resource, String callerPrincipal, String callerFirstName, String callerLastName){
     logger.trace("Checking for mandatory element 'titles'.");
     if(resource.getTitles().isEmpty()){
       logger.error("No titles found. Throwing BadArgumentException.");
@@ -261,16 +407,6 @@ public class DataResourceService implements IDataResourceService{
 
     logger.trace("Setting resource's lastUpdate to now().");
     resource.setLastUpdate(Instant.now());
-
-    logger.trace("Persisting created resource.");
-    resource = getDao().save(resource);
-
-    logger.trace("Capturing audit information.");
-    auditService.captureAuditInformation(resource, AuthenticationHelper.getPrincipal());
-
-    logger.trace("Sending CREATE event.");
-    messagingService.send(DataResourceMessage.factoryCreateMessage(resource.getId(), AuthenticationHelper.getPrincipal(), ControllerUtils.getLocalHostname()));
-    return resource;
   }
 
   @Override
@@ -295,7 +431,14 @@ public class DataResourceService implements IDataResourceService{
   @Override
   public DataResource findByAnyIdentifier(final String resourceIdentifier, Long version){
     logger.trace("Performing findByAnyIdentifier({}, {}).", resourceIdentifier, version);
-    Optional<DataResource> result = getDao().findOne(InternalIdentifierSpec.toSpecification(resourceIdentifier));
+    Optional<DataResource> result = dataResourceCache.get(resourceIdentifier);
+    if(result.isPresent()){
+      logger.trace("Resource for identifier {} obtained from cache.", resourceIdentifier);
+      return (Objects.nonNull(version)) ? getVersion(result.get(), resourceIdentifier, version) : result.get();
+    }
+    //obtain the generation before loading, such that the result is not cached if the resource is modified in the meantime
+    long generation = dataResourceCache.getGeneration();
+    result = getDao().findOne(InternalIdentifierSpec.toSpecification(resourceIdentifier));
 
     if(!result.isPresent()){
       logger.error("No data resource found for resource identifier {}. Checking primary and alternate identifiers.", resourceIdentifier);
@@ -311,22 +454,48 @@ public class DataResourceService implements IDataResourceService{
       }
     }
     DataResource resource = result.get();
+    dataResourceCache.put(resourceIdentifier, resource, generation);
     if(Objects.nonNull(version)){
-      logger.trace("Obtained resource for identifier {}. Checking for shadow of version {}.", resourceIdentifier, version);
-      Optional<DataResource> optAuditResult = auditService.getResourceByVersion(resource.getId(), version);
-      if(optAuditResult.isPresent()){
-        logger.trace("Shadow successfully obtained. Returning version {} of resource with id {}.", version, resourceIdentifier);
-        return optAuditResult.get();
-      } else{
-        logger.info("Version {} of resource {} not found. Returning HTTP 404 (NOT_FOUND).", version, resourceIdentifier);
-        throw new ResourceNotFoundException("Data resource with identifier " + resourceIdentifier + " is not available in version " + version + ".");
-
-      }
+      return getVersion(resource, resourceIdentifier, version);
     }
 
     return resource;
   }
 
+  private DataResource getVersion(DataResource resource, String resourceIdentifier, Long version){
+    logger.trace("Obtained resource for identifier {}. Checking for shadow of version {}.", resourceIdentifier, version);
+    Optional<DataResource> optAuditResult = auditService.getResourceByVersion(resource.getId(), version);
+    if(optAuditResult.isPresent()){
+      logger.trace("Shadow successfully obtained. Returning version {} of resource with id {}.", version, resourceIdentifier);
+      return optAuditResult.get();
+    } else{
+      logger.info("Version {} of resource {} not found. Returning HTTP 404 (NOT_FOUND).", version, resourceIdentifier);
+      throw new ResourceNotFoundException("Data resource with identifier " + resourceIdentifier + " is not available in version " + version + ".");
+    }
+  }
+
+  /**
+   * Remove the resource from the cache immediately and again after the
+   * current transaction has completed. The latter prevents a concurrent lookup
+   * from caching the old state while the transaction is still running.
+   *
+   * @param id The internal resource id.
+   */
+  private void invalidateCache(String id){
+    if(!dataResourceCache.isEnabled()){
+      return;
+    }
+    dataResourceCache.invalidate(id);
+    if(TransactionSynchronizationManager.isSynchronizationActive()){
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+        @Override
+        public void afterCompletion(int status){
+          dataResourceCache.invalidate(id);
+        }
+      });
+    }
+  }
+
   @Override
   public Page<DataResource> findByExample(DataResource example,
           Instant lastUpdateFrom,
@@ -363,7 +532,7 @@ public class DataResourceService implements IDataResourceService{
           boolean includeRevoked
   ){
     logger.trace("Performing findAllFiltered({}, {}, {}, {}, {}).", example, sids, permission, pgbl, includeRevoked);
-    Specification<DataResource> spec = SpecUtils.getByExampleSpec(example, em, sids, permission);
+    Specification<DataResource> spec = SpecUtils.getByExampleSpec(example, em, getPermissionSpecification(sids, permission));
 
     spec = (spec == null) ? LastUpdateSpecification.toSpecification(lastUpdateFrom, lastUpdateUntil) : spec.and(LastUpdateSpecification.toSpecification(lastUpdateFrom, lastUpdateUntil));
 
@@ -412,6 +581,84 @@ public class DataResourceService implements IDataResourceService{
     return findAll(resource, pgbl, false);
   }
 
+  @Override
+  public Slice<DataResource> findByExample(DataResource example,
+          Instant lastUpdateFrom,
+          Instant lastUpdateUntil,
+          List<String> callerIdentities,
+          boolean callerIsAdministrator,
+          String cursor,
+          int pageSize
+  ){
+    logger.trace("Performing findByExample({}, {}, {}, {}, {}, {}, {}).", example, lastUpdateFrom, lastUpdateUntil, callerIdentities, callerIsAdministrator, cursor, pageSize);
+    if(!callerIsAdministrator && example != null && DataResource.State.REVOKED.equals(example.getState())){
+      logger.debug("Removing 'REVOKED' state from example due to unprivileged request.");
+      example.setState(null);
+    }
+    Specification<DataResource> spec = SpecUtils.getByExampleSpec(example, em, callerIsAdministrator ? null : getPermissionSpecification(callerIdentities, PERMISSION.READ));
+    spec = (spec == null) ? LastUpdateSpecification.toSpecification(lastUpdateFrom, lastUpdateUntil) : spec.and(LastUpdateSpecification.toSpecification(lastUpdateFrom, lastUpdateUntil));
+    spec = addStateSpecification(spec, example, callerIsAdministrator);
+
+    if(cursor != null && !cursor.isEmpty()){
+      String[] key = KeysetPaginationUtils.decodeCursor(cursor, 2);
+      try{
+        spec = spec.and(LastUpdateCursorSpecification.toSpecification(Instant.parse(key[0]), key[1]));
+      } catch(DateTimeParseException ex){
+        throw new BadArgumentException("Invalid cursor " + cursor + ".");
+      }
+    } else{
+      spec = spec.and(LastUpdateCursorSpecification.toSpecification(null, null));
+    }
+
+    logger.trace("Querying slice of max. {} elements using final spec.", pageSize);
+    return KeysetPaginationUtils.findSlice(em, DataResource.class, spec, KeysetPaginationUtils.DATA_RESOURCE_ORDER, pageSize);
+  }
+
+  @Override
+  public Page<DataResource> search(String query,
+          List<String> callerIdentities,
+          boolean callerIsAdministrator,
+          Pageable pgbl
+  ){
+    logger.trace("Performing search({}, {}, {}, {}).", query, callerIdentities, callerIsAdministrator, pgbl);
+    Page<String> ids = searchIndex.search(query, callerIdentities, callerIsAdministrator, pgbl);
+    logger.trace("Obtained {} of {} matching resource ids from search index.", ids.getNumberOfElements(), ids.getTotalElements());
+    if(ids.getContent().isEmpty() || (!callerIsAdministrator && (callerIdentities == null || callerIdentities.isEmpty()))){
+      return new PageImpl<>(new ArrayList<>(), pgbl, ids.getTotalElements());
+    }
+    //the index may lag behind changes, e.g. made by other instances, therefore permissions and states are checked again by the database
+    Specification<DataResource> spec = ResourceIdSpecification.toSpecification(ids.getContent());
+    if(!callerIsAdministrator){
+      spec = spec.and(PermissionSpecification.toSpecification(callerIdentities, PERMISSION.READ));
+    }
+    spec = addStateSpecification(spec, null, callerIsAdministrator);
+    Map<String, DataResource> resources = new HashMap<>();
+    getDao().findAll(spec).forEach((resource) -> resources.put(resource.getId(), resource));
+    //keep the order by relevance, resources removed or not readable anymore are skipped
+    List<DataResource> result = ids.getContent().stream().map(resources::get).filter(Objects::nonNull).collect(Collectors.toList());
+    return new PageImpl<>(result, pgbl, ids.getTotalElements());
+  }
+
+  /**
+   * Private helper creating the permission specification. If the ACL index
+   * is ready, the accessible resources are obtained from the index and matched
+   * by id. Otherwise, or if there are too many of them, the ACL entries are
+   * joined.
+   */
+  private Specification<DataResource> getPermissionSpecification(List<String> sids, PERMISSION permission){
+    if(sids == null || permission == null){
+      return null;
+    }
+    if(!sids.isEmpty()){
+      List<String> ids = aclIndex.findAccessible(sids, permission, applicationProperties.getAclIndexMaxCandidates());
+      if(ids != null){
+        logger.trace("Obtained {} accessible resource(s) from ACL index.", ids.size());
+        return ResourceIdSpecification.toSpecification(ids);
+      }
+    }
+    return PermissionSpecification.toSpecification(sids, permission);
+  }
+
   /**
    * Private helper used by findAll and findAllFiltered.
    */
@@ -422,7 +669,22 @@ public class DataResourceService implements IDataResourceService{
           boolean includeRevoked
   ){
     logger.trace("Performing doFind({}, {}, {}).", spec, pgbl, includeRevoked);
+    spec = addStateSpecification(spec, example, includeRevoked);
 
+    logger.trace("Querying DAO implementation using final spec and pageable information {}.", pgbl);
+    return getDao().findAll(spec, pgbl);
+  }
+
+  /**
+   * Private helper adding the state restriction to the provided specification.
+   * The state of the example is used if present, VOLATILE and FIXED
+   * otherwise. REVOKED resources are only included if includeRevoked is TRUE.
+   */
+  private Specification<DataResource> addStateSpecification(
+          Specification<DataResource> spec,
+          DataResource example,
+          boolean includeRevoked
+  ){
     List<DataResource.State> states = new ArrayList<>();
     logger.trace("Checking example for state information.");
     if(example != null && example.getState() != null){
@@ -459,9 +721,7 @@ public class DataResourceService implements IDataResourceService{
       //spec is not null, connect StateSpec by AND
       spec = spec.and(StateSpecification.toSpecification(states));
     }
-
-    logger.trace("Querying DAO implementation using final spec and pageable information {}.", pgbl);
-    return getDao().findAll(spec, pgbl);
+    return spec;
   }
 
   @Override
@@ -484,6 +744,9 @@ public class DataResourceService implements IDataResourceService{
 
     logger.trace("Persisting updated resource.");
     DataResource result = getDao().save(updated);
+    invalidateCache(resource.getId());
+    searchIndex.update(result);
+    aclIndex.update(result);
 
     logger.trace("Capturing audit information.");
     auditService.captureAuditInformation(result, AuthenticationHelper.getPrincipal());
@@ -536,6 +799,9 @@ public class DataResourceService implements IDataResourceService{
     newResource.setLastUpdate(Instant.now());
 
     DataResource result = getDao().save(newResource);
+    invalidateCache(resource.getId());
+    searchIndex.update(result);
+    aclIndex.update(result);
 
     logger.trace("Capturing audit information.");
     auditService.captureAuditInformation(result, AuthenticationHelper.getPrincipal());
@@ -617,6 +883,9 @@ public class DataResourceService implements IDataResourceService{
 
     logger.trace("Persisting resource.");
     DataResource result = getDao().save(resource);
+    invalidateCache(resource.getId());
+    searchIndex.update(result);
+    aclIndex.update(result);
 
     //capture state change, not a delete operation as the resource is not physically deleted
     logger.trace("Capturing audit information.");
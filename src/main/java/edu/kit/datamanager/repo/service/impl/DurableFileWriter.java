@@ -0,0 +1,470 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.util.StreamUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writer placing uploaded content at its final location. Content is written to
+ * a hidden temporary file next to the destination first, which is renamed
+ * atomically to the destination afterwards. Thus, the destination either does
+ * not exist, contains the previous content or contains the complete new
+ * content, but never a partially written file.
+ *
+ * Whether written content survives a crash of the operating system depends on
+ * the durability configured via 'repo.file.durability':
+ * <ul>
+ * <li>none: Content is not synced explicitly. (default)</li>
+ * <li>fsync: Each file is synced before being renamed and its folder is
+ * synced after being renamed.</li>
+ * <li>group: Like 'fsync', but concurrently written files are committed by a
+ * single committer thread in batches of up to
+ * 'repo.file.durability.groupCommit.maxBatchSize' files collected for at most
+ * 'repo.file.durability.groupCommit.maxDelay' milliseconds. The files of a
+ * batch are synced together using up to
+ * 'repo.file.durability.groupCommit.syncThreads' threads, such that their
+ * syncs can be merged by the file system, before they are renamed and each
+ * folder is synced only once per batch.</li>
+ * </ul>
+ * In all cases, the write method returns not before the content has been
+ * placed according to the configured durability. If a group commit is not
+ * started in time, it is withdrawn and the write fails without placing the
+ * content. Once started, the write waits for the commit to finish.
+ *
+ * The writer publishes the metrics 'repo.storage.sync' and
+ * 'repo.storage.sync.batchSize'.
+ *
+ * @author jejkal
+ */
+@Component
+public class DurableFileWriter{
+
+  /**
+   * Supported durability policies.
+   */
+  public enum Durability{
+    NONE,
+    FSYNC,
+    GROUP;
+  }
+
+  private static final String TEMP_SUFFIX = ".part";
+  private static final long AWAIT_TIMEOUT = 10000;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired(required = false)
+  private MeterRegistry meterRegistry;
+
+  private final LinkedBlockingQueue<Commit> queue = new LinkedBlockingQueue<>();
+  private Durability durability;
+  private volatile boolean running;
+  private Thread committerThread;
+  private ExecutorService syncExecutor;
+
+  private Timer syncTime;
+  private DistributionSummary batchSize;
+
+  @PostConstruct
+  public void init(){
+    MeterRegistry registry = (meterRegistry != null) ? meterRegistry : new SimpleMeterRegistry();
+    syncTime = Timer.builder("repo.storage.sync").description("Time for syncing and renaming written content.").register(registry);
+    batchSize = DistributionSummary.builder("repo.storage.sync.batchSize").description("Number of files synced at once.").register(registry);
+
+    durability = getDurability();
+    if(durability == Durability.GROUP){
+      int threads = Math.max(1, applicationProperties.getDurabilityGroupCommitSyncThreads());
+      syncExecutor = Executors.newFixedThreadPool(threads, (r) -> {
+        Thread t = new Thread(r, "group-commit-sync");
+        t.setDaemon(true);
+        return t;
+      });
+      running = true;
+      committerThread = new Thread(this::run, "group-commit");
+      committerThread.setDaemon(true);
+      committerThread.start();
+    }
+    logger.trace("Durable file writer initialized with durability {}.", durability);
+  }
+
+  @PreDestroy
+  public void destroy(){
+    synchronized(queue){
+      //commits enqueued until now are still processed, later commits are performed by the writing thread
+      running = false;
+    }
+    if(committerThread != null){
+      try{
+        committerThread.join(AWAIT_TIMEOUT);
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+      }
+    }
+    if(syncExecutor != null){
+      syncExecutor.shutdown();
+    }
+  }
+
+  public Durability getConfiguredDurability(){
+    return durability;
+  }
+
+  /**
+   * Write the provided stream to the provided destination, replacing an
+   * existing destination atomically.
+   *
+   * @param source The stream to read from.
+   * @param destination The destination file.
+   * @param observers Observers receiving a read-only view of each chunk before
+   * it is written.
+   *
+   * @return The number of written bytes.
+   *
+   * @throws IOException if reading from the source or writing to the
+   * destination fails.
+   */
+  @SafeVarargs
+  public final long write(InputStream source, Path destination, Consumer<ByteBuffer>... observers) throws IOException{
+    Path temp = getTempPath(destination);
+    try{
+      long bytes = StreamUtils.writeToFile(source, temp, observers);
+      commit(temp, destination);
+      return bytes;
+    } finally{
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  /**
+   * Move the provided file to the provided destination, replacing an existing
+   * destination atomically. If source and destination are located on different
+   * file stores, the source is copied next to the destination and removed
+   * afterwards.
+   *
+   * @param source The file to move, e.g. a staged upload.
+   * @param destination The destination file.
+   *
+   * @return The size of the moved file.
+   *
+   * @throws IOException if moving the file fails.
+   */
+  public long move(Path source, Path destination) throws IOException{
+    if(Files.getFileStore(source).equals(Files.getFileStore(destination.getParent()))){
+      try{
+        commit(source, destination);
+        return Files.size(destination);
+      } catch(AtomicMoveNotSupportedException ex){
+        logger.trace("Atomic move from {} to {} not supported. Copying file.", source, destination);
+      }
+    }
+    Path temp = getTempPath(destination);
+    try{
+      Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+      commit(temp, destination);
+      Files.delete(source);
+    } finally{
+      Files.deleteIfExists(temp);
+    }
+    return Files.size(destination);
+  }
+
+  /**
+   * Sync and rename the provided file according to the configured durability.
+   */
+  private void commit(Path file, Path destination) throws IOException{
+    switch(durability){
+      case FSYNC:
+        long start = System.nanoTime();
+        sync(file);
+        rename(file, destination);
+        syncFolder(destination.getParent());
+        syncTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        batchSize.record(1);
+        break;
+      case GROUP:
+        Commit commit = new Commit(file, destination);
+        if(!enqueue(commit)){
+          //after shutdown, remaining writes are committed by the writing thread
+          sync(file);
+          rename(file, destination);
+          syncFolder(destination.getParent());
+          return;
+        }
+        await(commit);
+        break;
+      default:
+        rename(file, destination);
+    }
+  }
+
+  /**
+   * Add the provided commit to the queue of the committer thread, as long as
+   * it is running.
+   *
+   * @return TRUE if the commit has been enqueued, FALSE if the committer has
+   * been shut down.
+   */
+  private boolean enqueue(Commit commit){
+    synchronized(queue){
+      if(!running){
+        return false;
+      }
+      queue.add(commit);
+      return true;
+    }
+  }
+
+  /**
+   * Wait for the provided commit to finish. If the committer has not started
+   * the commit in time, it is withdrawn, such that the file is not placed and
+   * the failure is definitive. Otherwise, the outcome of the started commit is
+   * awaited.
+   */
+  private void await(Commit commit) throws IOException{
+    boolean interrupted = false;
+    try{
+      try{
+        commit.result.get(AWAIT_TIMEOUT + applicationProperties.getDurabilityGroupCommitMaxDelay(), TimeUnit.MILLISECONDS);
+        return;
+      } catch(InterruptedException ex){
+        interrupted = true;
+        if(commit.withdraw()){
+          throw new IOException("Interrupted while waiting for group commit of " + commit.destination + ".", ex);
+        }
+      } catch(TimeoutException ex){
+        if(commit.withdraw()){
+          throw new IOException("Timed out while waiting for group commit of " + commit.destination + ".", ex);
+        }
+      }
+      logger.debug("Group commit of {} already started. Waiting for completion.", commit.destination);
+      while(true){
+        try{
+          commit.result.get();
+          return;
+        } catch(InterruptedException ex){
+          interrupted = true;
+        }
+      }
+    } catch(ExecutionException ex){
+      if(ex.getCause() instanceof IOException){
+        throw (IOException) ex.getCause();
+      }
+      throw new IOException("Group commit of " + commit.destination + " failed.", ex.getCause());
+    } finally{
+      if(interrupted){
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void run(){
+    int maxBatchSize = Math.max(1, applicationProperties.getDurabilityGroupCommitMaxBatchSize());
+    long maxDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, applicationProperties.getDurabilityGroupCommitMaxDelay()));
+    List<Commit> batch = new ArrayList<>(maxBatchSize);
+    while(running || !queue.isEmpty()){
+      try{
+        Commit first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if(first == null){
+          continue;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + maxDelay;
+        while(batch.size() < maxBatchSize){
+          Commit next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if(next == null){
+            break;
+          }
+          batch.add(next);
+        }
+        process(batch);
+      } catch(InterruptedException ex){
+        logger.warn("Group commit interrupted.");
+        Thread.currentThread().interrupt();
+        synchronized(queue){
+          running = false;
+        }
+        batch.forEach((commit) -> commit.result.completeExceptionally(ex));
+        queue.forEach((commit) -> commit.result.completeExceptionally(ex));
+        return;
+      } catch(RuntimeException ex){
+        logger.error("Unexpected error in group commit.", ex);
+        batch.forEach((commit) -> commit.result.completeExceptionally(ex));
+      } finally{
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * Sync all files of a batch concurrently, rename the synced files and sync
+   * each affected folder once. Commits are only completed after their folder
+   * has been synced. Commits withdrawn by the writing thread are skipped.
+   */
+  private void process(List<Commit> batch){
+    logger.trace("Group commit of {} file(s).", batch.size());
+    long start = System.nanoTime();
+    List<Commit> started = new ArrayList<>(batch.size());
+    List<Future<?>> syncs = new ArrayList<>(batch.size());
+    for(Commit commit : batch){
+      if(commit.start()){
+        started.add(commit);
+        syncs.add(syncExecutor.submit(() -> {
+          sync(commit.file);
+          return null;
+        }));
+      }
+    }
+    List<Commit> renamed = new ArrayList<>(started.size());
+    boolean interrupted = false;
+    for(int i = 0; i < started.size(); i++){
+      Commit commit = started.get(i);
+      try{
+        //started commits are finished in any case, as their writers wait for the outcome
+        while(true){
+          try{
+            syncs.get(i).get();
+            break;
+          } catch(InterruptedException ex){
+            interrupted = true;
+          }
+        }
+        rename(commit.file, commit.destination);
+        renamed.add(commit);
+      } catch(ExecutionException ex){
+        commit.result.completeExceptionally(ex.getCause());
+      } catch(IOException ex){
+        commit.result.completeExceptionally(ex);
+      }
+    }
+    Set<Path> folders = new LinkedHashSet<>();
+    renamed.forEach((commit) -> folders.add(commit.destination.getParent()));
+    for(Path folder : folders){
+      syncFolder(folder);
+    }
+    syncTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    batchSize.record(batch.size());
+    renamed.forEach((commit) -> commit.result.complete(null));
+    if(interrupted){
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void sync(Path file) throws IOException{
+    //fsync applies to the file, not to the descriptor, i.e. data written via a closed channel is synced as well
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)){
+      channel.force(true);
+    }
+  }
+
+  /**
+   * Sync the provided folder in order to persist renamed entries. This is not
+   * supported on all platforms, e.g. on Windows, where failures are ignored.
+   */
+  private void syncFolder(Path folder){
+    try(FileChannel channel = FileChannel.open(folder, StandardOpenOption.READ)){
+      channel.force(true);
+    } catch(IOException ex){
+      logger.trace("Failed to sync folder {}. Ignoring.", folder);
+    }
+  }
+
+  private void rename(Path file, Path destination) throws IOException{
+    Files.move(file, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private Path getTempPath(Path destination){
+    return destination.resolveSibling("." + destination.getFileName() + "." + UUID.randomUUID().toString() + TEMP_SUFFIX);
+  }
+
+  private Durability getDurability(){
+    String configured = applicationProperties.getDurability();
+    if(configured == null){
+      return Durability.NONE;
+    }
+    try{
+      return Durability.valueOf(configured.trim().toUpperCase(Locale.ENGLISH));
+    } catch(IllegalArgumentException ex){
+      logger.warn("Invalid durability {}. Using durability NONE.", configured);
+      return Durability.NONE;
+    }
+  }
+
+  /**
+   * Pending commit of a group commit batch. A commit is either started by the
+   * committer or withdrawn by the writing thread, but never both.
+   */
+  private static final class Commit{
+
+    private static final int PENDING = 0;
+    private static final int STARTED = 1;
+    private static final int WITHDRAWN = 2;
+
+    private final Path file;
+    private final Path destination;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    Commit(Path file, Path destination){
+      this.file = file;
+      this.destination = destination;
+    }
+
+    boolean start(){
+      return state.compareAndSet(PENDING, STARTED);
+    }
+
+    boolean withdraw(){
+      return state.compareAndSet(PENDING, WITHDRAWN);
+    }
+  }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.entities.ContentElement;
+import edu.kit.datamanager.exceptions.CustomInternalServerError;
+import edu.kit.datamanager.repo.service.IContentCache;
+import edu.kit.datamanager.service.IContentProvider;
+import edu.kit.datamanager.service.IVersioningService;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+
+/**
+ * Content provider for locally stored files. In contrast to the generic file
+ * content provider, which streams the entire file through the versioning
+ * service, this provider supports conditional requests (If-None-Match,
+ * If-Modified-Since) and byte range requests (Range, If-Range) including
+ * multipart/byteranges responses. File content is transferred using
+ * FileChannel.transferTo or, if supported by the servlet container, via
+ * sendfile. Small, frequently requested files are served from the content
+ * cache, if enabled. Content which is not available as local file is handed
+ * over to the responsible versioning service.
+ *
+ * @author jejkal
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class LocalFileContentProvider implements IContentProvider{
+
+  /**
+   * Maximum number of ranges accepted within a single request.
+   */
+  private static final int MAX_RANGES = 100;
+  private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private IVersioningService[] versioningServices;
+  @Autowired
+  private IContentCache contentCache;
+  @Autowired
+  private StorageTieringService tieringService;
+
+  @Override
+  public void provide(ContentElement content, MediaType mediaType, String filename, HttpServletResponse response){
+    logger.trace("Providing content element {}.", content);
+    tieringService.recordAccess(content.getContentUri());
+    Path file = Paths.get(URI.create(content.getContentUri()));
+    HttpServletRequest request = getCurrentRequest();
+    IContentCache.CachedContent cached = (request != null) ? contentCache.get(content.getContentUri(), content.getChecksum()) : null;
+    if(cached == null && (request == null || !Files.isRegularFile(file) || !Files.isReadable(file))){
+      logger.trace("Content at {} not accessible as local file. Forwarding request to versioning service.", file);
+      provideViaVersioningService(content, mediaType, filename, response);
+      return;
+    }
+
+    try{
+      long length;
+      long lastModified;
+      if(cached != null){
+        logger.trace("Providing content at {} from cache.", file);
+        length = cached.getSize();
+        lastModified = cached.getLastModified();
+      } else{
+        length = Files.size(file);
+        lastModified = Files.getLastModifiedTime(file).toMillis();
+      }
+      String etag = (content.getChecksum() != null) ? "\"" + content.getChecksum() + "\"" : null;
+
+      if(new ServletWebRequest(request, response).checkNotModified(etag, lastModified)){
+        logger.trace("Content at {} not modified. Returning HTTP {}.", file, response.getStatus());
+        return;
+      }
+      if(cached == null){
+        cached = loadIntoCache(content, file, length, lastModified);
+      }
+
+      response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+      setContentDisposition(response, filename);
+      MediaType type = (mediaType != null) ? mediaType : MediaType.APPLICATION_OCTET_STREAM;
+
+      List<long[]> ranges = null;
+      String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+      if(rangeHeader != null && isIfRangeSatisfied(request, etag, lastModified)){
+        try{
+          ranges = getRanges(rangeHeader, length);
+        } catch(IllegalArgumentException ex){
+          logger.debug("Unsatisfiable range {} requested for content of length {}. Returning HTTP 416.", rangeHeader, length);
+          response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+          response.setStatus(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+          return;
+        }
+      }
+
+      if(ranges == null){
+        logger.trace("Sending entire content of length {}.", length);
+        response.setStatus(HttpStatus.OK.value());
+        response.setHeader(HttpHeaders.CONTENT_TYPE, type.toString());
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(length));
+        if(cached != null){
+          transfer(response, cached, 0, length);
+        } else{
+          transfer(request, response, file, 0, length);
+        }
+      } else if(ranges.size() == 1){
+        long[] range = ranges.get(0);
+        logger.trace("Sending range {}-{} of content of length {}.", range[0], range[1], length);
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setHeader(HttpHeaders.CONTENT_TYPE, type.toString());
+        response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + range[0] + "-" + range[1] + "/" + length);
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(range[1] - range[0] + 1));
+        if(cached != null){
+          transfer(response, cached, range[0], range[1] - range[0] + 1);
+        } else{
+          transfer(request, response, file, range[0], range[1] - range[0] + 1);
+        }
+      } else{
+        logger.trace("Sending {} ranges of content of length {}.", ranges.size(), length);
+        String boundary = UUID.randomUUID().toString();
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = ("\r\n--" + boundary + "--\r\n").length();
+        for(long[] range : ranges){
+          byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                  + HttpHeaders.CONTENT_TYPE + ": " + type.toString() + "\r\n"
+                  + HttpHeaders.CONTENT_RANGE + ": bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+          partHeaders.add(partHeader);
+          contentLength += partHeader.length + range[1] - range[0] + 1;
+        }
+        response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+        response.setHeader(HttpHeaders.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary);
+        response.setHeader(HttpHeaders.CONTENT_LENGTH, Long.toString(contentLength));
+        OutputStream out = response.getOutputStream();
+        try(FileChannel channel = (cached == null) ? FileChannel.open(file, StandardOpenOption.READ) : null){
+          WritableByteChannel target = Channels.newChannel(out);
+          for(int i = 0; i < ranges.size(); i++){
+            out.write(partHeaders.get(i));
+            if(cached != null){
+              transfer(cached, target, ranges.get(i)[0], ranges.get(i)[1] - ranges.get(i)[0] + 1);
+            } else{
+              transfer(channel, target, ranges.get(i)[0], ranges.get(i)[1] - ranges.get(i)[0] + 1);
+            }
+          }
+        }
+        out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+      }
+    } catch(IOException ex){
+      logger.error("Failed to send content to response.", ex);
+      throw new CustomInternalServerError("Failed to read content from repository.");
+    }
+  }
+
+  @Override
+  public boolean canProvide(String scheme){
+    return "file".equals(scheme);
+  }
+
+  /**
+   * Check whether the range request should be served. This is the case if no
+   * If-Range header is present or if the provided validator matches the
+   * current representation. Weak entity tags never match.
+   */
+  private boolean isIfRangeSatisfied(HttpServletRequest request, String etag, long lastModified){
+    String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+    if(ifRange == null){
+      return true;
+    }
+    ifRange = ifRange.trim();
+    if(ifRange.startsWith("\"") || ifRange.startsWith("W/")){
+      return etag != null && etag.equals(ifRange);
+    }
+    try{
+      long ifRangeDate = request.getDateHeader(HttpHeaders.IF_RANGE);
+      //HTTP dates have a resolution of seconds
+      return ifRangeDate / 1000 == lastModified / 1000;
+    } catch(IllegalArgumentException ex){
+      return false;
+    }
+  }
+
+  /**
+   * Parse the provided range header and resolve all ranges to inclusive start
+   * and end positions.
+   *
+   * @throws IllegalArgumentException if the header is invalid or no range is
+   * satisfiable.
+   */
+  private List<long[]> getRanges(String rangeHeader, long length){
+    List<HttpRange> httpRanges = HttpRange.parseRanges(rangeHeader);
+    if(httpRanges.isEmpty() || httpRanges.size() > MAX_RANGES || length == 0){
+      throw new IllegalArgumentException("Unsatisfiable range header " + rangeHeader);
+    }
+    List<long[]> result = new ArrayList<>();
+    long total = 0;
+    for(HttpRange range : httpRanges){
+      long start = range.getRangeStart(length);
+      long end = range.getRangeEnd(length);
+      if(start >= length || start > end){
+        //unsatisfiable ranges are ignored as long as at least one range is satisfiable
+        continue;
+      }
+      total += end - start + 1;
+      result.add(new long[]{start, end});
+    }
+    if(result.isEmpty()){
+      throw new IllegalArgumentException("No satisfiable range in range header " + rangeHeader);
+    }
+    if(result.size() > 1 && total > length){
+      //prevent amplification by overlapping ranges
+      throw new IllegalArgumentException("Requested ranges exceed content length.");
+    }
+    return result;
+  }
+
+  private void transfer(HttpServletRequest request, HttpServletResponse response, Path file, long position, long count) throws IOException{
+    if(Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))){
+      logger.trace("Handing over transfer of {} to container via sendfile.", file);
+      request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.toAbsolutePath().toString());
+      request.setAttribute(SENDFILE_START_ATTRIBUTE, position);
+      request.setAttribute(SENDFILE_END_ATTRIBUTE, position + count);
+      return;
+    }
+    OutputStream out = response.getOutputStream();
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)){
+      transfer(channel, Channels.newChannel(out), position, count);
+    }
+    out.flush();
+  }
+
+  /**
+   * Load the provided file into the content cache if it is admitted. As the
+   * file has to be read anyway, the loaded content is returned even if it has
+   * not been cached, e.g. due to a concurrent admission.
+   *
+   * @return The loaded content or null if the content is not admitted.
+   */
+  private IContentCache.CachedContent loadIntoCache(ContentElement content, Path file, long length, long lastModified) throws IOException{
+    if(content.getChecksum() == null || !contentCache.admits(content.getContentUri(), length)){
+      return null;
+    }
+    byte[] data = Files.readAllBytes(file);
+    if(data.length != length){
+      logger.debug("Content at {} changed while loading it into cache. Skipping cache.", file);
+      return null;
+    }
+    contentCache.put(content.getContentUri(), content.getChecksum(), data, lastModified);
+    return new IContentCache.CachedContent(ByteBuffer.wrap(data), lastModified);
+  }
+
+  private void transfer(HttpServletResponse response, IContentCache.CachedContent cached, long position, long count) throws IOException{
+    OutputStream out = response.getOutputStream();
+    transfer(cached, Channels.newChannel(out), position, count);
+    out.flush();
+  }
+
+  private void transfer(IContentCache.CachedContent cached, WritableByteChannel target, long position, long count) throws IOException{
+    ByteBuffer data = cached.getData();
+    data.position((int) position);
+    data.limit((int) (position + count));
+    while(data.hasRemaining()){
+      target.write(data);
+    }
+  }
+
+  private void transfer(FileChannel channel, WritableByteChannel target, long position, long count) throws IOException{
+    long transferred = 0;
+    while(transferred < count){
+      long cnt = channel.transferTo(position + transferred, count - transferred, target);
+      if(cnt <= 0){
+        throw new IOException("Unexpected end of file at position " + (position + transferred) + ".");
+      }
+      transferred += cnt;
+    }
+  }
+
+  private void provideViaVersioningService(ContentElement content, MediaType mediaType, String filename, HttpServletResponse response){
+    for(IVersioningService service : versioningServices){
+      if(service.getServiceName().equals(content.getVersioningService())){
+        service.configure();
+        response.setStatus(HttpStatus.OK.value());
+        if(mediaType != null){
+          response.setHeader(HttpHeaders.CONTENT_TYPE, mediaType.toString());
+        }
+        setContentDisposition(response, filename);
+        if(content.getContentLength() > 0){
+          response.setHeader(HttpHeaders.CONTENT_LENGTH, String.valueOf(content.getContentLength()));
+        }
+        Map<String, String> options = new HashMap<>();
+        options.put("contentUri", content.getContentUri());
+        options.put("checksum", content.getChecksum());
+        options.put("size", Long.toString(content.getContentLength()));
+        options.put("mediaType", (mediaType != null) ? mediaType.toString() : "<unknown>");
+        try{
+          service.read(content.getResourceId(), null, content.getRelativePath(), content.getFileVersion(), response.getOutputStream(), options);
+        } catch(IOException ex){
+          logger.error("Failed to send content to response.", ex);
+          throw new CustomInternalServerError("Failed to read content from repository.");
+        }
+        return;
+      }
+    }
+    logger.error("No versioning service found for name {}. Unable to provide content.", content.getVersioningService());
+    throw new CustomInternalServerError("No versioning service found. Unable to provide any content.");
+  }
+
+  /**
+   * Offer the content as attachment with the provided filename, as done by
+   * the generic file content provider.
+   */
+  private void setContentDisposition(HttpServletResponse response, String filename){
+    if(filename != null){
+      response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=" + filename);
+    }
+  }
+
+  private HttpServletRequest getCurrentRequest(){
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    if(attributes instanceof ServletRequestAttributes){
+      return ((ServletRequestAttributes) attributes).getRequest();
+    }
+    return null;
+  }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IContentInformationDao;
+import edu.kit.datamanager.repo.util.StreamUtils;
+import edu.kit.datamanager.repo.util.TransactionUtils;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.mime.MediaType;
+import org.apache.tika.mime.MediaTypeRegistry;
+import org.apache.tika.mime.MimeTypes;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Shared, thread-safe detection of the media type of uploaded content based on
+ * the first bytes of the content and its filename. The Tika detector is
+ * created only once. Before using it, two fast paths are checked:
+ * <ul>
+ * <li>Magic bytes of common binary formats, whose type does not depend on the
+ * filename, e.g. PNG or PDF.</li>
+ * <li>Filename extensions of common text formats, e.g. 'csv' or 'json', if
+ * the first bytes look like text.</li>
+ * </ul>
+ * Both fast paths return the same media type as the Tika detector.
+ *
+ * If 'repo.file.mediaType.async' is enabled, uploads not covered by a fast
+ * path are stored without media type and the media type is determined after
+ * the upload has been committed by 'repo.file.mediaType.async.threads'
+ * background threads.
+ *
+ * @author jejkal
+ */
+@Component
+public class MediaTypeDetector{
+
+  private static final List<Signature> SIGNATURES = Arrays.asList(
+          new Signature("image/png", 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A),
+          new Signature("image/jpeg", 0xFF, 0xD8, 0xFF),
+          new Signature("image/gif", 'G', 'I', 'F', '8', '7', 'a'),
+          new Signature("image/gif", 'G', 'I', 'F', '8', '9', 'a'),
+          new Signature("application/pdf", '%', 'P', 'D', 'F', '-'),
+          new Signature("application/gzip", 0x1F, 0x8B),
+          new Signature("application/x-hdf", 0x89, 'H', 'D', 'F', 0x0D, 0x0A, 0x1A, 0x0A));
+  private static final List<String> TEXT_EXTENSIONS = Arrays.asList("txt", "csv", "tsv", "json", "md", "yaml", "yml");
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private IContentInformationDao contentInformationDao;
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+
+  private final AtomicLong pending = new AtomicLong();
+  private Detector detector;
+  private Map<String, String> textTypes;
+  private ExecutorService executor;
+
+  @PostConstruct
+  public void init(){
+    detector = TikaConfig.getDefaultConfig().getDetector();
+    MediaTypeRegistry registry = MimeTypes.getDefaultMimeTypes().getMediaTypeRegistry();
+    Map<String, String> types = new HashMap<>();
+    for(String extension : TEXT_EXTENSIONS){
+      MediaType type = detectByName("file." + extension);
+      if(registry.isSpecializationOf(type, MediaType.TEXT_PLAIN) || MediaType.TEXT_PLAIN.equals(type)){
+        types.put(extension, type.toString());
+      }
+    }
+    textTypes = Collections.unmodifiableMap(types);
+  }
+
+  @PreDestroy
+  public void destroy(){
+    synchronized(this){
+      if(executor != null){
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Check whether media types may be determined after an upload has been
+   * committed.
+   *
+   * @return TRUE if asynchronous detection is enabled.
+   */
+  public boolean isAsync(){
+    return applicationProperties.isMediaTypeAsync();
+  }
+
+  /**
+   * Get the number of pending asynchronous detections.
+   *
+   * @return The number of pending detections.
+   */
+  public long getPending(){
+    return pending.get();
+  }
+
+  /**
+   * Determine the media type of content with the provided first bytes and
+   * filename.
+   *
+   * @param prefix The first bytes of the content.
+   * @param filename The filename or the relative path of the content, which
+   * might be null.
+   *
+   * @return The media type, which is 'application/octet-stream' if the type is
+   * unknown.
+   */
+  public String detect(byte[] prefix, String filename){
+    String type = detectFast(prefix, filename);
+    if(type != null){
+      return type;
+    }
+    Metadata metadata = new Metadata();
+    if(filename != null){
+      metadata.set(Metadata.RESOURCE_NAME_KEY, getName(filename));
+    }
+    try(InputStream is = new ByteArrayInputStream(prefix)){
+      return detector.detect(is, metadata).toString();
+    } catch(IOException ex){
+      //not expected for in-memory streams
+      logger.warn("Failed to detect media type of " + filename + ".", ex);
+      return MediaType.OCTET_STREAM.toString();
+    }
+  }
+
+  /**
+   * Determine the media type of uploaded content. If asynchronous detection is
+   * enabled, only the fast paths are checked.
+   *
+   * @param prefix The first bytes of the content.
+   * @param filename The filename or the relative path of the content.
+   *
+   * @return The media type or null, if the media type should be determined
+   * asynchronously via {@link #detectLater(java.lang.Long, java.lang.String, java.lang.String)}.
+   */
+  public String detectUpload(byte[] prefix, String filename){
+    return isAsync() ? detectFast(prefix, filename) : detect(prefix, filename);
+  }
+
+  /**
+   * Determine the media type using the fast paths only.
+   *
+   * @param prefix The first bytes of the content.
+   * @param filename The filename or the relative path of the content.
+   *
+   * @return The media type or null if no fast path applies.
+   */
+  public String detectFast(byte[] prefix, String filename){
+    for(Signature signature : SIGNATURES){
+      if(signature.matches(prefix)){
+        return signature.type;
+      }
+    }
+    if(filename != null && isText(prefix)){
+      String name = getName(filename);
+      int index = name.lastIndexOf('.');
+      if(index > 0){
+        return textTypes.get(name.substring(index + 1).toLowerCase(Locale.ENGLISH));
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Determine the media type of a stored content information element in
+   * background. If called within a transaction, detection is started after the
+   * transaction has been committed. The media type is only assigned if the
+   * content URI of the element has not changed and no media type has been
+   * assigned in the meantime.
+   *
+   * @param id The id of the content information element.
+   * @param contentUri The content URI of the element.
+   * @param filename The filename or relative path of the element.
+   */
+  public void detectLater(Long id, String contentUri, String filename){
+    if(id == null || contentUri == null || !contentUri.startsWith("file:")){
+      return;
+    }
+    if(TransactionSynchronizationManager.isSynchronizationActive()){
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter(){
+        @Override
+        public void afterCommit(){
+          submit(id, contentUri, filename);
+        }
+      });
+    } else{
+      submit(id, contentUri, filename);
+    }
+  }
+
+  private void submit(Long id, String contentUri, String filename){
+    pending.incrementAndGet();
+    getExecutor().submit(() -> {
+      try{
+        Path file = Paths.get(URI.create(contentUri));
+        String type = detect(StreamUtils.readPrefix(file, StreamUtils.SNIFF_BUFFER_SIZE), filename);
+        int updated = TransactionUtils.inTransaction(transactionManager, () -> contentInformationDao.updateMediaType(id, contentUri, type));
+        logger.trace("Assigned media type {} to content information {} ({} update(s)).", type, id, updated);
+      } catch(IOException | RuntimeException ex){
+        logger.warn("Failed to detect media type of content information " + id + ".", ex);
+      } finally{
+        pending.decrementAndGet();
+      }
+    });
+  }
+
+  private synchronized ExecutorService getExecutor(){
+    if(executor == null){
+      int threads = Math.max(1, applicationProperties.getMediaTypeAsyncThreads());
+      executor = Executors.newFixedThreadPool(threads, (r) -> {
+        Thread t = new Thread(r, "media-type-detector");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+    return executor;
+  }
+
+  private MediaType detectByName(String name){
+    Metadata metadata = new Metadata();
+    metadata.set(Metadata.RESOURCE_NAME_KEY, name);
+    try{
+      return detector.detect(null, metadata);
+    } catch(IOException ex){
+      return MediaType.OCTET_STREAM;
+    }
+  }
+
+  /**
+   * Check whether the provided bytes look like text without any markup or
+   * interpreter directive, for which Tika would report a more specific type
+   * than the filename.
+   */
+  private boolean isText(byte[] prefix){
+    if(prefix.length == 0){
+      return false;
+    }
+    int first = -1;
+    for(int i = 0; i < prefix.length; i++){
+      int b = prefix[i] & 0xFF;
+      if(b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f'){
+        return false;
+      }
+      if(first < 0 && b != ' ' && b != '\t' && b != '\n' && b != '\r' && b != '\f'){
+        first = i;
+      }
+    }
+    return first >= 0 && prefix[first] != '<' && !(prefix[first] == '#' && first + 1 < prefix.length && prefix[first + 1] == '!');
+  }
+
+  private String getName(String filename){
+    int index = filename.lastIndexOf('/');
+    return (index >= 0) ? filename.substring(index + 1) : filename;
+  }
+
+  /**
+   * Magic bytes at the beginning of the content.
+   */
+  private static final class Signature{
+
+    private final String type;
+    private final byte[] magic;
+
+    Signature(String type, int... magic){
+      this.type = type;
+      this.magic = new byte[magic.length];
+      for(int i = 0; i < magic.length; i++){
+        this.magic[i] = (byte) magic[i];
+      }
+    }
+
+    boolean matches(byte[] prefix){
+      if(prefix.length < magic.length){
+        return false;
+      }
+      for(int i = 0; i < magic.length; i++){
+        if(prefix[i] != magic[i]){
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.exceptions.CustomInternalServerError;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.repo.util.StagedFileInputStream;
+import edu.kit.datamanager.repo.util.StreamUtils;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Function;
+import javax.annotation.PostConstruct;
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletContext;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * Helper for handing multipart uploads to the versioning services without
+ * writing the uploaded bytes twice. The servlet container has typically
+ * already spooled the file part to disk. Instead of copying the spooled file
+ * to its final location, the part is transferred to the staging folder below
+ * the base path, which is a rename if the container's spool location is
+ * located at the same file store (see 'spring.servlet.multipart.location').
+ * After computing the configured checksums with a single read, the staged
+ * file is provided as movable StagedFileInputStream, which allows the
+ * versioning service to move it to its final location.
+ *
+ * If the spool location is located at another file store or parts are kept
+ * in memory, transferring would copy the part, which would be read again for
+ * computing checksums and copied again to its final location. In that case,
+ * the part is provided as plain stream instead, which is written once to its
+ * final location while computing checksums.
+ *
+ * @author jejkal
+ */
+@Component
+public class MultipartUploadStager{
+
+  private static final String MULTIPART_FOLDER = "multipart";
+  /**
+   * Min. age of staged files removed on startup.
+   */
+  private static final long ORPHAN_AGE = 24 * 60 * 60 * 1000;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private ChecksumEngine checksumEngine;
+  @Autowired(required = false)
+  private MultipartConfigElement multipartConfig;
+  @Autowired(required = false)
+  private ServletContext servletContext;
+
+  private volatile StoreCheck storeCheck;
+
+  @PostConstruct
+  public void init(){
+    //remove files of uploads interrupted by a shutdown
+    Path folder = getMultipartPath();
+    if(!Files.isDirectory(folder)){
+      return;
+    }
+    Instant threshold = Instant.now().minusMillis(ORPHAN_AGE);
+    try(DirectoryStream<Path> files = Files.newDirectoryStream(folder)){
+      for(Path file : files){
+        if(Files.getLastModifiedTime(file).toInstant().isBefore(threshold)){
+          logger.debug("Removing orphaned multipart upload {}.", file);
+          Files.deleteIfExists(file);
+        }
+      }
+    } catch(IOException ex){
+      logger.warn("Failed to cleanup multipart staging folder " + folder + ".", ex);
+    }
+  }
+
+  /**
+   * Stage the provided file and pass it to the provided function as movable
+   * StagedFileInputStream. The staged file is removed afterwards if it has not
+   * been moved by the function. If the file cannot be staged by renaming it,
+   * it is passed to the function as plain stream.
+   *
+   * @param <T> The result type.
+   * @param file The uploaded file.
+   * @param function The function consuming the staged file.
+   *
+   * @return The result of the function.
+   */
+  public <T> T stage(MultipartFile file, Function<InputStream, T> function){
+    Path folder = getMultipartPath();
+    if(!isSpooledAt(file, folder)){
+      logger.trace("Multipart upload is not spooled at the file store of {}. Streaming upload.", folder);
+      try(InputStream stream = file.getInputStream()){
+        return function.apply(stream);
+      } catch(IOException ex){
+        logger.error("Failed to read multipart upload.", ex);
+        throw new CustomInternalServerError("Unable to read from stream. Upload canceled.");
+      }
+    }
+    Path staged = folder.resolve(UUID.randomUUID().toString());
+    try{
+      Files.createDirectories(folder);
+      //transferTo(File) renames the spooled part if possible, transferTo(Path) would always copy
+      file.transferTo(staged.toFile());
+      Map<String, String> digests;
+      try(ChecksumEngine.Session checksums = checksumEngine.newSession()){
+        StreamUtils.readFile(staged, checksums);
+        digests = checksums.finish();
+      }
+      try(StagedFileInputStream stream = new StagedFileInputStream(staged, digests, true)){
+        return function.apply(stream);
+      }
+    } catch(IOException ex){
+      logger.error("Failed to stage multipart upload.", ex);
+      throw new CustomInternalServerError("Unable to read from stream. Upload canceled.");
+    } finally{
+      try{
+        Files.deleteIfExists(staged);
+      } catch(IOException ex){
+        logger.warn("Failed to remove staged multipart upload {}.", staged);
+      }
+    }
+  }
+
+  /**
+   * Check whether the provided part is spooled to disk at the file store of
+   * the provided folder, i.e. whether it can be transferred to the folder by
+   * renaming it. The folder is created if it does not exist.
+   */
+  private boolean isSpooledAt(MultipartFile file, Path folder){
+    Path spool = getSpoolPath();
+    if(spool == null || (multipartConfig != null && file.getSize() < multipartConfig.getFileSizeThreshold())){
+      return false;
+    }
+    StoreCheck check = storeCheck;
+    if(check == null || !check.spool.equals(spool) || !check.folder.equals(folder)){
+      boolean sameStore;
+      try{
+        Files.createDirectories(folder);
+        sameStore = Files.getFileStore(spool).equals(Files.getFileStore(folder));
+      } catch(IOException ex){
+        logger.debug("Failed to determine file store of {} or {}.", spool, folder);
+        sameStore = false;
+      }
+      check = new StoreCheck(spool, folder, sameStore);
+      storeCheck = check;
+    }
+    return check.sameStore;
+  }
+
+  /**
+   * Get the location where the servlet container spools file parts, which is
+   * the configured multipart location, relative to the temporary folder of the
+   * servlet context if not absolute.
+   *
+   * @return The spool location or null if it is unknown.
+   */
+  private Path getSpoolPath(){
+    Object tempDir = (servletContext != null) ? servletContext.getAttribute(ServletContext.TEMPDIR) : null;
+    Path base = (tempDir instanceof File) ? ((File) tempDir).toPath() : null;
+    String location = (multipartConfig != null) ? multipartConfig.getLocation() : null;
+    if(location == null || location.isEmpty()){
+      return base;
+    }
+    Path spool = Paths.get(location);
+    if(!spool.isAbsolute()){
+      return (base != null) ? base.resolve(spool) : null;
+    }
+    return spool;
+  }
+
+  private Path getMultipartPath(){
+    return PathUtils.getStagingPath(applicationProperties).resolve(MULTIPART_FOLDER);
+  }
+
+  /**
+   * Cached result of comparing the file stores of the spool location and the
+   * staging folder.
+   */
+  private static final class StoreCheck{
+
+    private final Path spool;
+    private final Path folder;
+    private final boolean sameStore;
+
+    StoreCheck(Path spool, Path folder, boolean sameStore){
+      this.spool = spool;
+      this.folder = folder;
+      this.sameStore = sameStore;
+    }
+  }
+}
@@ -23,8 +23,9 @@ import edu.kit.datamanager.repo.configuration.ApplicationProperties;
 import edu.kit.datamanager.repo.dao.IContentInformationDao;
 import edu.kit.datamanager.repo.domain.DataResource;
 import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.repo.util.StagedFileInputStream;
+import edu.kit.datamanager.repo.util.StreamUtils;
 import edu.kit.datamanager.service.IVersioningService;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -32,17 +33,11 @@ import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Map;
 import javax.servlet.http.HttpServletRequest;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.tika.detect.Detector;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
@@ -60,6 +55,12 @@ public class NoneDataVersioningService implements IVersioningService{
   private IContentInformationDao dao;
   @Autowired
   private ApplicationProperties applicationProperties;
+  @Autowired
+  private ChecksumEngine checksumEngine;
+  @Autowired
+  private DurableFileWriter fileWriter;
+  @Autowired
+  private MediaTypeDetector mediaTypeDetector;
 
   @Override
   public void configure(){
@@ -98,25 +99,31 @@ public class NoneDataVersioningService implements IVersioningService{
     Path destination = Paths.get(URI.create(contentUriString));
     logger.trace("Preparing destination {} for storing user data.", destination);
     //store data
-    OutputStream out = null;
-    try{
-      //read/write file, create checksum and calculate file size
+    try(ChecksumEngine.Session checksums = checksumEngine.newSession()){
+      //read/write file, create checksums and calculate file size in a single pass
       Files.createDirectories(destination.getParent());
 
-      MessageDigest md = MessageDigest.getInstance("SHA1");
-      logger.trace("Start reading user data from stream.");
-      int cnt;
-      long bytes = 0;
-      byte[] buffer = new byte[1024];
-      out = Files.newOutputStream(destination);
-      while((cnt = stream.read(buffer)) > -1){
-        out.write(buffer, 0, cnt);
-        md.update(buffer, 0, cnt);
-        bytes += cnt;
+      long bytes;
+      Map<String, String> digests;
+      byte[] prefix;
+      if(stream instanceof StagedFileInputStream && ((StagedFileInputStream) stream).isMovable() && ((StagedFileInputStream) stream).hasChecksums(checksumEngine.getAlgorithmNames())){
+        logger.trace("Moving staged user data to destination.");
+        StagedFileInputStream staged = (StagedFileInputStream) stream;
+        bytes = fileWriter.move(staged.getPath(), destination);
+        digests = staged.getChecksums();
+        prefix = StreamUtils.readPrefix(destination, StreamUtils.SNIFF_BUFFER_SIZE);
+      } else{
+        StreamUtils.PrefixCapture capture = new StreamUtils.PrefixCapture(StreamUtils.SNIFF_BUFFER_SIZE);
+        logger.trace("Start reading user data from stream.");
+        bytes = fileWriter.write(stream, destination, checksums, capture);
+        digests = checksums.finish();
+        prefix = capture.getPrefix();
       }
 
       logger.trace("Performing upload post-processing.");
-      map.put("checksum", "sha1:" + Hex.encodeHexString(md.digest()));
+      digests.forEach((algorithm, digest) -> map.put("checksum." + algorithm, digest));
+      String primary = checksumEngine.getPrimaryAlgorithm();
+      map.put("checksum", primary + ":" + digests.get(primary));
       logger.debug("Assigned hash {} to content information.", map.get("checksum"));
       map.put("size", Long.toString(bytes));
       logger.debug("Assigned size {} to content information.", map.get("size"));
@@ -124,31 +131,17 @@ public class NoneDataVersioningService implements IVersioningService{
       logger.debug("Assigned content URI {} to content information.", map.get("contentUri"));
 
       if(!map.containsKey("mediaType")){
-        logger.trace("Trying to determine content type.");
-        try(InputStream is = Files.newInputStream(destination); BufferedInputStream bis = new BufferedInputStream(is);){
-          AutoDetectParser parser = new AutoDetectParser();
-          Detector detector = parser.getDetector();
-          Metadata md1 = new Metadata();
-          //md1.add(Metadata.RESOURCE_NAME_KEY, contentInfo.getFilename());
-          org.apache.tika.mime.MediaType mediaType = detector.detect(bis, md1);
-          map.put("mediaType", mediaType.toString());
+        String mediaType = mediaTypeDetector.detectUpload(prefix, path);
+        if(mediaType != null){
+          map.put("mediaType", mediaType);
           logger.trace("Assigned media type {} to content information.", map.get("mediaType"));
+        } else{
+          logger.trace("Media type is determined asynchronously.");
         }
       }
     } catch(IOException ex){
       logger.error("Failed to finish upload. Throwing CustomInternalServerError.", ex);
       throw new CustomInternalServerError("Unable to read from stream. Upload canceled.");
-    } catch(NoSuchAlgorithmException ex){
-      logger.error("Failed to initialize SHA1 message digest. Throwing CustomInternalServerError.", ex);
-      throw new CustomInternalServerError("Internal digest initialization error. Unable to perform upload.");
-    } finally{
-      if(out != null){
-        try{
-          out.flush();
-          out.close();
-        } catch(IOException ignored){
-        }
-      }
     }
   }
 
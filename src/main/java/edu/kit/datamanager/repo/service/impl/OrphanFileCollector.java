@@ -0,0 +1,566 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IContentBlobDao;
+import edu.kit.datamanager.repo.dao.IContentInformationDao;
+import edu.kit.datamanager.repo.dao.IFileVersionDao;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationIdSpecification;
+import edu.kit.datamanager.repo.domain.ContentBlob;
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.domain.FileVersion;
+import edu.kit.datamanager.repo.util.BloomFilter;
+import edu.kit.datamanager.repo.util.PathUtils;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import javax.annotation.PreDestroy;
+import org.javers.core.Javers;
+import org.javers.core.commit.CommitId;
+import org.javers.core.metamodel.object.CdoSnapshot;
+import org.javers.repository.jql.QueryBuilder;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Garbage collector for files below the base path and all configured storage
+ * tiers which are not referenced anymore, e.g. because removing replaced or
+ * deleted content failed or because the transaction storing a content
+ * information element has been rolled back after its content has been written.
+ *
+ * A collection run at first adds the locations of all referenced files to a
+ * Bloom filter. Referenced files are the content URIs of all content
+ * information elements, of all content information versions kept by the audit
+ * service, of all file versions and all blobs of the content-addressable
+ * storage. Afterwards, the base path and all storage tiers are traversed in
+ * parallel, one task per top-level folder. Each file older than the configured grace period, which is
+ * definitely not contained in the filter, is a candidate. As references might
+ * have been added since the filter has been built, each candidate is looked
+ * up in the database once more and is only considered orphaned if it is still
+ * not referenced. Depending on the configuration, orphans are only reported,
+ * moved to the quarantine folder below the base path or tier or deleted. False
+ * positives of the filter only cause orphans to be kept until a later run, but
+ * never cause referenced files to be removed. Jobs relocating content, i.e. the
+ * placement migration and the storage tiering, are excluded via the
+ * {@link StorageMaintenanceLock} while a run is in progress.
+ *
+ * As the base path might be shared with other applications, only files laid
+ * out by this repository are considered, i.e. blobs in the content-addressable
+ * storage and files named '&lt;name&gt;_&lt;timestamp&gt;' in top-level
+ * folders. Other hidden top-level entries, e.g. the staging and quarantine
+ * folders, files directly located in the base path and all configured excluded
+ * folders are never traversed.
+ *
+ * @author jejkal
+ */
+@Component
+public class OrphanFileCollector{
+
+  /**
+   * Name of the quarantine folder below the base path and each tier.
+   */
+  public static final String QUARANTINE_FOLDER = ".quarantine";
+
+  /**
+   * States of a collection run.
+   */
+  public enum State{
+    IDLE,
+    RUNNING,
+    STOPPED,
+    FINISHED,
+    FAILED;
+  }
+
+  /**
+   * Actions applied to orphaned files.
+   */
+  public enum Action{
+    REPORT,
+    QUARANTINE,
+    DELETE;
+  }
+
+  private static final String JOB = "orphan-collection";
+  private static final Pattern DATA_FILE_PATTERN = Pattern.compile(".+_[0-9]+");
+  private static final int CAS_BLOB_DEPTH = 4;
+  private static final int PAGE_SIZE = 1000;
+  private static final double FALSE_POSITIVE_PROBABILITY = 0.01;
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private IContentInformationDao contentInformationDao;
+  @Autowired
+  private IContentBlobDao contentBlobDao;
+  @Autowired
+  private IFileVersionDao fileVersionDao;
+  @Autowired
+  private Javers javers;
+  @Autowired
+  private StorageMaintenanceLock maintenanceLock;
+
+  private final AtomicLong referenced = new AtomicLong();
+  private final AtomicLong scanned = new AtomicLong();
+  private final AtomicLong orphans = new AtomicLong();
+  private final AtomicLong orphanedBytes = new AtomicLong();
+  private final AtomicLong purged = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  private volatile State state = State.IDLE;
+  private volatile Action action;
+  private volatile Instant started;
+  private volatile Instant finished;
+  private volatile String message;
+  private Thread collectorThread;
+
+  /**
+   * Start a collection run according to 'repo.gc.cron'.
+   */
+  @Scheduled(cron = "${repo.gc.cron:-}")
+  public void scheduledRun(){
+    if(!start()){
+      logger.debug("Orphan collection or another storage maintenance job already in progress. Skipping scheduled run.");
+    }
+  }
+
+  /**
+   * Start a collection run in background. If a run or another storage
+   * maintenance job, which might relocate content in the meantime, is already
+   * in progress, this call has no effect.
+   *
+   * @return TRUE if the run has been started, FALSE if a run or another
+   * storage maintenance job is already in progress.
+   */
+  public synchronized boolean start(){
+    if(state == State.RUNNING){
+      return false;
+    }
+    if(!maintenanceLock.tryAcquire(JOB)){
+      logger.info("Storage maintenance job {} in progress. Not starting {}.", maintenanceLock.getOwner(), JOB);
+      message = "Storage maintenance job " + maintenanceLock.getOwner() + " in progress.";
+      return false;
+    }
+    referenced.set(0);
+    scanned.set(0);
+    orphans.set(0);
+    orphanedBytes.set(0);
+    purged.set(0);
+    failed.set(0);
+    action = getAction();
+    started = Instant.now();
+    finished = null;
+    message = null;
+    state = State.RUNNING;
+    collectorThread = new Thread(this::collect, "orphan-collector");
+    collectorThread.setDaemon(true);
+    collectorThread.start();
+    return true;
+  }
+
+  /**
+   * Stop a running collection run as soon as possible.
+   */
+  public synchronized void stop(){
+    if(state == State.RUNNING){
+      state = State.STOPPED;
+    }
+  }
+
+  /**
+   * Wait for a running collection run to finish.
+   *
+   * @param timeout The max. time to wait in milliseconds.
+   *
+   * @throws InterruptedException If the current thread has been interrupted.
+   */
+  public void await(long timeout) throws InterruptedException{
+    Thread t;
+    synchronized(this){
+      t = collectorThread;
+    }
+    if(t != null){
+      t.join(timeout);
+    }
+  }
+
+  /**
+   * Get the status of the current or last collection run.
+   *
+   * @return The status as map.
+   */
+  public Map<String, Object> getStatus(){
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("state", state.toString());
+    status.put("action", (action != null) ? action.toString() : null);
+    status.put("started", (started != null) ? started.toString() : null);
+    status.put("finished", (finished != null) ? finished.toString() : null);
+    status.put("referenced", referenced.get());
+    status.put("scanned", scanned.get());
+    status.put("orphans", orphans.get());
+    status.put("orphanedBytes", orphanedBytes.get());
+    status.put("purged", purged.get());
+    status.put("failed", failed.get());
+    if(message != null){
+      status.put("message", message);
+    }
+    return status;
+  }
+
+  @PreDestroy
+  public void destroy(){
+    stop();
+  }
+
+  private void collect(){
+    int threads = applicationProperties.getGcThreads() > 0 ? applicationProperties.getGcThreads() : 1;
+    ExecutorService executor = Executors.newFixedThreadPool(threads, (r) -> {
+      Thread t = new Thread(r, "orphan-collector-worker");
+      t.setDaemon(true);
+      return t;
+    });
+    logger.info("Starting orphan collection with action {}.", action);
+    try{
+      List<Path> tiers = PathUtils.getTierPaths(applicationProperties);
+      BloomFilter filter = collectReferences();
+      logger.debug("Collected {} file reference(s).", referenced.get());
+
+      Instant threshold = Instant.now().minusMillis(applicationProperties.getGcGracePeriod());
+      Set<String> excluded = getExcludedFolders();
+      List<Future<?>> futures = new ArrayList<>();
+      for(Path tier : tiers){
+        if(!Files.isDirectory(tier)){
+          continue;
+        }
+        try(DirectoryStream<Path> entries = Files.newDirectoryStream(tier)){
+          for(Path entry : entries){
+            String name = entry.getFileName().toString();
+            if(!Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS) || excluded.contains(name) || tiers.contains(entry)){
+              continue;
+            }
+            if(PathUtils.CAS_FOLDER.equals(name)){
+              futures.add(executor.submit(() -> scan(entry, (file) -> entry.relativize(file).getNameCount() == CAS_BLOB_DEPTH, filter, threshold, tier, entry)));
+            } else if(!name.startsWith(".")){
+              futures.add(executor.submit(() -> scan(entry, (file) -> DATA_FILE_PATTERN.matcher(file.getFileName().toString()).matches(), filter, threshold, tier, null)));
+            }
+          }
+        }
+      }
+      for(Future<?> future : futures){
+        future.get();
+      }
+      if(state == State.RUNNING){
+        for(Path tier : tiers){
+          purgeQuarantine(tier.resolve(QUARANTINE_FOLDER));
+        }
+      }
+      synchronized(this){
+        if(state == State.RUNNING){
+          state = State.FINISHED;
+        }
+      }
+      logger.info("Orphan collection {}. Scanned: {}, orphans: {} ({} bytes), failed: {}.", state, scanned.get(), orphans.get(), orphanedBytes.get(), failed.get());
+    } catch(InterruptedException ex){
+      Thread.currentThread().interrupt();
+      message = "Interrupted.";
+      state = State.FAILED;
+    } catch(IOException | ExecutionException | RuntimeException ex){
+      logger.error("Orphan collection failed.", ex);
+      message = ex.getMessage();
+      state = State.FAILED;
+    } finally{
+      finished = Instant.now();
+      executor.shutdownNow();
+      maintenanceLock.release(JOB);
+    }
+  }
+
+  /**
+   * Add the locations of all referenced local files to a new Bloom filter.
+   * Elements are loaded page by page, such that the memory consumption only
+   * depends on the filter size.
+   */
+  private BloomFilter collectReferences(){
+    long expected = contentInformationDao.count() + contentBlobDao.count() + fileVersionDao.count();
+    if(applicationProperties.isAuditEnabled()){
+      //each element has at least one version, replaced content adds more
+      expected *= 2;
+    }
+    BloomFilter filter = new BloomFilter(Math.max(1024, expected), FALSE_POSITIVE_PROBABILITY);
+
+    Long lastId = null;
+    Page<ContentInformation> page;
+    do{
+      page = contentInformationDao.findAll(ContentInformationIdSpecification.toSpecification(lastId), PageRequest.of(0, PAGE_SIZE, Sort.by("id")));
+      for(ContentInformation info : page.getContent()){
+        addReference(filter, info.getContentUri());
+        lastId = info.getId();
+      }
+    } while(page.hasNext() && state == State.RUNNING);
+
+    int pageNumber = 0;
+    Page<ContentBlob> blobs;
+    do{
+      blobs = contentBlobDao.findAll(PageRequest.of(pageNumber++, PAGE_SIZE, Sort.by("digest")));
+      for(ContentBlob blob : blobs.getContent()){
+        filter.put(PathUtils.getCasBlobPath(blob.getDigest(), applicationProperties).toAbsolutePath().normalize().toString());
+        referenced.incrementAndGet();
+      }
+    } while(blobs.hasNext() && state == State.RUNNING);
+
+    pageNumber = 0;
+    Page<FileVersion> versions;
+    do{
+      versions = fileVersionDao.findAll(PageRequest.of(pageNumber++, PAGE_SIZE, Sort.by("id")));
+      for(FileVersion version : versions.getContent()){
+        addReference(filter, version.getContentUri());
+      }
+    } while(versions.hasNext() && state == State.RUNNING);
+
+    if(applicationProperties.isAuditEnabled()){
+      //snapshots are returned newest first, page by the commit id of the last snapshot and the number of its snapshots already read,
+      //as snapshots committed in the meantime would shift offsets of the entire result
+      CommitId upper = null;
+      int skip = 0;
+      List<CdoSnapshot> snapshots;
+      do{
+        QueryBuilder query = QueryBuilder.byClass(ContentInformation.class).skip(skip).limit(PAGE_SIZE);
+        if(upper != null){
+          query = query.toCommitId(upper);
+        }
+        snapshots = javers.findSnapshots(query.build());
+        for(CdoSnapshot snapshot : snapshots){
+          Object contentUri = snapshot.getPropertyValue("contentUri");
+          if(contentUri instanceof String){
+            addReference(filter, (String) contentUri);
+          }
+          if(snapshot.getCommitId().equals(upper)){
+            skip++;
+          } else{
+            upper = snapshot.getCommitId();
+            skip = 1;
+          }
+        }
+      } while(snapshots.size() == PAGE_SIZE && state == State.RUNNING);
+    }
+    return filter;
+  }
+
+  private void addReference(BloomFilter filter, String contentUri){
+    if(contentUri == null || !contentUri.startsWith("file:")){
+      return;
+    }
+    try{
+      filter.put(Paths.get(URI.create(contentUri)).toAbsolutePath().normalize().toString());
+      referenced.incrementAndGet();
+    } catch(IllegalArgumentException ex){
+      logger.trace("Ignoring invalid content URI {}.", contentUri);
+    }
+  }
+
+  private void scan(Path root, Predicate<Path> candidate, BloomFilter filter, Instant threshold, Path tierPath, Path casPath){
+    try{
+      Files.walkFileTree(root, new SimpleFileVisitor<Path>(){
+        @Override
+        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs){
+          return (state == State.RUNNING) ? FileVisitResult.CONTINUE : FileVisitResult.TERMINATE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs){
+          if(!attrs.isRegularFile() || !candidate.test(file)){
+            return FileVisitResult.CONTINUE;
+          }
+          scanned.incrementAndGet();
+          if(getLastWritten(file, attrs, casPath == null).isBefore(threshold) && !filter.mightContain(file.toAbsolutePath().normalize().toString()) && !isReferenced(file, casPath)){
+            handleOrphan(file, attrs.size(), tierPath);
+          }
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException ex){
+          logger.warn("Failed to access {} during orphan collection.", file);
+          failed.incrementAndGet();
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch(IOException ex){
+      logger.error("Failed to scan " + root + " for orphaned files.", ex);
+      failed.incrementAndGet();
+    }
+  }
+
+  /**
+   * Get the time the provided file has been written. Data files are named
+   * with the time of their upload, which is used if it is later than the
+   * modification time, e.g. for files linked to the unchanged content of a
+   * previous version, which keep the modification time of that version.
+   */
+  private Instant getLastWritten(Path file, BasicFileAttributes attrs, boolean dataFile){
+    Instant lastWritten = attrs.lastModifiedTime().toInstant();
+    if(dataFile){
+      String name = file.getFileName().toString();
+      try{
+        Instant uploaded = Instant.ofEpochMilli(Long.parseLong(name.substring(name.lastIndexOf('_') + 1)));
+        if(uploaded.isAfter(lastWritten)){
+          return uploaded;
+        }
+      } catch(NumberFormatException ex){
+        logger.trace("No upload time found in file name {}.", name);
+      }
+    }
+    return lastWritten;
+  }
+
+  /**
+   * Check whether a candidate is referenced by the current database state.
+   * Blobs of the content-addressable storage are looked up by their digest,
+   * all other files by the content URIs of content information elements and
+   * file versions ending with the timestamp suffix of the file name.
+   */
+  private boolean isReferenced(Path file, Path casPath){
+    Path location = file.toAbsolutePath().normalize();
+    try{
+      if(casPath != null){
+        return contentBlobDao.existsById(casPath.relativize(file).getName(0) + ":" + file.getFileName());
+      }
+      String name = file.getFileName().toString();
+      String pattern = "%_" + name.substring(name.lastIndexOf('_') + 1);
+      List<String> contentUris = new ArrayList<>(contentInformationDao.findContentUrisLike(pattern));
+      contentUris.addAll(fileVersionDao.findContentUrisLike(pattern));
+      for(String contentUri : contentUris){
+        if(contentUri != null && contentUri.startsWith("file:") && location.equals(Paths.get(URI.create(contentUri)).toAbsolutePath().normalize())){
+          logger.debug("File {} has been referenced since the collection run has been started. Skipping file.", file);
+          return true;
+        }
+      }
+      return false;
+    } catch(IllegalArgumentException | DataAccessException ex){
+      logger.warn("Failed to check references to " + file + ". Skipping file.", ex);
+      failed.incrementAndGet();
+      return true;
+    }
+  }
+
+  private void handleOrphan(Path file, long size, Path tierPath){
+    orphans.incrementAndGet();
+    orphanedBytes.addAndGet(size);
+    try{
+      switch(action){
+        case QUARANTINE:
+          Path target = tierPath.resolve(QUARANTINE_FOLDER).resolve(tierPath.relativize(file));
+          logger.info("Moving orphaned file {} to quarantine.", file);
+          Files.createDirectories(target.getParent());
+          Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+          //the modification time is kept by moving, reset it to the time of quarantine for retention
+          Files.setLastModifiedTime(target, FileTime.from(Instant.now()));
+          break;
+        case DELETE:
+          logger.info("Deleting orphaned file {}.", file);
+          Files.deleteIfExists(file);
+          break;
+        default:
+          logger.info("Found orphaned file {}.", file);
+      }
+    } catch(IOException ex){
+      logger.warn("Failed to handle orphaned file " + file + ".", ex);
+      failed.incrementAndGet();
+    }
+  }
+
+  /**
+   * Remove all files from the quarantine folder which have been quarantined
+   * before the configured retention period.
+   */
+  private void purgeQuarantine(Path quarantine) throws IOException{
+    long retention = applicationProperties.getGcQuarantineRetention();
+    if(retention < 0 || !Files.isDirectory(quarantine)){
+      return;
+    }
+    Instant threshold = Instant.now().minusMillis(retention);
+    Files.walkFileTree(quarantine, new SimpleFileVisitor<Path>(){
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException{
+        if(attrs.lastModifiedTime().toInstant().isBefore(threshold)){
+          logger.debug("Purging quarantined file {}.", file);
+          Files.deleteIfExists(file);
+          purged.incrementAndGet();
+        }
+        return FileVisitResult.CONTINUE;
+      }
+    });
+  }
+
+  private Set<String> getExcludedFolders(){
+    Set<String> excluded = new HashSet<>();
+    String[] configured = applicationProperties.getGcExcludes();
+    if(configured != null){
+      for(String folder : configured){
+        if(folder != null && !folder.trim().isEmpty()){
+          excluded.add(PathUtils.normalizePath(folder.trim()));
+        }
+      }
+    }
+    return excluded;
+  }
+
+  private Action getAction(){
+    String configured = applicationProperties.getGcAction();
+    if(configured == null){
+      return Action.REPORT;
+    }
+    try{
+      return Action.valueOf(configured.trim().toUpperCase(Locale.ENGLISH));
+    } catch(IllegalArgumentException ex){
+      logger.warn("Invalid orphan collection action {}. Only reporting orphans.", configured);
+      return Action.REPORT;
+    }
+  }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IContentInformationDao;
+import edu.kit.datamanager.repo.dao.IFileVersionDao;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationIdSpecification;
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.util.DataResourceUtils;
+import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.repo.util.TransactionUtils;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Online migration of locally stored content to the placement strategy
+ * currently configured via 'repo.basepath.placement'. All content information
+ * elements are processed in batches ordered by id. For each file not located
+ * at its target location, a hard link (or a copy, if linking is not supported)
+ * is created at the target location in parallel. Afterwards, the content URIs
+ * of the batch are replaced in one transaction. The URI of an element is only
+ * replaced if it has not been changed in the meantime, otherwise the new link
+ * is removed again. Old files are only removed after the transaction has been
+ * committed, so that the content stays accessible during the entire migration.
+ *
+ * Content stored in the staging or content-addressable storage folders and
+ * content not stored below the base path is not touched.
+ *
+ * @author jejkal
+ */
+@Component
+public class PlacementMigrationService{
+
+  /**
+   * States of the migration.
+   */
+  public enum State{
+    IDLE,
+    RUNNING,
+    STOPPED,
+    FINISHED,
+    FAILED;
+  }
+
+  private static final String JOB = "placement-migration";
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private IContentInformationDao contentInformationDao;
+  @Autowired
+  private IFileVersionDao fileVersionDao;
+  @Autowired
+  private StorageMaintenanceLock maintenanceLock;
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+
+  private final AtomicLong processed = new AtomicLong();
+  private final AtomicLong migrated = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  private volatile State state = State.IDLE;
+  private volatile Long lastId;
+  private volatile String message;
+  private Thread migrationThread;
+
+  /**
+   * Start the migration in background. If a migration or another storage
+   * maintenance job is already running, this call has no effect.
+   *
+   * @return TRUE if the migration has been started, FALSE if it or another
+   * storage maintenance job is already running.
+   */
+  public synchronized boolean start(){
+    if(state == State.RUNNING){
+      return false;
+    }
+    if(!maintenanceLock.tryAcquire(JOB)){
+      logger.info("Storage maintenance job {} in progress. Not starting {}.", maintenanceLock.getOwner(), JOB);
+      message = "Storage maintenance job " + maintenanceLock.getOwner() + " in progress.";
+      return false;
+    }
+    processed.set(0);
+    migrated.set(0);
+    skipped.set(0);
+    failed.set(0);
+    lastId = null;
+    message = null;
+    state = State.RUNNING;
+    migrationThread = new Thread(this::migrate, "placement-migration");
+    migrationThread.setDaemon(true);
+    migrationThread.start();
+    return true;
+  }
+
+  /**
+   * Stop a running migration after the current batch has been finished. The
+   * migration can be restarted at any time, already migrated content is
+   * skipped.
+   */
+  public synchronized void stop(){
+    if(state == State.RUNNING){
+      state = State.STOPPED;
+    }
+  }
+
+  /**
+   * Wait for a running migration to finish.
+   *
+   * @param timeout The max. time to wait in milliseconds.
+   *
+   * @throws InterruptedException If the current thread has been interrupted.
+   */
+  public void await(long timeout) throws InterruptedException{
+    Thread t;
+    synchronized(this){
+      t = migrationThread;
+    }
+    if(t != null){
+      t.join(timeout);
+    }
+  }
+
+  /**
+   * Get the status of the current or last migration.
+   *
+   * @return The status as map.
+   */
+  public Map<String, Object> getStatus(){
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("state", state.toString());
+    status.put("placement", PathUtils.getPlacementStrategy(applicationProperties).getClass().getName());
+    status.put("processed", processed.get());
+    status.put("migrated", migrated.get());
+    status.put("skipped", skipped.get());
+    status.put("failed", failed.get());
+    status.put("lastId", lastId);
+    if(message != null){
+      status.put("message", message);
+    }
+    return status;
+  }
+
+  @PreDestroy
+  public void destroy(){
+    stop();
+  }
+
+  private void migrate(){
+    int batchSize = applicationProperties.getPlacementMigrationBatchSize() > 0 ? applicationProperties.getPlacementMigrationBatchSize() : 100;
+    int threads = applicationProperties.getPlacementMigrationThreads() > 0 ? applicationProperties.getPlacementMigrationThreads() : 1;
+    ExecutorService executor = Executors.newFixedThreadPool(threads, (r) -> {
+      Thread t = new Thread(r, "placement-migration-worker");
+      t.setDaemon(true);
+      return t;
+    });
+    logger.info("Starting migration of content to placement strategy {}.", applicationProperties.getPlacementStrategy());
+    try{
+      Path basePath = Paths.get(applicationProperties.getBasepath().toURI()).normalize();
+      while(state == State.RUNNING){
+        List<Relocation> batch = new ArrayList<>();
+        boolean more = TransactionUtils.inTransaction(transactionManager, () -> collectBatch(basePath, batchSize, batch));
+        relocate(executor, batch);
+        if(!more){
+          break;
+        }
+      }
+      synchronized(this){
+        if(state == State.RUNNING){
+          state = State.FINISHED;
+        }
+      }
+      logger.info("Migration of content {}. Processed: {}, migrated: {}, skipped: {}, failed: {}.", state, processed.get(), migrated.get(), skipped.get(), failed.get());
+    } catch(RuntimeException | URISyntaxException ex){
+      logger.error("Migration of content failed.", ex);
+      message = ex.getMessage();
+      state = State.FAILED;
+    } finally{
+      executor.shutdownNow();
+      maintenanceLock.release(JOB);
+    }
+  }
+
+  /**
+   * Collect the next batch of content information elements to relocate.
+   *
+   * @return TRUE if there might be more elements, FALSE otherwise.
+   */
+  private boolean collectBatch(Path basePath, int batchSize, List<Relocation> batch){
+    Page<ContentInformation> page = contentInformationDao.findAll(ContentInformationIdSpecification.toSpecification(lastId), PageRequest.of(0, batchSize, Sort.by("id")));
+    for(ContentInformation info : page.getContent()){
+      processed.incrementAndGet();
+      lastId = info.getId();
+      Relocation relocation = getRelocation(basePath, info);
+      if(relocation == null){
+        skipped.incrementAndGet();
+      } else{
+        batch.add(relocation);
+      }
+    }
+    return page.hasNext();
+  }
+
+  private Relocation getRelocation(Path basePath, ContentInformation info){
+    String contentUri = info.getContentUri();
+    if(contentUri == null || !contentUri.startsWith("file:")){
+      return null;
+    }
+    Path source;
+    try{
+      source = Paths.get(URI.create(contentUri)).normalize();
+    } catch(IllegalArgumentException ex){
+      logger.warn("Skipping content information {} with invalid content URI {}.", info.getId(), contentUri);
+      return null;
+    }
+    if(!source.startsWith(basePath)){
+      return null;
+    }
+    Path relative = basePath.relativize(source);
+    String first = relative.getName(0).toString();
+    if(PathUtils.STAGING_FOLDER.equals(first) || PathUtils.CAS_FOLDER.equals(first)){
+      return null;
+    }
+    String internalIdentifier = info.getParentResource() != null ? DataResourceUtils.getInternalIdentifier(info.getParentResource()) : null;
+    if(internalIdentifier == null){
+      return null;
+    }
+    for(int i = 0; i < relative.getNameCount() - 1; i++){
+      if(internalIdentifier.equals(relative.getName(i).toString())){
+        Path target = PathUtils.getResourcePath(internalIdentifier, applicationProperties).resolve(relative.subpath(i + 1, relative.getNameCount())).normalize();
+        if(target.equals(source) || !Files.exists(source)){
+          return null;
+        }
+        return new Relocation(info.getId(), contentUri, source, target);
+      }
+    }
+    return null;
+  }
+
+  private void relocate(ExecutorService executor, List<Relocation> batch){
+    if(batch.isEmpty()){
+      return;
+    }
+    List<Future<Boolean>> futures = new ArrayList<>();
+    for(Relocation relocation : batch){
+      futures.add(executor.submit(() -> link(relocation)));
+    }
+    List<Relocation> linked = new ArrayList<>();
+    for(int i = 0; i < batch.size(); i++){
+      try{
+        if(futures.get(i).get()){
+          linked.add(batch.get(i));
+        } else{
+          failed.incrementAndGet();
+        }
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while relocating content.", ex);
+      } catch(ExecutionException ex){
+        failed.incrementAndGet();
+      }
+    }
+
+    List<Relocation> updated = new ArrayList<>();
+    try{
+      TransactionUtils.inTransaction(transactionManager, () -> {
+        updated.clear();
+        for(Relocation relocation : linked){
+          if(contentInformationDao.updateContentUri(relocation.id, relocation.contentUri, relocation.target.toUri().toString()) > 0){
+            fileVersionDao.updateContentUri(relocation.contentUri, relocation.target.toUri().toString());
+            updated.add(relocation);
+          }
+        }
+        return Boolean.TRUE;
+      });
+    } catch(RuntimeException ex){
+      //nothing has been updated, remove all new links
+      for(Relocation relocation : linked){
+        deleteQuietly(relocation.target);
+      }
+      throw ex;
+    }
+
+    for(Relocation relocation : linked){
+      if(updated.contains(relocation)){
+        deleteQuietly(relocation.source);
+        migrated.incrementAndGet();
+      } else{
+        //content has been changed in the meantime
+        logger.debug("Content URI of content information {} has been changed during migration. Skipping element.", relocation.id);
+        deleteQuietly(relocation.target);
+        skipped.incrementAndGet();
+      }
+    }
+  }
+
+  private boolean link(Relocation relocation){
+    try{
+      Files.createDirectories(relocation.target.getParent());
+      Files.deleteIfExists(relocation.target);
+      try{
+        Files.createLink(relocation.target, relocation.source);
+      } catch(UnsupportedOperationException | IOException ex){
+        logger.trace("Failed to link {} to {}. Copying content.", relocation.source, relocation.target);
+        Files.copy(relocation.source, relocation.target);
+      }
+      return true;
+    } catch(IOException ex){
+      logger.error("Failed to relocate " + relocation.source + " to " + relocation.target + ".", ex);
+      return false;
+    }
+  }
+
+  private void deleteQuietly(Path path){
+    try{
+      Files.deleteIfExists(path);
+    } catch(IOException ex){
+      logger.warn("Failed to remove file {}.", path);
+    }
+  }
+
+  private static final class Relocation{
+
+    private final Long id;
+    private final String contentUri;
+    private final Path source;
+    private final Path target;
+
+    Relocation(Long id, String contentUri, Path source, Path target){
+      this.id = id;
+      this.contentUri = contentUri;
+      this.source = source;
+      this.target = target;
+    }
+  }
+}
@@ -20,10 +20,13 @@ import edu.kit.datamanager.exceptions.CustomInternalServerError;
 import edu.kit.datamanager.exceptions.ResourceNotFoundException;
 import edu.kit.datamanager.repo.configuration.ApplicationProperties;
 import edu.kit.datamanager.repo.dao.IContentInformationDao;
+import edu.kit.datamanager.repo.dao.IFileVersionDao;
 import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.domain.FileVersion;
 import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.repo.util.StagedFileInputStream;
+import edu.kit.datamanager.repo.util.StreamUtils;
 import edu.kit.datamanager.service.IVersioningService;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -31,20 +34,28 @@ import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Map;
-import org.apache.commons.codec.binary.Hex;
-import org.apache.tika.detect.Detector;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
+import java.util.Optional;
+import java.util.UUID;
 import org.slf4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
+ * Versioning service keeping all versions of a file. Each upload is stored as
+ * new, immutable file and registered as next version of its relative path in
+ * the file version index. If the uploaded content equals the content of the
+ * previous version, the new version is stored as hard link to the previous
+ * file, if supported by the file system. For staged uploads with known
+ * checksums, this is decided before the content is placed, such that the
+ * staged copy is discarded. Streamed uploads are written completely before
+ * their checksums are known and are replaced by a link afterwards, i.e. they
+ * are deduplicated, but still written once. Reading a specific version
+ * requires a single index lookup.
  *
  * @author jejkal
  */
@@ -56,7 +67,15 @@ public class SimpleDataVersioningService implements IVersioningService{
   @Autowired
   private IContentInformationDao dao;
   @Autowired
+  private IFileVersionDao fileVersionDao;
+  @Autowired
   private ApplicationProperties applicationProperties;
+  @Autowired
+  private ChecksumEngine checksumEngine;
+  @Autowired
+  private DurableFileWriter fileWriter;
+  @Autowired
+  private MediaTypeDetector mediaTypeDetector;
 
   @Override
   public void configure(){
@@ -65,69 +84,93 @@ public class SimpleDataVersioningService implements IVersioningService{
 
   @Override
   public void write(String resourceId, String callerId, String path, InputStream stream, Map<String, String> map){
-    String contentUriString = map.get("contentUri");
+    Optional<FileVersion> previous = fileVersionDao.findTopByResourceIdAndRelativePathOrderByVersionDesc(resourceId, path);
+    long version = previous.map((v) -> v.getVersion() + 1).orElse(1l);
 
     URI dataUri = PathUtils.getDataUri(DataResource.factoryNewDataResource(resourceId), path, applicationProperties);
     Path destination = Paths.get(dataUri);
     logger.trace("Preparing destination {} for storing user data.", destination);
     //store data
-    OutputStream out = null;
-    try{
-      //read/write file, create checksum and calculate file size
+    try(ChecksumEngine.Session checksums = checksumEngine.newSession()){
+      //read/write file, create checksums and calculate file size in a single pass
       Files.createDirectories(destination.getParent());
 
-      MessageDigest md = MessageDigest.getInstance("SHA1");
-      logger.trace("Start reading user data from stream.");
-      int cnt;
-      long bytes = 0;
-      byte[] buffer = new byte[1024];
-      out = Files.newOutputStream(destination);
-      while((cnt = stream.read(buffer)) > -1){
-        out.write(buffer, 0, cnt);
-        md.update(buffer, 0, cnt);
-        bytes += cnt;
+      long bytes;
+      Map<String, String> digests;
+      byte[] prefix;
+      String primary = checksumEngine.getPrimaryAlgorithm();
+      if(stream instanceof StagedFileInputStream && ((StagedFileInputStream) stream).isMovable() && ((StagedFileInputStream) stream).hasChecksums(checksumEngine.getAlgorithmNames())){
+        StagedFileInputStream staged = (StagedFileInputStream) stream;
+        bytes = Files.size(staged.getPath());
+        digests = staged.getChecksums();
+        prefix = StreamUtils.readPrefix(staged.getPath(), StreamUtils.SNIFF_BUFFER_SIZE);
+        if(equalsPrevious(previous, primary + ":" + digests.get(primary), bytes) && shareContent(Paths.get(URI.create(previous.get().getContentUri())), destination)){
+          logger.trace("Staged user data equals previous version {}. Discarding staged copy.", previous.get().getVersion());
+          Files.delete(staged.getPath());
+        } else{
+          logger.trace("Moving staged user data to destination.");
+          fileWriter.move(staged.getPath(), destination);
+        }
+      } else{
+        StreamUtils.PrefixCapture capture = new StreamUtils.PrefixCapture(StreamUtils.SNIFF_BUFFER_SIZE);
+        logger.trace("Start reading user data from stream.");
+        bytes = fileWriter.write(stream, destination, checksums, capture);
+        digests = checksums.finish();
+        prefix = capture.getPrefix();
+        if(equalsPrevious(previous, primary + ":" + digests.get(primary), bytes)){
+          logger.trace("Content equals previous version {}. Sharing stored file.", previous.get().getVersion());
+          shareContent(Paths.get(URI.create(previous.get().getContentUri())), destination);
+        }
       }
 
       logger.trace("Performing upload post-processing.");
-      map.put("checksum", "sha1:" + Hex.encodeHexString(md.digest()));
+      digests.forEach((algorithm, digest) -> map.put("checksum." + algorithm, digest));
+      map.put("checksum", primary + ":" + digests.get(primary));
       logger.debug("Assigned hash {} to content information.", map.get("checksum"));
       map.put("size", Long.toString(bytes));
       logger.debug("Assigned size {} to content information.", map.get("size"));
       map.put("contentUri", dataUri.toString());
       logger.debug("Assigned content URI {} to content information.", map.get("contentUri"));
 
+      FileVersion fileVersion = new FileVersion();
+      fileVersion.setResourceId(resourceId);
+      fileVersion.setRelativePath(path);
+      fileVersion.setVersion(version);
+      fileVersion.setContentUri(dataUri.toString());
+      fileVersion.setHash(map.get("checksum"));
+      fileVersion.setSize(bytes);
+      fileVersion.setUploader(callerId);
+      fileVersion.setCreated(Instant.now());
+      fileVersionDao.save(fileVersion);
+      map.put("fileVersion", Long.toString(version));
+      logger.debug("Assigned file version {} to content information.", map.get("fileVersion"));
+
       if(!map.containsKey("mediaType")){
-        logger.trace("Trying to determine content type.");
-        try(InputStream is = Files.newInputStream(destination); BufferedInputStream bis = new BufferedInputStream(is);){
-          AutoDetectParser parser = new AutoDetectParser();
-          Detector detector = parser.getDetector();
-          Metadata md1 = new Metadata();
-          //md1.add(Metadata.RESOURCE_NAME_KEY, contentInfo.getFilename());
-          org.apache.tika.mime.MediaType mediaType = detector.detect(bis, md1);
-          map.put("mediaType", mediaType.toString());
+        String mediaType = mediaTypeDetector.detectUpload(prefix, path);
+        if(mediaType != null){
+          map.put("mediaType", mediaType);
           logger.trace("Assigned media type {} to content information.", map.get("mediaType"));
+        } else{
+          logger.trace("Media type is determined asynchronously.");
         }
       }
     } catch(IOException ex){
       logger.error("Failed to finish upload. Throwing CustomInternalServerError.", ex);
       throw new CustomInternalServerError("Unable to read from stream. Upload canceled.");
-    } catch(NoSuchAlgorithmException ex){
-      logger.error("Failed to initialize SHA1 message digest. Throwing CustomInternalServerError.", ex);
-      throw new CustomInternalServerError("Internal digest initialization error. Unable to perform upload.");
-    } finally{
-      if(out != null){
-        try{
-          out.flush();
-          out.close();
-        } catch(IOException ignored){
-        }
-      }
     }
   }
 
   @Override
   public void read(String resourceId, String callerId, String path, String versionId, OutputStream destination, Map<String, String> options){
     String contentUriString = options.get("contentUri");
+    Optional<FileVersion> fileVersion = getFileVersion(resourceId, path, versionId);
+    if(fileVersion.isPresent()){
+      logger.trace("Reading version {} of {}.", versionId, path);
+      contentUriString = fileVersion.get().getContentUri();
+    } else if(versionId != null && contentUriString == null){
+      logger.error("Version {} of {} not found.", versionId, path);
+      throw new ResourceNotFoundException("The provided resource was not found on the server.");
+    }
     logger.trace("Checking URI {}.", contentUriString);
     if(!Files.exists(Paths.get(URI.create(contentUriString)))){
       logger.error("Content at URI {} seems not to exist.", contentUriString);
@@ -147,7 +190,60 @@ public class SimpleDataVersioningService implements IVersioningService{
 
   @Override
   public VersionInfo info(String resourceId, String path, String versionId, Map<String, String> options){
-    return new VersionInfo(resourceId, versionId, null, null, null, null, null, new HashSet<>(Arrays.asList(path)));
+    Optional<FileVersion> fileVersion = (versionId != null) ? getFileVersion(resourceId, path, versionId) : fileVersionDao.findTopByResourceIdAndRelativePathOrderByVersionDesc(resourceId, path);
+    if(!fileVersion.isPresent()){
+      return new VersionInfo(resourceId, versionId, null, null, null, null, null, new HashSet<>(Arrays.asList(path)));
+    }
+    FileVersion v = fileVersion.get();
+    String parent = (v.getVersion() > 1) ? Long.toString(v.getVersion() - 1) : null;
+    return new VersionInfo(resourceId, Long.toString(v.getVersion()), parent, null, null, null, v.getUploader(), new HashSet<>(Arrays.asList(path)));
+  }
+
+  private Optional<FileVersion> getFileVersion(String resourceId, String path, String versionId){
+    if(versionId == null){
+      return Optional.empty();
+    }
+    try{
+      return fileVersionDao.findByResourceIdAndRelativePathAndVersion(resourceId, path, Long.parseLong(versionId));
+    } catch(NumberFormatException ex){
+      logger.debug("Invalid file version {}.", versionId);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Check if the provided checksum and size match the previous version.
+   */
+  private boolean equalsPrevious(Optional<FileVersion> previous, String checksum, long size){
+    return previous.isPresent() && checksum.equals(previous.get().getHash()) && size == previous.get().getSize();
+  }
+
+  /**
+   * Place a hard link to the file of the previous version having the same
+   * content at the provided destination, replacing an already written copy.
+   * If linking fails, an existing copy is kept.
+   *
+   * @return TRUE if the destination is linked to the previous version.
+   */
+  private boolean shareContent(Path previous, Path destination){
+    if(!Files.isRegularFile(previous)){
+      return false;
+    }
+    Path link = destination.resolveSibling("." + destination.getFileName() + "." + UUID.randomUUID().toString() + ".link");
+    try{
+      //the link shares the modification time of the previous version, the orphan collection obtains the upload time from the file name
+      Files.createLink(link, previous);
+      Files.move(link, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } catch(UnsupportedOperationException | IOException ex){
+      logger.trace("Failed to link {} to {}.", destination, previous);
+      try{
+        Files.deleteIfExists(link);
+      } catch(IOException ex2){
+        logger.warn("Failed to remove link " + link + ".", ex2);
+      }
+      return false;
+    }
   }
 
   @Override
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Mutual exclusion of background jobs relocating or removing stored files,
+ * i.e. the placement migration, the storage tiering and the orphan
+ * collection. While content is relocated, the new location is written before
+ * the content URI is updated and the old location is removed afterwards.
+ * Hence, the orphan collection must not run in the meantime, as it would
+ * consider the new location as orphaned.
+ *
+ * The lock is local to each instance. If multiple instances share one base
+ * path, these jobs should only be started on one of them.
+ *
+ * @author jejkal
+ */
+@Component
+public class StorageMaintenanceLock{
+
+  private String owner;
+
+  /**
+   * Acquire the lock if it is not held by another job.
+   *
+   * @param job The name of the job acquiring the lock.
+   *
+   * @return TRUE if the lock has been acquired, FALSE if it is held by another
+   * job.
+   */
+  public synchronized boolean tryAcquire(String job){
+    if(owner != null){
+      return false;
+    }
+    owner = job;
+    return true;
+  }
+
+  /**
+   * Release the lock if it is held by the provided job.
+   *
+   * @param job The name of the job releasing the lock.
+   */
+  public synchronized void release(String job){
+    if(job.equals(owner)){
+      owner = null;
+    }
+  }
+
+  /**
+   * Get the name of the job currently holding the lock.
+   *
+   * @return The job name or null if the lock is not held.
+   */
+  public synchronized String getOwner(){
+    return owner;
+  }
+}
@@ -0,0 +1,600 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IContentAccessDao;
+import edu.kit.datamanager.repo.dao.IContentInformationDao;
+import edu.kit.datamanager.repo.dao.IFileVersionDao;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationContentUriSpecification;
+import edu.kit.datamanager.repo.dao.spec.contentinformation.ContentInformationIdSpecification;
+import edu.kit.datamanager.repo.domain.ContentAccess;
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.service.IContentCache;
+import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.repo.util.TransactionUtils;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+
+/**
+ * Placement of locally stored content on multiple storage tiers, e.g. fast
+ * NVMe disks and cheap bulk disks. The configured base path is the hottest
+ * tier, where all new content is placed. Colder tiers are configured via
+ * 'repo.tiering.paths' ordered from hot to cold.
+ *
+ * Accesses to content are counted in memory without touching the database
+ * and are flushed periodically to the access statistics. A tiering run
+ * processes all content information elements in batches ordered by id. Content
+ * not accessed for 'repo.tiering.coldAfter' milliseconds is moved one tier
+ * down, content on a cold tier accessed at least 'repo.tiering.promoteAfter'
+ * times is moved back to the hot tier. After each completed run, all access
+ * counts are halved, such that they reflect the recent popularity of the
+ * content.
+ *
+ * Moving content never blocks reads. Content is copied to the target tier
+ * keeping its relative location below the tier root, the content URI is
+ * replaced in one transaction per batch, if it has not been changed in the
+ * meantime, and the old file is removed after 'repo.tiering.deleteDelay'
+ * milliseconds, such that running downloads can finish. Old files still
+ * referenced at that time are kept. Content located in hidden top-level
+ * folders, e.g. the content-addressable storage, is never moved.
+ *
+ * @author jejkal
+ */
+@Component
+public class StorageTieringService{
+
+  /**
+   * States of a tiering run.
+   */
+  public enum State{
+    IDLE,
+    RUNNING,
+    STOPPED,
+    FINISHED,
+    FAILED;
+  }
+
+  private static final String JOB = "storage-tiering";
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private IContentInformationDao contentInformationDao;
+  @Autowired
+  private IFileVersionDao fileVersionDao;
+  @Autowired
+  private IContentAccessDao contentAccessDao;
+  @Autowired
+  private IContentCache contentCache;
+  @Autowired
+  private DurableFileWriter fileWriter;
+  @Autowired
+  private StorageMaintenanceLock maintenanceLock;
+  @Autowired(required = false)
+  private PlatformTransactionManager transactionManager;
+
+  private final Map<String, PendingAccess> pendingAccesses = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService deleter = Executors.newSingleThreadScheduledExecutor((r) -> {
+    Thread t = new Thread(r, "storage-tiering-deleter");
+    t.setDaemon(true);
+    return t;
+  });
+
+  private final AtomicLong processed = new AtomicLong();
+  private final AtomicLong promoted = new AtomicLong();
+  private final AtomicLong demoted = new AtomicLong();
+  private final AtomicLong movedBytes = new AtomicLong();
+  private final AtomicLong skipped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+  private volatile State state = State.IDLE;
+  private volatile Long lastId;
+  private volatile Instant started;
+  private volatile Instant finished;
+  private volatile String message;
+  private Thread tieringThread;
+
+  /**
+   * Record an access to the content located at the provided URI. Accesses are
+   * only counted if storage tiers are configured. Counting is approximate, as
+   * accesses recorded concurrently to flushing the statistics might be lost.
+   *
+   * @param contentUri The URI of the accessed content.
+   */
+  public void recordAccess(String contentUri){
+    if(contentUri == null || !isEnabled()){
+      return;
+    }
+    pendingAccesses.computeIfAbsent(contentUri, (uri) -> new PendingAccess()).record(System.currentTimeMillis());
+  }
+
+  /**
+   * Write all recorded accesses to the access statistics according to
+   * 'repo.tiering.flushInterval'.
+   */
+  @Scheduled(fixedDelayString = "${repo.tiering.flushInterval:60000}")
+  public synchronized void flush(){
+    if(pendingAccesses.isEmpty()){
+      return;
+    }
+    Map<String, PendingAccess> accesses = new HashMap<>();
+    for(String contentUri : pendingAccesses.keySet()){
+      PendingAccess access = pendingAccesses.remove(contentUri);
+      if(access != null){
+        accesses.put(contentUri, access);
+      }
+    }
+    logger.trace("Flushing access statistics of {} content element(s).", accesses.size());
+    List<String> contentUris = new ArrayList<>(accesses.keySet());
+    int batchSize = getBatchSize();
+    try{
+      for(int i = 0; i < contentUris.size(); i += batchSize){
+        List<String> batch = contentUris.subList(i, Math.min(i + batchSize, contentUris.size()));
+        TransactionUtils.inTransaction(transactionManager, () -> {
+          Map<String, ContentAccess> entries = new HashMap<>();
+          contentAccessDao.findAllById(batch).forEach((entry) -> entries.put(entry.getContentUri(), entry));
+          for(String contentUri : batch){
+            PendingAccess access = accesses.get(contentUri);
+            Instant lastAccess = Instant.ofEpochMilli(access.lastAccess.get());
+            ContentAccess entry = entries.computeIfAbsent(contentUri, (uri) -> new ContentAccess(uri, lastAccess, 0));
+            entry.setAccessCount(entry.getAccessCount() + access.count.sum());
+            if(entry.getLastAccess() == null || entry.getLastAccess().isBefore(lastAccess)){
+              entry.setLastAccess(lastAccess);
+            }
+          }
+          contentAccessDao.saveAll(entries.values());
+          return null;
+        });
+      }
+    } catch(RuntimeException ex){
+      logger.warn("Failed to flush access statistics. Recorded accesses are discarded.", ex);
+    }
+  }
+
+  /**
+   * Start a tiering run according to 'repo.tiering.cron'.
+   */
+  @Scheduled(cron = "${repo.tiering.cron:-}")
+  public void scheduledRun(){
+    if(!start()){
+      logger.debug("Tiering run or another storage maintenance job already in progress. Skipping scheduled run.");
+    }
+  }
+
+  /**
+   * Start a tiering run in background. If a run or another storage
+   * maintenance job is already in progress, this call has no effect.
+   *
+   * @return TRUE if the run has been started, FALSE if a run or another
+   * storage maintenance job is already in progress.
+   */
+  public synchronized boolean start(){
+    if(state == State.RUNNING){
+      return false;
+    }
+    if(!maintenanceLock.tryAcquire(JOB)){
+      logger.info("Storage maintenance job {} in progress. Not starting {}.", maintenanceLock.getOwner(), JOB);
+      message = "Storage maintenance job " + maintenanceLock.getOwner() + " in progress.";
+      return false;
+    }
+    processed.set(0);
+    promoted.set(0);
+    demoted.set(0);
+    movedBytes.set(0);
+    skipped.set(0);
+    failed.set(0);
+    lastId = null;
+    started = Instant.now();
+    finished = null;
+    message = null;
+    state = State.RUNNING;
+    tieringThread = new Thread(this::run, "storage-tiering");
+    tieringThread.setDaemon(true);
+    tieringThread.start();
+    return true;
+  }
+
+  /**
+   * Stop a running tiering run after the current batch has been finished.
+   */
+  public synchronized void stop(){
+    if(state == State.RUNNING){
+      state = State.STOPPED;
+    }
+  }
+
+  /**
+   * Wait for a running tiering run to finish.
+   *
+   * @param timeout The max. time to wait in milliseconds.
+   *
+   * @throws InterruptedException If the current thread has been interrupted.
+   */
+  public void await(long timeout) throws InterruptedException{
+    Thread t;
+    synchronized(this){
+      t = tieringThread;
+    }
+    if(t != null){
+      t.join(timeout);
+    }
+  }
+
+  /**
+   * Get the status of the current or last tiering run.
+   *
+   * @return The status as map.
+   */
+  public Map<String, Object> getStatus(){
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put("state", state.toString());
+    List<String> tiers = new ArrayList<>();
+    PathUtils.getTierPaths(applicationProperties).forEach((tier) -> tiers.add(tier.toString()));
+    status.put("tiers", tiers);
+    status.put("started", (started != null) ? started.toString() : null);
+    status.put("finished", (finished != null) ? finished.toString() : null);
+    status.put("processed", processed.get());
+    status.put("promoted", promoted.get());
+    status.put("demoted", demoted.get());
+    status.put("movedBytes", movedBytes.get());
+    status.put("skipped", skipped.get());
+    status.put("failed", failed.get());
+    status.put("lastId", lastId);
+    if(message != null){
+      status.put("message", message);
+    }
+    return status;
+  }
+
+  @PreDestroy
+  public void destroy(){
+    stop();
+    //no reads are served anymore, remove pending old files immediately
+    for(Runnable deletion : deleter.shutdownNow()){
+      deletion.run();
+    }
+  }
+
+  private void run(){
+    int threads = applicationProperties.getTieringThreads() > 0 ? applicationProperties.getTieringThreads() : 1;
+    ExecutorService executor = Executors.newFixedThreadPool(threads, (r) -> {
+      Thread t = new Thread(r, "storage-tiering-worker");
+      t.setDaemon(true);
+      return t;
+    });
+    logger.info("Starting tiering run.");
+    try{
+      List<Path> tiers = PathUtils.getTierPaths(applicationProperties);
+      if(tiers.size() < 2){
+        logger.info("No storage tiers configured. Nothing to do.");
+        message = "No storage tiers configured.";
+      } else{
+        flush();
+        while(state == State.RUNNING){
+          List<Relocation> batch = new ArrayList<>();
+          boolean more = TransactionUtils.inTransaction(transactionManager, () -> collectBatch(tiers, batch));
+          relocate(executor, batch);
+          if(!more){
+            break;
+          }
+        }
+        if(state == State.RUNNING){
+          TransactionUtils.inTransaction(transactionManager, () -> {
+            contentAccessDao.decay();
+            contentAccessDao.deleteUnreferenced();
+            return null;
+          });
+        }
+      }
+      synchronized(this){
+        if(state == State.RUNNING){
+          state = State.FINISHED;
+        }
+      }
+      logger.info("Tiering run {}. Processed: {}, promoted: {}, demoted: {} ({} bytes), skipped: {}, failed: {}.", state, processed.get(), promoted.get(), demoted.get(), movedBytes.get(), skipped.get(), failed.get());
+    } catch(RuntimeException ex){
+      logger.error("Tiering run failed.", ex);
+      message = ex.getMessage();
+      state = State.FAILED;
+    } finally{
+      finished = Instant.now();
+      executor.shutdownNow();
+      maintenanceLock.release(JOB);
+    }
+  }
+
+  /**
+   * Collect the next batch of content information elements to move.
+   *
+   * @return TRUE if there might be more elements, FALSE otherwise.
+   */
+  private boolean collectBatch(List<Path> tiers, List<Relocation> batch){
+    Page<ContentInformation> page = contentInformationDao.findAll(ContentInformationIdSpecification.toSpecification(lastId), PageRequest.of(0, getBatchSize(), Sort.by("id")));
+    List<String> contentUris = new ArrayList<>();
+    page.getContent().stream().filter((info) -> info.getContentUri() != null).forEach((info) -> contentUris.add(info.getContentUri()));
+    Map<String, ContentAccess> statistics = new HashMap<>();
+    contentAccessDao.findAllById(contentUris).forEach((entry) -> statistics.put(entry.getContentUri(), entry));
+
+    Instant coldThreshold = Instant.now().minusMillis(applicationProperties.getTieringColdAfter());
+    for(ContentInformation info : page.getContent()){
+      processed.incrementAndGet();
+      lastId = info.getId();
+      Relocation relocation = getRelocation(tiers, info, statistics.get(info.getContentUri()), coldThreshold);
+      if(relocation == null){
+        skipped.incrementAndGet();
+      } else{
+        batch.add(relocation);
+      }
+    }
+    return page.hasNext();
+  }
+
+  private Relocation getRelocation(List<Path> tiers, ContentInformation info, ContentAccess statistics, Instant coldThreshold){
+    String contentUri = info.getContentUri();
+    if(contentUri == null || !contentUri.startsWith("file:")){
+      return null;
+    }
+    Path source;
+    try{
+      source = Paths.get(URI.create(contentUri)).toAbsolutePath().normalize();
+    } catch(IllegalArgumentException ex){
+      logger.warn("Skipping content information {} with invalid content URI {}.", info.getId(), contentUri);
+      return null;
+    }
+    int tier = getTier(tiers, source);
+    if(tier < 0){
+      return null;
+    }
+    Path relative = tiers.get(tier).relativize(source);
+    if(relative.getNameCount() < 2 || relative.getName(0).toString().startsWith(".")){
+      return null;
+    }
+    try{
+      if(!Files.isRegularFile(source)){
+        return null;
+      }
+      Instant lastAccess = (statistics != null && statistics.getLastAccess() != null) ? statistics.getLastAccess() : Files.getLastModifiedTime(source).toInstant();
+      long promoteAfter = applicationProperties.getTieringPromoteAfter();
+      int target;
+      if(tier > 0 && promoteAfter > 0 && statistics != null && statistics.getAccessCount() >= promoteAfter){
+        target = 0;
+      } else if(tier < tiers.size() - 1 && applicationProperties.getTieringColdAfter() >= 0 && lastAccess.isBefore(coldThreshold)){
+        target = tier + 1;
+      } else{
+        return null;
+      }
+      return new Relocation(info.getId(), contentUri, source, tiers.get(target).resolve(relative), target < tier, lastAccess);
+    } catch(IOException ex){
+      logger.warn("Failed to obtain last modification of " + source + ".", ex);
+      return null;
+    }
+  }
+
+  /**
+   * Get the index of the tier the provided file is located at. If tiers are
+   * nested, the innermost tier is returned.
+   *
+   * @return The tier index or -1 if the file is not located at any tier.
+   */
+  private int getTier(List<Path> tiers, Path file){
+    int result = -1;
+    for(int i = 0; i < tiers.size(); i++){
+      if(file.startsWith(tiers.get(i)) && (result < 0 || tiers.get(i).startsWith(tiers.get(result)))){
+        result = i;
+      }
+    }
+    return result;
+  }
+
+  private void relocate(ExecutorService executor, List<Relocation> batch){
+    if(batch.isEmpty()){
+      return;
+    }
+    List<Future<Boolean>> futures = new ArrayList<>();
+    for(Relocation relocation : batch){
+      futures.add(executor.submit(() -> copy(relocation)));
+    }
+    List<Relocation> copied = new ArrayList<>();
+    for(int i = 0; i < batch.size(); i++){
+      try{
+        if(futures.get(i).get()){
+          copied.add(batch.get(i));
+        } else{
+          failed.incrementAndGet();
+        }
+      } catch(InterruptedException ex){
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while moving content.", ex);
+      } catch(ExecutionException ex){
+        failed.incrementAndGet();
+      }
+    }
+
+    List<Relocation> updated = new ArrayList<>();
+    try{
+      TransactionUtils.inTransaction(transactionManager, () -> {
+        updated.clear();
+        for(Relocation relocation : copied){
+          String targetUri = relocation.target.toUri().toString();
+          if(contentInformationDao.updateContentUri(relocation.id, relocation.contentUri, targetUri) > 0){
+            fileVersionDao.updateContentUri(relocation.contentUri, targetUri);
+            Optional<ContentAccess> statistics = contentAccessDao.findById(relocation.contentUri);
+            statistics.ifPresent(contentAccessDao::delete);
+            contentAccessDao.save(new ContentAccess(targetUri, statistics.map(ContentAccess::getLastAccess).orElse(relocation.lastAccess), statistics.map(ContentAccess::getAccessCount).orElse(0L)));
+            updated.add(relocation);
+          }
+        }
+        return Boolean.TRUE;
+      });
+    } catch(RuntimeException ex){
+      //nothing has been updated, remove all copies
+      for(Relocation relocation : copied){
+        deleteQuietly(relocation.target);
+      }
+      throw ex;
+    }
+
+    for(Relocation relocation : copied){
+      if(updated.contains(relocation)){
+        contentCache.invalidate(relocation.contentUri);
+        scheduleDeletion(relocation);
+        if(relocation.promotion){
+          promoted.incrementAndGet();
+        } else{
+          demoted.incrementAndGet();
+        }
+      } else{
+        //content has been changed in the meantime
+        logger.debug("Content URI of content information {} has been changed while moving content. Skipping element.", relocation.id);
+        deleteQuietly(relocation.target);
+        skipped.incrementAndGet();
+      }
+    }
+  }
+
+  private boolean copy(Relocation relocation){
+    try{
+      logger.trace("Moving content from {} to {}.", relocation.source, relocation.target);
+      Files.createDirectories(relocation.target.getParent());
+      long bytes;
+      try(InputStream in = Files.newInputStream(relocation.source)){
+        bytes = fileWriter.write(in, relocation.target);
+      }
+      movedBytes.addAndGet(bytes);
+      return true;
+    } catch(IOException ex){
+      logger.error("Failed to move " + relocation.source + " to " + relocation.target + ".", ex);
+      deleteQuietly(relocation.target);
+      return false;
+    }
+  }
+
+  /**
+   * Remove the old file after the configured delay, if it is not referenced
+   * again in the meantime, e.g. by a concurrent update based on an outdated
+   * content URI.
+   */
+  private void scheduleDeletion(Relocation relocation){
+    Runnable deletion = () -> {
+      try{
+        if(TransactionUtils.inTransaction(transactionManager, () -> contentInformationDao.count(ContentInformationContentUriSpecification.toSpecification(relocation.contentUri, true))) > 0){
+          logger.warn("Old location {} of moved content is still referenced. Keeping file.", relocation.source);
+          return;
+        }
+      } catch(RuntimeException ex){
+        logger.warn("Failed to check references to old location " + relocation.source + ". Keeping file.", ex);
+        return;
+      }
+      deleteQuietly(relocation.source);
+    };
+    try{
+      deleter.schedule(deletion, Math.max(0, applicationProperties.getTieringDeleteDelay()), TimeUnit.MILLISECONDS);
+    } catch(RejectedExecutionException ex){
+      deletion.run();
+    }
+  }
+
+  private boolean isEnabled(){
+    String[] tiers = applicationProperties.getTieringPaths();
+    if(tiers != null){
+      for(String tier : tiers){
+        if(tier != null && !tier.trim().isEmpty()){
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private int getBatchSize(){
+    return applicationProperties.getTieringBatchSize() > 0 ? applicationProperties.getTieringBatchSize() : 100;
+  }
+
+  private void deleteQuietly(Path path){
+    try{
+      Files.deleteIfExists(path);
+    } catch(IOException ex){
+      logger.warn("Failed to remove file {}.", path);
+    }
+  }
+
+  /**
+   * Accesses to one content element recorded since the last flush.
+   */
+  private static final class PendingAccess{
+
+    private final LongAdder count = new LongAdder();
+    private final LongAccumulator lastAccess = new LongAccumulator(Math::max, 0);
+
+    void record(long timestamp){
+      count.increment();
+      lastAccess.accumulate(timestamp);
+    }
+  }
+
+  private static final class Relocation{
+
+    private final Long id;
+    private final String contentUri;
+    private final Path source;
+    private final Path target;
+    private final boolean promotion;
+    private final Instant lastAccess;
+
+    Relocation(Long id, String contentUri, Path source, Path target, boolean promotion, Instant lastAccess){
+      this.id = id;
+      this.contentUri = contentUri;
+      this.source = source;
+      this.target = target;
+      this.promotion = promotion;
+      this.lastAccess = lastAccess;
+    }
+  }
+}
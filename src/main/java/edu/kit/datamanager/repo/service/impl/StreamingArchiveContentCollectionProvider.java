@@ -0,0 +1,428 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import edu.kit.datamanager.entities.ContentElement;
+import edu.kit.datamanager.exceptions.CustomInternalServerError;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.service.IStreamingContentCollectionProvider;
+import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.repo.util.TarArchiveOutputStream;
+import edu.kit.datamanager.service.IVersioningService;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.UnsupportedMediaTypeStatusException;
+
+/**
+ * Collection provider streaming ZIP or TAR archives directly to the response.
+ * Collection elements are consumed lazily from an iterator. While one element
+ * is written, the following elements are read ahead in parallel on a bounded
+ * pool: small files are loaded into memory including their CRC32 and are
+ * stored uncompressed, larger files are streamed from disk when their turn
+ * comes. Thus, memory consumption is bounded by the read-ahead window and the
+ * maximum size of buffered files, independent of the size of the collection.
+ * The pool has no queue, if all threads are busy, e.g. serving other
+ * downloads, elements are read in the writing thread instead.
+ *
+ * ZIP archives switch to ZIP64 automatically if more than 65535 entries or
+ * entries larger than 4 GiB are written. TAR entry headers contain the exact
+ * size of each entry. Thus, content which is not available as local file and
+ * is read via its versioning service is spooled to a temporary file below the
+ * staging folder while reading ahead, such that its size is known before the
+ * entry is written. No other temporary files are created.
+ *
+ * @author jejkal
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class StreamingArchiveContentCollectionProvider implements IStreamingContentCollectionProvider{
+
+  public static final MediaType ZIP_MEDIA_TYPE = MediaType.parseMediaType("application/zip");
+  public static final MediaType TAR_MEDIA_TYPE = MediaType.parseMediaType("application/x-tar");
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private IVersioningService[] versioningServices;
+  @Autowired
+  private StorageTieringService tieringService;
+
+  private ThreadPoolExecutor executor;
+
+  @PostConstruct
+  public void init(){
+    int threads = Math.max(1, applicationProperties.getArchiveReadAheadThreads());
+    AtomicInteger threadCount = new AtomicInteger();
+    executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), (r) -> {
+      Thread t = new Thread(r, "archive-" + threadCount.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+    executor.allowCoreThreadTimeOut(true);
+    logger.trace("Archive collection provider initialized using up to {} read-ahead thread(s).", threads);
+  }
+
+  @PreDestroy
+  public void destroy(){
+    if(executor != null){
+      executor.shutdownNow();
+    }
+  }
+
+  @Override
+  public void provide(Iterator<ContentElement> elements, MediaType mediaType, HttpServletResponse response){
+    if(!supportsMediaType(mediaType)){
+      logger.error("Unsupported media type {} received. Throwing HTTP 415 (UNSUPPORTED_MEDIA_TYPE).", mediaType);
+      throw new UnsupportedMediaTypeStatusException(mediaType, Arrays.asList(getSupportedMediaTypes()));
+    }
+    boolean tar = TAR_MEDIA_TYPE.equalsTypeAndSubtype(mediaType);
+    int window = Math.max(1, applicationProperties.getArchiveReadAheadWindow());
+    Deque<Future<PrefetchedElement>> pending = new ArrayDeque<>();
+    PrefetchedElement next = null;
+    try{
+      fill(pending, elements, window, tar);
+      //wait for the first element before touching the response in order to be able to fail properly
+      next = (!pending.isEmpty()) ? await(pending.poll()) : null;
+
+      logger.trace("Starting {} packaging operation.", (tar) ? "tar" : "zip");
+      response.setContentType((tar) ? TAR_MEDIA_TYPE.toString() : ZIP_MEDIA_TYPE.toString());
+      response.setStatus(HttpStatus.OK.value());
+      OutputStream out = response.getOutputStream();
+      long count = 0;
+      if(tar){
+        try(TarArchiveOutputStream tarStream = new TarArchiveOutputStream(out)){
+          while(next != null){
+            fill(pending, elements, window, tar);
+            writeTarEntry(tarStream, next);
+            discard(next);
+            count++;
+            next = (!pending.isEmpty()) ? await(pending.poll()) : null;
+          }
+          tarStream.finish();
+        }
+      } else{
+        try(ZipOutputStream zipStream = new ZipOutputStream(out)){
+          zipStream.setLevel(Deflater.NO_COMPRESSION);
+          while(next != null){
+            fill(pending, elements, window, tar);
+            writeZipEntry(zipStream, next);
+            count++;
+            next = (!pending.isEmpty()) ? await(pending.poll()) : null;
+          }
+          zipStream.finish();
+        }
+      }
+      logger.trace("Packaging operation of {} element(s) successfully finished.", count);
+    } catch(IOException ex){
+      logger.error("Failed to package requested collection.", ex);
+      throw new CustomInternalServerError("Failed to package requested collection.");
+    } finally{
+      discard(next);
+      pending.forEach((f) -> {
+        f.cancel(true);
+        if(f.isDone() && !f.isCancelled()){
+          try{
+            discard(f.get());
+          } catch(InterruptedException | ExecutionException ex){
+            //nothing to discard
+          }
+        }
+      });
+    }
+  }
+
+  @Override
+  public boolean canProvide(String scheme){
+    logger.trace("Calling canProvide({}).", scheme);
+    return "file".equals(scheme);
+  }
+
+  @Override
+  public boolean supportsMediaType(MediaType mediaType){
+    logger.trace("Calling supportsMediaType({}).", mediaType);
+    if(mediaType == null){
+      return false;
+    }
+    return ZIP_MEDIA_TYPE.equalsTypeAndSubtype(mediaType) || TAR_MEDIA_TYPE.equalsTypeAndSubtype(mediaType);
+  }
+
+  @Override
+  public MediaType[] getSupportedMediaTypes(){
+    logger.trace("Calling getSupportedMediaTypes().");
+    return new MediaType[]{ZIP_MEDIA_TYPE, TAR_MEDIA_TYPE};
+  }
+
+  /**
+   * Submit read-ahead tasks for the next elements until the window is full or
+   * no more elements are available. If the pool rejects a task, the element is
+   * prefetched in the calling thread.
+   */
+  private void fill(Deque<Future<PrefetchedElement>> pending, Iterator<ContentElement> elements, int window, boolean tar){
+    while(pending.size() < window && elements.hasNext()){
+      ContentElement element = elements.next();
+      Future<PrefetchedElement> future;
+      try{
+        future = executor.submit(() -> prefetch(element, tar));
+      } catch(RejectedExecutionException ex){
+        logger.trace("Read-ahead rejected. Prefetching element {} inline.", element.getRelativePath());
+        CompletableFuture<PrefetchedElement> inline = new CompletableFuture<>();
+        try{
+          inline.complete(prefetch(element, tar));
+        } catch(IOException | RuntimeException e){
+          inline.completeExceptionally(e);
+        }
+        future = inline;
+      }
+      pending.add(future);
+    }
+  }
+
+  private PrefetchedElement await(Future<PrefetchedElement> future){
+    try{
+      return future.get();
+    } catch(InterruptedException ex){
+      Thread.currentThread().interrupt();
+      throw new CustomInternalServerError("Packaging operation interrupted.");
+    } catch(ExecutionException ex){
+      logger.error("Failed to read collection element.", ex.getCause());
+      throw new CustomInternalServerError("Failed to package requested collection.");
+    }
+  }
+
+  /**
+   * Obtain size, modification time and, for small files, the content and CRC32
+   * of a collection element. Content not available as local file is read via
+   * its versioning service while writing a ZIP archive. For TAR archives, it is
+   * spooled to a temporary file, as its declared length might be unknown or
+   * wrong.
+   */
+  private PrefetchedElement prefetch(ContentElement element, boolean tar) throws IOException{
+    Path file = getLocalFile(element);
+    if(file == null){
+      if(tar){
+        Path spooled = spool(element);
+        return new PrefetchedElement(element, spooled, Files.size(spooled), System.currentTimeMillis(), null, -1, true);
+      }
+      return new PrefetchedElement(element, null, element.getContentLength(), System.currentTimeMillis(), null, -1);
+    }
+    long size = Files.size(file);
+    long lastModified = Files.getLastModifiedTime(file).toMillis();
+    if(size <= applicationProperties.getArchiveReadAheadBufferSize()){
+      byte[] data = Files.readAllBytes(file);
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      return new PrefetchedElement(element, file, data.length, lastModified, data, crc.getValue());
+    }
+    return new PrefetchedElement(element, file, size, lastModified, null, -1);
+  }
+
+  private Path spool(ContentElement element) throws IOException{
+    Path folder = PathUtils.getStagingPath(applicationProperties);
+    Files.createDirectories(folder);
+    Path spooled = Files.createTempFile(folder, "archive", ".tmp");
+    logger.trace("Spooling element {} to {}.", element.getRelativePath(), spooled);
+    try{
+      try(OutputStream out = Files.newOutputStream(spooled)){
+        readViaVersioningService(element, out);
+      }
+      if(Thread.currentThread().isInterrupted()){
+        throw new InterruptedIOException("Spooling of element " + element.getRelativePath() + " interrupted.");
+      }
+      return spooled;
+    } catch(IOException | RuntimeException ex){
+      Files.deleteIfExists(spooled);
+      throw ex;
+    }
+  }
+
+  /**
+   * Remove the temporary file of the provided element, if there is one.
+   */
+  private void discard(PrefetchedElement element){
+    if(element != null && element.temporary){
+      try{
+        Files.deleteIfExists(element.file);
+      } catch(IOException ex){
+        logger.warn("Failed to remove temporary file " + element.file + ".", ex);
+      }
+    }
+  }
+
+  private Path getLocalFile(ContentElement element){
+    if(element.getContentUri() == null){
+      return null;
+    }
+    URI uri = URI.create(element.getContentUri());
+    if(!"file".equals(uri.getScheme())){
+      return null;
+    }
+    tieringService.recordAccess(element.getContentUri());
+    Path file = Paths.get(uri);
+    return (Files.isRegularFile(file) && Files.isReadable(file)) ? file : null;
+  }
+
+  private void writeZipEntry(ZipOutputStream zipStream, PrefetchedElement element) throws IOException{
+    logger.trace("Adding new zip entry for element {}.", element.content.getRelativePath());
+    ZipEntry entry = new ZipEntry(getEntryName(element.content));
+    entry.setTime(element.lastModified);
+    if(element.data != null){
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(element.size);
+      entry.setCompressedSize(element.size);
+      entry.setCrc(element.crc);
+      zipStream.putNextEntry(entry);
+      zipStream.write(element.data);
+    } else{
+      entry.setMethod(ZipEntry.DEFLATED);
+      zipStream.putNextEntry(entry);
+      writeContent(zipStream, element);
+    }
+    zipStream.closeEntry();
+  }
+
+  private void writeTarEntry(TarArchiveOutputStream tarStream, PrefetchedElement element) throws IOException{
+    logger.trace("Adding new tar entry for element {}.", element.content.getRelativePath());
+    tarStream.putNextEntry(getEntryName(element.content), element.size, element.lastModified);
+    if(element.data != null){
+      tarStream.write(element.data);
+    } else{
+      writeContent(tarStream, element);
+    }
+    tarStream.closeEntry();
+  }
+
+  private void writeContent(OutputStream out, PrefetchedElement element) throws IOException{
+    if(element.file != null){
+      Files.copy(element.file, out);
+      return;
+    }
+    readViaVersioningService(element.content, new NonClosingOutputStream(out));
+  }
+
+  private void readViaVersioningService(ContentElement content, OutputStream out){
+    for(IVersioningService service : versioningServices){
+      if(service.getServiceName().equals(content.getVersioningService())){
+        service.configure();
+        Map<String, String> options = new HashMap<>();
+        options.put("contentUri", content.getContentUri());
+        options.put("checksum", content.getChecksum());
+        options.put("size", Long.toString(content.getContentLength()));
+        try{
+          service.read(content.getResourceId(), null, content.getRelativePath(), content.getFileVersion(), out, options);
+        } catch(RuntimeException ex){
+          logger.error("Failed to read collection element " + content.getRelativePath() + ".", ex);
+          throw new CustomInternalServerError("Failed to package requested collection.");
+        }
+        return;
+      }
+    }
+    logger.error("No versioning service found for name {}. Unable to provide content.", content.getVersioningService());
+    throw new CustomInternalServerError("No versioning service found. Unable to provide any content.");
+  }
+
+  private static String getEntryName(ContentElement content){
+    String name = content.getRelativePath();
+    while(name.startsWith("/")){
+      name = name.substring(1);
+    }
+    return name;
+  }
+
+  /**
+   * Result of reading ahead a single collection element.
+   */
+  private static class PrefetchedElement{
+
+    private final ContentElement content;
+    private final Path file;
+    private final long size;
+    private final long lastModified;
+    private final byte[] data;
+    private final long crc;
+    private final boolean temporary;
+
+    PrefetchedElement(ContentElement content, Path file, long size, long lastModified, byte[] data, long crc){
+      this(content, file, size, lastModified, data, crc, false);
+    }
+
+    PrefetchedElement(ContentElement content, Path file, long size, long lastModified, byte[] data, long crc, boolean temporary){
+      this.content = content;
+      this.file = file;
+      this.size = size;
+      this.lastModified = lastModified;
+      this.data = data;
+      this.crc = crc;
+      this.temporary = temporary;
+    }
+  }
+
+  /**
+   * Output stream wrapper preventing versioning services from closing the
+   * archive stream.
+   */
+  private static class NonClosingOutputStream extends FilterOutputStream{
+
+    NonClosingOutputStream(OutputStream out){
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException{
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException{
+      flush();
+    }
+  }
+}
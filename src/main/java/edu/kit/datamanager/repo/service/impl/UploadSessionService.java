@@ -0,0 +1,460 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.service.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.BadArgumentException;
+import edu.kit.datamanager.exceptions.CustomInternalServerError;
+import edu.kit.datamanager.exceptions.ResourceAlreadyExistException;
+import edu.kit.datamanager.exceptions.ResourceNotFoundException;
+import edu.kit.datamanager.exceptions.UnprocessableEntityException;
+import edu.kit.datamanager.exceptions.UpdateForbiddenException;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.domain.UploadSession;
+import edu.kit.datamanager.repo.service.IContentInformationService;
+import edu.kit.datamanager.repo.service.IUploadSessionService;
+import edu.kit.datamanager.repo.util.PathUtils;
+import edu.kit.datamanager.repo.util.StagedFileInputStream;
+import edu.kit.datamanager.repo.util.StreamUtils;
+import edu.kit.datamanager.util.AuthenticationHelper;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+
+/**
+ * Default upload session service. Each session owns a folder below the staging
+ * path containing the received data and a JSON representation of the session
+ * state. Chunks are written into the data file at their offset using
+ * positional writes, such that multiple chunks can be received in parallel.
+ * Checksums are updated incrementally as soon as the contiguous part of the
+ * received data grows. Chunks arriving in order are hashed while they are
+ * written, out-of-order chunks are hashed as soon as the gap before them is
+ * closed. If a chunk rewrites data which has already been hashed, e.g. a
+ * retried chunk, incremental hashing stops and all data is hashed again from
+ * the beginning on commit.
+ *
+ * @author jejkal
+ */
+public class UploadSessionService implements IUploadSessionService{
+
+  private static final String UPLOAD_FOLDER = "uploads";
+  private static final String DATA_FILE = "data";
+  private static final String SESSION_FILE = "session.json";
+
+  @Autowired
+  private Logger logger;
+  @Autowired
+  private ApplicationProperties applicationProperties;
+  @Autowired
+  private IContentInformationService contentInformationService;
+  @Autowired
+  private ChecksumEngine checksumEngine;
+
+  private final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json()
+          .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+          .modules(new JavaTimeModule())
+          .build();
+  private final Map<String, SessionState> sessions = new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void init(){
+    Path uploadPath = getUploadPath();
+    if(!Files.isDirectory(uploadPath)){
+      return;
+    }
+    logger.trace("Restoring upload sessions from {}.", uploadPath);
+    try(DirectoryStream<Path> folders = Files.newDirectoryStream(uploadPath)){
+      for(Path folder : folders){
+        Path sessionFile = folder.resolve(SESSION_FILE);
+        try{
+          UploadSession session = mapper.readValue(sessionFile.toFile(), UploadSession.class);
+          if(session.getExpires() != null && session.getExpires().isBefore(Instant.now())){
+            logger.debug("Removing expired upload session {}.", session.getId());
+            deleteFolder(folder);
+          } else{
+            sessions.put(session.getId(), new SessionState(session, folder));
+          }
+        } catch(IOException ex){
+          logger.warn("Failed to restore upload session from " + folder + ". Removing session folder.", ex);
+          deleteFolder(folder);
+        }
+      }
+    } catch(IOException ex){
+      logger.error("Failed to list upload sessions at " + uploadPath + ".", ex);
+    }
+    logger.debug("{} upload session(s) restored.", sessions.size());
+  }
+
+  @Override
+  public UploadSession create(DataResource resource, String path, Long size, boolean force, ContentInformation contentInformation){
+    logger.trace("Performing create({}, {}, {}, {}, {}).", "DataResource#" + resource.getId(), path, size, force, contentInformation);
+    if(size != null && size < 0){
+      throw new BadArgumentException("The provided size must not be negative.");
+    }
+    UploadSession session = new UploadSession();
+    session.setId(UUID.randomUUID().toString());
+    session.setResourceId(resource.getId());
+    session.setRelativePath(path);
+    session.setSize(size);
+    session.setForce(force);
+    session.setContentInformation(contentInformation);
+    session.setOwner(AuthenticationHelper.getPrincipal());
+    session.setCreated(Instant.now());
+    session.setExpires(session.getCreated().plusMillis(applicationProperties.getUploadSessionTimeout()));
+
+    Path folder = getUploadPath().resolve(session.getId());
+    try{
+      Files.createDirectories(folder);
+      Files.createFile(folder.resolve(DATA_FILE));
+    } catch(IOException ex){
+      logger.error("Failed to create staging folder " + folder + ".", ex);
+      throw new CustomInternalServerError("Failed to create upload session.");
+    }
+    SessionState state = new SessionState(session, folder);
+    persist(state);
+    sessions.put(session.getId(), state);
+    logger.debug("Upload session {} created for resource {} and path {}.", session.getId(), resource.getId(), path);
+    return session;
+  }
+
+  @Override
+  public UploadSession get(DataResource resource, String sessionId){
+    SessionState state = getState(resource, sessionId);
+    synchronized(state){
+      return state.session;
+    }
+  }
+
+  @Override
+  public UploadSession write(DataResource resource, String sessionId, long offset, InputStream data){
+    logger.trace("Performing write({}, {}, {}, {}).", "DataResource#" + resource.getId(), sessionId, offset, "<InputStream>");
+    SessionState state = getState(resource, sessionId);
+    Long size;
+    boolean hashing;
+    synchronized(state){
+      if(state.committing){
+        throw new ResourceAlreadyExistException("Upload session " + sessionId + " is currently committed.");
+      }
+      size = state.session.getSize();
+      if(offset < 0 || (size != null && offset > size)){
+        throw new BadArgumentException("Invalid offset " + offset + ".");
+      }
+      //hash chunk while writing if it continues the hashed part of the data
+      hashing = !state.rehash && !state.hashing && offset == state.watermark;
+      state.hashing |= hashing;
+      state.writers++;
+    }
+
+    long position = offset;
+    long hashed = offset;
+    try(FileChannel out = FileChannel.open(state.folder.resolve(DATA_FILE), StandardOpenOption.WRITE)){
+      ReadableByteChannel in = Channels.newChannel(data);
+      ByteBuffer buffer = StreamUtils.getTransferBuffer();
+      while(in.read(buffer) > -1){
+        buffer.flip();
+        if(size != null && position + buffer.remaining() > size){
+          throw new BadArgumentException("Chunk exceeds the declared size of " + size + " bytes.");
+        }
+        ByteBuffer chunk = buffer.asReadOnlyBuffer();
+        while(buffer.hasRemaining()){
+          position += out.write(buffer, position);
+        }
+        if(hashing){
+          state.digests.accept(chunk);
+          hashed = position;
+        }
+        buffer.clear();
+      }
+    } catch(IOException ex){
+      logger.error("Failed to write chunk at offset " + offset + " for upload session " + sessionId + ".", ex);
+      throw new CustomInternalServerError("Unable to read from stream. Chunk upload canceled.");
+    } finally{
+      synchronized(state){
+        if(position > offset){
+          //also keep partially received chunks, they can be resumed
+          state.session.addReceivedRange(offset, position - 1);
+        }
+        if(hashing){
+          state.watermark = hashed;
+          state.hashing = false;
+          //chunks written while hashing must not have changed the hashed data
+          for(long[] range : state.concurrentRanges){
+            state.rehash |= range[0] < hashed;
+          }
+          state.concurrentRanges.clear();
+        } else if(position > offset){
+          if(offset < state.watermark){
+            logger.debug("Chunk at offset {} rewrites hashed data of upload session {}. Data will be hashed again on commit.", offset, sessionId);
+            state.rehash = true;
+          } else if(state.hashing){
+            state.concurrentRanges.add(new long[]{offset, position});
+          }
+        }
+        state.session.setExpires(Instant.now().plusMillis(applicationProperties.getUploadSessionTimeout()));
+      }
+      try{
+        //the session remains in use while hashing, such that it is neither committed nor removed
+        advanceDigests(state);
+      } finally{
+        synchronized(state){
+          state.writers--;
+          persist(state);
+        }
+      }
+    }
+    logger.debug("Received {} byte(s) at offset {} for upload session {}.", position - offset, offset, sessionId);
+    return state.session;
+  }
+
+  @Override
+  public ContentInformation commit(DataResource resource, String sessionId){
+    logger.trace("Performing commit({}, {}).", "DataResource#" + resource.getId(), sessionId);
+    SessionState state = getState(resource, sessionId);
+    synchronized(state){
+      if(state.committing || state.writers > 0){
+        throw new ResourceAlreadyExistException("Upload session " + sessionId + " is currently in use.");
+      }
+      if(!state.session.isComplete()){
+        logger.error("Upload session {} is incomplete. Throwing UnprocessableEntityException.", sessionId);
+        throw new UnprocessableEntityException("Upload incomplete. Received " + state.session.getBytesReceived() + " byte(s) in " + state.session.getReceivedRanges().size() + " range(s).");
+      }
+      if(state.rehash){
+        state.digests = checksumEngine.newInlineSession();
+        state.watermark = 0;
+        state.rehash = false;
+      }
+      state.committing = true;
+    }
+
+    Path dataFile = state.folder.resolve(DATA_FILE);
+    try{
+      //no chunks are written while committing, so the remaining data is hashed without holding the lock
+      advanceDigests(state);
+      Map<String, String> digests = state.digests.finish();
+      try(StagedFileInputStream stream = new StagedFileInputStream(dataFile, digests, true)){
+        ContentInformation result = contentInformationService.create(state.session.getContentInformation(), resource, state.session.getRelativePath(), stream, state.session.isForce());
+        logger.debug("Upload session {} committed.", sessionId);
+        remove(state);
+        return result;
+      }
+    } catch(IOException ex){
+      logger.error("Failed to open staged file " + dataFile + ".", ex);
+      throw new CustomInternalServerError("Failed to read staged upload.");
+    } finally{
+      synchronized(state){
+        if(sessions.containsKey(sessionId)){
+          if(Files.exists(dataFile)){
+            //commit failed, allow to retry
+            state.committing = false;
+            state.digests = checksumEngine.newInlineSession();
+            state.watermark = 0;
+            state.rehash = false;
+          } else{
+            logger.warn("Staged data of upload session {} has been consumed by a failed commit. Removing session.", sessionId);
+            remove(state);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void delete(DataResource resource, String sessionId){
+    logger.trace("Performing delete({}, {}).", "DataResource#" + resource.getId(), sessionId);
+    SessionState state = getState(resource, sessionId);
+    synchronized(state){
+      if(state.committing){
+        throw new ResourceAlreadyExistException("Upload session " + sessionId + " is currently committed.");
+      }
+      remove(state);
+    }
+  }
+
+  /**
+   * Remove all sessions which have expired.
+   */
+  @Scheduled(fixedDelayString = "${repo.upload.session.cleanupRate:600000}")
+  public void removeExpiredSessions(){
+    Instant now = Instant.now();
+    sessions.values().forEach((state) -> {
+      synchronized(state){
+        if(!state.committing && state.writers == 0 && state.session.getExpires().isBefore(now)){
+          logger.debug("Removing expired upload session {}.", state.session.getId());
+          remove(state);
+        }
+      }
+    });
+  }
+
+  private SessionState getState(DataResource resource, String sessionId){
+    SessionState state = sessions.get(sessionId);
+    if(state == null || !Objects.equals(resource.getId(), state.session.getResourceId())){
+      logger.error("No upload session found for id {} and resource {}. Throwing ResourceNotFoundException.", sessionId, resource.getId());
+      throw new ResourceNotFoundException("Upload session " + sessionId + " not found.");
+    }
+    if(!Objects.equals(state.session.getOwner(), AuthenticationHelper.getPrincipal()) && !AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
+      logger.error("Caller is not the owner of upload session {}. Throwing UpdateForbiddenException.", sessionId);
+      throw new UpdateForbiddenException("Only the creator of an upload session is allowed to access it.");
+    }
+    return state;
+  }
+
+  /**
+   * Hash all contiguous data received behind the current watermark. The range
+   * to hash is claimed via the hashing flag while holding the lock of the
+   * provided state, the data is read and hashed without holding it. Chunks
+   * written into the claimed range in the meantime cause the data to be
+   * hashed again on commit. Must not be called while holding the lock.
+   */
+  private void advanceDigests(SessionState state){
+    while(true){
+      long from;
+      long to;
+      synchronized(state){
+        to = state.session.getContiguousBytes();
+        if(state.rehash || state.hashing || state.watermark >= to){
+          return;
+        }
+        from = state.watermark;
+        state.hashing = true;
+      }
+      boolean completed = false;
+      try{
+        hash(state, from, to);
+        completed = true;
+      } finally{
+        synchronized(state){
+          state.hashing = false;
+          if(completed){
+            state.watermark = to;
+            for(long[] range : state.concurrentRanges){
+              state.rehash |= range[0] < to;
+            }
+          } else{
+            //the digests might have consumed parts of the range
+            state.rehash = true;
+          }
+          state.concurrentRanges.clear();
+        }
+      }
+    }
+  }
+
+  private void hash(SessionState state, long from, long to){
+    logger.trace("Hashing staged bytes {}-{} of upload session {}.", from, to - 1, state.session.getId());
+    try(FileChannel in = FileChannel.open(state.folder.resolve(DATA_FILE), StandardOpenOption.READ)){
+      ByteBuffer buffer = StreamUtils.getTransferBuffer();
+      long position = from;
+      while(position < to){
+        buffer.limit((int) Math.min(buffer.capacity(), to - position));
+        int read = in.read(buffer, position);
+        if(read < 0){
+          throw new IOException("Unexpected end of staged file at position " + position + ".");
+        }
+        buffer.flip();
+        state.digests.accept(buffer);
+        position += read;
+        buffer.clear();
+      }
+    } catch(IOException ex){
+      logger.error("Failed to hash staged data of upload session " + state.session.getId() + ".", ex);
+      throw new CustomInternalServerError("Failed to read staged upload.");
+    }
+  }
+
+  private void persist(SessionState state){
+    Path sessionFile = state.folder.resolve(SESSION_FILE);
+    Path tmp = state.folder.resolve(SESSION_FILE + ".tmp");
+    try{
+      mapper.writeValue(tmp.toFile(), state.session);
+      Files.move(tmp, sessionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch(IOException ex){
+      logger.error("Failed to persist upload session " + state.session.getId() + ".", ex);
+      throw new CustomInternalServerError("Failed to persist upload session.");
+    }
+  }
+
+  private void remove(SessionState state){
+    sessions.remove(state.session.getId());
+    deleteFolder(state.folder);
+  }
+
+  private void deleteFolder(Path folder){
+    try(Stream<Path> paths = Files.walk(folder)){
+      paths.sorted(Comparator.reverseOrder()).forEach((p) -> {
+        try{
+          Files.deleteIfExists(p);
+        } catch(IOException ex){
+          logger.warn("Failed to remove staged file " + p + ".", ex);
+        }
+      });
+    } catch(IOException ex){
+      logger.warn("Failed to remove staging folder " + folder + ".", ex);
+    }
+  }
+
+  private Path getUploadPath(){
+    return PathUtils.getStagingPath(applicationProperties).resolve(UPLOAD_FOLDER);
+  }
+
+  /**
+   * Runtime state of a single session.
+   */
+  private class SessionState{
+
+    private final UploadSession session;
+    private final Path folder;
+    private ChecksumEngine.Session digests = checksumEngine.newInlineSession();
+    private long watermark = 0;
+    private boolean hashing = false;
+    private boolean rehash = false;
+    private final List<long[]> concurrentRanges = new ArrayList<>();
+    private boolean committing = false;
+    private int writers = 0;
+
+    SessionState(UploadSession session, Path folder){
+      this.session = session;
+      this.folder = folder;
+    }
+  }
+}
@@ -15,38 +15,269 @@
  */
 package edu.kit.datamanager.repo.util;
 
+import edu.kit.datamanager.entities.PERMISSION;
+import edu.kit.datamanager.repo.domain.acl.AclEntry;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Evaluation of access control lists. Principal identifiers of the caller are
+ * regular expressions matched against the sid of each acl entry. They are
+ * compiled once per list of principal identifiers into a
+ * {@link PrincipalMatcher}, which is cached and reused by all checks for the
+ * same principals. Sid match results and permissions per resource version
+ * are memoized in least recently used caches shared by all matchers, each
+ * having a single bound.
  *
  * @author jejkal
  */
 public class AclUtils{
 
+  private static final Logger LOGGER = LoggerFactory.getLogger(AclUtils.class);
+
+  private static final int MAX_MATCHERS = 1000;
+  private static final int MAX_SID_MATCHES = 10000;
+  private static final int MAX_DECISIONS = 10000;
+  private static final String REGEX_META_CHARACTERS = "\\^$.|?*+()[]{}";
+
+  private static final Map<List<String>, PrincipalMatcher> MATCHERS = new LinkedHashMap<List<String>, PrincipalMatcher>(16, 0.75f, true){
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<List<String>, PrincipalMatcher> eldest){
+      return size() > MAX_MATCHERS;
+    }
+  };
+  private static final Map<MemoKey, Boolean> SID_MATCHES = new LinkedHashMap<MemoKey, Boolean>(16, 0.75f, true){
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<MemoKey, Boolean> eldest){
+      return size() > MAX_SID_MATCHES;
+    }
+  };
+  private static final Map<MemoKey, Decision> DECISIONS = new LinkedHashMap<MemoKey, Decision>(16, 0.75f, true){
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<MemoKey, Decision> eldest){
+      return size() > MAX_DECISIONS;
+    }
+  };
+
+  /**
+   * Hidden constructor.
+   */
+  private AclUtils(){
+  }
+
   public static boolean isSidInPrincipalList(String sid, List<String> principalIds){
-    for(String principalId : principalIds){
-      Pattern p = Pattern.compile(principalId);
-      Matcher m = p.matcher(sid);
-      if(m.matches()){
+    return compile(principalIds).matches(sid);
+  }
+
+  /**
+   * Get the compiled matcher for the provided principal identifiers. Matchers
+   * are cached, i.e. the principal identifiers are only compiled for the first
+   * check of each distinct list.
+   *
+   * @param principalIds The principal identifiers of the caller.
+   *
+   * @return The matcher.
+   */
+  public static PrincipalMatcher compile(List<String> principalIds){
+    List<String> key = new ArrayList<>(principalIds);
+    synchronized(MATCHERS){
+      PrincipalMatcher matcher = MATCHERS.get(key);
+      if(matcher == null){
+        matcher = new PrincipalMatcher(key);
+        MATCHERS.put(key, matcher);
+      }
+      return matcher;
+    }
+  }
+
+  /**
+   * Matcher for a fixed list of principal identifiers. Identifiers without
+   * regular expression meta characters are matched by equality, all others are
+   * combined into a single pattern. Match results per sid and the effective
+   * permission per resource are memoized.
+   */
+  public static final class PrincipalMatcher{
+
+    private final Set<String> literals = new HashSet<>();
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    PrincipalMatcher(List<String> principalIds){
+      List<String> expressions = new ArrayList<>();
+      for(String principalId : principalIds){
+        if(principalId == null){
+          continue;
+        }
+        if(isLiteral(principalId)){
+          literals.add(principalId);
+          continue;
+        }
+        try{
+          Pattern.compile(principalId);
+          expressions.add(principalId);
+        } catch(PatternSyntaxException ex){
+          LOGGER.warn("Principal identifier {} is no valid regular expression. Matching it literally.", principalId);
+          literals.add(principalId);
+        }
+      }
+
+      if(expressions.isEmpty()){
+        return;
+      }
+      //combine all expressions into one alternation unless group references would change their meaning
+      if(expressions.size() > 1 && expressions.stream().noneMatch((expression) -> expression.matches("(?s).*\\\\([0-9]|k<).*"))){
+        StringBuilder combined = new StringBuilder();
+        for(String expression : expressions){
+          combined.append(combined.length() == 0 ? "" : "|").append("(?:").append(expression).append(")");
+        }
+        try{
+          patterns.add(Pattern.compile(combined.toString()));
+          return;
+        } catch(PatternSyntaxException ex){
+          LOGGER.debug("Failed to combine principal identifiers. Matching them separately.", ex);
+        }
+      }
+      expressions.forEach((expression) -> patterns.add(Pattern.compile(expression)));
+    }
+
+    /**
+     * Check if the provided sid is matched by any principal identifier.
+     *
+     * @param sid The sid of an acl entry.
+     *
+     * @return TRUE if the sid is matched.
+     */
+    public boolean matches(String sid){
+      if(sid == null){
+        return false;
+      }
+      if(literals.contains(sid)){
         return true;
       }
+      if(patterns.isEmpty()){
+        return false;
+      }
+      MemoKey key = new MemoKey(this, sid);
+      Boolean result;
+      synchronized(SID_MATCHES){
+        result = SID_MATCHES.get(key);
+      }
+      if(result == null){
+        result = patterns.stream().anyMatch((pattern) -> pattern.matcher(sid).matches());
+        synchronized(SID_MATCHES){
+          SID_MATCHES.put(key, result);
+        }
+      }
+      return result;
     }
 
-    return false;
+    /**
+     * Determine the maximum permission granted by the provided acl entries of
+     * a resource. The result is memoized per resource version, i.e. the last
+     * update of the resource, which changes with each modification of its
+     * acl. It is reused for other instances of the same resource version, e.g.
+     * loaded by later requests. If no version is provided, the permission is
+     * not memoized.
+     *
+     * @param resourceId The id of the resource.
+     * @param version The version of the resource or null.
+     * @param acls The acl entries of the resource.
+     *
+     * @return The maximum permission or PERMISSION.NONE.
+     */
+    public PERMISSION getPermission(String resourceId, Instant version, Collection<AclEntry> acls){
+      if(acls == null || acls.isEmpty()){
+        return PERMISSION.NONE;
+      }
+      MemoKey key = null;
+      if(resourceId != null && version != null){
+        key = new MemoKey(this, resourceId);
+        Decision decision;
+        synchronized(DECISIONS){
+          decision = DECISIONS.get(key);
+        }
+        if(decision != null && decision.version.equals(version)){
+          return decision.permission;
+        }
+      }
+
+      PERMISSION maxPermission = PERMISSION.NONE;
+      for(AclEntry entry : acls){
+        if(entry.getPermission() != null && entry.getPermission().ordinal() > maxPermission.ordinal() && matches(entry.getSid())){
+          maxPermission = entry.getPermission();
+        }
+      }
+
+      if(key != null){
+        Decision decision = new Decision(version, maxPermission);
+        synchronized(DECISIONS){
+          DECISIONS.put(key, decision);
+        }
+      }
+      return maxPermission;
+    }
+  }
+
+  /**
+   * Key of a memoized result of a matcher, i.e. a sid or a resource id.
+   * Matchers are compared by identity, as each list of principal identifiers
+   * is compiled into one matcher.
+   */
+  private static final class MemoKey{
+
+    private final PrincipalMatcher matcher;
+    private final String value;
+
+    MemoKey(PrincipalMatcher matcher, String value){
+      this.matcher = matcher;
+      this.value = value;
+    }
+
+    @Override
+    public int hashCode(){
+      return 31 * System.identityHashCode(matcher) + value.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj){
+      if(!(obj instanceof MemoKey)){
+        return false;
+      }
+      MemoKey other = (MemoKey) obj;
+      return matcher == other.matcher && value.equals(other.value);
+    }
+  }
+
+  /**
+   * Memoized permission together with the resource version it was determined
+   * for.
+   */
+  private static final class Decision{
+
+    private final Instant version;
+    private final PERMISSION permission;
+
+    Decision(Instant version, PERMISSION permission){
+      this.version = version;
+      this.permission = permission;
+    }
+  }
+
+  private static boolean isLiteral(String principalId){
+    for(int i = 0; i < principalId.length(); i++){
+      if(REGEX_META_CHARACTERS.indexOf(principalId.charAt(i)) >= 0){
+        return false;
+      }
+    }
+    return true;
   }
-//
-//  public static void main(String[] args){
-//
-//    List<String> principalIds = new ArrayList<>();
-//    principalIds.add("tester");
-//    principalIds.add(".*KIT");
-//
-//    System.out.println(isSidInPrincipalList("USERS@KIT", principalIds));
-//    System.out.println(isSidInPrincipalList("tester", principalIds));
-//    System.out.println(isSidInPrincipalList("test", principalIds));
-//    System.out.println(isSidInPrincipalList("KIT_LEADER", principalIds));
-//
-//  }
 }
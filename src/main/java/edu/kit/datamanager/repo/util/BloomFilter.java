@@ -0,0 +1,114 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Space-efficient probabilistic set of strings. A Bloom filter never reports
+ * an added element as absent, but may report an element as present which has
+ * never been added. The probability of such false positives depends on the
+ * expected number of elements and the configured false positive probability.
+ * If more elements than expected are added, the probability increases.
+ *
+ * Elements must be added by a single thread. Afterwards, the filter can be
+ * queried by multiple threads concurrently.
+ *
+ * @author jejkal
+ */
+public class BloomFilter{
+
+  private final long[] bits;
+  private final long numBits;
+  private final int numHashes;
+
+  /**
+   * Default constructor.
+   *
+   * @param expectedElements The expected number of elements.
+   * @param falsePositiveProbability The desired false positive probability,
+   * e.g. 0.01.
+   */
+  public BloomFilter(long expectedElements, double falsePositiveProbability){
+    long n = Math.max(1, expectedElements);
+    double p = Math.min(Math.max(falsePositiveProbability, 1e-9), 0.5);
+    long m = (long) Math.ceil(-n * Math.log(p) / (Math.log(2) * Math.log(2)));
+    m = Math.max(64, Math.min(m, (long) Integer.MAX_VALUE * 64));
+    bits = new long[(int) ((m + 63) / 64)];
+    numBits = bits.length * 64l;
+    numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+  }
+
+  /**
+   * Add the provided element.
+   *
+   * @param element The element to add.
+   */
+  public void put(String element){
+    long hash1 = hash(element, 0x9E3779B97F4A7C15l);
+    long hash2 = hash(element, 0xC2B2AE3D27D4EB4Fl);
+    for(int i = 0; i < numHashes; i++){
+      long index = Long.remainderUnsigned(hash1 + i * hash2, numBits);
+      bits[(int) (index >>> 6)] |= 1l << index;
+    }
+  }
+
+  /**
+   * Check whether the provided element might have been added.
+   *
+   * @param element The element to check.
+   *
+   * @return FALSE if the element has definitely not been added, TRUE if it
+   * might have been added.
+   */
+  public boolean mightContain(String element){
+    long hash1 = hash(element, 0x9E3779B97F4A7C15l);
+    long hash2 = hash(element, 0xC2B2AE3D27D4EB4Fl);
+    for(int i = 0; i < numHashes; i++){
+      long index = Long.remainderUnsigned(hash1 + i * hash2, numBits);
+      if((bits[(int) (index >>> 6)] & (1l << index)) == 0){
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public long getNumBits(){
+    return numBits;
+  }
+
+  public int getNumHashes(){
+    return numHashes;
+  }
+
+  /**
+   * 64 bit FNV-1a hash of the UTF-8 bytes of the provided string with a final
+   * avalanche step.
+   */
+  private static long hash(String element, long seed){
+    long h = 0xcbf29ce484222325l ^ seed;
+    for(byte b : element.getBytes(StandardCharsets.UTF_8)){
+      h ^= (b & 0xff);
+      h *= 0x100000001b3l;
+    }
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdl;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53l;
+    h ^= h >>> 33;
+    return h;
+  }
+}
@@ -0,0 +1,410 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed bitmap of non-negative integers following the layout of Roaring
+ * bitmaps. Values are partitioned by their upper 16 bits into chunks. Each
+ * chunk stores its lower 16 bits either as sorted array, if it contains up to
+ * 4096 values, or as plain bitmap of 65536 bits otherwise. Sparse and dense
+ * value ranges are both stored compactly and unions or differences are
+ * performed per chunk.
+ *
+ * Instances are not thread-safe.
+ *
+ * @author jejkal
+ */
+public class CompressedBitmap{
+
+  /**
+   * Max. number of values of a chunk stored as array.
+   */
+  static final int MAX_ARRAY_SIZE = 4096;
+
+  private char[] keys = new char[4];
+  private Chunk[] chunks = new Chunk[4];
+  private int size;
+
+  /**
+   * Add a value.
+   *
+   * @param value The value, which must not be negative.
+   *
+   * @return TRUE if the value was not contained before.
+   */
+  public boolean add(int value){
+    checkValue(value);
+    char key = (char) (value >>> 16);
+    int index = indexOf(key);
+    if(index < 0){
+      index = -index - 1;
+      insertChunk(index, key, new Chunk());
+    }
+    return chunks[index].add((char) value);
+  }
+
+  /**
+   * Remove a value.
+   *
+   * @param value The value.
+   *
+   * @return TRUE if the value was contained before.
+   */
+  public boolean remove(int value){
+    if(value < 0){
+      return false;
+    }
+    int index = indexOf((char) (value >>> 16));
+    if(index < 0 || !chunks[index].remove((char) value)){
+      return false;
+    }
+    if(chunks[index].size == 0){
+      removeChunk(index);
+    }
+    return true;
+  }
+
+  /**
+   * Check whether a value is contained.
+   *
+   * @param value The value.
+   *
+   * @return TRUE if the value is contained.
+   */
+  public boolean contains(int value){
+    if(value < 0){
+      return false;
+    }
+    int index = indexOf((char) (value >>> 16));
+    return index >= 0 && chunks[index].contains((char) value);
+  }
+
+  /**
+   * Add all values of the provided bitmap to this bitmap.
+   *
+   * @param other The other bitmap.
+   */
+  public void or(CompressedBitmap other){
+    for(int i = 0; i < other.size; i++){
+      int index = indexOf(other.keys[i]);
+      if(index < 0){
+        insertChunk(-index - 1, other.keys[i], other.chunks[i].copy());
+      } else{
+        chunks[index].or(other.chunks[i]);
+      }
+    }
+  }
+
+  /**
+   * Remove all values of the provided bitmap from this bitmap.
+   *
+   * @param other The other bitmap.
+   */
+  public void andNot(CompressedBitmap other){
+    for(int i = 0; i < other.size; i++){
+      int index = indexOf(other.keys[i]);
+      if(index >= 0){
+        chunks[index].andNot(other.chunks[i]);
+        if(chunks[index].size == 0){
+          removeChunk(index);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the number of contained values.
+   *
+   * @return The number of values.
+   */
+  public int getCardinality(){
+    int cardinality = 0;
+    for(int i = 0; i < size; i++){
+      cardinality += chunks[i].size;
+    }
+    return cardinality;
+  }
+
+  /**
+   * Check whether the bitmap contains no values.
+   *
+   * @return TRUE if the bitmap is empty.
+   */
+  public boolean isEmpty(){
+    return size == 0;
+  }
+
+  /**
+   * Pass all values in ascending order to the provided consumer.
+   *
+   * @param consumer The consumer.
+   */
+  public void forEach(IntConsumer consumer){
+    for(int i = 0; i < size; i++){
+      chunks[i].forEach(keys[i] << 16, consumer);
+    }
+  }
+
+  /**
+   * Get all values in ascending order.
+   *
+   * @return The values.
+   */
+  public int[] toArray(){
+    int[] result = new int[getCardinality()];
+    int[] position = new int[1];
+    forEach((value) -> result[position[0]++] = value);
+    return result;
+  }
+
+  /**
+   * Create an independent copy of this bitmap.
+   *
+   * @return The copy.
+   */
+  public CompressedBitmap copy(){
+    CompressedBitmap result = new CompressedBitmap();
+    result.keys = Arrays.copyOf(keys, Math.max(4, size));
+    result.chunks = new Chunk[result.keys.length];
+    for(int i = 0; i < size; i++){
+      result.chunks[i] = chunks[i].copy();
+    }
+    result.size = size;
+    return result;
+  }
+
+  private int indexOf(char key){
+    return Arrays.binarySearch(keys, 0, size, key);
+  }
+
+  private void insertChunk(int index, char key, Chunk chunk){
+    if(size == keys.length){
+      keys = Arrays.copyOf(keys, size * 2);
+      chunks = Arrays.copyOf(chunks, size * 2);
+    }
+    System.arraycopy(keys, index, keys, index + 1, size - index);
+    System.arraycopy(chunks, index, chunks, index + 1, size - index);
+    keys[index] = key;
+    chunks[index] = chunk;
+    size++;
+  }
+
+  private void removeChunk(int index){
+    System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+    System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+    size--;
+    chunks[size] = null;
+  }
+
+  private static void checkValue(int value){
+    if(value < 0){
+      throw new IllegalArgumentException("Negative values are not supported.");
+    }
+  }
+
+  /**
+   * The lower 16 bits of all values sharing the same upper 16 bits. The values
+   * are stored in 'values' while there are up to MAX_ARRAY_SIZE of them and in
+   * 'bits' otherwise.
+   */
+  private static final class Chunk{
+
+    private char[] values = new char[4];
+    private long[] bits;
+    private int size;
+
+    boolean add(char value){
+      if(bits != null){
+        long mask = 1L << value;
+        if((bits[value >>> 6] & mask) != 0){
+          return false;
+        }
+        bits[value >>> 6] |= mask;
+        size++;
+        return true;
+      }
+      int position = Arrays.binarySearch(values, 0, size, value);
+      if(position >= 0){
+        return false;
+      }
+      if(size == MAX_ARRAY_SIZE){
+        toBits();
+        return add(value);
+      }
+      position = -position - 1;
+      if(size == values.length){
+        values = Arrays.copyOf(values, Math.min(MAX_ARRAY_SIZE, size * 2));
+      }
+      System.arraycopy(values, position, values, position + 1, size - position);
+      values[position] = value;
+      size++;
+      return true;
+    }
+
+    boolean remove(char value){
+      if(bits != null){
+        long mask = 1L << value;
+        if((bits[value >>> 6] & mask) == 0){
+          return false;
+        }
+        bits[value >>> 6] &= ~mask;
+        size--;
+        if(size <= MAX_ARRAY_SIZE){
+          toValues();
+        }
+        return true;
+      }
+      int position = Arrays.binarySearch(values, 0, size, value);
+      if(position < 0){
+        return false;
+      }
+      System.arraycopy(values, position + 1, values, position, size - position - 1);
+      size--;
+      return true;
+    }
+
+    boolean contains(char value){
+      if(bits != null){
+        return (bits[value >>> 6] & (1L << value)) != 0;
+      }
+      return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    void or(Chunk other){
+      if(bits == null && other.bits == null && size + other.size <= MAX_ARRAY_SIZE){
+        char[] merged = new char[Math.max(4, size + other.size)];
+        int i = 0, j = 0, k = 0;
+        while(i < size && j < other.size){
+          if(values[i] < other.values[j]){
+            merged[k++] = values[i++];
+          } else if(values[i] > other.values[j]){
+            merged[k++] = other.values[j++];
+          } else{
+            merged[k++] = values[i++];
+            j++;
+          }
+        }
+        while(i < size){
+          merged[k++] = values[i++];
+        }
+        while(j < other.size){
+          merged[k++] = other.values[j++];
+        }
+        values = merged;
+        size = k;
+        return;
+      }
+      if(bits == null){
+        toBits();
+      }
+      if(other.bits != null){
+        for(int i = 0; i < bits.length; i++){
+          bits[i] |= other.bits[i];
+        }
+      } else{
+        for(int i = 0; i < other.size; i++){
+          bits[other.values[i] >>> 6] |= 1L << other.values[i];
+        }
+      }
+      size = countBits();
+      if(size <= MAX_ARRAY_SIZE){
+        toValues();
+      }
+    }
+
+    void andNot(Chunk other){
+      if(bits == null){
+        int k = 0;
+        for(int i = 0; i < size; i++){
+          if(!other.contains(values[i])){
+            values[k++] = values[i];
+          }
+        }
+        size = k;
+        return;
+      }
+      if(other.bits != null){
+        for(int i = 0; i < bits.length; i++){
+          bits[i] &= ~other.bits[i];
+        }
+      } else{
+        for(int i = 0; i < other.size; i++){
+          bits[other.values[i] >>> 6] &= ~(1L << other.values[i]);
+        }
+      }
+      size = countBits();
+      if(size <= MAX_ARRAY_SIZE){
+        toValues();
+      }
+    }
+
+    void forEach(int high, IntConsumer consumer){
+      if(bits == null){
+        for(int i = 0; i < size; i++){
+          consumer.accept(high | values[i]);
+        }
+        return;
+      }
+      for(int i = 0; i < bits.length; i++){
+        long word = bits[i];
+        while(word != 0){
+          consumer.accept(high | (i << 6) | Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+    }
+
+    Chunk copy(){
+      Chunk result = new Chunk();
+      result.values = (values != null) ? Arrays.copyOf(values, Math.max(4, size)) : null;
+      result.bits = (bits != null) ? bits.clone() : null;
+      result.size = size;
+      return result;
+    }
+
+    private void toBits(){
+      bits = new long[1024];
+      for(int i = 0; i < size; i++){
+        bits[values[i] >>> 6] |= 1L << values[i];
+      }
+      values = null;
+    }
+
+    private void toValues(){
+      values = new char[Math.max(4, size)];
+      int k = 0;
+      for(int i = 0; i < bits.length; i++){
+        long word = bits[i];
+        while(word != 0){
+          values[k++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+          word &= word - 1;
+        }
+      }
+      bits = null;
+    }
+
+    private int countBits(){
+      int count = 0;
+      for(long word : bits){
+        count += Long.bitCount(word);
+      }
+      return count;
+    }
+  }
+}
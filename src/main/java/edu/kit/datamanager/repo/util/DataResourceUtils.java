@@ -158,13 +158,9 @@ public class DataResourceUtils{
       return permission;
     }
 
+    //use compiled principal identifiers, the result is memoized per last update of the resource
     List<String> principalIds = AuthenticationHelper.getAuthorizationIdentities();
-    PERMISSION maxPermission = PERMISSION.NONE;
-    for(AclEntry entry : resource.getAcls()){
-      if(AclUtils.isSidInPrincipalList(entry.getSid(), principalIds) && entry.getPermission().ordinal() > maxPermission.ordinal()){
-        maxPermission = entry.getPermission();
-      }
-    }
+    PERMISSION maxPermission = AclUtils.compile(principalIds).getPermission(resource.getId(), resource.getLastUpdate(), resource.getAcls());
 
     //return service permission if higher, otherwise return maxPermission
     if(servicePermission.atLeast(maxPermission)){
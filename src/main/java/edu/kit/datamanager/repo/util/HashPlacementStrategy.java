@@ -0,0 +1,52 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/**
+ * Placement strategy distributing resources over a fixed tree of folders
+ * addressed by the SHA-256 hash of the internal identifier. With the default
+ * of two levels of two hex characters each, data is spread over 65536 leaf
+ * folders, e.g. 'a3/f1', which keeps the number of entries per folder small
+ * and independent of the upload time.
+ *
+ * @author jejkal
+ */
+public class HashPlacementStrategy implements IPlacementStrategy{
+
+  public static final int DEFAULT_LEVELS = 2;
+  public static final int DEFAULT_WIDTH = 2;
+
+  @Override
+  public String getFolder(String internalIdentifier, ApplicationProperties properties){
+    int levels = properties.getPlacementHashLevels() > 0 ? properties.getPlacementHashLevels() : DEFAULT_LEVELS;
+    int width = properties.getPlacementHashWidth() > 0 ? properties.getPlacementHashWidth() : DEFAULT_WIDTH;
+    String hash = DigestUtils.sha256Hex(internalIdentifier);
+    if(levels * width > hash.length()){
+      levels = hash.length() / width;
+    }
+    StringBuilder folder = new StringBuilder();
+    for(int i = 0; i < levels; i++){
+      if(i > 0){
+        folder.append("/");
+      }
+      folder.append(hash, i * width, (i + 1) * width);
+    }
+    return folder.toString();
+  }
+}
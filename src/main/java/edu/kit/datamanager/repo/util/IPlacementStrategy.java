@@ -0,0 +1,42 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+
+/**
+ * Strategy defining the folder below the configured base path where the data
+ * of a data resource is placed. The data of a resource is stored at
+ * &lt;basepath&gt;/&lt;folder&gt;/&lt;internalIdentifier&gt;/.
+ * Implementations must have a public no-argument constructor in order to be
+ * configurable via 'repo.basepath.placement'.
+ *
+ * @author jejkal
+ */
+public interface IPlacementStrategy{
+
+  /**
+   * Get the folder for the resource with the provided internal identifier
+   * relative to the base path, without leading or trailing slash. The result
+   * may be empty if the data should be placed directly below the base path.
+   *
+   * @param internalIdentifier The internal identifier of the resource.
+   * @param properties The application properties.
+   *
+   * @return The relative folder.
+   */
+  String getFolder(String internalIdentifier, ApplicationProperties properties);
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import edu.kit.datamanager.exceptions.BadArgumentException;
+import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.domain.DataResource;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import javax.persistence.EntityManager;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+
+/**
+ * Helpers for keyset pagination. Instead of skipping a number of elements,
+ * each page starts after the key of the last element of the previous page,
+ * which is passed by clients as opaque cursor. Pages are obtained without
+ * counting all matching elements, such that the cost of a page does not
+ * depend on its position.
+ *
+ * @author jejkal
+ */
+public class KeysetPaginationUtils{
+
+  /**
+   * Key order of data resources.
+   */
+  public static final Sort DATA_RESOURCE_ORDER = Sort.by(Sort.Order.asc("lastUpdate"), Sort.Order.asc("id"));
+  /**
+   * Key order of content information within one data resource.
+   */
+  public static final Sort CONTENT_INFORMATION_ORDER = Sort.by(Sort.Order.asc("depth"), Sort.Order.asc("relativePath"));
+
+  private static final String SEPARATOR = ".";
+
+  /**
+   * Hidden constructor.
+   */
+  private KeysetPaginationUtils(){
+  }
+
+  /**
+   * Create the cursor pointing behind the provided data resource.
+   *
+   * @param resource The last resource of a page.
+   *
+   * @return The cursor.
+   */
+  public static String toCursor(DataResource resource){
+    return encodeCursor(resource.getLastUpdate().toString(), resource.getId());
+  }
+
+  /**
+   * Create the cursor pointing behind the provided content information.
+   *
+   * @param contentInformation The last content information of a page.
+   *
+   * @return The cursor.
+   */
+  public static String toCursor(ContentInformation contentInformation){
+    return encodeCursor(Integer.toString(contentInformation.getDepth()), contentInformation.getRelativePath());
+  }
+
+  /**
+   * Encode key values as URL-safe cursor.
+   *
+   * @param values The key values.
+   *
+   * @return The cursor.
+   */
+  public static String encodeCursor(String... values){
+    StringBuilder cursor = new StringBuilder();
+    for(String value : values){
+      if(cursor.length() > 0){
+        cursor.append(SEPARATOR);
+      }
+      cursor.append(Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8)));
+    }
+    return cursor.toString();
+  }
+
+  /**
+   * Decode the key values of a cursor.
+   *
+   * @param cursor The cursor.
+   * @param expectedValues The number of key values.
+   *
+   * @return The key values.
+   *
+   * @throws BadArgumentException if the cursor is invalid.
+   */
+  public static String[] decodeCursor(String cursor, int expectedValues) throws BadArgumentException{
+    String[] values = cursor.split("\\" + SEPARATOR, -1);
+    if(values.length != expectedValues){
+      throw new BadArgumentException("Invalid cursor " + cursor + ".");
+    }
+    try{
+      for(int i = 0; i < values.length; i++){
+        values[i] = new String(Base64.getUrlDecoder().decode(values[i]), StandardCharsets.UTF_8);
+      }
+    } catch(IllegalArgumentException ex){
+      throw new BadArgumentException("Invalid cursor " + cursor + ".");
+    }
+    return values;
+  }
+
+  /**
+   * Obtain up to pageSize elements matching the provided specification in the
+   * provided order. One additional element is queried in order to determine
+   * whether there is a next page, no count query is issued.
+   *
+   * @param <T> The entity type.
+   * @param em The entity manager.
+   * @param type The entity class.
+   * @param spec The specification, which should contain the cursor condition.
+   * @param sort The key order.
+   * @param pageSize The max. number of elements.
+   *
+   * @return A slice containing the elements.
+   */
+  public static <T> Slice<T> findSlice(EntityManager em, Class<T> type, Specification<T> spec, Sort sort, int pageSize){
+    CriteriaBuilder builder = em.getCriteriaBuilder();
+    CriteriaQuery<T> query = builder.createQuery(type);
+    Root<T> root = query.from(type);
+    if(spec != null){
+      Predicate predicate = spec.toPredicate(root, query, builder);
+      if(predicate != null){
+        query.where(predicate);
+      }
+    }
+    query.select(root).orderBy(QueryUtils.toOrders(sort, root, builder));
+    List<T> result = em.createQuery(query).setMaxResults(pageSize + 1).getResultList();
+    boolean hasNext = result.size() > pageSize;
+    return new SliceImpl<>(hasNext ? result.subList(0, pageSize) : result, PageRequest.of(0, pageSize, sort), hasNext);
+  }
+}
@@ -20,9 +20,15 @@ import edu.kit.datamanager.repo.domain.DataResource;
 import edu.kit.datamanager.exceptions.CustomInternalServerError;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.FileSystemNotFoundException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.commons.text.StringSubstitutor;
 import org.apache.http.client.utils.URIBuilder;
 
@@ -32,6 +38,30 @@ import org.apache.http.client.utils.URIBuilder;
  */
 public class PathUtils {
 
+    /**
+     * Name of the staging folder below the base path.
+     */
+    public static final String STAGING_FOLDER = ".staging";
+    /**
+     * Name of the content-addressable storage folder below the base path.
+     */
+    public static final String CAS_FOLDER = ".cas";
+    /**
+     * Placement strategy placing data according to 'repo.basepath.pattern'.
+     */
+    public static final String PATTERN_PLACEMENT = "pattern";
+    /**
+     * Placement strategy placing data in hash-prefixed folders.
+     */
+    public static final String HASH_PLACEMENT = "hash";
+
+    private static final Map<String, IPlacementStrategy> PLACEMENT_STRATEGIES = new ConcurrentHashMap<>();
+
+    static {
+        PLACEMENT_STRATEGIES.put(PATTERN_PLACEMENT, new PatternPlacementStrategy());
+        PLACEMENT_STRATEGIES.put(HASH_PLACEMENT, new HashPlacementStrategy());
+    }
+
     private PathUtils() {
     }
 
@@ -58,13 +88,146 @@ public class PathUtils {
             }
 
             URIBuilder uriBuilder = new URIBuilder(properties.getBasepath().toString());
-            uriBuilder.setPath(uriBuilder.getPath() + (!properties.getBasepath().toString().endsWith("/") ? "/" : "") + substitutePathPattern(properties) + "/" + internalIdentifier + "/" + relativeDataPath + "_" + System.currentTimeMillis());
+            String folder = getPlacementStrategy(properties).getFolder(internalIdentifier, properties);
+            uriBuilder.setPath(uriBuilder.getPath() + (!properties.getBasepath().toString().endsWith("/") ? "/" : "") + (folder.isEmpty() ? "" : folder + "/") + internalIdentifier + "/" + relativeDataPath + "_" + System.currentTimeMillis());
             return uriBuilder.build();
         } catch (URISyntaxException ex) {
             throw new CustomInternalServerError("Failed to transform configured basepath to URI.");
         }
     }
 
+    /**
+     * Obtain the local staging folder, which is located directly below the
+     * configured base path. Data is staged there before it is moved to its
+     * final location, e.g. during resumable uploads. As the staging folder is
+     * located at the same file store as the data, staged files can be moved
+     * atomically.
+     *
+     * @param properties ApplicationProperties used to obtain the configured
+     * data base path.
+     *
+     * @return The staging path.
+     */
+    public static Path getStagingPath(ApplicationProperties properties) {
+        try {
+            return Paths.get(properties.getBasepath().toURI()).resolve(STAGING_FOLDER);
+        } catch (URISyntaxException ex) {
+            throw new CustomInternalServerError("Failed to transform configured basepath to URI.");
+        }
+    }
+
+    /**
+     * Obtain the folder of the content-addressable storage, which is located
+     * directly below the configured base path. Blobs are stored there once
+     * under their digest and might be shared by multiple content information
+     * elements.
+     *
+     * @param properties ApplicationProperties used to obtain the configured
+     * data base path.
+     *
+     * @return The content-addressable storage path.
+     */
+    public static Path getCasPath(ApplicationProperties properties) {
+        try {
+            return Paths.get(properties.getBasepath().toURI()).resolve(CAS_FOLDER);
+        } catch (URISyntaxException ex) {
+            throw new CustomInternalServerError("Failed to transform configured basepath to URI.");
+        }
+    }
+
+    /**
+     * Obtain the folder where the data of the resource with the provided
+     * internal identifier is placed according to the configured placement
+     * strategy.
+     *
+     * @param internalIdentifier The internal identifier of the resource.
+     * @param properties ApplicationProperties used to obtain the configured
+     * data base path and placement strategy.
+     *
+     * @return The resource path.
+     */
+    public static Path getResourcePath(String internalIdentifier, ApplicationProperties properties) {
+        try {
+            String folder = getPlacementStrategy(properties).getFolder(internalIdentifier, properties);
+            Path basePath = Paths.get(properties.getBasepath().toURI());
+            return (folder.isEmpty() ? basePath : basePath.resolve(folder)).resolve(internalIdentifier);
+        } catch (URISyntaxException ex) {
+            throw new CustomInternalServerError("Failed to transform configured basepath to URI.");
+        }
+    }
+
+    /**
+     * Obtain the placement strategy configured via 'repo.basepath.placement'.
+     * Supported values are 'pattern' (default), 'hash' or the fully qualified
+     * name of a class implementing IPlacementStrategy.
+     *
+     * @param properties ApplicationProperties used to obtain the configured
+     * placement strategy.
+     *
+     * @return The placement strategy.
+     */
+    public static IPlacementStrategy getPlacementStrategy(ApplicationProperties properties) {
+        String name = properties.getPlacementStrategy();
+        if (name == null || name.trim().isEmpty()) {
+            name = PATTERN_PLACEMENT;
+        }
+        return PLACEMENT_STRATEGIES.computeIfAbsent(name.trim(), (className) -> {
+            try {
+                return (IPlacementStrategy) Class.forName(className).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException ex) {
+                throw new CustomInternalServerError("Failed to instantiate placement strategy " + className + ".");
+            }
+        });
+    }
+
+    /**
+     * Obtain the location of the content-addressable storage blob with the
+     * provided digest, e.g. '.cas/sha256/ab/cd/abcd...'.
+     *
+     * @param digest The blob digest, e.g. 'sha256:HEX'.
+     * @param properties ApplicationProperties used to obtain the configured
+     * data base path.
+     *
+     * @return The blob path.
+     */
+    public static Path getCasBlobPath(String digest, ApplicationProperties properties) {
+        String algorithm = digest.substring(0, digest.indexOf(':'));
+        String hex = digest.substring(digest.indexOf(':') + 1);
+        return getCasPath(properties).resolve(algorithm).resolve(hex.substring(0, 2)).resolve(hex.substring(2, 4)).resolve(hex);
+    }
+
+    /**
+     * Obtain the root folders of all storage tiers ordered from hot to cold.
+     * The first tier is always the configured base path, where new content is
+     * placed. Additional, colder tiers are configured via 'repo.tiering.paths'.
+     *
+     * @param properties ApplicationProperties used to obtain the configured
+     * data base path and tier paths.
+     *
+     * @return The absolute and normalized tier paths.
+     */
+    public static List<Path> getTierPaths(ApplicationProperties properties) {
+        List<Path> tiers = new ArrayList<>();
+        try {
+            tiers.add(Paths.get(properties.getBasepath().toURI()).toAbsolutePath().normalize());
+        } catch (URISyntaxException ex) {
+            throw new CustomInternalServerError("Failed to transform configured basepath to URI.");
+        }
+        if (properties.getTieringPaths() != null) {
+            for (String tier : properties.getTieringPaths()) {
+                if (tier == null || tier.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    tiers.add(Paths.get(URI.create(tier.trim())).toAbsolutePath().normalize());
+                } catch (IllegalArgumentException | FileSystemNotFoundException ex) {
+                    throw new CustomInternalServerError("Failed to transform configured tier path " + tier + " to local folder.");
+                }
+            }
+        }
+        return tiers;
+    }
+
     public static String substitutePathPattern(ApplicationProperties properties) {
         Map<String, String> data = new HashMap<>();
         data.put("year", Integer.toString(Calendar.getInstance().get(Calendar.YEAR)));
@@ -100,4 +263,18 @@ public class PathUtils {
         String normalizedPath = PathUtils.normalizePath(relativePath);
         return normalizedPath.split("/").length;
     }
+
+    /**
+     * Get the virtual folder containing the element at the provided relative
+     * path including a trailing slash, e.g. 'folder/sub/' for
+     * 'folder/sub/file.txt', or an empty string for top-level elements.
+     *
+     * @param relativePath The normalized relative path.
+     *
+     * @return The parent path.
+     */
+    public static String getParentPath(String relativePath) {
+        int index = relativePath.lastIndexOf('/');
+        return (index >= 0) ? relativePath.substring(0, index + 1) : "";
+    }
 }
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+
+/**
+ * Default placement strategy using the date pattern configured via
+ * 'repo.basepath.pattern'. The folder depends on the time of the upload, so
+ * the data of one resource may be spread over multiple folders.
+ *
+ * @author jejkal
+ */
+public class PatternPlacementStrategy implements IPlacementStrategy{
+
+  @Override
+  public String getFolder(String internalIdentifier, ApplicationProperties properties){
+    return PathUtils.substitutePathPattern(properties);
+  }
+}
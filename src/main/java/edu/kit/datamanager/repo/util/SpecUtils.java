@@ -41,11 +41,32 @@ public class SpecUtils{
   private static final Logger LOGGER = LoggerFactory.getLogger(SpecUtils.class);
 
   public static Specification<DataResource> getByExampleSpec(DataResource example, EntityManager em, List<String> sids, PERMISSION permission){
-    Specification<DataResource> result = null;
+    Specification<DataResource> permissionSpec = null;
 
     if(sids != null && permission != null){
       LOGGER.trace("Creating permission specification.");
-      result = Specification.where(PermissionSpecification.toSpecification(sids, permission));
+      permissionSpec = PermissionSpecification.toSpecification(sids, permission);
+    }
+    return getByExampleSpec(example, em, permissionSpec);
+  }
+
+  /**
+   * Create the specification for the provided example restricted by the
+   * provided permission specification.
+   *
+   * @param example The example resource or null.
+   * @param em The entity manager.
+   * @param permissionSpec The permission specification or null if no
+   * permission check is required.
+   *
+   * @return The specification or null if neither example nor permission
+   * specification are provided.
+   */
+  public static Specification<DataResource> getByExampleSpec(DataResource example, EntityManager em, Specification<DataResource> permissionSpec){
+    Specification<DataResource> result = null;
+
+    if(permissionSpec != null){
+      result = Specification.where(permissionSpec);
     } else{
       LOGGER.trace("No permission information provided. Skip creating permission specification.");
     }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Input stream for content which has already been staged to a local file, e.g.
+ * by a resumable upload. Versioning services may use the additional
+ * information to avoid copying and re-hashing the content. If the staged file
+ * is movable, it can be moved to its final location instead of being copied.
+ * Otherwise, it is a plain file input stream.
+ *
+ * @author jejkal
+ */
+public class StagedFileInputStream extends FileInputStream{
+
+  private final Path path;
+  private final Map<String, String> checksums;
+  private final boolean movable;
+
+  /**
+   * Default constructor.
+   *
+   * @param path The staged file.
+   * @param checksums Already known checksums of the staged file by normalized
+   * algorithm name, e.g. 'sha1'.
+   * @param movable TRUE if the staged file can be moved to its final location.
+   *
+   * @throws FileNotFoundException if the staged file does not exist.
+   */
+  public StagedFileInputStream(Path path, Map<String, String> checksums, boolean movable) throws FileNotFoundException{
+    super(path.toFile());
+    this.path = path;
+    this.checksums = (checksums != null) ? new HashMap<>(checksums) : new HashMap<>();
+    this.movable = movable;
+  }
+
+  public Path getPath(){
+    return path;
+  }
+
+  public Map<String, String> getChecksums(){
+    return Collections.unmodifiableMap(checksums);
+  }
+
+  public boolean isMovable(){
+    return movable;
+  }
+
+  /**
+   * Check if checksums for all provided algorithms are known.
+   *
+   * @param algorithms The normalized algorithm names.
+   *
+   * @return TRUE if all checksums are known.
+   */
+  public boolean hasChecksums(Collection<String> algorithms){
+    return checksums.keySet().containsAll(algorithms);
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Helper for moving user uploads to their final storage location. All bytes
+ * are read exactly once from the source and pushed through a direct buffer,
+ * which is reused by all transfers of the same thread. Observers, e.g. message digests or media type sniffers, receive each
+ * chunk before it is written, such that no second pass over the stored file is
+ * required.
+ *
+ * @author jejkal
+ */
+public class StreamUtils{
+
+  /**
+   * Size of the direct buffer used to transfer upload data.
+   */
+  public static final int TRANSFER_BUFFER_SIZE = 1024 * 1024;
+  /**
+   * Number of leading bytes kept for media type detection. This matches the
+   * maximum magic length evaluated by Tika's default mime type registry.
+   */
+  public static final int SNIFF_BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Direct transfer buffer per thread. Direct memory is only released by the
+   * garbage collector, so allocating a buffer per transfer may exhaust the
+   * direct memory limit under sustained load.
+   */
+  private static final ThreadLocal<ByteBuffer> TRANSFER_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE));
+
+  private StreamUtils(){
+  }
+
+  /**
+   * Get the direct transfer buffer of the current thread. The buffer is
+   * cleared and must not be used after the current transfer has been
+   * finished, as it is handed out again to the next transfer of this thread.
+   *
+   * @return The transfer buffer with a capacity of TRANSFER_BUFFER_SIZE.
+   */
+  public static ByteBuffer getTransferBuffer(){
+    ByteBuffer buffer = TRANSFER_BUFFER.get();
+    buffer.clear();
+    return buffer;
+  }
+
+  /**
+   * Write the content of the provided stream to the provided destination. If
+   * the destination exists, it will be truncated. The source stream is not
+   * closed by this method.
+   *
+   * @param source The stream to read from.
+   * @param destination The destination file.
+   * @param observers Observers receiving a read-only view of each chunk before
+   * it is written.
+   *
+   * @return The number of transferred bytes.
+   *
+   * @throws IOException if reading from the source or writing to the
+   * destination fails.
+   */
+  @SafeVarargs
+  public static long writeToFile(InputStream source, Path destination, Consumer<ByteBuffer>... observers) throws IOException{
+    //Channels.newChannel() directly returns the underlying FileChannel for plain FileInputStreams, e.g. spooled multipart uploads
+    ReadableByteChannel in = Channels.newChannel(source);
+    ByteBuffer buffer = getTransferBuffer();
+    long bytes = 0;
+    try(FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)){
+      while(in.read(buffer) > -1){
+        buffer.flip();
+        for(Consumer<ByteBuffer> observer : observers){
+          observer.accept(buffer.asReadOnlyBuffer());
+        }
+        while(buffer.hasRemaining()){
+          bytes += out.write(buffer);
+        }
+        buffer.clear();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Read the provided file once and pass all chunks to the provided observers,
+   * e.g. for computing checksums of a file which has been received without
+   * observing its content.
+   *
+   * @param source The file to read from.
+   * @param observers Observers receiving a read-only view of each chunk.
+   *
+   * @return The number of bytes read.
+   *
+   * @throws IOException if reading the file fails.
+   */
+  @SafeVarargs
+  public static long readFile(Path source, Consumer<ByteBuffer>... observers) throws IOException{
+    ByteBuffer buffer = getTransferBuffer();
+    long bytes = 0;
+    try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ)){
+      int read;
+      while((read = in.read(buffer)) > -1){
+        buffer.flip();
+        for(Consumer<ByteBuffer> observer : observers){
+          observer.accept(buffer.asReadOnlyBuffer());
+        }
+        bytes += read;
+        buffer.clear();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * Read the first bytes of the provided file, e.g. for media type detection.
+   *
+   * @param file The file to read from.
+   * @param maxLength The max. number of bytes to read.
+   *
+   * @return The first bytes, which might be less than maxLength if the file is
+   * shorter.
+   *
+   * @throws IOException if reading the file fails.
+   */
+  public static byte[] readPrefix(Path file, int maxLength) throws IOException{
+    PrefixCapture prefix = new PrefixCapture(maxLength);
+    try(FileChannel in = FileChannel.open(file, StandardOpenOption.READ)){
+      ByteBuffer buffer = ByteBuffer.allocate(maxLength);
+      int read = 0;
+      while(buffer.hasRemaining() && read > -1){
+        read = in.read(buffer);
+      }
+      buffer.flip();
+      prefix.accept(buffer);
+    }
+    return prefix.getPrefix();
+  }
+
+  /**
+   * Observer retaining the first bytes passing through a transfer, e.g. for
+   * detecting the media type without re-reading the stored file.
+   */
+  public static class PrefixCapture implements Consumer<ByteBuffer>{
+
+    private final byte[] prefix;
+    private int length = 0;
+
+    public PrefixCapture(int maxLength){
+      prefix = new byte[maxLength];
+    }
+
+    @Override
+    public void accept(ByteBuffer chunk){
+      int toCopy = Math.min(prefix.length - length, chunk.remaining());
+      if(toCopy > 0){
+        chunk.get(prefix, length, toCopy);
+        length += toCopy;
+      }
+    }
+
+    /**
+     * Get the captured bytes.
+     *
+     * @return The captured prefix, which is shorter than the maximum length if
+     * the transfer was shorter.
+     */
+    public byte[] getPrefix(){
+      return Arrays.copyOf(prefix, length);
+    }
+  }
+}
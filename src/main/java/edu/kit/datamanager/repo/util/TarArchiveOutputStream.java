@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal streaming writer for POSIX (ustar) tar archives. Entry names longer
+ * than 100 bytes and entries larger than 8 GiB are described by an additional
+ * PAX extended header. As the tar format requires the size of each entry in
+ * advance, writing more or less bytes than announced fails with an
+ * IOException.
+ *
+ * @author jejkal
+ */
+public class TarArchiveOutputStream extends FilterOutputStream{
+
+  private static final int BLOCK_SIZE = 512;
+  private static final int NAME_LENGTH = 100;
+  private static final long MAX_OCTAL_SIZE = 077777777777L;
+  private static final byte[] PADDING = new byte[BLOCK_SIZE];
+
+  private long entrySize = -1;
+  private long entryWritten = 0;
+  private boolean finished = false;
+
+  public TarArchiveOutputStream(OutputStream out){
+    super(out);
+  }
+
+  /**
+   * Start a new regular file entry. The previous entry must have been closed.
+   *
+   * @param name The entry name.
+   * @param size The exact number of bytes that will be written.
+   * @param lastModified The modification time in milliseconds since epoch.
+   *
+   * @throws IOException if writing the header fails.
+   */
+  public void putNextEntry(String name, long size, long lastModified) throws IOException{
+    if(entrySize >= 0){
+      throw new IOException("Previous entry has not been closed.");
+    }
+    byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+    long mtime = lastModified / 1000;
+    if(nameBytes.length > NAME_LENGTH || size > MAX_OCTAL_SIZE){
+      StringBuilder records = new StringBuilder();
+      if(nameBytes.length > NAME_LENGTH){
+        records.append(paxRecord("path", name));
+      }
+      if(size > MAX_OCTAL_SIZE){
+        records.append(paxRecord("size", Long.toString(size)));
+      }
+      byte[] pax = records.toString().getBytes(StandardCharsets.UTF_8);
+      writeHeader("PaxHeaders/" + truncate(name, NAME_LENGTH - 11), pax.length, mtime, (byte) 'x');
+      out.write(pax);
+      pad(pax.length);
+    }
+    writeHeader(name, (size > MAX_OCTAL_SIZE) ? 0 : size, mtime, (byte) '0');
+    entrySize = size;
+    entryWritten = 0;
+  }
+
+  /**
+   * Close the current entry.
+   *
+   * @throws IOException if not all announced bytes have been written.
+   */
+  public void closeEntry() throws IOException{
+    if(entrySize < 0){
+      return;
+    }
+    if(entryWritten != entrySize){
+      throw new IOException("Entry size mismatch. Expected " + entrySize + " byte(s) but got " + entryWritten + ".");
+    }
+    pad(entrySize);
+    entrySize = -1;
+  }
+
+  @Override
+  public void write(int b) throws IOException{
+    checkWrite(1);
+    out.write(b);
+    entryWritten++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException{
+    checkWrite(len);
+    out.write(b, off, len);
+    entryWritten += len;
+  }
+
+  /**
+   * Close the current entry and write the end-of-archive marker without
+   * closing the underlying stream.
+   *
+   * @throws IOException if finishing the archive fails.
+   */
+  public void finish() throws IOException{
+    if(finished){
+      return;
+    }
+    closeEntry();
+    out.write(PADDING);
+    out.write(PADDING);
+    out.flush();
+    finished = true;
+  }
+
+  @Override
+  public void close() throws IOException{
+    finish();
+    super.close();
+  }
+
+  private void checkWrite(int len) throws IOException{
+    if(entrySize < 0){
+      throw new IOException("No active entry.");
+    }
+    if(entryWritten + len > entrySize){
+      throw new IOException("Entry size exceeded. Expected " + entrySize + " byte(s).");
+    }
+  }
+
+  private void pad(long length) throws IOException{
+    int remainder = (int) (length % BLOCK_SIZE);
+    if(remainder > 0){
+      out.write(PADDING, 0, BLOCK_SIZE - remainder);
+    }
+  }
+
+  private void writeHeader(String name, long size, long mtime, byte type) throws IOException{
+    byte[] header = new byte[BLOCK_SIZE];
+    byte[] nameBytes = truncate(name, NAME_LENGTH).getBytes(StandardCharsets.UTF_8);
+    System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, NAME_LENGTH));
+    putOctal(header, 100, 8, 0644);
+    putOctal(header, 108, 8, 0);
+    putOctal(header, 116, 8, 0);
+    putOctal(header, 124, 12, size);
+    putOctal(header, 136, 12, mtime);
+    header[156] = type;
+    System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+    //checksum is calculated with the checksum field filled with spaces
+    Arrays.fill(header, 148, 156, (byte) ' ');
+    long checksum = 0;
+    for(byte b : header){
+      checksum += b & 0xff;
+    }
+    putOctal(header, 148, 7, checksum);
+    header[155] = ' ';
+    out.write(header);
+  }
+
+  private static void putOctal(byte[] header, int offset, int length, long value){
+    String octal = Long.toOctalString(value);
+    int pos = offset + length - 1;
+    header[pos--] = 0;
+    for(int i = octal.length() - 1; i >= 0 && pos >= offset; i--){
+      header[pos--] = (byte) octal.charAt(i);
+    }
+    while(pos >= offset){
+      header[pos--] = '0';
+    }
+  }
+
+  private static String paxRecord(String key, String value){
+    String content = " " + key + "=" + value + "\n";
+    int contentLength = content.getBytes(StandardCharsets.UTF_8).length;
+    //the length prefix includes its own digits
+    int length = contentLength + Integer.toString(contentLength).length();
+    if(Integer.toString(length).length() != Integer.toString(contentLength).length()){
+      length++;
+    }
+    return length + content;
+  }
+
+  private static String truncate(String value, int maxBytes){
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    if(bytes.length <= maxBytes){
+      return value;
+    }
+    int end = value.length();
+    while(value.substring(0, end).getBytes(StandardCharsets.UTF_8).length > maxBytes){
+      end--;
+    }
+    return value.substring(0, end);
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.util;
+
+import java.util.function.Supplier;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Helper for running actions of background services in programmatic
+ * transactions. Background services obtain the transaction manager as optional
+ * dependency. If no transaction manager is available, e.g. in unit tests, all
+ * actions are executed directly.
+ *
+ * @author jejkal
+ */
+public class TransactionUtils{
+
+  private TransactionUtils(){
+  }
+
+  /**
+   * Run the provided action in a transaction, joining an existing transaction
+   * if there is one.
+   *
+   * @param <T> The result type.
+   * @param transactionManager The transaction manager or null.
+   * @param action The action to run.
+   *
+   * @return The result of the action.
+   */
+  public static <T> T inTransaction(PlatformTransactionManager transactionManager, Supplier<T> action){
+    return execute(transactionManager, TransactionDefinition.PROPAGATION_REQUIRED, false, action);
+  }
+
+  /**
+   * Run the provided action in a read-only transaction, joining an existing
+   * transaction if there is one.
+   *
+   * @param <T> The result type.
+   * @param transactionManager The transaction manager or null.
+   * @param action The action to run.
+   *
+   * @return The result of the action.
+   */
+  public static <T> T inReadOnlyTransaction(PlatformTransactionManager transactionManager, Supplier<T> action){
+    return execute(transactionManager, TransactionDefinition.PROPAGATION_REQUIRED, true, action);
+  }
+
+  /**
+   * Run the provided action in a new transaction, which is committed
+   * independently of a transaction currently active.
+   *
+   * @param <T> The result type.
+   * @param transactionManager The transaction manager or null.
+   * @param action The action to run.
+   *
+   * @return The result of the action.
+   */
+  public static <T> T inNewTransaction(PlatformTransactionManager transactionManager, Supplier<T> action){
+    return execute(transactionManager, TransactionDefinition.PROPAGATION_REQUIRES_NEW, false, action);
+  }
+
+  private static <T> T execute(PlatformTransactionManager transactionManager, int propagation, boolean readOnly, Supplier<T> action){
+    if(transactionManager == null){
+      return action.get();
+    }
+    TransactionTemplate template = new TransactionTemplate(transactionManager);
+    template.setPropagationBehavior(propagation);
+    template.setReadOnly(readOnly);
+    return template.execute((status) -> action.get());
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.web;
+
+import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.UpdateForbiddenException;
+import edu.kit.datamanager.repo.service.impl.ContentScrubber;
+import edu.kit.datamanager.util.AuthenticationHelper;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint 'scrub' for monitoring and controlling integrity checks of
+ * stored content. The status includes the most recent integrity issues.
+ * Starting and stopping a scrub run requires administrator permissions.
+ *
+ * @author jejkal
+ */
+@Component
+@Endpoint(id = "scrub")
+public class ContentScrubberEndpoint{
+
+  @Autowired
+  private ContentScrubber scrubber;
+
+  @ReadOperation
+  public Map<String, Object> status(){
+    return scrubber.getStatus();
+  }
+
+  @WriteOperation
+  public Map<String, Object> start(@Nullable Boolean restart){
+    checkAdministrator();
+    scrubber.start(Boolean.TRUE.equals(restart));
+    return scrubber.getStatus();
+  }
+
+  @DeleteOperation
+  public Map<String, Object> stop(){
+    checkAdministrator();
+    scrubber.stop();
+    return scrubber.getStatus();
+  }
+
+  private void checkAdministrator(){
+    if(!AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.getValue())){
+      throw new UpdateForbiddenException("Insufficient permissions. Administrator role required.");
+    }
+  }
+}
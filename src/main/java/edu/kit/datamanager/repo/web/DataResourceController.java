@@ -36,14 +36,21 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.context.request.WebRequest;
 import edu.kit.datamanager.repo.domain.ContentInformation;
 import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.domain.UploadSession;
 import edu.kit.datamanager.repo.service.IContentInformationService;
 import edu.kit.datamanager.repo.service.IDataResourceService;
+import edu.kit.datamanager.repo.service.IReferenceCountingVersioningService;
+import edu.kit.datamanager.repo.service.IUploadSessionService;
+import edu.kit.datamanager.repo.service.impl.MultipartUploadStager;
 import edu.kit.datamanager.repo.util.DataResourceUtils;
+import edu.kit.datamanager.repo.util.KeysetPaginationUtils;
 import edu.kit.datamanager.service.IAuditService;
+import edu.kit.datamanager.service.IVersioningService;
 import edu.kit.datamanager.util.AuthenticationHelper;
 import edu.kit.datamanager.util.ControllerUtils;
 import io.swagger.v3.oas.annotations.media.Schema;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -65,6 +72,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.hateoas.server.mvc.WebMvcLinkBuilder;
 import org.springframework.http.HttpHeaders;
@@ -75,6 +83,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 import org.springframework.web.util.UriComponentsBuilder;
 
 /**
@@ -86,6 +95,11 @@ import org.springframework.web.util.UriComponentsBuilder;
 @Schema(description = "Data Resource Management")
 public class DataResourceController implements IDataResourceController {
 
+    /**
+     * Query parameter enabling keyset pagination for listings.
+     */
+    private static final String CURSOR_PARAMETER = "cursor";
+
     // private final JsonResult json = JsonResult.instance();
     @Autowired
     private Logger LOGGER;
@@ -102,6 +116,12 @@ public class DataResourceController implements IDataResourceController {
     private ApplicationEventPublisher eventPublisher;
     @Autowired
     private ApplicationProperties applicationProperties;
+    @Autowired
+    private IUploadSessionService uploadSessionService;
+    @Autowired
+    private MultipartUploadStager multipartUploadStager;
+    @Autowired
+    private IVersioningService[] versioningServices;
 
     /**
      * Default constructor.
@@ -155,6 +175,30 @@ public class DataResourceController implements IDataResourceController {
         }
     }
 
+    @Override
+    public ResponseEntity<List<DataResource>> createAll(@RequestBody final List<DataResource> resources,
+            final WebRequest request,
+            final HttpServletResponse response) {
+        if (applicationProperties.isReadOnly()) {
+            LOGGER.info("Repository is in read-only mode. Create request denied.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        ControllerUtils.checkAnonymousAccess();
+        if (resources == null || resources.isEmpty()) {
+            throw new BadArgumentException("No resources provided.");
+        }
+        if (resources.size() > applicationProperties.getBulkMaxResources()) {
+            throw new BadArgumentException("Number of resources exceeds the limit of " + applicationProperties.getBulkMaxResources() + " resources per request.");
+        }
+        LOGGER.trace("Creating {} resource(s).", resources.size());
+        List<DataResource> result = dataResourceService.createAll(resources,
+                (String) AuthenticationHelper.getAuthentication().getPrincipal(),
+                AuthenticationHelper.getFirstname(),
+                AuthenticationHelper.getLastname());
+        return ResponseEntity.status(HttpStatus.CREATED).body(result);
+    }
+
     @Override
     public ResponseEntity<DataResource> getById(@PathVariable("id") final String identifier,
             @RequestParam(name = "version", required = false) final Long version,
@@ -194,6 +238,17 @@ public class DataResourceController implements IDataResourceController {
             final HttpServletResponse response,
             final UriComponentsBuilder uriBuilder) {
         PageRequest request = ControllerUtils.checkPaginationInformation(pgbl);
+        String cursor = req.getParameter(CURSOR_PARAMETER);
+        if (cursor != null) {
+            LOGGER.trace("Cursor parameter provided. Using keyset pagination.");
+            Slice<DataResource> slice = dataResourceService.findByExample(example, lastUpdateFrom, lastUpdateUntil, AuthenticationHelper.getAuthorizationIdentities(),
+                    AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.toString()),
+                    cursor, request.getPageSize());
+            if (slice.hasNext()) {
+                addNextCursorLink(response, KeysetPaginationUtils.toCursor(slice.getContent().get(slice.getNumberOfElements() - 1)));
+            }
+            return ResponseEntity.ok().body(filterResources(slice.getContent()));
+        }
         Page<DataResource> page = dataResourceService.findByExample(example, lastUpdateFrom, lastUpdateUntil, AuthenticationHelper.getAuthorizationIdentities(),
                 AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.toString()),
                 request);
@@ -204,6 +259,22 @@ public class DataResourceController implements IDataResourceController {
         return ResponseEntity.ok().body(filterResources(page.getContent()));
     }
 
+    @Override
+    public ResponseEntity<List<DataResource>> search(@RequestParam(name = "query") final String query,
+            final Pageable pgbl,
+            final WebRequest request,
+            final HttpServletResponse response,
+            final UriComponentsBuilder uriBuilder) {
+        PageRequest pageRequest = ControllerUtils.checkPaginationInformation(pgbl);
+        Page<DataResource> page = dataResourceService.search(query, AuthenticationHelper.getAuthorizationIdentities(),
+                AuthenticationHelper.hasAuthority(RepoUserRole.ADMINISTRATOR.toString()),
+                pageRequest);
+
+        eventPublisher.publishEvent(new PaginatedResultsRetrievedEvent<>(DataResource.class, uriBuilder, response, page.getNumber(), page.getTotalPages(), pageRequest.getPageSize()));
+        response.addHeader("Content-Range", ControllerUtils.getContentRangeHeader(page.getNumber(), pageRequest.getPageSize(), page.getTotalElements()));
+        return ResponseEntity.ok().body(filterResources(page.getContent()));
+    }
+
     @Override
     public ResponseEntity patch(@PathVariable("id") final String identifier,
             @RequestBody final JsonPatch patch,
@@ -327,38 +398,167 @@ public class DataResourceController implements IDataResourceController {
 
         DataResourceUtils.performPermissionCheck(resource, PERMISSION.WRITE);
 
-        URI link = WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getContentMetadata(resource.getId(), null, 1l, null, request, response, uriBuilder)).toUri();
+        ContentInformation result;
+        if (file != null) {
+            //stage the spooled file in order to move it to its final location instead of copying it
+            result = multipartUploadStager.stage(file, (stream) -> contentInformationService.create(contentInformation, resource, path, stream, force));
+        } else {
+            result = contentInformationService.create(contentInformation, resource, path, null, force);
+        }
+        return createContentResponse(resource, path, result, request, response, uriBuilder);
+    }
 
-        try {
-            ContentInformation result = contentInformationService.create(contentInformation, resource, path, (file != null) ? file.getInputStream() : null, force);
+    @Override
+    public ResponseEntity createContentFromStream(@PathVariable(value = "id") final String identifier,
+            @RequestParam(name = "force", defaultValue = "false") boolean force,
+            final InputStream body,
+            final WebRequest request,
+            final HttpServletResponse response,
+            final UriComponentsBuilder uriBuilder) {
+        if (applicationProperties.isReadOnly()) {
+            LOGGER.info("Repository is in read-only mode. Create content request denied.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
 
-            URIBuilder builder = new URIBuilder(link);
-            builder.setPath(builder.getPath().replace("**", path));
-            URI resourceUri = null;
+        ControllerUtils.checkAnonymousAccess();
+        String path = getContentPathFromRequest(request);
+        if (path == null || path.length() == 0 || path.endsWith("/")) {
+            throw new BadArgumentException("Provided path is invalid. Path must not be empty and must not end with a slash.");
+        }
+        DataResource resource = getResourceByIdentifierOrRedirect(identifier, null, (t) -> {
+            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).createContentFromStream(t, force, body, request, response, uriBuilder)).toString();
+        });
 
-            try {
-                resourceUri = builder.build();
-            } catch (URISyntaxException ex) {
-                LOGGER.error("Failed to create location URI for path " + path + ". However, resource should be created.", ex);
-                throw new CustomInternalServerError("Resource creation successful, but unable to create resource linkfor path " + path + ".");
-            }
+        DataResourceUtils.performPermissionCheck(resource, PERMISSION.WRITE);
 
-            long currentVersion = contentAuditService.getCurrentVersion(Long.toString(result.getId()));
-            if (currentVersion > 0) {
-                return ResponseEntity.created(resourceUri).header("Resource-Version", Long.toString(currentVersion)).build();
-            } else {
-                return ResponseEntity.created(resourceUri).build();
-            }
-        } catch (IOException ex) {
-            LOGGER.error("Failed to open file input stream.", ex);
-            throw new CustomInternalServerError("Unable to read from stream. Upload canceled.");
+        ContentInformation result = contentInformationService.create(null, resource, path, body, force);
+        return createContentResponse(resource, path, result, request, response, uriBuilder);
+    }
+
+    private ResponseEntity createContentResponse(DataResource resource, String path, ContentInformation result, WebRequest request, HttpServletResponse response, UriComponentsBuilder uriBuilder) {
+        URI resourceUri = getContentLocation(resource.getId(), path, request, response, uriBuilder);
+
+        long currentVersion = contentAuditService.getCurrentVersion(Long.toString(result.getId()));
+        if (currentVersion > 0) {
+            return ResponseEntity.created(resourceUri).header("Resource-Version", Long.toString(currentVersion)).build();
+        } else {
+            return ResponseEntity.created(resourceUri).build();
+        }
+    }
+
+    @Override
+    public ResponseEntity<UploadSession> createUploadSession(@PathVariable(value = "id") final String identifier,
+            @RequestParam(name = "path") final String path,
+            @RequestParam(name = "size", required = false) final Long size,
+            @RequestParam(name = "force", defaultValue = "false") final boolean force,
+            @RequestBody(required = false) final ContentInformation contentInformation,
+            final WebRequest request,
+            final HttpServletResponse response,
+            final UriComponentsBuilder uriBuilder) {
+        if (applicationProperties.isReadOnly()) {
+            LOGGER.info("Repository is in read-only mode. Create upload session request denied.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        ControllerUtils.checkAnonymousAccess();
+        if (path == null || path.length() == 0 || path.endsWith("/")) {
+            throw new BadArgumentException("Provided path is invalid. Path must not be empty and must not end with a slash.");
         }
+        DataResource resource = getResourceByIdentifierOrRedirect(identifier, null, (t) -> {
+            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).createUploadSession(t, path, size, force, contentInformation, request, response, uriBuilder)).toString();
+        });
+
+        DataResourceUtils.performPermissionCheck(resource, PERMISSION.WRITE);
+
+        UploadSession session = uploadSessionService.create(resource, path, size, force, contentInformation);
+        URI location = WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getUploadSession(resource.getId(), session.getId(), request, response)).toUri();
+        return ResponseEntity.created(location).body(session);
+    }
+
+    @Override
+    public ResponseEntity<UploadSession> getUploadSession(@PathVariable(value = "id") final String identifier,
+            @PathVariable(value = "sessionId") final String sessionId,
+            final WebRequest request,
+            final HttpServletResponse response) {
+        DataResource resource = getResourceByIdentifierOrRedirect(identifier, null, (t) -> {
+            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getUploadSession(t, sessionId, request, response)).toString();
+        });
+
+        DataResourceUtils.performPermissionCheck(resource, PERMISSION.WRITE);
+
+        return ResponseEntity.ok(uploadSessionService.get(resource, sessionId));
+    }
+
+    @Override
+    public ResponseEntity<UploadSession> uploadChunk(@PathVariable(value = "id") final String identifier,
+            @PathVariable(value = "sessionId") final String sessionId,
+            @RequestParam(name = "offset") final long offset,
+            final InputStream body,
+            final WebRequest request,
+            final HttpServletResponse response) {
+        if (applicationProperties.isReadOnly()) {
+            LOGGER.info("Repository is in read-only mode. Upload chunk request denied.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        ControllerUtils.checkAnonymousAccess();
+        DataResource resource = getResourceByIdentifierOrRedirect(identifier, null, (t) -> {
+            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).uploadChunk(t, sessionId, offset, body, request, response)).toString();
+        });
+
+        DataResourceUtils.performPermissionCheck(resource, PERMISSION.WRITE);
+
+        return ResponseEntity.ok(uploadSessionService.write(resource, sessionId, offset, body));
+    }
+
+    @Override
+    public ResponseEntity commitUploadSession(@PathVariable(value = "id") final String identifier,
+            @PathVariable(value = "sessionId") final String sessionId,
+            final WebRequest request,
+            final HttpServletResponse response,
+            final UriComponentsBuilder uriBuilder) {
+        if (applicationProperties.isReadOnly()) {
+            LOGGER.info("Repository is in read-only mode. Commit upload session request denied.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        ControllerUtils.checkAnonymousAccess();
+        DataResource resource = getResourceByIdentifierOrRedirect(identifier, null, (t) -> {
+            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).commitUploadSession(t, sessionId, request, response, uriBuilder)).toString();
+        });
+
+        DataResourceUtils.performPermissionCheck(resource, PERMISSION.WRITE);
+
+        ContentInformation result = uploadSessionService.commit(resource, sessionId);
+        return createContentResponse(resource, result.getRelativePath(), result, request, response, uriBuilder);
+    }
+
+    @Override
+    public ResponseEntity deleteUploadSession(@PathVariable(value = "id") final String identifier,
+            @PathVariable(value = "sessionId") final String sessionId,
+            final WebRequest request,
+            final HttpServletResponse response) {
+        if (applicationProperties.isReadOnly()) {
+            LOGGER.info("Repository is in read-only mode. Delete upload session request denied.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        ControllerUtils.checkAnonymousAccess();
+        DataResource resource = getResourceByIdentifierOrRedirect(identifier, null, (t) -> {
+            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).deleteUploadSession(t, sessionId, request, response)).toString();
+        });
+
+        DataResourceUtils.performPermissionCheck(resource, PERMISSION.WRITE);
+
+        uploadSessionService.delete(resource, sessionId);
+        return ResponseEntity.noContent().build();
     }
 
     @Override
     public ResponseEntity getContentMetadata(@PathVariable(value = "id") final String identifier,
             @RequestParam(name = "tag", required = false) final String tag,
             @RequestParam(name = "version", required = false) final Long version,
+            @RequestParam(name = "depth", required = false) final Integer depth,
             final Pageable pgbl,
             final WebRequest request,
             final HttpServletResponse response,
@@ -366,7 +566,7 @@ public class DataResourceController implements IDataResourceController {
         String path = getContentPathFromRequest(request);
         //check resource and permission
         DataResource resource = getResourceByIdentifierOrRedirect(identifier, null, (t) -> {
-            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getContentMetadata(t, tag, version, pgbl, request, response, uriBuilder)).toString();
+            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getContentMetadata(t, tag, version, depth, pgbl, request, response, uriBuilder)).toString();
         });
 
         DataResourceUtils.performPermissionCheck(resource, PERMISSION.READ);
@@ -383,12 +583,25 @@ public class DataResourceController implements IDataResourceController {
             LOGGER.trace("Path ends with slash or is empty. Performing collection access.");
             //collection listing
             path += "%";
+            if (depth != null && depth < 1) {
+                throw new BadArgumentException("Depth must be at least 1.");
+            }
+            int maxDepth = (depth != null) ? depth : 0;
+            String cursor = request.getParameter(CURSOR_PARAMETER);
+            if (cursor != null) {
+                LOGGER.trace("Cursor parameter provided. Using keyset pagination.");
+                Slice<ContentInformation> slice = contentInformationService.findAll(ContentInformation.createContentInformation(resource.getId(), path, tag), maxDepth, cursor, ControllerUtils.checkPaginationInformation(pgbl).getPageSize());
+                if (slice.hasNext()) {
+                    addNextCursorLink(response, KeysetPaginationUtils.toCursor(slice.getContent().get(slice.getNumberOfElements() - 1)));
+                }
+                return ResponseEntity.ok().body(filterContentInformation(slice.getContent()));
+            }
             //sanitize page request
 
             PageRequest pageRequest = ControllerUtils.checkPaginationInformation(pgbl, pgbl.getSort().equals(Sort.unsorted()) ? Sort.by(Sort.Order.asc("depth"), Sort.Order.asc("relativePath")) : pgbl.getSort());
 
             LOGGER.trace("Obtaining content information page for parent resource {}, path {} and tag {}. Page information are: {}", resource.getId(), path, tag, pageRequest);
-            Page<ContentInformation> resultList = contentInformationService.findAll(ContentInformation.createContentInformation(resource.getId(), path, tag), pageRequest);
+            Page<ContentInformation> resultList = contentInformationService.findAll(ContentInformation.createContentInformation(resource.getId(), path, tag), maxDepth, pageRequest);
 
             LOGGER.trace("Obtained {} content information result(s).", resultList.getContent().size());
             List<ContentInformation> result = filterContentInformation(resultList.getContent());
@@ -408,6 +621,16 @@ public class DataResourceController implements IDataResourceController {
         }
     }
 
+    /**
+     * Add a link to the next slice of a keyset paginated listing. The link is
+     * the current request URL with the cursor parameter replaced by the
+     * provided cursor.
+     */
+    private void addNextCursorLink(HttpServletResponse response, String cursor) {
+        String next = ServletUriComponentsBuilder.fromCurrentRequest().replaceQueryParam(CURSOR_PARAMETER, cursor).replaceQueryParam("page").build(true).toUriString();
+        response.addHeader(HttpHeaders.LINK, "<" + next + ">; rel=\"next\"");
+    }
+
     @Override
     public ResponseEntity<List<ContentInformation>> findContentMetadataByExample(@RequestBody final ContentInformation example,
             final Pageable pgbl,
@@ -465,7 +688,7 @@ public class DataResourceController implements IDataResourceController {
             final UriComponentsBuilder uriBuilder) {
         String path = getContentPathFromRequest(request);
         DataResource resource = getResourceByIdentifierOrRedirect(identifier, null, (t) -> {
-            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getContentMetadata(t, null, 1l, null, request, response, uriBuilder)).toString();
+            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getContentMetadata(t, null, 1l, null, null, request, response, uriBuilder)).toString();
         });
         DataResourceUtils.performPermissionCheck(resource, PERMISSION.READ);
         LOGGER.debug("Access to resource with identifier {} granted. Continue with content access.", resource.getId());
@@ -506,7 +729,10 @@ public class DataResourceController implements IDataResourceController {
             Path localContentToRemove = null;
             URI contentUri = URI.create(contentInfo.getContentUri());
             LOGGER.trace("Checking if content URI {} is pointing to a local file.", contentInfo);
-            if ("file".equals(contentUri.getScheme())) {
+            if (isReferenceCounted(contentInfo.getVersioningService())) {
+                //content may be shared with other elements and is removed by the versioning service after releasing the last reference
+                LOGGER.trace("Content {} is reference counted by versioning service '{}'. Local content deletion will be skipped.", contentInfo.getContentUri(), contentInfo.getVersioningService());
+            } else if ("file".equals(contentUri.getScheme())) {
                 //mark file for removal
                 localContentToRemove = Paths.get(URI.create(contentInfo.getContentUri()));
             } else {
@@ -566,7 +792,7 @@ public class DataResourceController implements IDataResourceController {
         String path = getContentPathFromRequest(request);
         //check resource and permission
         DataResource resource = getResourceByIdentifierOrRedirect(resourceIdentifier, null, (t) -> {
-            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getContentMetadata(t, null, null, pgbl, request, response, uriBuilder)).toString();
+            return WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getContentMetadata(t, null, null, null, pgbl, request, response, uriBuilder)).toString();
         });
 
         DataResourceUtils.performPermissionCheck(resource, PERMISSION.READ);
@@ -603,6 +829,18 @@ public class DataResourceController implements IDataResourceController {
     /**
      * Helper methods for internal use.*
      */
+    private boolean isReferenceCounted(String versioningService) {
+        if (versioningService == null) {
+            return false;
+        }
+        for (IVersioningService service : versioningServices) {
+            if (versioningService.equals(service.getServiceName()) && service instanceof IReferenceCountingVersioningService) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private DataResource getResourceByIdentifierOrRedirect(String identifier,
             Long version,
             Function<String, String> supplier) {
@@ -634,6 +872,18 @@ public class DataResourceController implements IDataResourceController {
         throw new ResourceElsewhereException(supplier.apply(encodedIdentifier));
     }
 
+    private URI getContentLocation(String resourceId, String path, WebRequest request, HttpServletResponse response, UriComponentsBuilder uriBuilder) {
+        URI link = WebMvcLinkBuilder.linkTo(WebMvcLinkBuilder.methodOn(this.getClass()).getContentMetadata(resourceId, null, 1l, null, null, request, response, uriBuilder)).toUri();
+        URIBuilder builder = new URIBuilder(link);
+        builder.setPath(builder.getPath().replace("**", path));
+        try {
+            return builder.build();
+        } catch (URISyntaxException ex) {
+            LOGGER.error("Failed to create location URI for path " + path + ". However, resource should be created.", ex);
+            throw new CustomInternalServerError("Resource creation successful, but unable to create resource linkfor path " + path + ".");
+        }
+    }
+
     private String getContentPathFromRequest(WebRequest request) {
         String requestedUri = (String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, WebRequest.SCOPE_REQUEST);
         if (requestedUri == null) {
@@ -20,13 +20,16 @@ import edu.kit.datamanager.controller.IControllerAuditSupport;
 import edu.kit.datamanager.repo.domain.DataResource;
 import edu.kit.datamanager.controller.IGenericResourceController;
 import edu.kit.datamanager.repo.domain.ContentInformation;
+import edu.kit.datamanager.repo.domain.UploadSession;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
+import java.io.InputStream;
 import java.util.List;
 import javax.servlet.http.HttpServletResponse;
 import org.springdoc.core.converters.PageableAsQueryParam;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -49,6 +52,29 @@ import org.springframework.web.util.UriComponentsBuilder;
  */
 public interface IDataResourceController extends IGenericResourceController<DataResource>, IControllerAuditSupport{
 
+  @Operation(summary = "Create multiple data resources.", description = "This endpoint allows to create many data resources with a single request, e.g. for migrating resources from other systems. "
+          + "Each resource is handled in the same way as if it would have been created separately. Either all resources are created or none of them, e.g. if one resource is invalid "
+          + "or if its identifier is already in use. The response contains all created resources in the order of the request body.", security = {
+            @SecurityRequirement(name = "bearer-jwt")})
+  @RequestMapping(path = "/bulk", method = RequestMethod.POST)
+  @ResponseBody
+  public ResponseEntity<List<DataResource>> createAll(@Parameter(description = "Json array of data resource templates.", required = true) @RequestBody final List<DataResource> resources,
+          final WebRequest request,
+          final HttpServletResponse response);
+
+  @Operation(summary = "Search for data resources by full-text query.", description = "This endpoint allows to search for data resources using a full-text query on their metadata, e.g. titles, creators, subjects or descriptions. "
+          + "The query consists of whitespace-separated terms which all have to match. A term may be restricted to a single field using 'field:value', e.g. 'title:climate', and a trailing '*' matches all terms with the provided prefix. "
+          + "Results are ordered by relevance and only contain resources the caller is allowed to read. If the search index is disabled or not yet available, HTTP SERVICE_UNAVAILABLE is returned.", security = {
+            @SecurityRequirement(name = "bearer-jwt")})
+  @RequestMapping(path = "/search/fulltext", method = RequestMethod.GET)
+  @ResponseBody
+  @PageableAsQueryParam
+  public ResponseEntity<List<DataResource>> search(@Parameter(description = "The full-text query.", required = true) @RequestParam(name = "query") final String query,
+          @Parameter(hidden = true) final Pageable pgbl,
+          final WebRequest request,
+          final HttpServletResponse response,
+          final UriComponentsBuilder uriBuilder);
+
   @Operation(summary = "Upload data for a data resource.", description = "This endpoint allows to upload or assign data and content metadata related to the uploaded file to a resource identified by its id. "
           + "Uploaded data will be stored at the configured backend, typically the local hard disk. Furthermore, it is possible to register data stored elsewhere by providing only a content URI within the content metadata."
           + "In any other case, providing content metadata is optional. Parts of the content metadata, e.g. content type or checksum, may be generated or overwritten after a file upload if they not already exist or if "
@@ -67,6 +93,76 @@ public interface IDataResourceController extends IGenericResourceController<Data
           final HttpServletResponse response,
           final UriComponentsBuilder uriBuilder);
 
+  @Operation(summary = "Upload data for a data resource from the request body.", description = "This endpoint allows to upload data to a resource identified by its id by sending the raw file content as request body "
+          + "with content type 'application/octet-stream'. In contrast to multipart uploads, the data is streamed directly to its final location without being buffered by the server. "
+          + "Content metadata cannot be provided, but may be added afterwards. Apart from that, the upload is handled in the same way as a multipart upload.", security = {
+            @SecurityRequirement(name = "bearer-jwt")})
+  @RequestMapping(path = "/{id}/data/**", method = RequestMethod.POST, consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+  @ResponseBody
+  public ResponseEntity createContentFromStream(@Parameter(description = "The resource identifier.", required = true) @PathVariable(value = "id") final String id,
+          @Parameter(description = "Flag to indicate, that existing content at the same location should be overwritten.", required = false) @RequestParam(name = "force", defaultValue = "false") final boolean force,
+          @Parameter(hidden = true) final InputStream body,
+          final WebRequest request,
+          final HttpServletResponse response,
+          final UriComponentsBuilder uriBuilder);
+
+  @Operation(summary = "Create a resumable upload session.", description = "This endpoint allows to create an upload session for transferring a file in multiple chunks instead of a single request. "
+          + "After creating the session, chunks are uploaded via PUT to the session URL returned in the 'Location' header, each with the offset of its first byte. Chunks may be uploaded in parallel and in arbitrary order. "
+          + "If an upload fails, the session can be queried for the already received byte ranges and the upload can be resumed. After all bytes have been received, the session is committed, which creates the "
+          + "content element at the provided path in the same way as uploading the file in a single request. Upload sessions which are not used for the configured timeout are removed including all received data.", security = {
+            @SecurityRequirement(name = "bearer-jwt")})
+  @RequestMapping(path = "/{id}/uploads", method = RequestMethod.POST)
+  @ResponseBody
+  public ResponseEntity<UploadSession> createUploadSession(@Parameter(description = "The resource identifier.", required = true) @PathVariable(value = "id") final String id,
+          @Parameter(description = "The relative path of the content element created on commit.", required = true) @RequestParam(name = "path") final String path,
+          @Parameter(description = "The size of the file in bytes. If provided, chunks exceeding the size are rejected.", required = false) @RequestParam(name = "size", required = false) final Long size,
+          @Parameter(description = "Flag to indicate, that existing content at the same location should be overwritten on commit.", required = false) @RequestParam(name = "force", defaultValue = "false") final boolean force,
+          @Parameter(description = "Json representation of a content information metadata document used on commit.", required = false) @RequestBody(required = false) final ContentInformation contentInformation,
+          final WebRequest request,
+          final HttpServletResponse response,
+          final UriComponentsBuilder uriBuilder);
+
+  @Operation(summary = "Get the state of a resumable upload session.", description = "Returns the upload session including all byte ranges received so far, which allows to resume a failed upload.", security = {
+    @SecurityRequirement(name = "bearer-jwt")})
+  @RequestMapping(path = "/{id}/uploads/{sessionId}", method = RequestMethod.GET)
+  @ResponseBody
+  public ResponseEntity<UploadSession> getUploadSession(@Parameter(description = "The resource identifier.", required = true) @PathVariable(value = "id") final String id,
+          @Parameter(description = "The upload session identifier.", required = true) @PathVariable(value = "sessionId") final String sessionId,
+          final WebRequest request,
+          final HttpServletResponse response);
+
+  @Operation(summary = "Upload a chunk to a resumable upload session.", description = "The request body contains the raw bytes of the chunk, e.g. with content type 'application/octet-stream', which are stored starting at the provided offset. "
+          + "Already received data is overwritten if ranges overlap. Therefore, chunks must not change previously uploaded bytes.", security = {
+            @SecurityRequirement(name = "bearer-jwt")})
+  @RequestMapping(path = "/{id}/uploads/{sessionId}", method = RequestMethod.PUT)
+  @ResponseBody
+  public ResponseEntity<UploadSession> uploadChunk(@Parameter(description = "The resource identifier.", required = true) @PathVariable(value = "id") final String id,
+          @Parameter(description = "The upload session identifier.", required = true) @PathVariable(value = "sessionId") final String sessionId,
+          @Parameter(description = "The position of the first byte of the chunk within the file.", required = true) @RequestParam(name = "offset") final long offset,
+          @Parameter(hidden = true) final InputStream body,
+          final WebRequest request,
+          final HttpServletResponse response);
+
+  @Operation(summary = "Commit a resumable upload session.", description = "Committing an upload session creates the content element from all received chunks. Commit is only possible if all bytes have been received. "
+          + "Otherwise, HTTP UNPROCESSABLE_ENTITY is returned. After a successful commit, the upload session is removed.", security = {
+            @SecurityRequirement(name = "bearer-jwt")})
+  @RequestMapping(path = "/{id}/uploads/{sessionId}/commit", method = RequestMethod.POST)
+  @ResponseBody
+  public ResponseEntity commitUploadSession(@Parameter(description = "The resource identifier.", required = true) @PathVariable(value = "id") final String id,
+          @Parameter(description = "The upload session identifier.", required = true) @PathVariable(value = "sessionId") final String sessionId,
+          final WebRequest request,
+          final HttpServletResponse response,
+          final UriComponentsBuilder uriBuilder);
+
+  @Operation(summary = "Cancel a resumable upload session.", description = "Removes the upload session and all data received so far.", security = {
+    @SecurityRequirement(name = "bearer-jwt")})
+  @RequestMapping(path = "/{id}/uploads/{sessionId}", method = RequestMethod.DELETE)
+  @ResponseBody
+  public ResponseEntity deleteUploadSession(@Parameter(description = "The resource identifier.", required = true) @PathVariable(value = "id") final String id,
+          @Parameter(description = "The upload session identifier.", required = true) @PathVariable(value = "sessionId") final String sessionId,
+          final WebRequest request,
+          final HttpServletResponse response);
+
   @Operation(summary = "Access content information for single or multiple data elements.",
           description = "List metadata of one or more content elements associated with a data resource in a paginated and/or sorted form. This endpoint is addressed if the caller provides content type "
           + "'application/vnd.datamanager.content-information+json' within the 'Accept' header. If this content type is not present, the content element is downloaded instead."
@@ -82,6 +178,7 @@ public interface IDataResourceController extends IGenericResourceController<Data
           @Parameter(description = "The resource identifier.", required = true) @PathVariable(value = "id") final String id,
           @Parameter(description = "A single tag assigned to certain content elements. Tags allow easy structuring and filtering of content associated to a resource.", required = false) @RequestParam(name = "tag", required = false) final String tag,
           @Parameter(description = "The resource version to access.", required = false) @RequestParam(value = "The version number of the content information.", name = "version", required = false) final Long version,
+          @Parameter(description = "The number of levels to list below a virtual collection, e.g. 1 for listing only elements directly contained in the collection. If omitted, all levels are listed.", required = false) @RequestParam(name = "depth", required = false) final Integer depth,
           @Parameter(hidden = true) final Pageable pgbl,
           final WebRequest request,
           final HttpServletResponse response,
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.entities.PERMISSION;
+import edu.kit.datamanager.repo.domain.acl.AclEntry;
+import edu.kit.datamanager.repo.util.AclUtils;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class AclUtilsTest{
+
+  @Test
+  public void testIsSidInPrincipalList(){
+    Assert.assertTrue(AclUtils.isSidInPrincipalList("USERS@KIT", Arrays.asList("tester", ".*KIT")));
+    Assert.assertTrue(AclUtils.isSidInPrincipalList("tester", Arrays.asList("tester", ".*KIT")));
+    Assert.assertFalse(AclUtils.isSidInPrincipalList("test", Arrays.asList("tester", ".*KIT")));
+    Assert.assertFalse(AclUtils.isSidInPrincipalList("KIT_LEADER", Arrays.asList("tester", ".*KIT")));
+    Assert.assertFalse(AclUtils.isSidInPrincipalList("tester", Arrays.asList()));
+  }
+
+  @Test
+  public void testCombinedPatterns(){
+    AclUtils.PrincipalMatcher matcher = AclUtils.compile(Arrays.asList("group_[0-9]+", "(?i)admins", "a|b"));
+    Assert.assertTrue(matcher.matches("group_12"));
+    Assert.assertFalse(matcher.matches("group_"));
+    Assert.assertTrue(matcher.matches("ADMINS"));
+    Assert.assertTrue(matcher.matches("b"));
+    Assert.assertFalse(matcher.matches("ab"));
+    //flags do not leak into other expressions
+    Assert.assertFalse(matcher.matches("GROUP_12"));
+    //group references keep their meaning
+    matcher = AclUtils.compile(Arrays.asList("x", "(a)\\1", "c+"));
+    Assert.assertTrue(matcher.matches("aa"));
+    Assert.assertTrue(matcher.matches("ccc"));
+    Assert.assertFalse(matcher.matches("ac"));
+  }
+
+  @Test
+  public void testInvalidPatternMatchedLiterally(){
+    AclUtils.PrincipalMatcher matcher = AclUtils.compile(Arrays.asList("user(1", ".*@kit"));
+    Assert.assertTrue(matcher.matches("user(1"));
+    Assert.assertFalse(matcher.matches("user1"));
+    Assert.assertTrue(matcher.matches("tester@kit"));
+  }
+
+  @Test
+  public void testMatcherIsCached(){
+    Assert.assertSame(AclUtils.compile(Arrays.asList("tester", "USERS")), AclUtils.compile(Arrays.asList("tester", "USERS")));
+  }
+
+  @Test
+  public void testGetPermission(){
+    AclUtils.PrincipalMatcher matcher = AclUtils.compile(Arrays.asList("tester", ".*@kit"));
+    Instant version = Instant.now();
+    Set<AclEntry> acls = new HashSet<>();
+    for(int i = 0; i < 1000; i++){
+      acls.add(new AclEntry("user" + i, PERMISSION.ADMINISTRATE));
+    }
+    Assert.assertEquals(PERMISSION.NONE, matcher.getPermission("resource", version, acls));
+    AclEntry entry = new AclEntry("group@kit", PERMISSION.READ);
+    acls.add(entry);
+    version = version.plusMillis(1);
+    Assert.assertEquals(PERMISSION.READ, matcher.getPermission("resource", version, acls));
+    Assert.assertEquals(PERMISSION.READ, matcher.getPermission("resource", version, acls));
+    //a new version of the resource invalidates the memoized permission
+    entry.setPermission(PERMISSION.WRITE);
+    version = version.plusMillis(1);
+    Assert.assertEquals(PERMISSION.WRITE, matcher.getPermission("resource", version, acls));
+    entry.setSid("group@other");
+    version = version.plusMillis(1);
+    Assert.assertEquals(PERMISSION.NONE, matcher.getPermission("resource", version, acls));
+    acls.add(new AclEntry("tester", PERMISSION.ADMINISTRATE));
+    version = version.plusMillis(1);
+    Assert.assertEquals(PERMISSION.ADMINISTRATE, matcher.getPermission("resource", version, acls));
+    //without version, the permission is not memoized
+    entry.setSid("other@kit");
+    acls.removeIf((e) -> "tester".equals(e.getSid()));
+    Assert.assertEquals(PERMISSION.WRITE, matcher.getPermission("resource", null, acls));
+    Assert.assertEquals(PERMISSION.NONE, matcher.getPermission("other", version, new HashSet<>()));
+    Assert.assertEquals(PERMISSION.NONE, matcher.getPermission("other", version, null));
+  }
+
+  @Test
+  public void testGetPermissionForCopiedAcl(){
+    AclUtils.PrincipalMatcher matcher = AclUtils.compile(Arrays.asList("copy@kit"));
+    Instant version = Instant.now();
+    Set<AclEntry> acls = new HashSet<>();
+    acls.add(new AclEntry("copy@kit", PERMISSION.WRITE));
+    acls.add(new AclEntry("other", PERMISSION.ADMINISTRATE));
+    Assert.assertEquals(PERMISSION.WRITE, matcher.getPermission("copied", version, acls));
+    //freshly loaded instances of the same resource version are evaluated once
+    Set<AclEntry> copy = new HashSet<>();
+    copy.add(new AclEntry("other", PERMISSION.ADMINISTRATE));
+    copy.add(new AclEntry("copy@kit", PERMISSION.WRITE));
+    Assert.assertEquals(PERMISSION.WRITE, matcher.getPermission("copied", version, copy));
+    copy.clear();
+    copy.add(new AclEntry("copy@kit", PERMISSION.READ));
+    copy.add(new AclEntry("other", PERMISSION.ADMINISTRATE));
+    Assert.assertEquals(PERMISSION.READ, matcher.getPermission("copied", version.plusMillis(1), copy));
+  }
+}
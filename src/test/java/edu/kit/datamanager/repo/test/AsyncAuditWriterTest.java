@@ -0,0 +1,279 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.service.impl.AsyncAuditWriter;
+import edu.kit.datamanager.repo.service.impl.AuditVersionCounter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.persistence.Id;
+import org.javers.core.Javers;
+import org.javers.core.JaversBuilder;
+import org.javers.core.metamodel.object.CdoSnapshot;
+import org.javers.repository.jql.QueryBuilder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.AdditionalAnswers;
+import org.mockito.Mockito;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ *
+ * @author jejkal
+ */
+public class AsyncAuditWriterTest{
+
+  private Path basePath;
+  private Javers javers;
+  private AuditVersionCounter versionCounter;
+  private AsyncAuditWriter writer;
+
+  @Before
+  public void setUp() throws Exception{
+    basePath = Files.createTempDirectory("audit");
+    javers = JaversBuilder.javers().build();
+    versionCounter = Mockito.mock(AuditVersionCounter.class);
+  }
+
+  @After
+  public void tearDown() throws Exception{
+    if(writer != null){
+      writer.destroy();
+    }
+    FileSystemUtils.deleteRecursively(basePath);
+  }
+
+  private AsyncAuditWriter createWriter(Javers javers, boolean async) throws Exception{
+    ApplicationProperties props = new ApplicationProperties();
+    props.setBasepath(basePath.toUri().toURL());
+    props.setAuditEnabled(true);
+    props.setAuditAsyncEnabled(async);
+    props.setAuditAsyncQueueSize(10);
+    props.setAuditAsyncBatchSize(2);
+    props.setAuditAsyncJournalSync(true);
+    AsyncAuditWriter result = new AsyncAuditWriter();
+    ReflectionTestUtils.setField(result, "logger", LoggerFactory.getLogger(AsyncAuditWriter.class));
+    ReflectionTestUtils.setField(result, "applicationProperties", props);
+    ReflectionTestUtils.setField(result, "javers", javers);
+    ReflectionTestUtils.setField(result, "versionCounter", versionCounter);
+    result.init();
+    return result;
+  }
+
+  private long getLatestVersion(String id){
+    List<CdoSnapshot> snapshots = javers.findSnapshots(QueryBuilder.byInstanceId(id, AuditedObject.class).limit(1).build());
+    return snapshots.isEmpty() ? 0 : snapshots.get(0).getVersion();
+  }
+
+  @Test
+  public void testPendingVersionsAndOrdering() throws Exception{
+    CountDownLatch latch = new CountDownLatch(1);
+    Javers blockingJavers = Mockito.mock(Javers.class, AdditionalAnswers.delegatesTo(javers));
+    Mockito.doAnswer((i) -> {
+      latch.await(10, TimeUnit.SECONDS);
+      return javers.commit((String) i.getArgument(0), i.getArgument(1));
+    }).when(blockingJavers).commit(Mockito.anyString(), Mockito.any());
+    writer = createWriter(blockingJavers, true);
+    Assert.assertTrue(writer.isEnabled());
+
+    for(String value : Arrays.asList("first", "second", "third", "third")){
+      writer.submit(AsyncAuditWriter.Operation.COMMIT, AuditedObject.class, "obj1", new AuditedObject("obj1", value), "user", () -> 0);
+    }
+    //submitting the same state twice won't create a new version
+    Assert.assertEquals(Long.valueOf(3), writer.getPendingVersion(AuditedObject.class, "obj1").get());
+    Assert.assertFalse(writer.getPendingVersion(AuditedObject.class, "obj2").isPresent());
+
+    latch.countDown();
+    writer.awaitPending(AuditedObject.class, "obj1");
+    Assert.assertFalse(writer.getPendingVersion(AuditedObject.class, "obj1").isPresent());
+    Assert.assertEquals(3, getLatestVersion("obj1"));
+    Assert.assertEquals("third", ((AuditedObject) javers.findShadows(QueryBuilder.byInstanceId("obj1", AuditedObject.class).withVersion(3).build()).get(0).get()).getValue());
+    Mockito.verify(versionCounter, Mockito.times(4)).update(Mockito.eq(AuditedObject.class), Mockito.eq("obj1"), Mockito.any(org.javers.core.commit.Commit.class));
+  }
+
+  @Test
+  public void testJournalReplay() throws Exception{
+    Path auditFolder = basePath.resolve(".staging").resolve("audit");
+    Files.createDirectories(auditFolder);
+    String type = AuditedObject.class.getName();
+    String journal = "{\"sequence\":1,\"submitted\":0,\"operation\":\"COMMIT\",\"type\":\"" + type + "\",\"instanceId\":\"obj1\",\"principal\":\"user\",\"data\":\"{\\\"id\\\":\\\"obj1\\\",\\\"value\\\":\\\"first\\\"}\"}\n"
+            + "{\"sequence\":2,\"submitted\":0,\"operation\":\"COMMIT\",\"type\":\"" + type + "\",\"instanceId\":\"obj1\",\"principal\":\"user\",\"data\":\"{\\\"id\\\":\\\"obj1\\\",\\\"value\\\":\\\"second\\\"}\"}\n"
+            + "{\"sequence\":3,\"submitted\":0,\"operation\":\"COMMIT\",\"type\":\"" + type + "\",\"instanceId\":\"obj1\",\"principal\":\"user\",\"data\":\"{\\\"id\\\":\\\"obj1\\\",\\\"value\\\":\\\"third\\\"}\"}\n"
+            //incomplete entry written during crash
+            + "{\"sequence\":4,\"submitted\":0,\"operation\":\"COMMIT\",\"type\":\"";
+    Files.write(auditFolder.resolve("audit.journal"), journal.getBytes(StandardCharsets.UTF_8));
+    //first entry has already been written before the crash
+    Files.write(auditFolder.resolve("audit.checkpoint"), "1".getBytes(StandardCharsets.UTF_8));
+
+    //replay takes place even if asynchronous audit has been disabled meanwhile
+    writer = createWriter(javers, false);
+    Assert.assertFalse(writer.isEnabled());
+    Assert.assertEquals(2, getLatestVersion("obj1"));
+    Assert.assertEquals("third", ((AuditedObject) javers.findShadows(QueryBuilder.byInstanceId("obj1", AuditedObject.class).withVersion(2).build()).get(0).get()).getValue());
+    Assert.assertFalse(Files.exists(auditFolder.resolve("audit.journal")));
+    Assert.assertEquals("3", new String(Files.readAllBytes(auditFolder.resolve("audit.checkpoint")), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void testJournalingBeforeCommit() throws Exception{
+    writer = createWriter(javers, true);
+    Path journal = basePath.resolve(".staging").resolve("audit").resolve("audit.journal");
+    TransactionSynchronizationManager.initSynchronization();
+    try{
+      writer.submit(AsyncAuditWriter.Operation.COMMIT, AuditedObject.class, "obj1", new AuditedObject("obj1", "first"), "user", () -> 0);
+      TransactionSynchronizationManager.getSynchronizations().forEach((s) -> s.beforeCommit(false));
+      //journaled, but not queued before the commit
+      Assert.assertTrue(new String(Files.readAllBytes(journal), StandardCharsets.UTF_8).contains("\"status\":\"PREPARED\""));
+      Assert.assertFalse(writer.getPendingVersion(AuditedObject.class, "obj1").isPresent());
+      TransactionSynchronizationManager.getSynchronizations().forEach((s) -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+    } finally{
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    Assert.assertTrue(new String(Files.readAllBytes(journal), StandardCharsets.UTF_8).contains("\"status\":\"ABORTED\""));
+    Assert.assertFalse(writer.getPendingVersion(AuditedObject.class, "obj1").isPresent());
+
+    TransactionSynchronizationManager.initSynchronization();
+    try{
+      writer.submit(AsyncAuditWriter.Operation.COMMIT, AuditedObject.class, "obj1", new AuditedObject("obj1", "second"), "user", () -> 0);
+      TransactionSynchronizationManager.getSynchronizations().forEach((s) -> s.beforeCommit(false));
+      TransactionSynchronizationManager.getSynchronizations().forEach((s) -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    } finally{
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    writer.awaitPending(AuditedObject.class, "obj1");
+    Assert.assertEquals(1, getLatestVersion("obj1"));
+    Assert.assertEquals("second", ((AuditedObject) javers.findShadows(QueryBuilder.byInstanceId("obj1", AuditedObject.class).withVersion(1).build()).get(0).get()).getValue());
+  }
+
+  @Test
+  public void testJournalReplaySkipsAbortedEntries() throws Exception{
+    Path auditFolder = basePath.resolve(".staging").resolve("audit");
+    Files.createDirectories(auditFolder);
+    String type = AuditedObject.class.getName();
+    String journal = "{\"sequence\":1,\"submitted\":0,\"operation\":\"COMMIT\",\"type\":\"" + type + "\",\"instanceId\":\"obj1\",\"principal\":\"user\",\"data\":\"{\\\"id\\\":\\\"obj1\\\",\\\"value\\\":\\\"first\\\"}\",\"status\":\"PREPARED\"}\n"
+            + "{\"sequence\":2,\"submitted\":0,\"operation\":\"COMMIT\",\"type\":\"" + type + "\",\"instanceId\":\"obj1\",\"principal\":\"user\",\"data\":\"{\\\"id\\\":\\\"obj1\\\",\\\"value\\\":\\\"rolled back\\\"}\",\"status\":\"PREPARED\"}\n"
+            + "{\"sequence\":1,\"status\":\"COMMITTED\"}\n"
+            + "{\"sequence\":2,\"status\":\"ABORTED\"}\n"
+            //crash while committing
+            + "{\"sequence\":3,\"submitted\":0,\"operation\":\"COMMIT\",\"type\":\"" + type + "\",\"instanceId\":\"obj1\",\"principal\":\"user\",\"data\":\"{\\\"id\\\":\\\"obj1\\\",\\\"value\\\":\\\"third\\\"}\",\"status\":\"PREPARED\"}\n";
+    Files.write(auditFolder.resolve("audit.journal"), journal.getBytes(StandardCharsets.UTF_8));
+
+    writer = createWriter(javers, false);
+    Assert.assertEquals(2, getLatestVersion("obj1"));
+    Assert.assertEquals("first", ((AuditedObject) javers.findShadows(QueryBuilder.byInstanceId("obj1", AuditedObject.class).withVersion(1).build()).get(0).get()).getValue());
+    Assert.assertEquals("third", ((AuditedObject) javers.findShadows(QueryBuilder.byInstanceId("obj1", AuditedObject.class).withVersion(2).build()).get(0).get()).getValue());
+    Assert.assertFalse(Files.exists(auditFolder.resolve("audit.journal")));
+  }
+
+  @Test
+  public void testFullQueueDoesNotBlockLookups() throws Exception{
+    CountDownLatch latch = new CountDownLatch(1);
+    Javers blockingJavers = Mockito.mock(Javers.class, AdditionalAnswers.delegatesTo(javers));
+    Mockito.doAnswer((i) -> {
+      latch.await(10, TimeUnit.SECONDS);
+      return javers.commit((String) i.getArgument(0), i.getArgument(1));
+    }).when(blockingJavers).commit(Mockito.anyString(), Mockito.any());
+    writer = createWriter(blockingJavers, true);
+
+    //more entries than the writer and the queue can take while the writer is blocked
+    Thread submitter = new Thread(() -> {
+      for(int i = 0; i < 15; i++){
+        writer.submit(AsyncAuditWriter.Operation.COMMIT, AuditedObject.class, "obj1", new AuditedObject("obj1", "value" + i), "user", () -> 0);
+      }
+    });
+    submitter.start();
+    long timeout = System.currentTimeMillis() + 5000;
+    while(writer.getQueueSize() < 10 && System.currentTimeMillis() < timeout){
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(10, writer.getQueueSize());
+    Assert.assertTrue(submitter.isAlive());
+    //the submitter is blocked, but lookups are not
+    long start = System.currentTimeMillis();
+    Assert.assertTrue(writer.getPendingVersion(AuditedObject.class, "obj1").isPresent());
+    Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+
+    latch.countDown();
+    submitter.join(10000);
+    writer.awaitPending(AuditedObject.class, "obj1");
+    Assert.assertEquals(15, getLatestVersion("obj1"));
+    Assert.assertEquals("value14", ((AuditedObject) javers.findShadows(QueryBuilder.byInstanceId("obj1", AuditedObject.class).withVersion(15).build()).get(0).get()).getValue());
+  }
+
+  @Test
+  public void testSnapshotKeepsIgnoredFields() throws Exception{
+    writer = createWriter(javers, true);
+    AuditedObject object = new AuditedObject("obj1", "first");
+    object.setHidden("hidden value");
+    writer.submit(AsyncAuditWriter.Operation.COMMIT, AuditedObject.class, "obj1", object, "user", () -> 0);
+    writer.awaitPending(AuditedObject.class, "obj1");
+    Assert.assertEquals("hidden value", ((AuditedObject) javers.findShadows(QueryBuilder.byInstanceId("obj1", AuditedObject.class).withVersion(1).build()).get(0).get()).getHidden());
+  }
+
+  public static class AuditedObject{
+
+    @Id
+    private String id;
+    private String value;
+    @JsonIgnore
+    private String hidden;
+
+    public AuditedObject(){
+    }
+
+    public AuditedObject(String id, String value){
+      this.id = id;
+      this.value = value;
+    }
+
+    public String getId(){
+      return id;
+    }
+
+    public void setId(String id){
+      this.id = id;
+    }
+
+    public String getValue(){
+      return value;
+    }
+
+    public void setValue(String value){
+      this.value = value;
+    }
+
+    public String getHidden(){
+      return hidden;
+    }
+
+    public void setHidden(String hidden){
+      this.hidden = hidden;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IAuditVersionDao;
+import edu.kit.datamanager.repo.domain.AuditVersion;
+import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.service.impl.AuditVersionCounter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.persistence.Id;
+import org.javers.core.Javers;
+import org.javers.core.JaversBuilder;
+import org.javers.core.commit.Commit;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ *
+ * @author jejkal
+ */
+public class AuditVersionCounterTest{
+
+  private final Map<String, AuditVersion> table = new HashMap<>();
+  private IAuditVersionDao dao;
+
+  private AuditVersionCounter createCounter(int cacheSize){
+    ApplicationProperties props = new ApplicationProperties();
+    props.setAuditVersionCacheSize(cacheSize);
+    dao = Mockito.mock(IAuditVersionDao.class);
+    Mockito.when(dao.findById(Mockito.anyString())).then((i) -> Optional.ofNullable(table.get((String) i.getArgument(0))));
+    Mockito.when(dao.existsById(Mockito.anyString())).then((i) -> table.containsKey((String) i.getArgument(0)));
+    Mockito.when(dao.save(Mockito.any(AuditVersion.class))).then((i) -> {
+      AuditVersion v = i.getArgument(0);
+      table.put(v.getId(), new AuditVersion(v.getId(), v.getVersion()));
+      return v;
+    });
+    Mockito.doAnswer((i) -> table.remove((String) i.getArgument(0))).when(dao).deleteById(Mockito.anyString());
+    AuditVersionCounter counter = new AuditVersionCounter();
+    ReflectionTestUtils.setField(counter, "logger", LoggerFactory.getLogger(AuditVersionCounter.class));
+    ReflectionTestUtils.setField(counter, "applicationProperties", props);
+    ReflectionTestUtils.setField(counter, "dao", dao);
+    return counter;
+  }
+
+  @Test
+  public void testInitializeOnce(){
+    AuditVersionCounter counter = createCounter(1000);
+    AtomicInteger initializerCalls = new AtomicInteger();
+    for(int i = 0; i < 3; i++){
+      Assert.assertEquals(5, counter.getVersion(DataResource.class, "res1", () -> {
+        initializerCalls.incrementAndGet();
+        return 5;
+      }));
+    }
+    Assert.assertEquals(1, initializerCalls.get());
+    Assert.assertEquals(5, table.get("DataResource:res1").getVersion());
+    //subsequent calls are served from memory
+    Mockito.verify(dao, Mockito.times(1)).findById("DataResource:res1");
+  }
+
+  @Test
+  public void testUnauditedObjectIsNotPersisted(){
+    AuditVersionCounter counter = createCounter(1000);
+    Assert.assertEquals(0, counter.getVersion(DataResource.class, "res1", () -> 0));
+    Assert.assertTrue(table.isEmpty());
+  }
+
+  @Test
+  public void testUpdate(){
+    AuditVersionCounter counter = createCounter(1000);
+    counter.update(DataResource.class, "res1", 1);
+    counter.update(DataResource.class, "res1", 2);
+    Assert.assertEquals(2, counter.getVersion(DataResource.class, "res1", () -> -1));
+    //versions never decrease
+    counter.update(DataResource.class, "res1", 1);
+    Assert.assertEquals(2, counter.getVersion(DataResource.class, "res1", () -> -1));
+    Assert.assertEquals(2, table.get("DataResource:res1").getVersion());
+
+    counter.remove(DataResource.class, "res1");
+    Assert.assertFalse(table.containsKey("DataResource:res1"));
+    Assert.assertEquals(0, counter.getVersion(DataResource.class, "res1", () -> 0));
+  }
+
+  @Test
+  public void testWithoutMemoryCache(){
+    AuditVersionCounter counter = createCounter(0);
+    counter.update(DataResource.class, "res1", 3);
+    Assert.assertEquals(3, counter.getVersion(DataResource.class, "res1", () -> -1));
+    Assert.assertEquals(3, counter.getVersion(DataResource.class, "res1", () -> -1));
+    Mockito.verify(dao, Mockito.times(3)).findById("DataResource:res1");
+  }
+
+  @Test
+  public void testCommittedVersion(){
+    Javers javers = JaversBuilder.javers().build();
+    AuditedObject object = new AuditedObject();
+    object.id = "obj1";
+    object.value = "first";
+    Commit commit = javers.commit("user", object);
+    Assert.assertEquals(Optional.of(1l), AuditVersionCounter.getCommittedVersion(commit, AuditedObject.class, "obj1"));
+
+    object.value = "second";
+    commit = javers.commit("user", object);
+    Assert.assertEquals(Optional.of(2l), AuditVersionCounter.getCommittedVersion(commit, AuditedObject.class, "obj1"));
+    Assert.assertFalse(AuditVersionCounter.getCommittedVersion(commit, AuditedObject.class, "obj2").isPresent());
+
+    //nothing changed, thus no snapshot
+    commit = javers.commit("user", object);
+    Assert.assertFalse(AuditVersionCounter.getCommittedVersion(commit, AuditedObject.class, "obj1").isPresent());
+  }
+
+  public static class AuditedObject{
+
+    @Id
+    private String id;
+    private String value;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.repo.util.BloomFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class BloomFilterTest{
+
+  @Test
+  public void testNoFalseNegatives(){
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for(int i = 0; i < 10000; i++){
+      filter.put("/data/2020/resource-" + i + "/file.txt");
+    }
+    for(int i = 0; i < 10000; i++){
+      Assert.assertTrue(filter.mightContain("/data/2020/resource-" + i + "/file.txt"));
+    }
+  }
+
+  @Test
+  public void testFalsePositiveProbability(){
+    BloomFilter filter = new BloomFilter(10000, 0.01);
+    for(int i = 0; i < 10000; i++){
+      filter.put("/data/2020/resource-" + i + "/file.txt");
+    }
+    int falsePositives = 0;
+    for(int i = 0; i < 10000; i++){
+      if(filter.mightContain("/data/2020/other-" + i + "/file.txt")){
+        falsePositives++;
+      }
+    }
+    //expected are about 100 false positives
+    Assert.assertTrue("Too many false positives: " + falsePositives, falsePositives < 300);
+  }
+
+  @Test
+  public void testSizing(){
+    BloomFilter filter = new BloomFilter(1000, 0.01);
+    //about 9.6 bits and 7 hash functions per element
+    Assert.assertTrue(filter.getNumBits() >= 9585);
+    Assert.assertEquals(7, filter.getNumHashes());
+    Assert.assertFalse(filter.mightContain("not added"));
+  }
+
+  @Test
+  public void testInvalidArguments(){
+    BloomFilter filter = new BloomFilter(0, 2.0);
+    filter.put("element");
+    Assert.assertTrue(filter.mightContain("element"));
+    Assert.assertTrue(filter.getNumBits() >= 64);
+    Assert.assertTrue(filter.getNumHashes() >= 1);
+  }
+}
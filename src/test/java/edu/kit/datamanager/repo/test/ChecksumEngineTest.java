@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.exceptions.CustomInternalServerError;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.service.impl.ChecksumEngine;
+import edu.kit.datamanager.repo.util.StreamUtils;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Random;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ *
+ * @author jejkal
+ */
+public class ChecksumEngineTest{
+
+  private ChecksumEngine engine;
+
+  private ChecksumEngine createEngine(int threads, String... algorithms){
+    ApplicationProperties props = new ApplicationProperties();
+    props.setChecksumAlgorithms(algorithms);
+    props.setChecksumThreads(threads);
+    props.setChecksumRingSize(2);
+    props.setChecksumBufferPoolSize(2);
+    engine = new ChecksumEngine();
+    ReflectionTestUtils.setField(engine, "logger", LoggerFactory.getLogger(ChecksumEngine.class));
+    ReflectionTestUtils.setField(engine, "applicationProperties", props);
+    engine.init();
+    return engine;
+  }
+
+  @After
+  public void tearDown(){
+    if(engine != null){
+      engine.destroy();
+    }
+  }
+
+  @Test
+  public void testSingleAlgorithm() throws Exception{
+    createEngine(1, "SHA1");
+    byte[] data = "Test file".getBytes();
+    Map<String, String> result;
+    try(ChecksumEngine.Session session = engine.newSession()){
+      Path destination = Files.createTempFile("checksum", ".txt");
+      try{
+        StreamUtils.writeToFile(new ByteArrayInputStream(data), destination, session);
+      } finally{
+        Files.deleteIfExists(destination);
+      }
+      result = session.finish();
+    }
+    Assert.assertEquals("sha1", engine.getPrimaryAlgorithm());
+    Assert.assertEquals(1, result.size());
+    Assert.assertEquals(Hex.encodeHexString(MessageDigest.getInstance("SHA1").digest(data)), result.get("sha1"));
+  }
+
+  @Test
+  public void testMultipleAlgorithms() throws Exception{
+    createEngine(4, "SHA-256", "MD5", "SHA1");
+    byte[] data = new byte[StreamUtils.TRANSFER_BUFFER_SIZE * 5 + 3];
+    new Random(7).nextBytes(data);
+    Map<String, String> result;
+    try(ChecksumEngine.Session session = engine.newSession()){
+      Path destination = Files.createTempFile("checksum", ".bin");
+      try{
+        StreamUtils.writeToFile(new ByteArrayInputStream(data), destination, session);
+      } finally{
+        Files.deleteIfExists(destination);
+      }
+      result = session.finish();
+    }
+    Assert.assertEquals("sha256", engine.getPrimaryAlgorithm());
+    Assert.assertArrayEquals(new String[]{"sha256", "md5", "sha1"}, result.keySet().toArray());
+    Assert.assertEquals(Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(data)), result.get("sha256"));
+    Assert.assertEquals(Hex.encodeHexString(MessageDigest.getInstance("MD5").digest(data)), result.get("md5"));
+    Assert.assertEquals(Hex.encodeHexString(MessageDigest.getInstance("SHA1").digest(data)), result.get("sha1"));
+  }
+
+  @Test
+  public void testInlineFallback() throws Exception{
+    //only one worker for three algorithms, remaining digests are computed by the caller
+    createEngine(1, "SHA-256", "MD5", "SHA1");
+    byte[] data = new byte[1024 * 1024 + 1];
+    new Random(13).nextBytes(data);
+    Map<String, String> result;
+    try(ChecksumEngine.Session session = engine.newSession()){
+      Path destination = Files.createTempFile("checksum", ".bin");
+      try{
+        StreamUtils.writeToFile(new ByteArrayInputStream(data), destination, session);
+      } finally{
+        Files.deleteIfExists(destination);
+      }
+      result = session.finish();
+    }
+    Assert.assertEquals(Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(data)), result.get("sha256"));
+    Assert.assertEquals(Hex.encodeHexString(MessageDigest.getInstance("MD5").digest(data)), result.get("md5"));
+    Assert.assertEquals(Hex.encodeHexString(MessageDigest.getInstance("SHA1").digest(data)), result.get("sha1"));
+  }
+
+  @Test
+  public void testSharedBufferPool() throws Exception{
+    createEngine(4, "SHA-256", "MD5");
+    byte[] data = new byte[StreamUtils.TRANSFER_BUFFER_SIZE * 3 + 5];
+    new Random(17).nextBytes(data);
+    String sha256 = Hex.encodeHexString(MessageDigest.getInstance("SHA-256").digest(data));
+    //the first session holds all pooled buffers, the nested one is computed inline
+    try(ChecksumEngine.Session first = engine.newSession(); ChecksumEngine.Session second = engine.newSession()){
+      first.accept(ByteBuffer.wrap(data));
+      second.accept(ByteBuffer.wrap(data));
+      Assert.assertEquals(sha256, first.finish().get("sha256"));
+      Assert.assertEquals(sha256, second.finish().get("sha256"));
+    }
+    //buffers of closed sessions are reused, also if a session is aborted
+    for(int i = 0; i < 3; i++){
+      try(ChecksumEngine.Session aborted = engine.newSession()){
+        aborted.accept(ByteBuffer.wrap(data));
+      }
+      try(ChecksumEngine.Session session = engine.newSession()){
+        session.accept(ByteBuffer.wrap(data));
+        Assert.assertEquals(sha256, session.finish().get("sha256"));
+      }
+    }
+  }
+
+  @Test(expected = CustomInternalServerError.class)
+  public void testInvalidAlgorithm(){
+    createEngine(1, "SHA1", "NOT-AN-ALGORITHM");
+  }
+}
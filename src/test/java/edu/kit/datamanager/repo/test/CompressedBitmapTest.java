@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.repo.util.CompressedBitmap;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class CompressedBitmapTest{
+
+  @Test
+  public void testAddRemoveContains(){
+    CompressedBitmap bitmap = new CompressedBitmap();
+    Assert.assertTrue(bitmap.isEmpty());
+    Assert.assertTrue(bitmap.add(5));
+    Assert.assertFalse(bitmap.add(5));
+    Assert.assertTrue(bitmap.add(70000));
+    Assert.assertTrue(bitmap.add(0));
+    Assert.assertTrue(bitmap.contains(5));
+    Assert.assertTrue(bitmap.contains(70000));
+    Assert.assertFalse(bitmap.contains(6));
+    Assert.assertFalse(bitmap.contains(-1));
+    Assert.assertArrayEquals(new int[]{0, 5, 70000}, bitmap.toArray());
+    Assert.assertTrue(bitmap.remove(70000));
+    Assert.assertFalse(bitmap.remove(70000));
+    Assert.assertArrayEquals(new int[]{0, 5}, bitmap.toArray());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNegativeValue(){
+    new CompressedBitmap().add(-1);
+  }
+
+  @Test
+  public void testDenseChunk(){
+    CompressedBitmap bitmap = new CompressedBitmap();
+    for(int i = 0; i < 10000; i++){
+      bitmap.add(i * 2);
+    }
+    Assert.assertEquals(10000, bitmap.getCardinality());
+    Assert.assertTrue(bitmap.contains(19998));
+    Assert.assertFalse(bitmap.contains(19999));
+    for(int i = 0; i < 9000; i++){
+      Assert.assertTrue(bitmap.remove(i * 2));
+    }
+    Assert.assertEquals(1000, bitmap.getCardinality());
+    Assert.assertEquals(18000, bitmap.toArray()[0]);
+  }
+
+  @Test
+  public void testOperationsAgainstBitSet(){
+    Random random = new Random(42);
+    for(int round = 0; round < 20; round++){
+      CompressedBitmap first = new CompressedBitmap();
+      CompressedBitmap second = new CompressedBitmap();
+      BitSet firstExpected = new BitSet();
+      BitSet secondExpected = new BitSet();
+      //mix sparse and dense chunks
+      int bound = (round % 2 == 0) ? 300000 : 70000;
+      int count = random.nextInt(20000);
+      for(int i = 0; i < count; i++){
+        int value = random.nextInt(bound);
+        first.add(value);
+        firstExpected.set(value);
+        value = random.nextInt(bound);
+        second.add(value);
+        secondExpected.set(value);
+      }
+      CompressedBitmap union = first.copy();
+      union.or(second);
+      BitSet unionExpected = (BitSet) firstExpected.clone();
+      unionExpected.or(secondExpected);
+      Assert.assertArrayEquals(unionExpected.stream().toArray(), union.toArray());
+
+      CompressedBitmap difference = union.copy();
+      difference.andNot(first);
+      BitSet differenceExpected = (BitSet) unionExpected.clone();
+      differenceExpected.andNot(firstExpected);
+      Assert.assertArrayEquals(differenceExpected.stream().toArray(), difference.toArray());
+      Assert.assertEquals(differenceExpected.cardinality(), difference.getCardinality());
+      //copies are independent
+      Assert.assertArrayEquals(firstExpected.stream().toArray(), first.toArray());
+    }
+  }
+}
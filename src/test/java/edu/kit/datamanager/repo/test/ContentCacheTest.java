@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.service.IContentCache;
+import edu.kit.datamanager.repo.service.impl.ContentCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ *
+ * @author jejkal
+ */
+public class ContentCacheTest{
+
+  private MeterRegistry registry;
+
+  private ContentCache createCache(boolean enabled, long maxSize, long maxEntrySize, boolean offHeap){
+    ApplicationProperties props = new ApplicationProperties();
+    props.setContentCacheEnabled(enabled);
+    props.setContentCacheSize(maxSize);
+    props.setContentCacheMaxEntrySize(maxEntrySize);
+    props.setContentCacheOffHeap(offHeap);
+    registry = new SimpleMeterRegistry();
+    ContentCache cache = new ContentCache();
+    ReflectionTestUtils.setField(cache, "logger", LoggerFactory.getLogger(ContentCache.class));
+    ReflectionTestUtils.setField(cache, "applicationProperties", props);
+    ReflectionTestUtils.setField(cache, "meterRegistry", registry);
+    cache.init();
+    return cache;
+  }
+
+  private byte[] data(int size){
+    return new byte[size];
+  }
+
+  private String read(IContentCache.CachedContent content){
+    ByteBuffer buffer = content.getData();
+    byte[] data = new byte[buffer.remaining()];
+    buffer.get(data);
+    return new String(data, StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testGetAndPut(){
+    ContentCache cache = createCache(true, 1024, 512, false);
+    Assert.assertNull(cache.get("file:///a", "sha1:a"));
+    Assert.assertTrue(cache.put("file:///a", "sha1:a", "content".getBytes(StandardCharsets.UTF_8), 42l));
+    IContentCache.CachedContent content = cache.get("file:///a", "sha1:a");
+    Assert.assertNotNull(content);
+    Assert.assertEquals("content", read(content));
+    //reading must not affect the cached content
+    Assert.assertEquals("content", read(cache.get("file:///a", "sha1:a")));
+    Assert.assertEquals(42l, content.getLastModified());
+    Assert.assertEquals(7, cache.getBytes());
+    Assert.assertEquals(2, registry.get("repo.cache.content.requests").tag("result", "hit").counter().count(), 0.1);
+    Assert.assertEquals(1, registry.get("repo.cache.content.requests").tag("result", "miss").counter().count(), 0.1);
+    Assert.assertEquals(14, registry.get("repo.cache.content.served").counter().count(), 0.1);
+    Assert.assertEquals(2.0 / 3.0, cache.getHitRatio(), 0.01);
+  }
+
+  @Test
+  public void testOffHeap(){
+    ContentCache cache = createCache(true, 1024, 512, true);
+    Assert.assertTrue(cache.put("file:///a", "sha1:a", "content".getBytes(StandardCharsets.UTF_8), 0l));
+    IContentCache.CachedContent content = cache.get("file:///a", "sha1:a");
+    Assert.assertTrue(content.getData().isDirect());
+    Assert.assertEquals("content", read(content));
+  }
+
+  @Test
+  public void testHashMismatch(){
+    ContentCache cache = createCache(true, 1024, 512, false);
+    cache.put("file:///a", "sha1:a", data(10), 0l);
+    Assert.assertNull(cache.get("file:///a", "sha1:b"));
+    //mismatching content is removed
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.getBytes());
+  }
+
+  @Test
+  public void testSizeLimits(){
+    ContentCache cache = createCache(true, 100, 50, false);
+    Assert.assertFalse(cache.admits("file:///large", 51));
+    Assert.assertFalse(cache.put("file:///large", "sha1:large", data(51), 0l));
+    Assert.assertTrue(cache.put("file:///a", "sha1:a", data(50), 0l));
+    Assert.assertTrue(cache.put("file:///b", "sha1:b", data(50), 0l));
+    Assert.assertEquals(100, cache.getBytes());
+  }
+
+  @Test
+  public void testFrequentContentIsNotFlushedByScan(){
+    ContentCache cache = createCache(true, 100, 50, false);
+    for(String hot : new String[]{"file:///hot1", "file:///hot2"}){
+      cache.put(hot, "sha1:" + hot, data(50), 0l);
+      for(int i = 0; i < 5; i++){
+        Assert.assertNotNull(cache.get(hot, "sha1:" + hot));
+      }
+    }
+    //one-time accesses must not replace frequently accessed content
+    for(int i = 0; i < 100; i++){
+      String uri = "file:///scan" + i;
+      Assert.assertNull(cache.get(uri, "sha1:" + i));
+      Assert.assertFalse(cache.admits(uri, 50));
+      Assert.assertFalse(cache.put(uri, "sha1:" + i, data(50), 0l));
+    }
+    Assert.assertNotNull(cache.get("file:///hot1", "sha1:file:///hot1"));
+    Assert.assertNotNull(cache.get("file:///hot2", "sha1:file:///hot2"));
+    Assert.assertEquals(100, registry.get("repo.cache.content.rejections").counter().count(), 0.1);
+  }
+
+  @Test
+  public void testMoreFrequentContentReplacesLessFrequentContent(){
+    ContentCache cache = createCache(true, 100, 50, false);
+    cache.put("file:///a", "sha1:a", data(50), 0l);
+    cache.put("file:///b", "sha1:b", data(50), 0l);
+    for(int i = 0; i < 5; i++){
+      cache.get("file:///c", "sha1:c");
+    }
+    Assert.assertTrue(cache.put("file:///c", "sha1:c", data(50), 0l));
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(1, registry.get("repo.cache.content.evictions").counter().count(), 0.1);
+    Assert.assertNotNull(cache.get("file:///c", "sha1:c"));
+  }
+
+  @Test
+  public void testInvalidate(){
+    ContentCache cache = createCache(true, 1024, 512, false);
+    cache.put("file:///a", "sha1:a", data(10), 0l);
+    cache.invalidate("file:///a");
+    Assert.assertNull(cache.get("file:///a", "sha1:a"));
+    Assert.assertEquals(0, cache.getBytes());
+    cache.put("file:///a", "sha1:a", data(10), 0l);
+    cache.clear();
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testDisabled(){
+    ContentCache cache = createCache(false, 1024, 512, false);
+    Assert.assertFalse(cache.put("file:///a", "sha1:a", data(10), 0l));
+    Assert.assertFalse(cache.admits("file:///a", 10));
+    Assert.assertNull(cache.get("file:///a", "sha1:a"));
+  }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.entities.PERMISSION;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IDataResourceDao;
+import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.domain.acl.AclEntry;
+import edu.kit.datamanager.repo.service.impl.DataResourceAclIndex;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.hamcrest.Matchers;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ *
+ * @author jejkal
+ */
+public class DataResourceAclIndexTest{
+
+  private ApplicationProperties props;
+  private IDataResourceDao dao;
+  private DataResourceAclIndex index;
+
+  @Before
+  public void setUp() throws InterruptedException{
+    props = new ApplicationProperties();
+    props.setAclIndexEnabled(true);
+    dao = Mockito.mock(IDataResourceDao.class);
+    Mockito.when(dao.findIdsAfter(Mockito.anyString(), Mockito.any(Pageable.class))).thenReturn(Collections.emptyList());
+    //build the empty index
+    index = createIndex();
+    index.start();
+    index.await(10000);
+    Assert.assertTrue(index.isReady());
+  }
+
+  private DataResourceAclIndex createIndex(){
+    DataResourceAclIndex result = new DataResourceAclIndex();
+    ReflectionTestUtils.setField(result, "logger", LoggerFactory.getLogger(DataResourceAclIndex.class));
+    ReflectionTestUtils.setField(result, "applicationProperties", props);
+    ReflectionTestUtils.setField(result, "dataResourceDao", dao);
+    return result;
+  }
+
+  private DataResource createResource(String id, AclEntry... entries){
+    DataResource resource = DataResource.factoryNewDataResource(id);
+    resource.getAcls().addAll(Arrays.asList(entries));
+    return resource;
+  }
+
+  @Test
+  public void testFindAccessible(){
+    index.update(createResource("a", new AclEntry("owner", PERMISSION.ADMINISTRATE), new AclEntry("group", PERMISSION.READ)));
+    index.update(createResource("b", new AclEntry("owner", PERMISSION.WRITE)));
+    index.update(createResource("c", new AclEntry("other", PERMISSION.ADMINISTRATE), new AclEntry("group", PERMISSION.NONE)));
+    index.update(createResource("d"));
+
+    Assert.assertThat(index.findAccessible(Arrays.asList("owner"), PERMISSION.READ, 10), Matchers.contains("a", "b"));
+    Assert.assertThat(index.findAccessible(Arrays.asList("owner"), PERMISSION.ADMINISTRATE, 10), Matchers.contains("a"));
+    Assert.assertThat(index.findAccessible(Arrays.asList("group"), PERMISSION.READ, 10), Matchers.contains("a"));
+    Assert.assertThat(index.findAccessible(Arrays.asList("group"), PERMISSION.NONE, 10), Matchers.contains("a", "c"));
+    Assert.assertThat(index.findAccessible(Arrays.asList("group", "other"), PERMISSION.WRITE, 10), Matchers.contains("c"));
+    Assert.assertTrue(index.findAccessible(Arrays.asList("unknown"), PERMISSION.READ, 10).isEmpty());
+    Assert.assertTrue(index.findAccessible(Collections.emptyList(), PERMISSION.READ, 10).isEmpty());
+  }
+
+  @Test
+  public void testMaxPermissionPerSid(){
+    index.update(createResource("a", new AclEntry("owner", PERMISSION.READ), new AclEntry("owner", PERMISSION.ADMINISTRATE)));
+    Assert.assertThat(index.findAccessible(Arrays.asList("owner"), PERMISSION.ADMINISTRATE, 10), Matchers.contains("a"));
+  }
+
+  @Test
+  public void testUpdateReplacesPermissions(){
+    index.update(createResource("a", new AclEntry("owner", PERMISSION.ADMINISTRATE), new AclEntry("group", PERMISSION.READ)));
+    index.update(createResource("b", new AclEntry("group", PERMISSION.READ)));
+    index.update(createResource("a", new AclEntry("owner", PERMISSION.READ)));
+
+    Assert.assertThat(index.findAccessible(Arrays.asList("owner"), PERMISSION.READ, 10), Matchers.contains("a"));
+    Assert.assertTrue(index.findAccessible(Arrays.asList("owner"), PERMISSION.WRITE, 10).isEmpty());
+    Assert.assertThat(index.findAccessible(Arrays.asList("group"), PERMISSION.READ, 10), Matchers.contains("b"));
+    index.update(createResource("a"));
+    Assert.assertTrue(index.findAccessible(Arrays.asList("owner"), PERMISSION.READ, 10).isEmpty());
+  }
+
+  @Test
+  public void testCommittedAclIsReloaded(){
+    index.update(createResource("a", new AclEntry("owner", PERMISSION.ADMINISTRATE), new AclEntry("group", PERMISSION.READ)));
+    //two transactions change the ACL, the one revoking READ commits last but completes first
+    TransactionSynchronizationManager.initSynchronization();
+    List<TransactionSynchronization> first;
+    List<TransactionSynchronization> second;
+    try{
+      index.update(createResource("a", new AclEntry("owner", PERMISSION.ADMINISTRATE), new AclEntry("group", PERMISSION.WRITE)));
+      first = TransactionSynchronizationManager.getSynchronizations();
+      TransactionSynchronizationManager.clearSynchronization();
+      TransactionSynchronizationManager.initSynchronization();
+      index.update(createResource("a", new AclEntry("owner", PERMISSION.ADMINISTRATE)));
+      second = TransactionSynchronizationManager.getSynchronizations();
+    } finally{
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    Mockito.when(dao.findAclEntries(Collections.singletonList("a"))).thenReturn(Collections.singletonList(new Object[]{"a", "owner", PERMISSION.ADMINISTRATE}));
+    first.forEach((sync) -> sync.beforeCommit(false));
+    second.forEach((sync) -> sync.beforeCommit(false));
+    Assert.assertTrue(index.findAccessible(Arrays.asList("owner"), PERMISSION.READ, 10).isEmpty());
+
+    second.forEach((sync) -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+    //still excluded while the other transaction is completing
+    Assert.assertTrue(index.findAccessible(Arrays.asList("owner"), PERMISSION.READ, 10).isEmpty());
+    first.forEach((sync) -> sync.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+
+    Assert.assertThat(index.findAccessible(Arrays.asList("owner"), PERMISSION.READ, 10), Matchers.contains("a"));
+    Assert.assertTrue(index.findAccessible(Arrays.asList("group"), PERMISSION.READ, 10).isEmpty());
+  }
+
+  @Test
+  public void testUnavailable(){
+    index.update(createResource("a", new AclEntry("owner", PERMISSION.ADMINISTRATE), new AclEntry("group", PERMISSION.READ)));
+    index.update(createResource("b", new AclEntry("group", PERMISSION.READ)));
+    //too many results
+    Assert.assertNull(index.findAccessible(Arrays.asList("group"), PERMISSION.READ, 1));
+    Assert.assertNotNull(index.findAccessible(Arrays.asList("owner"), PERMISSION.READ, 1));
+    //disabled or not built, yet
+    props.setAclIndexEnabled(false);
+    Assert.assertNull(index.findAccessible(Arrays.asList("owner"), PERMISSION.READ, 10));
+    props.setAclIndexEnabled(true);
+    DataResourceAclIndex notBuilt = createIndex();
+    notBuilt.update(createResource("a", new AclEntry("owner", PERMISSION.ADMINISTRATE)));
+    Assert.assertNull(notBuilt.findAccessible(Arrays.asList("owner"), PERMISSION.READ, 10));
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.domain.Title;
+import edu.kit.datamanager.repo.service.impl.DataResourceCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.Optional;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ *
+ * @author jejkal
+ */
+public class DataResourceCacheTest{
+
+  private MeterRegistry registry;
+
+  private DataResourceCache createCache(boolean enabled, int maxSize, long ttl){
+    ApplicationProperties props = new ApplicationProperties();
+    props.setDataResourceCacheEnabled(enabled);
+    props.setDataResourceCacheSize(maxSize);
+    props.setDataResourceCacheTtl(ttl);
+    registry = new SimpleMeterRegistry();
+    DataResourceCache cache = new DataResourceCache();
+    ReflectionTestUtils.setField(cache, "logger", LoggerFactory.getLogger(DataResourceCache.class));
+    ReflectionTestUtils.setField(cache, "applicationProperties", props);
+    ReflectionTestUtils.setField(cache, "meterRegistry", registry);
+    cache.init();
+    return cache;
+  }
+
+  private DataResource createResource(String id){
+    DataResource resource = DataResource.factoryNewDataResource(id);
+    resource.getTitles().add(Title.factoryTitle("Title of " + id, Title.TYPE.OTHER));
+    return resource;
+  }
+
+  private double count(String result){
+    return registry.get("repo.cache.dataresource.requests").tag("result", result).counter().count();
+  }
+
+  @Test
+  public void testGetReturnsCopy(){
+    DataResourceCache cache = createCache(true, 10, 60000);
+    DataResource resource = createResource("res1");
+    cache.put("doi:10.1234/res1", resource);
+
+    Optional<DataResource> first = cache.get("doi:10.1234/res1");
+    Assert.assertTrue(first.isPresent());
+    Assert.assertEquals(resource, first.get());
+    Assert.assertEquals(resource.getEtag(), first.get().getEtag());
+
+    //modifications must not affect the cache
+    first.get().setPublisher("Changed");
+    Optional<DataResource> second = cache.get("res1");
+    Assert.assertTrue(second.isPresent());
+    Assert.assertNotSame(first.get(), second.get());
+    Assert.assertEquals(resource.getPublisher(), second.get().getPublisher());
+    Assert.assertEquals(2, count("hit"), 0.1);
+  }
+
+  @Test
+  public void testInvalidate(){
+    DataResourceCache cache = createCache(true, 10, 60000);
+    cache.put("alt", createResource("res1"));
+    cache.invalidate("res1");
+    Assert.assertFalse(cache.get("res1").isPresent());
+    Assert.assertFalse(cache.get("alt").isPresent());
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(2, count("miss"), 0.1);
+  }
+
+  @Test
+  public void testSizeEviction(){
+    DataResourceCache cache = createCache(true, 2, 60000);
+    cache.put(null, createResource("res1"));
+    cache.put(null, createResource("res2"));
+    //access res1, which makes res2 the least recently used entry
+    Assert.assertTrue(cache.get("res1").isPresent());
+    cache.put(null, createResource("res3"));
+    Assert.assertEquals(2, cache.size());
+    Assert.assertTrue(cache.get("res1").isPresent());
+    Assert.assertFalse(cache.get("res2").isPresent());
+    Assert.assertTrue(cache.get("res3").isPresent());
+    Assert.assertEquals(1, registry.get("repo.cache.dataresource.evictions").counter().count(), 0.1);
+  }
+
+  @Test
+  public void testTtlEviction() throws Exception{
+    DataResourceCache cache = createCache(true, 10, 1);
+    cache.put(null, createResource("res1"));
+    Thread.sleep(10);
+    Assert.assertFalse(cache.get("res1").isPresent());
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testStalePutAfterInvalidation(){
+    DataResourceCache cache = createCache(true, 10, 60000);
+    //a lookup obtains the generation and loads the resource while it is modified and invalidated
+    long generation = cache.getGeneration();
+    cache.invalidate("res1");
+    cache.put("alt", createResource("res1"), generation);
+    Assert.assertFalse(cache.get("res1").isPresent());
+    Assert.assertFalse(cache.get("alt").isPresent());
+
+    //invalidations of other resources do not prevent caching
+    generation = cache.getGeneration();
+    cache.invalidate("res2");
+    cache.put("alt", createResource("res1"), generation);
+    Assert.assertTrue(cache.get("alt").isPresent());
+
+    //nothing loaded before clearing the cache is cached
+    generation = cache.getGeneration();
+    cache.clear();
+    cache.put(null, createResource("res3"), generation);
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testStalePutAfterForgottenInvalidation(){
+    DataResourceCache cache = createCache(true, 10, 60000);
+    long generation = cache.getGeneration();
+    cache.invalidate("res1");
+    //push the invalidation of res1 out of the bounded history
+    for(int i = 0; i < 2048; i++){
+      cache.invalidate("other" + i);
+    }
+    cache.put(null, createResource("res1"), generation);
+    Assert.assertFalse(cache.get("res1").isPresent());
+    cache.put(null, createResource("res1"), cache.getGeneration());
+    Assert.assertTrue(cache.get("res1").isPresent());
+  }
+
+  @Test
+  public void testDisabledCache(){
+    DataResourceCache cache = createCache(false, 10, 60000);
+    cache.put(null, createResource("res1"));
+    Assert.assertFalse(cache.get("res1").isPresent());
+    Assert.assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.entities.PERMISSION;
+import edu.kit.datamanager.exceptions.BadArgumentException;
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IDataResourceDao;
+import edu.kit.datamanager.repo.domain.Agent;
+import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.domain.Description;
+import edu.kit.datamanager.repo.domain.Subject;
+import edu.kit.datamanager.repo.domain.Title;
+import edu.kit.datamanager.repo.domain.acl.AclEntry;
+import edu.kit.datamanager.repo.service.impl.DataResourceSearchIndex;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ *
+ * @author jejkal
+ */
+public class DataResourceSearchIndexTest{
+
+  private ApplicationProperties props;
+  private IDataResourceDao dao;
+  private DataResourceSearchIndex index;
+
+  @Before
+  public void setUp(){
+    props = new ApplicationProperties();
+    props.setSearchIndexEnabled(true);
+    dao = Mockito.mock(IDataResourceDao.class);
+    index = new DataResourceSearchIndex();
+    ReflectionTestUtils.setField(index, "logger", LoggerFactory.getLogger(DataResourceSearchIndex.class));
+    ReflectionTestUtils.setField(index, "applicationProperties", props);
+    ReflectionTestUtils.setField(index, "dataResourceDao", dao);
+  }
+
+  private DataResource createResource(String id, String title, String description, String owner){
+    DataResource resource = DataResource.factoryNewDataResource(id);
+    resource.setState(DataResource.State.VOLATILE);
+    resource.getTitles().add(Title.factoryTitle(title));
+    if(description != null){
+      resource.getDescriptions().add(Description.factoryDescription(description, Description.TYPE.ABSTRACT));
+    }
+    resource.getCreators().add(Agent.factoryAgent("Jane", "Doe"));
+    resource.getAcls().add(new AclEntry(owner, PERMISSION.ADMINISTRATE));
+    return resource;
+  }
+
+  private List<String> search(String query, String... sids){
+    return index.search(query, Arrays.asList(sids), false, PageRequest.of(0, 20)).getContent();
+  }
+
+  @Test
+  public void testRanking(){
+    index.update(createResource("a", "Ocean temperature", "Measurements of the ocean and the ocean floor.", "user"));
+    index.update(createResource("b", "Atmosphere", "Some ocean data.", "user"));
+    index.update(createResource("c", "Glaciers", "Ice thickness.", "user"));
+
+    Assert.assertEquals(Arrays.asList("a", "b"), search("ocean", "user"));
+    Assert.assertEquals(Arrays.asList("a"), search("ocean temperature", "user"));
+    Assert.assertEquals(Collections.emptyList(), search("ocean glaciers", "user"));
+  }
+
+  @Test
+  public void testFieldedAndPrefixQueries(){
+    index.update(createResource("a", "Ocean temperature", null, "user"));
+    DataResource other = createResource("b", "Temperatures", "Ocean currents", "user");
+    other.getSubjects().add(Subject.factorySubject("Oceanography", null, null, null));
+    other.setPublicationYear("2019");
+    index.update(other);
+
+    Assert.assertEquals(Arrays.asList("a"), search("title:ocean", "user"));
+    Assert.assertEquals(Arrays.asList("b"), search("subject:oceanography", "user"));
+    Assert.assertEquals(Arrays.asList("b"), search("year:2019", "user"));
+    Assert.assertEquals(Arrays.asList("b"), search("id:B", "user"));
+    Assert.assertEquals(2, search("temperat*", "user").size());
+    Assert.assertEquals(2, search("creator:doe", "user").size());
+    Assert.assertEquals(Collections.emptyList(), search("title:temperat", "user"));
+    //unknown fields are searched as plain text
+    Assert.assertEquals(Collections.emptyList(), search("unknown:ocean", "user"));
+  }
+
+  @Test
+  public void testPermissionAndStateFilter(){
+    index.update(createResource("a", "Ocean", null, "user1"));
+    DataResource shared = createResource("b", "Ocean", null, "user2");
+    shared.getAcls().add(new AclEntry("user1", PERMISSION.READ));
+    index.update(shared);
+    DataResource noAccess = createResource("c", "Ocean", null, "user2");
+    noAccess.getAcls().add(new AclEntry("user1", PERMISSION.NONE));
+    index.update(noAccess);
+
+    Assert.assertEquals(2, search("ocean", "user1").size());
+    Assert.assertEquals(Arrays.asList("c", "b"), search("ocean", "user2"));
+    Assert.assertEquals(Collections.emptyList(), search("ocean", "user3"));
+    Assert.assertEquals(3, index.search("ocean", Collections.emptyList(), true, PageRequest.of(0, 20)).getTotalElements());
+
+    noAccess.setState(DataResource.State.REVOKED);
+    index.update(noAccess);
+    Assert.assertEquals(Arrays.asList("b"), search("ocean", "user2"));
+    Assert.assertEquals(3, index.search("ocean", Collections.emptyList(), true, PageRequest.of(0, 20)).getTotalElements());
+    noAccess.setState(DataResource.State.GONE);
+    index.update(noAccess);
+    Assert.assertEquals(2, index.search("ocean", Collections.emptyList(), true, PageRequest.of(0, 20)).getTotalElements());
+  }
+
+  @Test
+  public void testUpdateReplacesDocument(){
+    DataResource resource = createResource("a", "Ocean", null, "user");
+    index.update(resource);
+    resource.getTitles().clear();
+    resource.getTitles().add(Title.factoryTitle("Glacier"));
+    index.update(resource);
+
+    Assert.assertEquals(Collections.emptyList(), search("ocean", "user"));
+    Assert.assertEquals(Arrays.asList("a"), search("glacier", "user"));
+    Assert.assertEquals(1, index.getStatus().get("documents"));
+    Assert.assertEquals(1, index.getStatus().get("deletedDocuments"));
+  }
+
+  @Test
+  public void testCommittedStateIsIndexed(){
+    index.update(createResource("a", "Ocean", null, "user1"));
+    DataResource shared = createResource("a", "Ocean", null, "user1");
+    shared.getAcls().add(new AclEntry("user2", PERMISSION.READ));
+    //the transaction sharing the resource completes after a later one revoking the access again
+    TransactionSynchronizationManager.initSynchronization();
+    List<TransactionSynchronization> synchronizations;
+    try{
+      index.update(shared);
+      synchronizations = TransactionSynchronizationManager.getSynchronizations();
+    } finally{
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    Mockito.when(dao.findById("a")).thenReturn(Optional.of(createResource("a", "Ocean", null, "user1")));
+    synchronizations.forEach(TransactionSynchronization::afterCommit);
+
+    Assert.assertEquals(Arrays.asList("a"), search("ocean", "user1"));
+    Assert.assertEquals(Collections.emptyList(), search("ocean", "user2"));
+
+    //resources no longer found are removed
+    Mockito.when(dao.findById("a")).thenReturn(Optional.empty());
+    TransactionSynchronizationManager.initSynchronization();
+    try{
+      index.update(shared);
+      synchronizations = TransactionSynchronizationManager.getSynchronizations();
+    } finally{
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+    synchronizations.forEach(TransactionSynchronization::afterCommit);
+    Assert.assertEquals(Collections.emptyList(), search("ocean", "user1"));
+  }
+
+  @Test
+  public void testPagination(){
+    for(int i = 0; i < 25; i++){
+      index.update(createResource("res" + i, "Ocean", null, "user"));
+    }
+    Page<String> first = index.search("ocean", Arrays.asList("user"), false, PageRequest.of(0, 10));
+    Page<String> last = index.search("ocean", Arrays.asList("user"), false, PageRequest.of(2, 10));
+    Assert.assertEquals(25, first.getTotalElements());
+    Assert.assertEquals(10, first.getNumberOfElements());
+    //equal scores are ordered by recency
+    Assert.assertEquals("res24", first.getContent().get(0));
+    Assert.assertEquals(5, last.getNumberOfElements());
+    Assert.assertEquals("res0", last.getContent().get(4));
+  }
+
+  @Test
+  public void testCompaction(){
+    DataResource resource = createResource("a", "Ocean", null, "user");
+    index.update(createResource("b", "Glacier", null, "user"));
+    for(int i = 0; i < 2000; i++){
+      index.update(resource);
+    }
+    Assert.assertTrue((Integer) index.getStatus().get("deletedDocuments") <= 1025);
+    Assert.assertEquals(2, index.getStatus().get("documents"));
+    Assert.assertEquals(Arrays.asList("a"), search("ocean", "user"));
+    Assert.assertEquals(Arrays.asList("b"), search("glacier", "user"));
+  }
+
+  @Test(expected = BadArgumentException.class)
+  public void testTooManyPrefixExpansions(){
+    for(int i = 0; i < 1100; i++){
+      index.update(createResource("res" + i, "term" + i, null, "user"));
+    }
+    search("term*", "user");
+  }
+
+  @Test(expected = ResponseStatusException.class)
+  public void testSearchDisabled(){
+    props.setSearchIndexEnabled(false);
+    search("ocean", "user");
+  }
+
+  @Test(expected = ResponseStatusException.class)
+  public void testSearchBeforeIndexAvailable(){
+    search("ocean", "user");
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.service.impl.DurableFileWriter;
+import edu.kit.datamanager.repo.util.StreamUtils;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ *
+ * @author jejkal
+ */
+public class DurableFileWriterTest{
+
+  private Path folder;
+  private MeterRegistry registry;
+  private DurableFileWriter writer;
+
+  @Before
+  public void setUp() throws IOException{
+    folder = Files.createTempDirectory("durable");
+  }
+
+  @After
+  public void tearDown() throws IOException{
+    if(writer != null){
+      writer.destroy();
+    }
+    try(Stream<Path> files = Files.walk(folder)){
+      files.sorted((a, b) -> b.compareTo(a)).forEach((p) -> p.toFile().delete());
+    }
+  }
+
+  private DurableFileWriter createWriter(String durability){
+    ApplicationProperties props = new ApplicationProperties();
+    props.setDurability(durability);
+    props.setDurabilityGroupCommitMaxBatchSize(64);
+    props.setDurabilityGroupCommitMaxDelay(50);
+    registry = new SimpleMeterRegistry();
+    writer = new DurableFileWriter();
+    ReflectionTestUtils.setField(writer, "logger", LoggerFactory.getLogger(DurableFileWriter.class));
+    ReflectionTestUtils.setField(writer, "applicationProperties", props);
+    ReflectionTestUtils.setField(writer, "meterRegistry", registry);
+    writer.init();
+    return writer;
+  }
+
+  private List<Path> listFolder() throws IOException{
+    try(Stream<Path> files = Files.list(folder)){
+      return files.collect(Collectors.toList());
+    }
+  }
+
+  private void assertWriteAndReplace(String durability) throws IOException{
+    createWriter(durability);
+    Path destination = folder.resolve("file.txt_1");
+    StreamUtils.PrefixCapture prefix = new StreamUtils.PrefixCapture(4);
+    Assert.assertEquals(12, writer.write(new ByteArrayInputStream("initial data".getBytes(StandardCharsets.UTF_8)), destination, prefix));
+    Assert.assertEquals("init", new String(prefix.getPrefix(), StandardCharsets.UTF_8));
+    Assert.assertEquals(8, writer.write(new ByteArrayInputStream("new data".getBytes(StandardCharsets.UTF_8)), destination));
+    Assert.assertEquals("new data", new String(Files.readAllBytes(destination), StandardCharsets.UTF_8));
+    //no temporary files are left
+    Assert.assertEquals(1, listFolder().size());
+  }
+
+  @Test
+  public void testWriteWithoutSync() throws IOException{
+    assertWriteAndReplace("none");
+    Assert.assertEquals(DurableFileWriter.Durability.NONE, writer.getConfiguredDurability());
+    Assert.assertEquals(0, registry.get("repo.storage.sync").timer().count());
+  }
+
+  @Test
+  public void testWriteWithFsync() throws IOException{
+    assertWriteAndReplace("fsync");
+    Assert.assertEquals(DurableFileWriter.Durability.FSYNC, writer.getConfiguredDurability());
+    Assert.assertEquals(2, registry.get("repo.storage.sync").timer().count());
+  }
+
+  @Test
+  public void testWriteWithGroupCommit() throws IOException{
+    assertWriteAndReplace("group");
+    Assert.assertEquals(DurableFileWriter.Durability.GROUP, writer.getConfiguredDurability());
+    Assert.assertEquals(2.0, registry.get("repo.storage.sync.batchSize").summary().totalAmount(), 0.0);
+  }
+
+  @Test
+  public void testInvalidDurability() throws IOException{
+    assertWriteAndReplace("invalid");
+    Assert.assertEquals(DurableFileWriter.Durability.NONE, writer.getConfiguredDurability());
+  }
+
+  @Test
+  public void testConcurrentGroupCommit() throws Exception{
+    createWriter("group");
+    int files = 32;
+    ExecutorService executor = Executors.newFixedThreadPool(files);
+    try{
+      List<Future<Long>> results = new ArrayList<>();
+      for(int i = 0; i < files; i++){
+        Path destination = folder.resolve("file" + i + ".txt_1");
+        byte[] data = ("data of file " + i).getBytes(StandardCharsets.UTF_8);
+        results.add(executor.submit(() -> writer.write(new ByteArrayInputStream(data), destination)));
+      }
+      for(Future<Long> result : results){
+        Assert.assertTrue(result.get() > 0);
+      }
+    } finally{
+      executor.shutdownNow();
+    }
+    for(int i = 0; i < files; i++){
+      Assert.assertEquals("data of file " + i, new String(Files.readAllBytes(folder.resolve("file" + i + ".txt_1")), StandardCharsets.UTF_8));
+    }
+    Assert.assertEquals(files, listFolder().size());
+    DistributionSummary batches = registry.get("repo.storage.sync.batchSize").summary();
+    Assert.assertEquals(files, batches.totalAmount(), 0.0);
+    //concurrent writes are synced in batches
+    Assert.assertTrue(batches.count() < files);
+  }
+
+  @Test(timeout = 5000)
+  public void testGroupCommitAfterShutdown() throws IOException{
+    createWriter("group");
+    writer.destroy();
+    //writes after shutdown are committed by the writing thread instead of waiting for the committer
+    Path destination = folder.resolve("file.txt_1");
+    Assert.assertEquals(12, writer.write(new ByteArrayInputStream("initial data".getBytes(StandardCharsets.UTF_8)), destination));
+    Assert.assertEquals("initial data", new String(Files.readAllBytes(destination), StandardCharsets.UTF_8));
+    Assert.assertEquals(1, listFolder().size());
+  }
+
+  @Test
+  public void testFailedWriteKeepsDestination() throws IOException{
+    createWriter("fsync");
+    Path destination = folder.resolve("file.txt_1");
+    writer.write(new ByteArrayInputStream("initial data".getBytes(StandardCharsets.UTF_8)), destination);
+    InputStream failing = new InputStream(){
+      private int count = 0;
+
+      @Override
+      public int read() throws IOException{
+        if(count++ > 4){
+          throw new IOException("Connection reset.");
+        }
+        return 'x';
+      }
+    };
+    try{
+      writer.write(failing, destination);
+      Assert.fail("IOException expected.");
+    } catch(IOException ex){
+      //expected
+    }
+    Assert.assertEquals("initial data", new String(Files.readAllBytes(destination), StandardCharsets.UTF_8));
+    Assert.assertEquals(1, listFolder().size());
+  }
+
+  @Test
+  public void testMove() throws IOException{
+    createWriter("group");
+    Path staged = Files.createTempFile(folder, "staged", ".tmp");
+    Files.write(staged, "staged data".getBytes(StandardCharsets.UTF_8));
+    Path destination = folder.resolve("sub").resolve("file.txt_1");
+    Files.createDirectories(destination.getParent());
+    Assert.assertEquals(11, writer.move(staged, destination));
+    Assert.assertFalse(Files.exists(staged));
+    Assert.assertEquals("staged data", new String(Files.readAllBytes(destination), StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.service.impl.MediaTypeDetector;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.tika.detect.Detector;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ *
+ * @author jejkal
+ */
+public class MediaTypeDetectorTest{
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MediaTypeDetectorTest.class);
+
+  private static final List<byte[]> SAMPLES = Arrays.asList(
+          new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D},
+          new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0, 0, 0x10, 'J', 'F', 'I', 'F', 0},
+          "GIF89a\u0001\u0000".getBytes(StandardCharsets.ISO_8859_1),
+          "%PDF-1.4\n%".getBytes(StandardCharsets.ISO_8859_1),
+          new byte[]{0x1F, (byte) 0x8B, 0x08, 0, 0, 0, 0, 0},
+          new byte[]{(byte) 0x89, 'H', 'D', 'F', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0},
+          new byte[]{'P', 'K', 0x03, 0x04, 0x14, 0},
+          "plain text content".getBytes(StandardCharsets.UTF_8),
+          "{\"key\": \"value\"}".getBytes(StandardCharsets.UTF_8),
+          "a,b,c\n1,2,3\n".getBytes(StandardCharsets.UTF_8),
+          "<?xml version=\"1.0\"?><a/>".getBytes(StandardCharsets.UTF_8),
+          "#!/bin/sh\necho test".getBytes(StandardCharsets.UTF_8),
+          new byte[]{0, 1, 2, 3, 4, 5},
+          new byte[0]);
+  private static final List<String> NAMES = Arrays.asList("data", "folder/file.txt", "file.csv", "file.TSV", "file.json", "file.md", "file.yaml", "file.xml", "file.docx", "file.h5", "file.bin");
+
+  private MediaTypeDetector detector;
+
+  @Before
+  public void setUp(){
+    ApplicationProperties props = new ApplicationProperties();
+    detector = new MediaTypeDetector();
+    ReflectionTestUtils.setField(detector, "logger", LoggerFactory.getLogger(MediaTypeDetector.class));
+    ReflectionTestUtils.setField(detector, "applicationProperties", props);
+    detector.init();
+  }
+
+  private String detectWithTika(Detector tika, byte[] prefix, String filename) throws IOException{
+    Metadata metadata = new Metadata();
+    metadata.set(Metadata.RESOURCE_NAME_KEY, filename.substring(filename.lastIndexOf('/') + 1));
+    try(InputStream is = new ByteArrayInputStream(prefix)){
+      return tika.detect(is, metadata).toString();
+    }
+  }
+
+  @Test
+  public void testSameResultAsTika() throws IOException{
+    Detector tika = new AutoDetectParser().getDetector();
+    for(byte[] sample : SAMPLES){
+      for(String name : NAMES){
+        Assert.assertEquals("Sample " + Arrays.toString(Arrays.copyOf(sample, Math.min(sample.length, 4))) + ", name " + name,
+                detectWithTika(tika, sample, name), detector.detect(sample, name));
+      }
+    }
+  }
+
+  @Test
+  public void testFastPaths(){
+    Assert.assertEquals("image/png", detector.detectFast(SAMPLES.get(0), "file.txt"));
+    Assert.assertEquals("application/pdf", detector.detectFast(SAMPLES.get(3), null));
+    Assert.assertEquals("text/csv", detector.detectFast(SAMPLES.get(9), "folder/file.csv"));
+    Assert.assertEquals("application/json", detector.detectFast(SAMPLES.get(8), "file.JSON"));
+    //no fast path for containers, markup, scripts, binary content or unknown extensions
+    Assert.assertNull(detector.detectFast(SAMPLES.get(6), "file.docx"));
+    Assert.assertNull(detector.detectFast(SAMPLES.get(10), "file.json"));
+    Assert.assertNull(detector.detectFast(SAMPLES.get(11), "file.txt"));
+    Assert.assertNull(detector.detectFast(SAMPLES.get(12), "file.txt"));
+    Assert.assertNull(detector.detectFast(SAMPLES.get(7), "file"));
+    Assert.assertNull(detector.detectFast(SAMPLES.get(7), null));
+  }
+
+  @Test
+  public void testDetectUpload(){
+    ApplicationProperties props = (ApplicationProperties) ReflectionTestUtils.getField(detector, "applicationProperties");
+    Assert.assertEquals("text/plain", detector.detectUpload(SAMPLES.get(7), "file"));
+    props.setMediaTypeAsync(true);
+    Assert.assertNull(detector.detectUpload(SAMPLES.get(7), "file"));
+    Assert.assertEquals("text/csv", detector.detectUpload(SAMPLES.get(9), "file.csv"));
+  }
+
+  /**
+   * Compares the shared detector with creating a new parser for each upload.
+   * Results are logged only, as timings depend on the environment.
+   */
+  @Test
+  public void testBenchmark() throws IOException{
+    int iterations = 200;
+    String[] names = {"file.csv", "file.bin", "image.png", "file.json"};
+    byte[][] samples = {SAMPLES.get(9), SAMPLES.get(12), SAMPLES.get(0), SAMPLES.get(8)};
+
+    long start = System.nanoTime();
+    for(int i = 0; i < iterations; i++){
+      Detector perUpload = new AutoDetectParser().getDetector();
+      Assert.assertNotNull(detectWithTika(perUpload, samples[i % samples.length], names[i % names.length]));
+    }
+    long perUploadTime = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for(int i = 0; i < iterations; i++){
+      Assert.assertNotNull(detector.detect(samples[i % samples.length], names[i % names.length]));
+    }
+    long sharedTime = System.nanoTime() - start;
+
+    LOGGER.info("Media type detection of {} uploads: per-upload parser {} us/upload, shared detector {} us/upload.",
+            iterations, perUploadTime / iterations / 1000, sharedTime / iterations / 1000);
+  }
+}
@@ -18,10 +18,13 @@ package edu.kit.datamanager.repo.test;
 import edu.kit.datamanager.exceptions.CustomInternalServerError;
 import edu.kit.datamanager.repo.configuration.ApplicationProperties;
 import edu.kit.datamanager.repo.domain.DataResource;
+import edu.kit.datamanager.repo.util.IPlacementStrategy;
 import edu.kit.datamanager.repo.util.PathUtils;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.file.Paths;
 import java.util.Calendar;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -57,6 +60,48 @@ public class PathUtilsTest{
     Assert.assertTrue(PathUtils.getDataUri(resource, "folder/file.txt", props).toString().startsWith("file:/" + URLEncoder.encode("fôldęr", "UTF-8") + "/" + currentYear + "/test123/folder/file.txt_"));
   }
 
+  @Test
+  public void testGetDataUriWithHashPlacement() throws Exception{
+    DataResource resource = DataResource.factoryNewDataResource("test123");
+    ApplicationProperties props = new ApplicationProperties();
+    props.setBasepath(new URL("file:///tmp/"));
+    props.setPlacementStrategy(PathUtils.HASH_PLACEMENT);
+    String hash = DigestUtils.sha256Hex("test123");
+
+    //default layout with two levels of two characters
+    Assert.assertTrue(PathUtils.getDataUri(resource, "folder/file.txt", props).toString().startsWith("file:/tmp/" + hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/test123/folder/file.txt_"));
+    Assert.assertEquals(Paths.get("/tmp", hash.substring(0, 2), hash.substring(2, 4), "test123"), PathUtils.getResourcePath("test123", props));
+
+    props.setPlacementHashLevels(3);
+    props.setPlacementHashWidth(1);
+    Assert.assertTrue(PathUtils.getDataUri(resource, "file.txt", props).toString().startsWith("file:/tmp/" + hash.charAt(0) + "/" + hash.charAt(1) + "/" + hash.charAt(2) + "/test123/file.txt_"));
+  }
+
+  @Test
+  public void testCustomPlacementStrategy() throws Exception{
+    DataResource resource = DataResource.factoryNewDataResource("test123");
+    ApplicationProperties props = new ApplicationProperties();
+    props.setBasepath(new URL("file:///tmp/"));
+    props.setPlacementStrategy(FlatPlacementStrategy.class.getName());
+    Assert.assertTrue(PathUtils.getDataUri(resource, "file.txt", props).toString().startsWith("file:/tmp/test123/file.txt_"));
+  }
+
+  @Test(expected = CustomInternalServerError.class)
+  public void testInvalidPlacementStrategy() throws Exception{
+    DataResource resource = DataResource.factoryNewDataResource("test123");
+    ApplicationProperties props = new ApplicationProperties();
+    props.setBasepath(new URL("file:///tmp/"));
+    props.setPlacementStrategy("edu.kit.datamanager.repo.util.UnknownPlacementStrategy");
+    Assert.fail("Creating the following path should not work: " + PathUtils.getDataUri(resource, "file.txt", props));
+  }
+
+  @Test
+  public void testGetParentPath(){
+    Assert.assertEquals("", PathUtils.getParentPath("file.txt"));
+    Assert.assertEquals("folder/", PathUtils.getParentPath("folder/file.txt"));
+    Assert.assertEquals("folder/sub/", PathUtils.getParentPath("folder/sub/file.txt"));
+  }
+
   @Test(expected = CustomInternalServerError.class)
   public void testInvalidBasePath() throws Exception{
     DataResource resource = DataResource.factoryNewDataResource("test123");
@@ -74,4 +119,11 @@ public class PathUtilsTest{
     Assert.fail("Creating the following path should not work: " + PathUtils.getDataUri(resource, "folder/file.txt", props));
   }
 
+  public static class FlatPlacementStrategy implements IPlacementStrategy{
+
+    @Override
+    public String getFolder(String internalIdentifier, ApplicationProperties properties){
+      return "";
+    }
+  }
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.repo.util.StreamUtils;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class StreamUtilsTest{
+
+  @Test
+  public void testWriteToFile() throws Exception{
+    byte[] data = new byte[StreamUtils.TRANSFER_BUFFER_SIZE * 2 + 17];
+    new Random(42).nextBytes(data);
+    Path destination = Files.createTempFile("stream", ".bin");
+    try{
+      MessageDigest md = MessageDigest.getInstance("SHA1");
+      StreamUtils.PrefixCapture prefix = new StreamUtils.PrefixCapture(StreamUtils.SNIFF_BUFFER_SIZE);
+      long bytes = StreamUtils.writeToFile(new ByteArrayInputStream(data), destination, md::update, prefix);
+
+      Assert.assertEquals(data.length, bytes);
+      Assert.assertArrayEquals(data, Files.readAllBytes(destination));
+      Assert.assertArrayEquals(MessageDigest.getInstance("SHA1").digest(data), md.digest());
+      Assert.assertArrayEquals(Arrays.copyOf(data, StreamUtils.SNIFF_BUFFER_SIZE), prefix.getPrefix());
+    } finally{
+      Files.deleteIfExists(destination);
+    }
+  }
+
+  @Test
+  public void testWriteShortStream() throws Exception{
+    byte[] data = "Test file".getBytes();
+    Path destination = Files.createTempFile("stream", ".txt");
+    try{
+      //existing content must be truncated
+      Files.write(destination, new byte[1024]);
+      StreamUtils.PrefixCapture prefix = new StreamUtils.PrefixCapture(StreamUtils.SNIFF_BUFFER_SIZE);
+      Assert.assertEquals(data.length, StreamUtils.writeToFile(new ByteArrayInputStream(data), destination, prefix));
+      Assert.assertArrayEquals(data, Files.readAllBytes(destination));
+      Assert.assertArrayEquals(data, prefix.getPrefix());
+    } finally{
+      Files.deleteIfExists(destination);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2020 Karlsruhe Institute of Technology.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.kit.datamanager.repo.test;
+
+import edu.kit.datamanager.repo.util.TarArchiveOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.commons.lang3.StringUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ * @author jejkal
+ */
+public class TarArchiveOutputStreamTest{
+
+  @Test
+  public void testWriteArchive() throws Exception{
+    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+    String longName = "folder/" + StringUtils.repeat("x", 150) + ".txt";
+    try(TarArchiveOutputStream tar = new TarArchiveOutputStream(bout)){
+      tar.putNextEntry("a.txt", 5, 0);
+      tar.write("Hello".getBytes());
+      tar.closeEntry();
+      tar.putNextEntry(longName, 3, 0);
+      tar.write("abc".getBytes());
+      tar.closeEntry();
+    }
+    byte[] archive = bout.toByteArray();
+    //header + data, pax header + pax data, header + data, two end blocks
+    Assert.assertEquals(8 * 512, archive.length);
+
+    Assert.assertEquals("a.txt", readString(archive, 0, 100));
+    Assert.assertEquals("00000000005", readString(archive, 124, 12));
+    Assert.assertEquals("ustar", readString(archive, 257, 6));
+    Assert.assertEquals('0', archive[156]);
+    Assert.assertTrue(isChecksumValid(archive, 0));
+    Assert.assertEquals("Hello", new String(archive, 512, 5, StandardCharsets.US_ASCII));
+
+    Assert.assertEquals('x', archive[2 * 512 + 156]);
+    Assert.assertTrue(isChecksumValid(archive, 2 * 512));
+    String pax = readString(archive, 3 * 512, 512);
+    Assert.assertEquals(pax.length() + " path=" + longName + "\n", pax);
+
+    Assert.assertTrue(isChecksumValid(archive, 4 * 512));
+    Assert.assertEquals("abc", new String(archive, 5 * 512, 3, StandardCharsets.US_ASCII));
+    Assert.assertArrayEquals(new byte[1024], Arrays.copyOfRange(archive, 6 * 512, 8 * 512));
+  }
+
+  @Test(expected = IOException.class)
+  public void testEntryTooShort() throws Exception{
+    try(TarArchiveOutputStream tar = new TarArchiveOutputStream(new ByteArrayOutputStream())){
+      tar.putNextEntry("a.txt", 5, 0);
+      tar.write("Hell".getBytes());
+      tar.closeEntry();
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testEntryTooLong() throws Exception{
+    try(TarArchiveOutputStream tar = new TarArchiveOutputStream(new ByteArrayOutputStream())){
+      tar.putNextEntry("a.txt", 5, 0);
+      tar.write("Hello World".getBytes());
+    }
+  }
+
+  private String readString(byte[] data, int offset, int length){
+    int end = offset;
+    while(end < offset + length && data[end] != 0){
+      end++;
+    }
+    return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+  }
+
+  private boolean isChecksumValid(byte[] data, int offset){
+    long sum = 0;
+    for(int i = 0; i < 512; i++){
+      sum += (i >= 148 && i < 156) ? ' ' : (data[offset + i] & 0xff);
+    }
+    return Long.parseLong(readString(data, offset + 148, 7).trim(), 8) == sum;
+  }
+}
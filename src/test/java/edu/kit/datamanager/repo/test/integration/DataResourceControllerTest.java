@@ -23,9 +23,13 @@ import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import edu.kit.datamanager.entities.Identifier;
 import edu.kit.datamanager.entities.PERMISSION;
 import edu.kit.datamanager.entities.RepoUserRole;
+import edu.kit.datamanager.exceptions.ResourceNotFoundException;
 import edu.kit.datamanager.repo.configuration.ApplicationProperties;
+import edu.kit.datamanager.repo.dao.IContentBlobDao;
+import edu.kit.datamanager.repo.dao.IContentIndexEntryDao;
 import edu.kit.datamanager.repo.dao.IContentInformationDao;
 import edu.kit.datamanager.repo.dao.IDataResourceDao;
+import edu.kit.datamanager.repo.dao.IFileVersionDao;
 import edu.kit.datamanager.repo.domain.Agent;
 import edu.kit.datamanager.repo.domain.Box;
 import edu.kit.datamanager.repo.domain.ContentInformation;
@@ -33,6 +37,7 @@ import edu.kit.datamanager.repo.domain.Contributor;
 import edu.kit.datamanager.repo.domain.DataResource;
 import edu.kit.datamanager.repo.domain.Date;
 import edu.kit.datamanager.repo.domain.Description;
+import edu.kit.datamanager.repo.domain.FileVersion;
 import edu.kit.datamanager.repo.domain.FunderIdentifier;
 import edu.kit.datamanager.repo.domain.FundingReference;
 import edu.kit.datamanager.repo.domain.GeoLocation;
@@ -45,18 +50,43 @@ import edu.kit.datamanager.repo.domain.Scheme;
 import edu.kit.datamanager.repo.domain.Subject;
 import edu.kit.datamanager.repo.domain.Title;
 import edu.kit.datamanager.repo.domain.acl.AclEntry;
+import edu.kit.datamanager.repo.service.IContentCache;
+import edu.kit.datamanager.repo.service.IDataResourceCache;
 import edu.kit.datamanager.repo.service.IDataResourceService;
+import edu.kit.datamanager.repo.service.impl.ContentScrubber;
+import edu.kit.datamanager.repo.service.impl.MediaTypeDetector;
+import edu.kit.datamanager.repo.service.impl.OrphanFileCollector;
+import edu.kit.datamanager.repo.service.impl.StorageMaintenanceLock;
+import edu.kit.datamanager.repo.service.impl.PlacementMigrationService;
+import edu.kit.datamanager.repo.service.impl.SimpleDataVersioningService;
+import edu.kit.datamanager.repo.service.impl.ContentMetadataIndex;
+import edu.kit.datamanager.repo.service.impl.ContentParentPathMigration;
+import edu.kit.datamanager.repo.service.impl.DataResourceAclIndex;
+import edu.kit.datamanager.repo.service.impl.DataResourceSearchIndex;
+import edu.kit.datamanager.repo.service.impl.StorageTieringService;
+import edu.kit.datamanager.repo.util.PathUtils;
 import edu.kit.datamanager.service.IAuditService;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Stream;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.hamcrest.Matchers;
 import static org.hamcrest.Matchers.equalTo;
 import org.junit.Assert;
@@ -67,6 +97,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
@@ -119,10 +150,44 @@ public class DataResourceControllerTest{
   @Autowired
   private IContentInformationDao contentInformationDao;
   @Autowired
+  private IContentBlobDao contentBlobDao;
+  @Autowired
+  private IContentIndexEntryDao contentIndexEntryDao;
+  @Autowired
   private IAuditService<ContentInformation> contentInformationAuditService;
 
   @Autowired
   private ApplicationProperties applicationProperties;
+  @Autowired
+  private IDataResourceCache dataResourceCache;
+  @Autowired
+  private MeterRegistry meterRegistry;
+  @Autowired
+  private PlacementMigrationService placementMigrationService;
+  @Autowired
+  private IContentCache contentCache;
+  @Autowired
+  private ContentScrubber contentScrubber;
+  @Autowired
+  private OrphanFileCollector orphanFileCollector;
+  @Autowired
+  private StorageMaintenanceLock storageMaintenanceLock;
+  @Autowired
+  private StorageTieringService storageTieringService;
+  @Autowired
+  private DataResourceSearchIndex searchIndex;
+  @Autowired
+  private DataResourceAclIndex aclIndex;
+  @Autowired
+  private ContentParentPathMigration contentParentPathMigration;
+  @Autowired
+  private ContentMetadataIndex contentMetadataIndex;
+  @Autowired
+  private MediaTypeDetector mediaTypeDetector;
+  @Autowired
+  private SimpleDataVersioningService simpleDataVersioningService;
+  @Autowired
+  private IFileVersionDao fileVersionDao;
 
   private String adminToken;
   private String userToken;
@@ -249,6 +314,58 @@ public class DataResourceControllerTest{
             "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(4))).andReturn();
   }
 
+  @Test
+  public void testGetDataResourcesWithAclIndex() throws Exception{
+    try{
+      applicationProperties.setAclIndexEnabled(true);
+      aclIndex.start();
+      aclIndex.await(30000);
+      Assert.assertTrue(aclIndex.isReady());
+      Assert.assertThat(aclIndex.findAccessible(Arrays.asList("user"), PERMISSION.READ, 100), Matchers.containsInAnyOrder(sampleResource.getId(), otherResource.getId(), revokedResource.getId(), fixedResource.getId()));
+      Assert.assertThat(aclIndex.findAccessible(Arrays.asList("user"), PERMISSION.WRITE, 100), Matchers.containsInAnyOrder(sampleResource.getId(), revokedResource.getId(), fixedResource.getId()));
+      Assert.assertNull(aclIndex.findAccessible(Arrays.asList("user"), PERMISSION.READ, 1));
+
+      //revoked resources are still filtered by state
+      this.mockMvc.perform(get("/api/v1/dataresources/").param("page", "0").param("size", "10").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$[*].id", Matchers.containsInAnyOrder(sampleResource.getId(), fixedResource.getId())));
+      this.mockMvc.perform(get("/api/v1/dataresources/").param("page", "0").param("size", "10").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + guestToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$").isEmpty());
+
+      //new resources are indexed after commit
+      DataResource resource = new DataResource();
+      resource.getTitles().add(Title.factoryTitle("Indexed resource", Title.TYPE.OTHER));
+      resource.setResourceType(ResourceType.createResourceType("autogenerated"));
+      String id = createObjectMapper().readValue(this.mockMvc.perform(post("/api/v1/dataresources/").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + otherUserToken).contentType("application/json").content(createObjectMapper().writeValueAsString(resource))).andExpect(status().isCreated()).
+              andReturn().getResponse().getContentAsString(), DataResource.class).getId();
+      this.mockMvc.perform(get("/api/v1/dataresources/").param("page", "0").param("size", "10").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + otherUserToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$[*].id", Matchers.hasItem(id)));
+      this.mockMvc.perform(get("/api/v1/dataresources/").param("page", "0").param("size", "10").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$[*].id", Matchers.not(Matchers.hasItem(id))));
+
+      //content of resources readable by the caller
+      MockMultipartFile fstmp = new MockMultipartFile("file", "index.txt", "multipart/form-data", "data".getBytes(StandardCharsets.UTF_8));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + id + "/data/index.txt").file(fstmp).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + otherUserToken)).andExpect(status().isCreated());
+      ContentInformation example = new ContentInformation();
+      example.setRelativePath("index.txt");
+      this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(createObjectMapper().writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + otherUserToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1)));
+      this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(createObjectMapper().writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
+      example.setParentResource(DataResource.factoryNewDataResource(id));
+      this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(createObjectMapper().writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + otherUserToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1)));
+      this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(createObjectMapper().writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
+    } finally{
+      applicationProperties.setAclIndexEnabled(false);
+    }
+  }
+
   @Test
   public void testGetDataResourcesWithInvalidPageSize() throws Exception{
     this.mockMvc.perform(get("/api/v1/dataresources/").param("page", "0").param("size", "1000").header(HttpHeaders.AUTHORIZATION,
@@ -489,6 +606,95 @@ public class DataResourceControllerTest{
             "Bearer " + userToken).contentType("application/json").content(mapper.writeValueAsString(resource))).andExpect(status().isBadRequest());
   }
 
+  @Test
+  public void testBulkCreateResources() throws Exception{
+    List<DataResource> resources = new ArrayList<>();
+    for(int i = 0; i < 3; i++){
+      DataResource resource = new DataResource();
+      resource.getTitles().add(Title.factoryTitle("Bulk Resource " + i, Title.TYPE.OTHER));
+      resource.setResourceType(ResourceType.createResourceType("autogenerated", ResourceType.TYPE_GENERAL.DATASET));
+      resources.add(resource);
+    }
+    resources.get(1).getAlternateIdentifiers().add(Identifier.factoryInternalIdentifier("bulk123"));
+    ObjectMapper mapper = createObjectMapper();
+    long before = dataResourceDao.count();
+
+    this.mockMvc.perform(post("/api/v1/dataresources/bulk").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).contentType("application/json").content(mapper.writeValueAsString(resources))).andDo(print()).andExpect(status().isCreated()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(3))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[1].id").value("bulk123")).
+            andExpect(MockMvcResultMatchers.jsonPath("$[2].titles[0].value").value("Bulk Resource 2"));
+    Assert.assertEquals(before + 3, dataResourceDao.count());
+
+    this.mockMvc.perform(get("/api/v1/dataresources/bulk123").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andExpect(status().isOk()).andExpect(header().string("Resource-Version", "1")).
+            andExpect(MockMvcResultMatchers.jsonPath("$.titles[0].value").value("Bulk Resource 1"));
+
+    //conflict with existing resource, nothing is created
+    DataResource conflicting = new DataResource();
+    conflicting.getTitles().add(Title.factoryTitle("Conflicting Resource", Title.TYPE.OTHER));
+    conflicting.setResourceType(ResourceType.createResourceType("autogenerated"));
+    conflicting.getAlternateIdentifiers().add(Identifier.factoryInternalIdentifier("bulk123"));
+    DataResource valid = new DataResource();
+    valid.getTitles().add(Title.factoryTitle("Valid Resource", Title.TYPE.OTHER));
+    valid.setResourceType(ResourceType.createResourceType("autogenerated"));
+    this.mockMvc.perform(post("/api/v1/dataresources/bulk").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).contentType("application/json").content(mapper.writeValueAsString(Arrays.asList(valid, conflicting)))).andExpect(status().isConflict());
+    Assert.assertEquals(before + 3, dataResourceDao.count());
+
+    //conflict within request
+    conflicting.getAlternateIdentifiers().clear();
+    conflicting.getAlternateIdentifiers().add(Identifier.factoryInternalIdentifier("bulk456"));
+    this.mockMvc.perform(post("/api/v1/dataresources/bulk").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).contentType("application/json").content(mapper.writeValueAsString(Arrays.asList(conflicting, conflicting)))).andExpect(status().isConflict());
+    Assert.assertEquals(before + 3, dataResourceDao.count());
+
+    //missing resource type
+    valid.setResourceType(null);
+    this.mockMvc.perform(post("/api/v1/dataresources/bulk").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).contentType("application/json").content(mapper.writeValueAsString(Arrays.asList(valid)))).andExpect(status().isBadRequest());
+
+    this.mockMvc.perform(post("/api/v1/dataresources/bulk").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).contentType("application/json").content("[]")).andExpect(status().isBadRequest());
+  }
+
+  @Test
+  public void testFindResourcesWithCursor() throws Exception{
+    List<DataResource> resources = new ArrayList<>();
+    for(int i = 0; i < 5; i++){
+      DataResource resource = new DataResource();
+      resource.getTitles().add(Title.factoryTitle("Cursor Resource " + i, Title.TYPE.OTHER));
+      resource.setResourceType(ResourceType.createResourceType("autogenerated"));
+      resources.add(resource);
+    }
+    ObjectMapper mapper = createObjectMapper();
+    MvcResult created = this.mockMvc.perform(post("/api/v1/dataresources/bulk").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).contentType("application/json").content(mapper.writeValueAsString(resources))).andExpect(status().isCreated()).andReturn();
+
+    Set<String> ids = new HashSet<>();
+    String next = "/api/v1/dataresources/?cursor=&size=2";
+    int pages = 0;
+    while(next != null){
+      MvcResult result = this.mockMvc.perform(get(next).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(header().doesNotExist("Content-Range")).andReturn();
+      DataResource[] page = mapper.readValue(result.getResponse().getContentAsString(), DataResource[].class);
+      Assert.assertTrue(page.length <= 2);
+      for(DataResource resource : page){
+        Assert.assertTrue(ids.add(resource.getId()));
+      }
+      String link = result.getResponse().getHeader(HttpHeaders.LINK);
+      next = (link == null) ? null : link.substring(link.indexOf("<") + 1, link.indexOf(">")).replace("http://localhost", "");
+      pages++;
+    }
+    for(DataResource resource : mapper.readValue(created.getResponse().getContentAsString(), DataResource[].class)){
+      Assert.assertTrue(ids.contains(resource.getId()));
+    }
+    Assert.assertEquals((ids.size() + 1) / 2, pages);
+
+    this.mockMvc.perform(get("/api/v1/dataresources/?cursor=invalid&size=2").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andExpect(status().isBadRequest());
+  }
+
   @Test
   public void testCreateResourceWithOtherAlternateIdentifier() throws Exception{
     DataResource resource = new DataResource();
@@ -834,6 +1040,33 @@ public class DataResourceControllerTest{
 
   }
 
+  @Test
+  public void testGetAndPatchWithResourceCache() throws Exception{
+    String uncachedEtag = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId()).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+    double hitsBefore = meterRegistry.get("repo.cache.dataresource.requests").tag("result", "hit").counter().count();
+    applicationProperties.setDataResourceCacheEnabled(true);
+    try{
+      //first request populates the cache, second one is served from cache
+      for(int i = 0; i < 2; i++){
+        this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId()).header(HttpHeaders.AUTHORIZATION,
+                "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk()).andExpect(header().string("ETag", uncachedEtag));
+      }
+      Assert.assertEquals(hitsBefore + 1, meterRegistry.get("repo.cache.dataresource.requests").tag("result", "hit").counter().count(), 0.1);
+
+      String patch = "[{\"op\": \"replace\",\"path\": \"/publicationYear\",\"value\": \"2017\"}]";
+      this.mockMvc.perform(patch("/api/v1/dataresources/" + sampleResource.getId()).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + adminToken).header("If-Match", uncachedEtag).contentType("application/json-patch+json").content(patch)).andDo(print()).andExpect(status().isNoContent());
+
+      //patch must invalidate the cached resource
+      this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId()).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.publicationYear").value("2017"));
+    } finally{
+      applicationProperties.setDataResourceCacheEnabled(false);
+      dataResourceCache.clear();
+    }
+  }
+
   @Test
   public void testPatchAlternateIdentifier() throws Exception{
     String etag = this.mockMvc.perform(get("/api/v1/dataresources/" + otherResource.getId()).header(HttpHeaders.AUTHORIZATION,
@@ -982,6 +1215,79 @@ public class DataResourceControllerTest{
             "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.relativePath").value("bibtex.txt"));
   }
 
+  @Test
+  public void testListContentWithCursor() throws Exception{
+    Path temp = Files.createTempFile("testListContentWithCursor", "test");
+    for(String path : Arrays.asList("b.txt", "a.txt", "folder/c.txt")){
+      MockMultipartFile fstmp = new MockMultipartFile("file", "cursor.txt", "multipart/form-data", Files.newInputStream(temp));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/" + path).file(fstmp).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andExpect(status().isCreated());
+    }
+
+    MvcResult result = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/?cursor=&size=2").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[0].relativePath").value("a.txt")).
+            andExpect(MockMvcResultMatchers.jsonPath("$[1].relativePath").value("b.txt")).andReturn();
+    String link = result.getResponse().getHeader(HttpHeaders.LINK);
+    Assert.assertNotNull(link);
+    Assert.assertTrue(link.endsWith("rel=\"next\""));
+
+    this.mockMvc.perform(get(link.substring(link.indexOf("<") + 1, link.indexOf(">")).replace("http://localhost", "")).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[0].relativePath").value("folder/c.txt")).
+            andExpect(header().doesNotExist(HttpHeaders.LINK));
+  }
+
+  @Test
+  public void testListContentByDepth() throws Exception{
+    Path temp = Files.createTempFile("testListContentByDepth", "test");
+    for(String path : Arrays.asList("tree/a.txt", "tree/sub/b.txt", "tree/sub/deeper/c.txt", "other/tree/d.txt", "tree_x/e.txt")){
+      MockMultipartFile fstmp = new MockMultipartFile("file", "depth.txt", "multipart/form-data", Files.newInputStream(temp));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/" + path).file(fstmp).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andExpect(status().isCreated());
+    }
+
+    //only elements below the collection are listed, not elements with the collection path somewhere in their path
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tree/").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(3))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[0].relativePath").value("tree/a.txt")).
+            andExpect(MockMvcResultMatchers.jsonPath("$[1].relativePath").value("tree/sub/b.txt")).
+            andExpect(MockMvcResultMatchers.jsonPath("$[2].relativePath").value("tree/sub/deeper/c.txt"));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tree/?depth=1").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[0].relativePath").value("tree/a.txt"));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tree/?depth=2&cursor=").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[1].relativePath").value("tree/sub/b.txt"));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/?depth=1").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
+    //wildcard characters in collection paths are matched literally
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tre_/").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tree/?depth=0").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isBadRequest());
+
+    //elements persisted without parent path are migrated
+    List<ContentInformation> elements = contentInformationDao.findAll();
+    elements.forEach((element) -> element.setParentPath(null));
+    contentInformationDao.saveAll(elements);
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tree/?depth=1").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
+    contentParentPathMigration.migrate();
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tree/sub/?depth=1").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[0].relativePath").value("tree/sub/b.txt"));
+  }
+
   @Test
   public void testUploadFileWithoutPermissions() throws Exception{
     Path temp = Files.createTempFile("testUploadFileWithoutPermissions", "test");
@@ -1031,6 +1337,565 @@ public class DataResourceControllerTest{
             "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
   }
 
+  @Test
+  public void testUploadWithCasVersioning() throws Exception{
+    ContentInformation cinfo = new ContentInformation();
+    cinfo.setVersioningService("cas");
+    ObjectMapper mapper = createObjectMapper();
+    MockMultipartFile secmp = new MockMultipartFile("metadata", "metadata.json", "application/json", mapper.writeValueAsBytes(cinfo));
+    byte[] content = "calibration data".getBytes(StandardCharsets.UTF_8);
+    String digest = "sha256:" + DigestUtils.sha256Hex(content);
+
+    for(String path : Arrays.asList("cas1.txt", "cas2.txt")){
+      MockMultipartFile fstmp = new MockMultipartFile("file", path, "multipart/form-data", content);
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/" + path).file(fstmp).file(secmp).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    }
+    //content is stored once and referenced twice
+    Assert.assertEquals(2, contentBlobDao.findById(digest).get().getReferenceCount());
+    MvcResult first = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas1.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+    String contentUri = mapper.readValue(first.getResponse().getContentAsString(), ContentInformation.class).getContentUri();
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas2.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.contentUri").value(contentUri));
+    Assert.assertTrue(Files.exists(Paths.get(URI.create(contentUri))));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas2.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andExpect(status().isOk()).andExpect(content().string("calibration data"));
+
+    //replacing content keeps the previous blob referenced by the first version
+    MockMultipartFile other = new MockMultipartFile("file", "cas2.txt", "multipart/form-data", "other data".getBytes(StandardCharsets.UTF_8));
+    this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas2.txt").file(other).file(secmp).param("force", Boolean.TRUE.toString()).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    Assert.assertEquals(2, contentBlobDao.findById(digest).get().getReferenceCount());
+    Assert.assertEquals(1, contentBlobDao.findById("sha256:" + DigestUtils.sha256Hex("other data")).get().getReferenceCount());
+
+    //deleting one content keeps the blob as long as an earlier version references it
+    String etag = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas1.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+    this.mockMvc.perform(delete("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas1.txt").header("If-Match", etag).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken)).andDo(print()).andExpect(status().isNoContent());
+    Assert.assertEquals(1, contentBlobDao.findById(digest).get().getReferenceCount());
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas2.txt").param("version", "1").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andExpect(status().isOk()).andExpect(content().string("calibration data"));
+
+    //deleting the content releases the blobs of all versions
+    etag = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas2.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+    this.mockMvc.perform(delete("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas2.txt").header("If-Match", etag).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken)).andDo(print()).andExpect(status().isNoContent());
+    Assert.assertFalse(contentBlobDao.findById(digest).isPresent());
+    Assert.assertFalse(contentBlobDao.findById("sha256:" + DigestUtils.sha256Hex("other data")).isPresent());
+    Assert.assertFalse(Files.exists(Paths.get(URI.create(contentUri))));
+  }
+
+  @Test
+  public void testReadEarlierVersionOfCasContent() throws Exception{
+    ContentInformation cinfo = new ContentInformation();
+    cinfo.setVersioningService("cas");
+    ObjectMapper mapper = createObjectMapper();
+    MockMultipartFile secmp = new MockMultipartFile("metadata", "metadata.json", "application/json", mapper.writeValueAsBytes(cinfo));
+
+    MockMultipartFile fstmp = new MockMultipartFile("file", "casversion.txt", "multipart/form-data", "first measurement".getBytes(StandardCharsets.UTF_8));
+    this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/casversion.txt").file(fstmp).file(secmp).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    MockMultipartFile update = new MockMultipartFile("file", "casversion.txt", "multipart/form-data", "second measurement".getBytes(StandardCharsets.UTF_8));
+    this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/casversion.txt").file(update).file(secmp).param("force", Boolean.TRUE.toString()).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+
+    //the content of the first version is still available after overwriting it
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/casversion.txt").param("version", "1").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(content().string("first measurement"));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/casversion.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(content().string("second measurement"));
+    Assert.assertEquals(1, contentBlobDao.findById("sha256:" + DigestUtils.sha256Hex("first measurement")).get().getReferenceCount());
+  }
+
+  @Test
+  public void testDeleteSharedCasContent() throws Exception{
+    ContentInformation cinfo = new ContentInformation();
+    cinfo.setVersioningService("cas");
+    ObjectMapper mapper = createObjectMapper();
+    MockMultipartFile secmp = new MockMultipartFile("metadata", "metadata.json", "application/json", mapper.writeValueAsBytes(cinfo));
+    byte[] content = "shared reference data".getBytes(StandardCharsets.UTF_8);
+    String digest = "sha256:" + DigestUtils.sha256Hex(content);
+
+    for(String path : Arrays.asList("cas1.txt", "cas2.txt")){
+      MockMultipartFile fstmp = new MockMultipartFile("file", path, "multipart/form-data", content);
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/" + path).file(fstmp).file(secmp).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    }
+    Assert.assertEquals(2, contentBlobDao.findById(digest).get().getReferenceCount());
+    MvcResult first = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas1.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+    String contentUri = mapper.readValue(first.getResponse().getContentAsString(), ContentInformation.class).getContentUri();
+    String etag = first.getResponse().getHeader("ETag");
+
+    //deleting one of two references must keep the shared blob
+    this.mockMvc.perform(delete("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas1.txt").header("If-Match", etag).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken)).andDo(print()).andExpect(status().isNoContent());
+    Assert.assertEquals(1, contentBlobDao.findById(digest).get().getReferenceCount());
+    Assert.assertTrue(Files.exists(Paths.get(URI.create(contentUri))));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cas2.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andExpect(status().isOk()).andExpect(content().string("shared reference data"));
+  }
+
+  @Test
+  public void testUpdateMetadataOfCasContent() throws Exception{
+    ContentInformation cinfo = new ContentInformation();
+    cinfo.setVersioningService("cas");
+    ObjectMapper mapper = createObjectMapper();
+    MockMultipartFile secmp = new MockMultipartFile("metadata", "metadata.json", "application/json", mapper.writeValueAsBytes(cinfo));
+    byte[] content = "shared calibration data".getBytes(StandardCharsets.UTF_8);
+    String digest = "sha256:" + DigestUtils.sha256Hex(content);
+
+    MockMultipartFile fstmp = new MockMultipartFile("file", "casmeta.txt", "multipart/form-data", content);
+    this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/casmeta.txt").file(fstmp).file(secmp).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    Assert.assertEquals(1, contentBlobDao.findById(digest).get().getReferenceCount());
+
+    //uploading identical content again keeps a single reference
+    this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/casmeta.txt").file(fstmp).file(secmp).param("force", Boolean.TRUE.toString()).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    Assert.assertEquals(1, contentBlobDao.findById(digest).get().getReferenceCount());
+
+    MvcResult stored = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/casmeta.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+    String contentUri = mapper.readValue(stored.getResponse().getContentAsString(), ContentInformation.class).getContentUri();
+
+    //re-posting metadata only must not release the referenced blob
+    ContentInformation update = new ContentInformation();
+    update.setContentUri(contentUri);
+    update.setTags(new HashSet<>(Arrays.asList("calibration")));
+    MockMultipartFile updmp = new MockMultipartFile("metadata", "metadata.json", "application/json", mapper.writeValueAsBytes(update));
+    this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/casmeta.txt").file(updmp).param("force", Boolean.TRUE.toString()).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken)).andDo(print()).andExpect(status().isCreated());
+    Assert.assertEquals(1, contentBlobDao.findById(digest).get().getReferenceCount());
+    Assert.assertTrue(Files.exists(Paths.get(URI.create(contentUri))));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/casmeta.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andExpect(status().isOk()).andExpect(content().string("shared calibration data"));
+  }
+
+  @Test
+  public void testUploadWithSimpleVersioning() throws Exception{
+    ContentInformation cinfo = new ContentInformation();
+    cinfo.setVersioningService("simple");
+    ObjectMapper mapper = createObjectMapper();
+    MockMultipartFile secmp = new MockMultipartFile("metadata", "metadata.json", "application/json", mapper.writeValueAsBytes(cinfo));
+    for(String data : Arrays.asList("first version", "second version", "second version")){
+      MockMultipartFile fstmp = new MockMultipartFile("file", "versioned.txt", "multipart/form-data", data.getBytes(StandardCharsets.UTF_8));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/versioned.txt").file(fstmp).file(secmp).param("force", Boolean.TRUE.toString()).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    }
+    //file version is assigned by the versioning service
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/versioned.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.fileVersion").value("3")).
+            andExpect(MockMvcResultMatchers.jsonPath("$.versioningService").value("simple"));
+
+    List<FileVersion> versions = fileVersionDao.findByResourceIdAndRelativePathOrderByVersionAsc(sampleResource.getId(), "versioned.txt");
+    Assert.assertEquals(3, versions.size());
+    for(int i = 0; i < versions.size(); i++){
+      Assert.assertEquals(i + 1, versions.get(i).getVersion());
+      Assert.assertTrue(Files.exists(Paths.get(URI.create(versions.get(i).getContentUri()))));
+    }
+    //unchanged content is shared with the previous version
+    Assert.assertNotEquals(versions.get(1).getContentUri(), versions.get(2).getContentUri());
+    Assert.assertTrue(Files.isSameFile(Paths.get(URI.create(versions.get(1).getContentUri())), Paths.get(URI.create(versions.get(2).getContentUri()))));
+    Assert.assertFalse(Files.isSameFile(Paths.get(URI.create(versions.get(0).getContentUri())), Paths.get(URI.create(versions.get(1).getContentUri()))));
+
+    //all versions remain readable
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    simpleDataVersioningService.read(sampleResource.getId(), null, "versioned.txt", "1", out, new HashMap<>());
+    Assert.assertEquals("first version", out.toString("UTF-8"));
+    out.reset();
+    simpleDataVersioningService.read(sampleResource.getId(), null, "versioned.txt", "3", out, new HashMap<>());
+    Assert.assertEquals("second version", out.toString("UTF-8"));
+    Assert.assertEquals("2", simpleDataVersioningService.info(sampleResource.getId(), "versioned.txt", null, new HashMap<>()).getParent());
+    Assert.assertEquals("1", simpleDataVersioningService.info(sampleResource.getId(), "versioned.txt", "2", new HashMap<>()).getParent());
+    Assert.assertEquals("user", simpleDataVersioningService.info(sampleResource.getId(), "versioned.txt", "1", new HashMap<>()).getUser());
+    try{
+      simpleDataVersioningService.read(sampleResource.getId(), null, "versioned.txt", "4", out, new HashMap<>());
+      Assert.fail("ResourceNotFoundException expected.");
+    } catch(ResourceNotFoundException ex){
+      //expected
+    }
+  }
+
+  @Test
+  public void testUploadFromStream() throws Exception{
+    byte[] content = "streamed data".getBytes(StandardCharsets.UTF_8);
+    this.mockMvc.perform(post("/api/v1/dataresources/" + sampleResource.getId() + "/data/stream/streamed.txt").content(content).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated()).andExpect(header().string(HttpHeaders.LOCATION, Matchers.containsString("/data/stream/streamed.txt")));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/stream/streamed.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.hash").value("sha1:" + DigestUtils.sha1Hex(content))).
+            andExpect(MockMvcResultMatchers.jsonPath("$.size").value(content.length));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/stream/streamed.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andExpect(status().isOk()).andExpect(content().string("streamed data"));
+    //existing content is only replaced if forced
+    this.mockMvc.perform(post("/api/v1/dataresources/" + sampleResource.getId() + "/data/stream/streamed.txt").content(content).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isConflict());
+    this.mockMvc.perform(post("/api/v1/dataresources/" + sampleResource.getId() + "/data/stream/streamed.txt").param("force", "true").content(content).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+  }
+
+  @Test
+  public void testMultipartUploadIsStaged() throws Exception{
+    byte[] content = "staged multipart data".getBytes(StandardCharsets.UTF_8);
+    MockMultipartFile fstmp = new MockMultipartFile("file", "staged.txt", "multipart/form-data", content);
+    this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/staged.txt").file(fstmp).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/staged.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.hash").value("sha1:" + DigestUtils.sha1Hex(content))).
+            andExpect(MockMvcResultMatchers.jsonPath("$.size").value(content.length));
+    //the staged file has been moved to its final location
+    Path staging = PathUtils.getStagingPath(applicationProperties).resolve("multipart");
+    if(Files.isDirectory(staging)){
+      try(Stream<Path> files = Files.list(staging)){
+        Assert.assertEquals(0, files.count());
+      }
+    }
+  }
+
+  @Test
+  public void testDownloadFromContentCache() throws Exception{
+    MockMultipartFile fstmp = new MockMultipartFile("file", "cached.txt", "multipart/form-data", "cached data".getBytes(StandardCharsets.UTF_8));
+    this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/cached.txt").file(fstmp).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    double hitsBefore = meterRegistry.get("repo.cache.content.requests").tag("result", "hit").counter().count();
+    applicationProperties.setContentCacheEnabled(true);
+    try{
+      for(int i = 0; i < 3; i++){
+        this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cached.txt").header(HttpHeaders.AUTHORIZATION,
+                "Bearer " + userToken)).andExpect(status().isOk()).andExpect(content().string("cached data"));
+      }
+      //range requests are served from cache as well
+      this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cached.txt").header(HttpHeaders.RANGE, "bytes=0-5").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andExpect(status().isPartialContent()).andExpect(content().string("cached"));
+      Assert.assertEquals(hitsBefore + 3, meterRegistry.get("repo.cache.content.requests").tag("result", "hit").counter().count(), 0.1);
+
+      //replaced content must not be served from cache
+      MockMultipartFile replacement = new MockMultipartFile("file", "cached.txt", "multipart/form-data", "replaced data".getBytes(StandardCharsets.UTF_8));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/cached.txt").file(replacement).param("force", "true").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+      this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/cached.txt").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andExpect(status().isOk()).andExpect(content().string("replaced data"));
+    } finally{
+      applicationProperties.setContentCacheEnabled(false);
+      contentCache.clear();
+    }
+  }
+
+  @Test
+  public void testContentScrubber() throws Exception{
+    ObjectMapper mapper = createObjectMapper();
+    Map<String, Path> files = new HashMap<>();
+    for(String path : Arrays.asList("intact.txt", "corrupted.txt", "missing.txt")){
+      MockMultipartFile fstmp = new MockMultipartFile("file", path, "multipart/form-data", ("content of " + path).getBytes(StandardCharsets.UTF_8));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/scrub/" + path).file(fstmp).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+      MvcResult result = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/scrub/" + path).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+      files.put(path, Paths.get(URI.create(mapper.readValue(result.getResponse().getContentAsString(), ContentInformation.class).getContentUri())));
+    }
+    Files.write(files.get("corrupted.txt"), "bit rot".getBytes(StandardCharsets.UTF_8));
+    Files.delete(files.get("missing.txt"));
+
+    //only administrators are allowed to start a scrub run
+    this.mockMvc.perform(post("/actuator/scrub").contentType(MediaType.APPLICATION_JSON).content("{}").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isForbidden());
+    this.mockMvc.perform(post("/actuator/scrub").contentType(MediaType.APPLICATION_JSON).content("{\"restart\":true}").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk());
+    contentScrubber.await(30000);
+    this.mockMvc.perform(get("/actuator/scrub")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.state").value("FINISHED")).
+            andExpect(MockMvcResultMatchers.jsonPath("$.verified").value(1)).
+            andExpect(MockMvcResultMatchers.jsonPath("$.failed").value(2)).
+            andExpect(MockMvcResultMatchers.jsonPath("$.issues[?(@.relativePath == 'scrub/corrupted.txt')].issue").value("MISMATCH")).
+            andExpect(MockMvcResultMatchers.jsonPath("$.issues[?(@.relativePath == 'scrub/missing.txt')].issue").value("MISSING"));
+
+    //resume after the first element from a checkpoint
+    List<ContentInformation> elements = contentInformationDao.findAll(Sort.by("id"));
+    Path checkpoint = PathUtils.getStagingPath(applicationProperties).resolve("scrub").resolve("scrub.checkpoint");
+    Files.createDirectories(checkpoint.getParent());
+    Files.write(checkpoint, Long.toString(elements.get(0).getId()).getBytes(StandardCharsets.UTF_8));
+    Assert.assertTrue(contentScrubber.start(false));
+    contentScrubber.await(30000);
+    Assert.assertEquals("FINISHED", contentScrubber.getStatus().get("state"));
+    Assert.assertEquals((long) elements.size() - 1, contentScrubber.getStatus().get("processed"));
+    Assert.assertFalse(Files.exists(checkpoint));
+  }
+
+  @Test
+  public void testOrphanFileCollector() throws Exception{
+    ObjectMapper mapper = createObjectMapper();
+    URL basePathUrl = applicationProperties.getBasepath();
+    String action = applicationProperties.getGcAction();
+    //use a separate base path, as the configured one is shared with other files
+    Path basePath = Files.createTempDirectory("gc");
+    try{
+      applicationProperties.setBasepath(basePath.toUri().toURL());
+      applicationProperties.setGcAction("quarantine");
+      MockMultipartFile fstmp = new MockMultipartFile("file", "referenced.txt", "multipart/form-data", "referenced data".getBytes(StandardCharsets.UTF_8));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/gc/referenced.txt").file(fstmp).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+      MvcResult result = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/gc/referenced.txt").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+      Path referenced = Paths.get(URI.create(mapper.readValue(result.getResponse().getContentAsString(), ContentInformation.class).getContentUri()));
+      Assert.assertTrue(referenced.startsWith(basePath));
+      FileTime old = FileTime.from(Instant.now().minus(Duration.ofDays(2)));
+      Files.setLastModifiedTime(referenced, old);
+      //orphan left behind e.g. by a failed removal, a recent file e.g. of an upload in progress and a file not laid out by the repository
+      Path orphan = referenced.resolveSibling("orphan.txt_1");
+      Files.write(orphan, "orphaned data".getBytes(StandardCharsets.UTF_8));
+      Files.setLastModifiedTime(orphan, old);
+      Path recent = referenced.resolveSibling("recent.txt_1");
+      Files.write(recent, "recent data".getBytes(StandardCharsets.UTF_8));
+      //a recent upload linked to the unchanged content of a previous version keeps the modification time of that version
+      Path linked = referenced.resolveSibling("linked.txt_" + System.currentTimeMillis());
+      Files.write(linked, "linked data".getBytes(StandardCharsets.UTF_8));
+      Files.setLastModifiedTime(linked, old);
+      Path foreign = referenced.resolveSibling("foreign.txt");
+      Files.write(foreign, "foreign data".getBytes(StandardCharsets.UTF_8));
+      Files.setLastModifiedTime(foreign, old);
+
+      //no collection run while content might be relocated
+      Assert.assertTrue(storageMaintenanceLock.tryAcquire("test"));
+      try{
+        Assert.assertFalse(orphanFileCollector.start());
+      } finally{
+        storageMaintenanceLock.release("test");
+      }
+
+      //only administrators are allowed to start a collection run
+      this.mockMvc.perform(post("/actuator/gc").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isForbidden());
+      this.mockMvc.perform(post("/actuator/gc").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk());
+      orphanFileCollector.await(30000);
+      this.mockMvc.perform(get("/actuator/gc")).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$.state").value("FINISHED")).
+              andExpect(MockMvcResultMatchers.jsonPath("$.action").value("QUARANTINE")).
+              andExpect(MockMvcResultMatchers.jsonPath("$.orphans").value(1));
+
+      Assert.assertTrue(Files.exists(referenced));
+      Assert.assertTrue(Files.exists(recent));
+      Assert.assertTrue(Files.exists(linked));
+      Assert.assertTrue(Files.exists(foreign));
+      Assert.assertFalse(Files.exists(orphan));
+      Assert.assertTrue(Files.exists(basePath.resolve(OrphanFileCollector.QUARANTINE_FOLDER).resolve(basePath.relativize(orphan))));
+      this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/gc/referenced.txt").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(content().string("referenced data"));
+    } finally{
+      applicationProperties.setBasepath(basePathUrl);
+      applicationProperties.setGcAction(action);
+    }
+  }
+
+  @Test
+  public void testStorageTiering() throws Exception{
+    ObjectMapper mapper = createObjectMapper();
+    URL basePathUrl = applicationProperties.getBasepath();
+    //use separate base paths, as the configured one is shared with other files
+    Path hotPath = Files.createTempDirectory("hot").toRealPath();
+    Path coldPath = Files.createTempDirectory("cold").toRealPath();
+    try{
+      applicationProperties.setBasepath(hotPath.toUri().toURL());
+      applicationProperties.setTieringPaths(new String[]{coldPath.toUri().toString()});
+      applicationProperties.setTieringColdAfter(3600000);
+      applicationProperties.setTieringPromoteAfter(2);
+      applicationProperties.setTieringDeleteDelay(0);
+      MockMultipartFile fstmp = new MockMultipartFile("file", "tiered.txt", "multipart/form-data", "tiered data".getBytes(StandardCharsets.UTF_8));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/tiering/tiered.txt").file(fstmp).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+      MvcResult result = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tiering/tiered.txt").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+      Path hotFile = Paths.get(URI.create(mapper.readValue(result.getResponse().getContentAsString(), ContentInformation.class).getContentUri()));
+      Assert.assertTrue(hotFile.startsWith(hotPath));
+      //never accessed since two days
+      Files.setLastModifiedTime(hotFile, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+      //only administrators are allowed to start a tiering run
+      this.mockMvc.perform(post("/actuator/tiering").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isForbidden());
+      this.mockMvc.perform(post("/actuator/tiering").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk());
+      storageTieringService.await(30000);
+      this.mockMvc.perform(get("/actuator/tiering")).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$.state").value("FINISHED")).
+              andExpect(MockMvcResultMatchers.jsonPath("$.demoted").value(1)).
+              andExpect(MockMvcResultMatchers.jsonPath("$.promoted").value(0));
+
+      result = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tiering/tiered.txt").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+      Path coldFile = Paths.get(URI.create(mapper.readValue(result.getResponse().getContentAsString(), ContentInformation.class).getContentUri()));
+      Assert.assertEquals(coldPath.resolve(hotPath.relativize(hotFile)), coldFile);
+      Assert.assertTrue(Files.exists(coldFile));
+      long timeout = System.currentTimeMillis() + 10000;
+      while(Files.exists(hotFile) && System.currentTimeMillis() < timeout){
+        Thread.sleep(50);
+      }
+      Assert.assertFalse(Files.exists(hotFile));
+
+      //frequently accessed content is moved back to the hot tier
+      for(int i = 0; i < 2; i++){
+        this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tiering/tiered.txt").header(HttpHeaders.AUTHORIZATION,
+                "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(content().string("tiered data"));
+      }
+      Assert.assertTrue(storageTieringService.start());
+      storageTieringService.await(30000);
+      this.mockMvc.perform(get("/actuator/tiering")).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$.state").value("FINISHED")).
+              andExpect(MockMvcResultMatchers.jsonPath("$.promoted").value(1));
+      result = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tiering/tiered.txt").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+      Assert.assertEquals(hotFile, Paths.get(URI.create(mapper.readValue(result.getResponse().getContentAsString(), ContentInformation.class).getContentUri())));
+      this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/tiering/tiered.txt").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(content().string("tiered data"));
+    } finally{
+      applicationProperties.setBasepath(basePathUrl);
+      applicationProperties.setTieringPaths(new String[0]);
+      applicationProperties.setTieringColdAfter(2592000000L);
+      applicationProperties.setTieringPromoteAfter(10);
+      applicationProperties.setTieringDeleteDelay(60000);
+    }
+  }
+
+  @Test
+  public void testFullTextSearch() throws Exception{
+    try{
+      applicationProperties.setSearchIndexEnabled(false);
+      this.mockMvc.perform(get("/api/v1/dataresources/search/fulltext").param("query", "title").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isServiceUnavailable());
+
+      applicationProperties.setSearchIndexEnabled(true);
+      //only administrators are allowed to rebuild the index
+      this.mockMvc.perform(post("/actuator/searchindex").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isForbidden());
+      this.mockMvc.perform(post("/actuator/searchindex").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk());
+      searchIndex.await(30000);
+      this.mockMvc.perform(get("/actuator/searchindex")).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$.state").value("READY")).
+              andExpect(MockMvcResultMatchers.jsonPath("$.documents").value((int) dataResourceDao.count()));
+
+      //revoked resources are only found by administrators
+      this.mockMvc.perform(get("/api/v1/dataresources/search/fulltext").param("query", "title").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2))).
+              andExpect(MockMvcResultMatchers.jsonPath("$[*].id", Matchers.containsInAnyOrder(sampleResource.getId(), fixedResource.getId()))).
+              andExpect(header().exists("Content-Range"));
+      this.mockMvc.perform(get("/api/v1/dataresources/search/fulltext").param("query", "title").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(4)));
+      this.mockMvc.perform(get("/api/v1/dataresources/search/fulltext").param("query", "subject:test* year:2018").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1)));
+      this.mockMvc.perform(get("/api/v1/dataresources/search/fulltext").param("query", "title year:2017").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
+      //'search' is still addressed as resource identifier
+      this.mockMvc.perform(get("/api/v1/dataresources/search").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isNotFound());
+
+      //new resources are indexed after commit
+      DataResource resource = new DataResource();
+      resource.getTitles().add(Title.factoryTitle("Ocean temperature measurements", Title.TYPE.OTHER));
+      resource.setResourceType(ResourceType.createResourceType("autogenerated"));
+      this.mockMvc.perform(post("/api/v1/dataresources/").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken).contentType("application/json").content(createObjectMapper().writeValueAsString(resource))).andExpect(status().isCreated());
+      this.mockMvc.perform(get("/api/v1/dataresources/search/fulltext").param("query", "oce*").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).
+              andExpect(MockMvcResultMatchers.jsonPath("$[0].titles[0].value").value("Ocean temperature measurements"));
+      this.mockMvc.perform(get("/api/v1/dataresources/search/fulltext").param("query", "oce*").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + otherUserToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
+
+      //changes not seen by the index, e.g. made by another instance, are checked by the database
+      sampleResource.getAcls().removeIf((entry) -> "user".equals(entry.getSid()));
+      dataResourceDao.save(sampleResource);
+      this.mockMvc.perform(get("/api/v1/dataresources/search/fulltext").param("query", "title").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).
+              andExpect(MockMvcResultMatchers.jsonPath("$[0].id").value(fixedResource.getId()));
+    } finally{
+      applicationProperties.setSearchIndexEnabled(false);
+    }
+  }
+
+  @Test
+  public void testAsyncMediaTypeDetection() throws Exception{
+    ObjectMapper mapper = createObjectMapper();
+    try{
+      applicationProperties.setMediaTypeAsync(true);
+      MockMultipartFile fast = new MockMultipartFile("file", "table.csv", "multipart/form-data", "a,b\n1,2\n".getBytes(StandardCharsets.UTF_8));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/table.csv").file(fast).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+      MockMultipartFile deferred = new MockMultipartFile("file", "notes", "multipart/form-data", "some notes".getBytes(StandardCharsets.UTF_8));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/notes").file(deferred).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated()).andExpect(MockMvcResultMatchers.jsonPath("$.mediaType").doesNotExist());
+    } finally{
+      applicationProperties.setMediaTypeAsync(false);
+    }
+
+    //fast path is applied during upload
+    MvcResult result = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/table.csv").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+    Assert.assertEquals("text/csv", mapper.readValue(result.getResponse().getContentAsString(), ContentInformation.class).getMediaType());
+
+    //all other media types are assigned after the upload
+    long timeout = System.currentTimeMillis() + 10000;
+    while(mediaTypeDetector.getPending() > 0 && System.currentTimeMillis() < timeout){
+      Thread.sleep(50);
+    }
+    result = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/notes").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+    Assert.assertEquals("text/plain", mapper.readValue(result.getResponse().getContentAsString(), ContentInformation.class).getMediaType());
+  }
+
+  @Test
+  public void testPlacementMigration() throws Exception{
+    ObjectMapper mapper = createObjectMapper();
+    MockMultipartFile fstmp = new MockMultipartFile("file", "placement.txt", "multipart/form-data", "placed data".getBytes(StandardCharsets.UTF_8));
+    this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/folder/placement.txt").file(fstmp).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    MvcResult before = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/folder/placement.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+    Path oldPath = Paths.get(URI.create(mapper.readValue(before.getResponse().getContentAsString(), ContentInformation.class).getContentUri()));
+    Assert.assertTrue(Files.exists(oldPath));
+
+    String placement = applicationProperties.getPlacementStrategy();
+    try{
+      applicationProperties.setPlacementStrategy(PathUtils.HASH_PLACEMENT);
+      //only administrators are allowed to start the migration
+      this.mockMvc.perform(post("/actuator/placement").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isForbidden());
+      this.mockMvc.perform(post("/actuator/placement").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + adminToken)).andDo(print()).andExpect(status().isOk());
+      placementMigrationService.await(30000);
+      this.mockMvc.perform(get("/actuator/placement")).andDo(print()).andExpect(status().isOk()).
+              andExpect(MockMvcResultMatchers.jsonPath("$.state").value("FINISHED")).
+              andExpect(MockMvcResultMatchers.jsonPath("$.failed").value(0));
+
+      //old path is <basepath>/<pattern>/<internalIdentifier>/folder/placement.txt_<timestamp>
+      String internalIdentifier = oldPath.getParent().getParent().getFileName().toString();
+      MvcResult after = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/folder/placement.txt").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn();
+      Path newPath = Paths.get(URI.create(mapper.readValue(after.getResponse().getContentAsString(), ContentInformation.class).getContentUri()));
+      Assert.assertTrue(newPath.startsWith(PathUtils.getResourcePath(internalIdentifier, applicationProperties)));
+      Assert.assertEquals(oldPath.getFileName(), newPath.getFileName());
+      Assert.assertTrue(Files.exists(newPath));
+      Assert.assertFalse(Files.exists(oldPath));
+      this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/folder/placement.txt").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andExpect(status().isOk()).andExpect(content().string("placed data"));
+    } finally{
+      applicationProperties.setPlacementStrategy(placement);
+    }
+  }
+
   @Test
   public void testUploadExistingWithForceAndMetadataUpdate() throws Exception{
     ContentInformation cinfo = new ContentInformation();
@@ -1231,6 +2096,74 @@ public class DataResourceControllerTest{
             "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
   }
 
+  @Test
+  public void testFindContentByIndexedMetadata() throws Exception{
+    ObjectMapper mapper = createObjectMapper();
+    String[][] elements = new String[][]{{"run1.dat", "alpha-1", "5", "raw"}, {"run2.dat", "alpha-2", "12.5", "raw"}, {"run3.dat", "beta-1", "20", "processed"}};
+    for(String[] element : elements){
+      ContentInformation cinfo = new ContentInformation();
+      cinfo.getMetadata().put("project", element[1]);
+      cinfo.getMetadata().put("sizeMb", element[2]);
+      cinfo.getTags().add(element[3]);
+      cinfo.getTags().add("measurement");
+      MockMultipartFile fstmp = new MockMultipartFile("file", element[0], "multipart/form-data", "data".getBytes(StandardCharsets.UTF_8));
+      MockMultipartFile secmp = new MockMultipartFile("metadata", "metadata.json", "application/json", mapper.writeValueAsBytes(cinfo));
+      this.mockMvc.perform(multipart("/api/v1/dataresources/" + sampleResource.getId() + "/data/index/" + element[0]).file(fstmp).file(secmp).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andExpect(status().isCreated());
+    }
+
+    ContentInformation example = new ContentInformation();
+    //exact value
+    example.getMetadata().put("project", "alpha-1");
+    this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[0].relativePath").value("index/run1.dat"));
+    //prefix
+    example.getMetadata().put("project", "alpha%");
+    this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2)));
+    //numeric range, intersected with the prefix
+    example.getMetadata().put("sizeMb", "[10,]");
+    this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[0].relativePath").value("index/run2.dat"));
+    example.getMetadata().clear();
+    example.getMetadata().put("sizeMb", "[1, 15]");
+    this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2)));
+    //tags are intersected
+    example.getMetadata().clear();
+    example.getTags().add("measurement");
+    this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(3)));
+    example.getTags().add("processed");
+    this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(1))).
+            andExpect(MockMvcResultMatchers.jsonPath("$[0].relativePath").value("index/run3.dat"));
+    //other users have no access
+    this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + guestToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
+
+    //index entries are removed with their content
+    String etag = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/index/run3.dat").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+    long entries = contentIndexEntryDao.count();
+    this.mockMvc.perform(delete("/api/v1/dataresources/" + sampleResource.getId() + "/data/index/run3.dat").header("If-Match", etag).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + adminToken)).andDo(print()).andExpect(status().isNoContent());
+    Assert.assertEquals(entries - 4, contentIndexEntryDao.count());
+
+    this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(0)));
+
+    //elements without index entries are indexed on startup
+    contentIndexEntryDao.deleteAll();
+    contentMetadataIndex.migrate();
+    example.getTags().clear();
+    example.getTags().add("raw");
+    this.mockMvc.perform(post("/api/v1/dataresources/search/data").contentType(MediaType.APPLICATION_JSON).content(mapper.writeValueAsString(example)).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$", Matchers.hasSize(2)));
+  }
+
   @Test
   public void testQueryForInvalidObject() throws Exception{
     this.mockMvc.perform(get("/api/v1/dataresources/0/data/").param("tag", "testing").header(HttpHeaders.AUTHORIZATION,
@@ -1358,6 +2291,61 @@ public class DataResourceControllerTest{
 
   }
 
+  @Test
+  public void testRangeAndConditionalDownload() throws Exception{
+    Path temp = Files.createTempFile("testRangeAndConditionalDownload", "txt");
+    Files.write(temp, "0123456789".getBytes());
+    ContentInformation cinfo = new ContentInformation();
+    cinfo.setParentResource(sampleResource);
+    cinfo.setVersioningService("none");
+    cinfo.setRelativePath("rangeFile.txt");
+    cinfo.setMediaType("text/plain");
+    cinfo.setHash("sha1:87acec17cd9dcd20a716cc2cf67417b71c8a7016");
+    cinfo.setContentUri(temp.toUri().toString());
+    contentInformationDao.save(cinfo);
+
+    String etag = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/rangeFile.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ACCEPT_RANGES, equalTo("bytes"))).
+            andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, equalTo("attachment;filename=rangeFile.txt"))).
+            andExpect(content().string("0123456789")).andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    Assert.assertEquals("\"sha1:87acec17cd9dcd20a716cc2cf67417b71c8a7016\"", etag);
+
+    //conditional requests
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/rangeFile.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.IF_NONE_MATCH, etag)).andDo(print()).andExpect(status().isNotModified());
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/rangeFile.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.IF_NONE_MATCH, "\"other\"")).andDo(print()).andExpect(status().isOk());
+
+    //single and suffix ranges
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/rangeFile.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.RANGE, "bytes=2-4")).andDo(print()).andExpect(status().isPartialContent()).
+            andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, equalTo("attachment;filename=rangeFile.txt"))).
+            andExpect(header().string(HttpHeaders.CONTENT_RANGE, equalTo("bytes 2-4/10"))).andExpect(content().string("234"));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/rangeFile.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.RANGE, "bytes=-3")).andDo(print()).andExpect(status().isPartialContent()).
+            andExpect(header().string(HttpHeaders.CONTENT_RANGE, equalTo("bytes 7-9/10"))).andExpect(content().string("789"));
+
+    //multiple ranges
+    String body = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/rangeFile.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.RANGE, "bytes=0-1,8-")).andDo(print()).andExpect(status().isPartialContent()).
+            andExpect(header().string(HttpHeaders.CONTENT_TYPE, Matchers.startsWith("multipart/byteranges; boundary="))).andReturn().getResponse().getContentAsString();
+    Assert.assertTrue(body.contains("Content-Range: bytes 0-1/10\r\n\r\n01\r\n"));
+    Assert.assertTrue(body.contains("Content-Range: bytes 8-9/10\r\n\r\n89\r\n"));
+
+    //unsatisfiable range
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/rangeFile.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.RANGE, "bytes=20-30")).andDo(print()).andExpect(status().isRequestedRangeNotSatisfiable()).
+            andExpect(header().string(HttpHeaders.CONTENT_RANGE, equalTo("bytes */10")));
+
+    //If-Range with matching and outdated entity tag
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/rangeFile.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.RANGE, "bytes=0-0").header(HttpHeaders.IF_RANGE, etag)).andDo(print()).andExpect(status().isPartialContent()).
+            andExpect(content().string("0"));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/rangeFile.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.RANGE, "bytes=0-0").header(HttpHeaders.IF_RANGE, "\"outdated\"")).andDo(print()).andExpect(status().isOk()).
+            andExpect(content().string("0123456789"));
+  }
+
   @Test
   public void testDownloadCollection() throws Exception{
     this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/").header(HttpHeaders.AUTHORIZATION,
@@ -1702,6 +2690,155 @@ public class DataResourceControllerTest{
             "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isNotFound());
   }
 
+  @Test
+  public void testArchiveCollectionDownload() throws Exception{
+    Path folder = Files.createTempDirectory("testArchiveCollectionDownload");
+    byte[] large = new byte[2 * 1024 * 1024 + 3];
+    new java.util.Random(42).nextBytes(large);
+    Files.write(folder.resolve("small.txt"), "small".getBytes());
+    Files.write(folder.resolve("large.bin"), large);
+    String[] names = new String[]{"small.txt", "large.bin"};
+    for(String name : names){
+      ContentInformation cinfo = new ContentInformation();
+      cinfo.setParentResource(sampleResource);
+      cinfo.setVersioningService("none");
+      cinfo.setRelativePath("archive/" + name);
+      cinfo.setContentUri(folder.resolve(name).toUri().toString());
+      contentInformationDao.save(cinfo);
+    }
+
+    byte[] zip = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/archive/").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header("Accept", "application/zip")).andDo(print()).andExpect(status().isOk()).andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/zip")).andReturn().getResponse().getContentAsByteArray();
+    Map<String, byte[]> entries = new HashMap<>();
+    try(java.util.zip.ZipInputStream zin = new java.util.zip.ZipInputStream(new java.io.ByteArrayInputStream(zip))){
+      java.util.zip.ZipEntry entry;
+      while((entry = zin.getNextEntry()) != null){
+        entries.put(entry.getName(), org.springframework.util.StreamUtils.copyToByteArray(zin));
+      }
+    }
+    Assert.assertEquals(2, entries.size());
+    Assert.assertArrayEquals("small".getBytes(), entries.get("archive/small.txt"));
+    Assert.assertArrayEquals(large, entries.get("archive/large.bin"));
+
+    byte[] tar = this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/archive/").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header("Accept", "application/x-tar")).andDo(print()).andExpect(status().isOk()).andExpect(header().string(HttpHeaders.CONTENT_TYPE, "application/x-tar")).andReturn().getResponse().getContentAsByteArray();
+    //two headers, padded data and two end blocks
+    Assert.assertEquals(512 + 512 + 512 + (large.length / 512 + 1) * 512 + 1024, tar.length);
+
+    //unsupported collection type
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/archive/").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header("Accept", "application/x-7z-compressed")).andDo(print()).andExpect(status().isUnsupportedMediaType());
+
+    //missing file results in HTTP 500
+    Files.delete(folder.resolve("small.txt"));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/archive/").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header("Accept", "application/zip")).andDo(print()).andExpect(status().isInternalServerError());
+  }
+
+  @Test
+  public void testResumableUpload() throws Exception{
+    String location = this.mockMvc.perform(post("/api/v1/dataresources/" + sampleResource.getId() + "/uploads").param("path", "chunked/file.txt").param("size", "10").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getHeader("Location");
+    String sessionId = location.substring(location.lastIndexOf("/") + 1);
+    String sessionPath = "/api/v1/dataresources/" + sampleResource.getId() + "/uploads/" + sessionId;
+
+    //upload second chunk first
+    this.mockMvc.perform(put(sessionPath).param("offset", "5").content("56789".getBytes()).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.bytesReceived").value(5));
+
+    //commit incomplete upload
+    this.mockMvc.perform(post(sessionPath + "/commit").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isUnprocessableEntity());
+
+    //chunk exceeding the expected size
+    this.mockMvc.perform(put(sessionPath).param("offset", "8").content("89AB".getBytes()).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isBadRequest());
+
+    //other user must not access the session
+    this.mockMvc.perform(get(sessionPath).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + otherUserToken)).andDo(print()).andExpect(status().isForbidden());
+
+    this.mockMvc.perform(put(sessionPath).param("offset", "0").content("01234".getBytes()).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.complete").value(true));
+
+    this.mockMvc.perform(get(sessionPath).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.receivedRanges[0].end").value(9));
+
+    this.mockMvc.perform(post(sessionPath + "/commit").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+
+    //session is gone after commit
+    this.mockMvc.perform(get(sessionPath).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isNotFound());
+
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/chunked/file.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.hash").value("sha1:87acec17cd9dcd20a716cc2cf67417b71c8a7016")).
+            andExpect(MockMvcResultMatchers.jsonPath("$.size").value(10));
+
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/chunked/file.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(content().string("0123456789"));
+
+    //delete an unused session
+    location = this.mockMvc.perform(post("/api/v1/dataresources/" + sampleResource.getId() + "/uploads").param("path", "chunked/other.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getHeader("Location");
+    this.mockMvc.perform(delete(location).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isNoContent());
+    this.mockMvc.perform(get(location).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isNotFound());
+  }
+
+  @Test
+  public void testResumableUploadRewritingHashedRange() throws Exception{
+    String location = this.mockMvc.perform(post("/api/v1/dataresources/" + sampleResource.getId() + "/uploads").param("path", "chunked/rewritten.txt").param("size", "10").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getHeader("Location");
+    String sessionPath = "/api/v1/dataresources/" + sampleResource.getId() + "/uploads/" + location.substring(location.lastIndexOf("/") + 1);
+
+    //first chunk is hashed while being written
+    this.mockMvc.perform(put(sessionPath).param("offset", "0").content("XXXXX".getBytes()).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.bytesReceived").value(5));
+    //retried chunk replaces the already hashed data
+    this.mockMvc.perform(put(sessionPath).param("offset", "0").content("01234".getBytes()).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.bytesReceived").value(5));
+    this.mockMvc.perform(put(sessionPath).param("offset", "5").content("56789".getBytes()).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.complete").value(true));
+    this.mockMvc.perform(post(sessionPath + "/commit").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+
+    //the checksum matches the stored data, not the replaced chunk
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/chunked/rewritten.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken).header(HttpHeaders.ACCEPT, "application/vnd.datamanager.content-information+json")).andDo(print()).andExpect(status().isOk()).
+            andExpect(MockMvcResultMatchers.jsonPath("$.hash").value("sha1:87acec17cd9dcd20a716cc2cf67417b71c8a7016")).
+            andExpect(MockMvcResultMatchers.jsonPath("$.size").value(10));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/chunked/rewritten.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(content().string("0123456789"));
+  }
+
+  @Test
+  public void testResumableUploadWithSimpleVersioning() throws Exception{
+    ContentInformation cinfo = new ContentInformation();
+    cinfo.setVersioningService("simple");
+    ObjectMapper mapper = createObjectMapper();
+    for(int i = 0; i < 2; i++){
+      String location = this.mockMvc.perform(post("/api/v1/dataresources/" + sampleResource.getId() + "/uploads").param("path", "chunked/versioned.txt").param("size", "10").param("force", Boolean.TRUE.toString()).
+              content(mapper.writeValueAsBytes(cinfo)).contentType(MediaType.APPLICATION_JSON).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated()).andReturn().getResponse().getHeader("Location");
+      String sessionPath = "/api/v1/dataresources/" + sampleResource.getId() + "/uploads/" + location.substring(location.lastIndexOf("/") + 1);
+      this.mockMvc.perform(put(sessionPath).param("offset", "0").content("0123456789".getBytes()).contentType(MediaType.APPLICATION_OCTET_STREAM).header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.complete").value(true));
+      this.mockMvc.perform(post(sessionPath + "/commit").header(HttpHeaders.AUTHORIZATION,
+              "Bearer " + userToken)).andDo(print()).andExpect(status().isCreated());
+    }
+
+    //staged data equal to the previous version is linked instead of being placed
+    List<FileVersion> versions = fileVersionDao.findByResourceIdAndRelativePathOrderByVersionAsc(sampleResource.getId(), "chunked/versioned.txt");
+    Assert.assertEquals(2, versions.size());
+    Assert.assertNotEquals(versions.get(0).getContentUri(), versions.get(1).getContentUri());
+    Assert.assertTrue(Files.isSameFile(Paths.get(URI.create(versions.get(0).getContentUri())), Paths.get(URI.create(versions.get(1).getContentUri()))));
+    this.mockMvc.perform(get("/api/v1/dataresources/" + sampleResource.getId() + "/data/chunked/versioned.txt").header(HttpHeaders.AUTHORIZATION,
+            "Bearer " + userToken)).andExpect(status().isOk()).andExpect(content().string("0123456789"));
+  }
+
 //  @Test
 //  public void testObtainHealthInformation() throws Exception{
 //    this.mockMvc.perform(get("/actuator/health")).andDo(print()).andExpect(status().isOk()).andExpect(MockMvcResultMatchers.jsonPath("$.status").value("UP"));